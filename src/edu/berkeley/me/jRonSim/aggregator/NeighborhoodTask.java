@@ -32,17 +32,36 @@ package edu.berkeley.me.jRonSim.aggregator;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import edu.berkeley.me.jRonSim.aggregator.environment.Envelope;
+import edu.berkeley.me.jRonSim.aggregator.environment.SolarRadiationTable;
+import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.gatewayComm.AmiUplink;
 import edu.berkeley.me.jRonSim.house.House;
+import edu.berkeley.me.jRonSim.house.simulation.FleetThermalSim;
+import edu.berkeley.me.jRonSim.util.BinaryLogWriter;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+import edu.berkeley.me.jRonSim.util.SimClock;
 
 /**
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class NeighborhoodTask extends TrjTask implements Envelope {
+public class NeighborhoodTask extends TrjTask implements Envelope,
+		ScheduledTask {
 
 	private ArrayList<House> houseList = null;
 	private double dtLog = Double.POSITIVE_INFINITY;
@@ -51,6 +70,38 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 	private double solRad = 0;
 	private double Pagg = 0;
 	private PrintWriter logFile = null;
+	private static final String LOG_FORMAT = "%6.2f\t %6.2f\t %6.2f\t %6.2f\t";
+	// binary log; not part of a checkpoint
+	private transient BinaryLogWriter binaryLog = null;
+	private double[] logRow = null;
+	// parallel execution
+	private int nThreads = 1;
+	private ExecutorService pool = null;
+	private ArrayList<HouseChunk> chunks = null;
+	private double[] Phouse = null;
+	private double[] houseWeight = null; // null for all 1
+	private FleetThermalSim fleet = null;
+	// per house window orientation
+	private double[] location = null;
+	private double[] azimuths = null; // distinct orientations
+	private int[] houseAzimuth = null; // index into azimuths, or -1
+	private SolarRadiationTable[] solarTables = null;
+	private double[] azimuthRad = null;
+	private int solarResolution;
+	private boolean solarInterpolate;
+	private SimClock clock = null;
+	// delayed delivery of messages
+	private double[] latency = null; // per house (s); null for none
+	private int[] latencyOrder = null; // houses by increasing latency
+	private ArrayList<Dispatch> dispatches = new ArrayList<Dispatch>();
+	private long nDelivered = 0;
+	private transient AmiUplink uplink = null;
+	private transient AmiUplink.Meter meter = null;
+	// broadcasts of the gateway, taken up by the next tick
+	private final transient ConcurrentLinkedQueue<Message> uplinkBroadcasts =
+			new ConcurrentLinkedQueue<Message>();
+	/** Number of chunks handed to each worker thread per tick. */
+	private static final int CHUNKS_PER_THREAD = 4;
 
 	/**
 	 * Construct the NeighborhoodTask composed of a list of houses.
@@ -91,6 +142,154 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 		return Pagg;
 	}
 
+	/**
+	 * Weight the power of each house in the aggregate power, for houses that
+	 * stand for several houses (see ArchetypeBuilder).
+	 * 
+	 * @param weights
+	 *            -- one per house in the house list; null for all 1
+	 */
+	public void setHouseWeights(double[] weights) {
+		if (weights != null && weights.length != houseList.size()) {
+			throw new IllegalArgumentException(weights.length
+					+ " weights for " + houseList.size() + " houses");
+		}
+		this.houseWeight = weights;
+	}
+
+	/**
+	 * Deliver a message to every house of the neighborhood. The houses get
+	 * the same instance. The messages go to the mailboxes of the thermostats,
+	 * so this can be called from another thread while the houses run.
+	 * 
+	 * @param msg
+	 */
+	public void broadcast(Message msg) {
+		for (House hs : houseList) {
+			hs.receiveMessage(msg);
+		}
+	}
+
+	/**
+	 * A message on its way to the houses. All of the houses get the same
+	 * instance; a dispatch only holds the message, the selection it was given
+	 * and the position of the next house to deliver to.
+	 */
+	private static class Dispatch {
+
+		final Message msg;
+		final double tSent;
+		final boolean[] selected; // null for all houses
+		int next = 0; // position in latencyOrder
+
+		Dispatch(Message msg, double tSent, boolean[] selected) {
+			this.msg = msg;
+			this.tSent = tSent;
+			this.selected = selected;
+		}
+	}
+
+	/**
+	 * Set the time it takes a dispatched message to reach each house. The
+	 * houses are sorted by their latency once, so a dispatch is delivered by
+	 * walking that order as the time of each house comes. Messages are
+	 * delivered at the start of a tick of the neighborhood, so the latency is
+	 * rounded up to the period of the task.
+	 * 
+	 * @param latency
+	 *            -- one per house in the house list (s); null for none
+	 */
+	public void setDeliveryLatency(final double[] latency) {
+		if (latency == null) {
+			this.latency = null;
+			this.latencyOrder = null;
+			return;
+		}
+		if (latency.length != houseList.size()) {
+			throw new IllegalArgumentException(latency.length
+					+ " latencies for " + houseList.size() + " houses");
+		}
+		Integer[] order = new Integer[latency.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(latency[a], latency[b]);
+			}
+		});
+		this.latency = latency.clone();
+		this.latencyOrder = new int[order.length];
+		for (int k = 0; k < order.length; k++) {
+			latencyOrder[k] = order[k];
+		}
+	}
+
+	/**
+	 * Send a message to all or some of the houses, each of which gets it
+	 * after its delivery latency. Must be called from the simulation thread
+	 * (a control task, for instance); houses without latency get it now.
+	 * 
+	 * @param msg
+	 *            -- shared by all of the houses, so it must not change
+	 * @param selected
+	 *            -- the houses to send to, by index in the house list; null
+	 *            for all of them
+	 */
+	public void dispatch(Message msg, boolean[] selected) {
+		if (selected != null && selected.length != houseList.size()) {
+			throw new IllegalArgumentException(selected.length
+					+ " selections for " + houseList.size() + " houses");
+		}
+		dispatches.add(new Dispatch(msg, sys.GetRunningTime(), selected));
+		deliver(sys.GetRunningTime());
+	}
+
+	/**
+	 * Deliver the messages that have reached their houses.
+	 * 
+	 * @param t
+	 */
+	private void deliver(double t) {
+		int n = houseList.size();
+		for (int k = 0; k < dispatches.size(); k++) {
+			Dispatch d = dispatches.get(k);
+			while (d.next < n) {
+				int i = (latencyOrder == null) ? d.next
+						: latencyOrder[d.next];
+				if (latency != null && d.tSent + latency[i] > t) {
+					break;
+				}
+				if (d.selected == null || d.selected[i]) {
+					houseList.get(i).receiveMessage(d.msg);
+					nDelivered++;
+				}
+				d.next++;
+			}
+			if (d.next == n) {
+				dispatches.remove(k--);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of dispatched messages that reached a house.
+	 * 
+	 * @return
+	 */
+	public long getDeliveredCount() {
+		return nDelivered;
+	}
+
+	/**
+	 * Get the number of dispatches still on their way to some houses.
+	 * 
+	 * @return
+	 */
+	public int getPendingDispatchCount() {
+		return dispatches.size();
+	}
+
 	/**
 	 * Get the outside temperature.
 	 * 
@@ -127,12 +326,226 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 		this.Tout = Tout;
 	}
 
+	/**
+	 * Set the number of worker threads used to run the houses. With one thread
+	 * (the default) the houses are run in order on the calling thread. With
+	 * more, the house list is split into contiguous chunks that are run
+	 * concurrently on a fixed pool each tick, and the aggregate power is summed
+	 * in list order afterwards so it matches the serial result exactly. The
+	 * houses must not share mutable state (in particular a random number
+	 * generator) for the parallel trace to be reproducible.
+	 * 
+	 * @param nThreads
+	 */
+	public void setParallelism(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads must be positive");
+		}
+		shutdown();
+		this.nThreads = nThreads;
+		if (nThreads > 1) {
+			pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+				private int count = 0;
+
+				public Thread newThread(Runnable r) {
+					Thread th = new Thread(r, name + " worker " + count++);
+					th.setDaemon(true);
+					return th;
+				}
+			});
+			buildChunks();
+		}
+	}
+
+	/**
+	 * Get the number of worker threads used to run the houses.
+	 * 
+	 * @return
+	 */
+	public int getParallelism() {
+		return nThreads;
+	}
+
+	/**
+	 * Stop the worker threads. The task falls back to serial execution.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		chunks = null;
+		nThreads = 1;
+	}
+
+	/**
+	 * Set the fleet engine that integrates the thermal models of the houses.
+	 * The fleet is advanced to the current time at the start of every tick,
+	 * before the houses are run.
+	 * 
+	 * @param fleet
+	 */
+	public void setThermalFleet(FleetThermalSim fleet) {
+		this.fleet = fleet;
+	}
+
+	/**
+	 * Give the houses their own window orientation. The solar radiation of
+	 * each house is then looked up in a table of its orientation at every
+	 * tick, instead of being the radiation set by the environment task
+	 * (windows facing west). Houses with the same orientation share a table.
+	 * 
+	 * @param location
+	 *            -- {lon, lat} of the neighborhood
+	 * @param psi
+	 *            -- window azimuth of each house in list order, from south,
+	 *            West = 90 (deg); NaN keeps the radiation of the environment
+	 * @param resolution
+	 *            -- slot length of the tables (min); 60 with no interpolation
+	 *            gives the values of SolarRadiationModel
+	 * @param interpolate
+	 *            -- interpolate between the slots
+	 */
+	public void setWindowAzimuths(double[] location, double[] psi,
+			int resolution, boolean interpolate) {
+		if (psi.length != houseList.size()) {
+			throw new IllegalArgumentException("one azimuth per house needed");
+		}
+		ArrayList<Double> distinct = new ArrayList<Double>();
+		houseAzimuth = new int[psi.length];
+		for (int i = 0; i < psi.length; i++) {
+			if (Double.isNaN(psi[i])) {
+				houseAzimuth[i] = -1;
+				continue;
+			}
+			int k = distinct.indexOf(psi[i]);
+			if (k < 0) {
+				k = distinct.size();
+				distinct.add(psi[i]);
+			}
+			houseAzimuth[i] = k;
+		}
+		this.location = location.clone();
+		this.azimuths = new double[distinct.size()];
+		for (int k = 0; k < azimuths.length; k++) {
+			azimuths[k] = distinct.get(k);
+		}
+		this.solarTables = new SolarRadiationTable[azimuths.length];
+		this.azimuthRad = new double[azimuths.length];
+		this.solarResolution = resolution;
+		this.solarInterpolate = interpolate;
+		this.clock = SimClock.of(sys);
+	}
+
+	/**
+	 * Look up the radiation of each window orientation for the current time.
+	 */
+	private void updateSolarRadiation() {
+		clock.at(sys.GetRunningTime());
+		for (int k = 0; k < azimuths.length; k++) {
+			SolarRadiationTable tab = solarTables[k];
+			if (tab == null || tab.getYear() != clock.getYear()) {
+				tab = SolarRadiationTable.get(location, azimuths[k], clock
+						.getYear(), solarResolution);
+				solarTables[k] = tab;
+			}
+			azimuthRad[k] = solarInterpolate ? tab.interpolate(clock) : tab
+					.lookup(clock);
+		}
+	}
+
+	/**
+	 * Get the solar radiation for a house.
+	 * 
+	 * @param i
+	 *            -- index in the house list
+	 * @return
+	 */
+	private double getHouseRadiation(int i) {
+		if (houseAzimuth == null || houseAzimuth[i] < 0) {
+			return solRad;
+		}
+		return azimuthRad[houseAzimuth[i]];
+	}
+
+	/**
+	 * Split the house list into contiguous chunks. A few chunks per thread
+	 * keeps the workers busy when some houses are more expensive than others.
+	 */
+	private void buildChunks() {
+		int nHouses = houseList.size();
+		int nChunks = Math.min(nHouses, nThreads * CHUNKS_PER_THREAD);
+		Phouse = new double[nHouses];
+		chunks = new ArrayList<HouseChunk>(nChunks);
+		for (int k = 0; k < nChunks; k++) {
+			int start = (int) ((long) nHouses * k / nChunks);
+			int end = (int) ((long) nHouses * (k + 1) / nChunks);
+			chunks.add(new HouseChunk(start, end));
+		}
+	}
+
+	/**
+	 * Runs a contiguous range of the house list and records the power of each
+	 * house in its own slot.
+	 */
+	private class HouseChunk implements Callable<Boolean> {
+
+		private final int start;
+		private final int end;
+
+		HouseChunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public Boolean call() {
+			boolean stop = false;
+			for (int i = start; i < end; i++) {
+				House hs = houseList.get(i);
+				hs.setOutsideTemp(Tout);
+				hs.setSolarRadiation(getHouseRadiation(i));
+				stop |= hs.run();
+				Phouse[i] = hs.getP();
+			}
+			return stop;
+		}
+	}
+
+	/**
+	 * Run all of the houses on the worker pool and reduce the aggregate power
+	 * in list order.
+	 * 
+	 * @return the stop flag
+	 */
+	private boolean runParallel() {
+		if (Phouse.length != houseList.size()) {
+			buildChunks();
+		}
+		boolean stop = false;
+		try {
+			List<Future<Boolean>> results = pool.invokeAll(chunks);
+			for (Future<Boolean> f : results) {
+				stop |= f.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return true;
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("NeighborhoodTask: house failed", ex
+					.getCause());
+		}
+		for (int i = 0; i < Phouse.length; i++) {
+			Pagg += (houseWeight == null) ? Phouse[i] : houseWeight[i]
+					* Phouse[i];
+		}
+		return stop;
+	}
+
 	private void log() {
 		if (logFile != null) {
 			// System.out.println("here1");
 			// Print the neighborhood state
-			logFile.printf("%6.2f\t %6.2f\t %6.2f\t %6.2f\t", sys.GetRunningTime(),
-					Tout, solRad, Pagg);
+			logFile.printf(LOG_FORMAT, sys.GetRunningTime(), Tout, solRad, Pagg);
 			// Then print the state of each edu.berkeley.me.jRonSim.house.
 			for (House hs : houseList) {
 				// logFile.printf(", ");
@@ -141,6 +554,116 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 			// Finally send the return.
 			logFile.println();
 		}
+		if (binaryLog != null) {
+			logRow[0] = sys.GetRunningTime();
+			logRow[1] = Tout;
+			logRow[2] = solRad;
+			logRow[3] = Pagg;
+			int k = 4;
+			for (int i = 0; i < houseList.size(); i++) {
+				k = houseList.get(i).log(logRow, k);
+			}
+			try {
+				binaryLog.write(logRow);
+			} catch (IOException ex) {
+				throw new RuntimeException("NeighborhoodTask: binary log failed",
+						ex);
+			}
+		}
+	}
+
+	/**
+	 * Send the meter readings of the houses to an AMI gateway, and take the
+	 * commands of the gateway. The houses are sampled after they run, each at
+	 * the interval the uplink has for it, and house i of the list is house id
+	 * i of the uplink. The commands for a house go straight to the mailbox
+	 * of its thermostat, from the thread of the connection; the commands for
+	 * every house are dispatched at the start of the next tick, like those of
+	 * dispatch(). The thermostats record the latency of the DR setpoints in
+	 * the recorder of the uplink.
+	 * 
+	 * @param uplink
+	 *            -- null for none
+	 */
+	public void setMeterUplink(AmiUplink uplink) {
+		if (uplink != null && uplink.getHouseCount() != houseList.size()) {
+			throw new IllegalArgumentException("the uplink has "
+					+ uplink.getHouseCount() + " houses, not "
+					+ houseList.size());
+		}
+		if (this.uplink != null) {
+			this.uplink.setBroadcastReceiver(null);
+		}
+		if (uplink != null) {
+			uplink.setBroadcastReceiver(uplinkBroadcasts::add);
+		}
+		for (int i = 0; i < houseList.size(); i++) {
+			House hs = houseList.get(i);
+			if (this.uplink != null) {
+				this.uplink.setReceiver(i, null);
+			}
+			if (uplink != null) {
+				uplink.setReceiver(i, hs::receiveMessage);
+			}
+			hs.setDrLatencyRecorder(uplink == null ? null : uplink
+					.getDrLatencyRecorder());
+		}
+		this.uplink = uplink;
+		if (uplink == null) {
+			meter = null;
+			return;
+		}
+		meter = new AmiUplink.Meter() {
+			public double read(int house) {
+				return houseList.get(house).getP();
+			}
+		};
+	}
+
+	/**
+	 * Also log the neighborhood to a binary file, at the same times and with
+	 * the same values as the text log. The values of a row are only copied on
+	 * the simulation thread; the file is written by a background thread (see
+	 * BinaryLogWriter), and BinaryLogReader converts it back to the text
+	 * layout. The log waits for the writer when the ring buffer is full, so no
+	 * rows are lost.
+	 * 
+	 * @param fname
+	 * @param capacity
+	 *            -- number of rows the ring buffer holds
+	 * @throws IOException
+	 */
+	public void openBinaryLog(String fname, int capacity) throws IOException {
+		closeBinaryLog();
+		StringBuilder fmt = new StringBuilder(LOG_FORMAT);
+		for (House hs : houseList) {
+			fmt.append(hs.getLogFormat());
+		}
+		fmt.append("%n");
+		binaryLog = new BinaryLogWriter(fname, fmt.toString(), capacity);
+		logRow = new double[binaryLog.getColumnCount()];
+	}
+
+	/**
+	 * Get the binary log, or null if there is none.
+	 * 
+	 * @return
+	 */
+	public BinaryLogWriter getBinaryLog() {
+		return binaryLog;
+	}
+
+	/**
+	 * Write the rest of the binary log and close it.
+	 * 
+	 * @throws IOException
+	 */
+	public void closeBinaryLog() throws IOException {
+		if (binaryLog != null) {
+			BinaryLogWriter log = binaryLog;
+			binaryLog = null;
+			log.close();
+		}
 	}
 
 	/**
@@ -154,25 +677,59 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 	public boolean RunTask(TrjSys sys) {
 		boolean stop = false; // initialize the stop flag
 		Pagg = 0;
+		Message broadcast;
+		while ((broadcast = uplinkBroadcasts.poll()) != null) {
+			dispatch(broadcast, null);
+		}
+		if (!dispatches.isEmpty()) {
+			deliver(sys.GetRunningTime());
+		}
+		if (azimuths != null) {
+			updateSolarRadiation();
+		}
+		if (fleet != null) {
+			// each house routes its conditions to its own slot of the fleet
+			for (int i = 0; i < houseList.size(); i++) {
+				House hs = houseList.get(i);
+				hs.setOutsideTemp(Tout);
+				hs.setSolarRadiation(getHouseRadiation(i));
+			}
+			fleet.advanceTo(sys.GetRunningTime());
+		}
+		if (pool != null) {
+			stop = runParallel();
+		} else {
+			stop = runSerial();
+		}
+		if (uplink != null) {
+			uplink.sample(sys.GetRunningTime(), meter);
+		}
+		// log when it is time.
+		if (sys.GetRunningTime() >= tLogNext) {
+			log();
+			tLogNext += dtLog;
+		}
+		return stop;
+	}
+
+	private boolean runSerial() {
+		boolean stop = false;
 		// run all of the houses
-		for (House hs : houseList) {
+		for (int i = 0; i < houseList.size(); i++) {
+			House hs = houseList.get(i);
 			// while the stop flag is not on
 			if (!stop) {
 				hs.setOutsideTemp(Tout);
-				hs.setSolarRadiation(solRad);
+				hs.setSolarRadiation(getHouseRadiation(i));
 				// run the edu.berkeley.me.jRonSim.house
 				stop = hs.run();
-				Pagg += hs.getP();
+				Pagg += (houseWeight == null) ? hs.getP() : houseWeight[i]
+						* hs.getP();
 			} else // if the flag is true, stop
 			{
 				break; // break from the for loop
 			}
 		}
-		// log when it is time.
-		if (sys.GetRunningTime() >= tLogNext) {
-			log();
-			tLogNext += dtLog;
-		}
 		return stop;
 	}
 
@@ -180,4 +737,8 @@ public class NeighborhoodTask extends TrjTask implements Envelope {
 	public boolean RunTaskNow(TrjSys sys) {
 		return CheckTime(sys.GetRunningTime());
 	}
+
+	public double getNextRunTime() {
+		return tNext;
+	}
 }
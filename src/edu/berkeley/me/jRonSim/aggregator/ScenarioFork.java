@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.aggregator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.util.SimCheckpoint;
+
+/**
+ * Runs what-if variants of a simulation from the state of a baseline at one
+ * time, for instance demand response events with different setbacks and
+ * ramp rates.  The baseline is saved once in memory (see SimCheckpoint); each
+ * variant is a simulation built by the factory, restored from that image,
+ * sent its message, and run on its own thread.  The baseline is rerun from
+ * the image too, so all of the runs go through the same steps, and the
+ * baseline given to the constructor is left alone.
+ *
+ * The factory must build the simulation the same way as the baseline was
+ * built, except for its log files, which the variants should not have.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ScenarioFork
+{
+
+    /**
+     * Builds a new simulation, in the same way as the baseline was built.
+     */
+    public interface Factory
+    {
+
+        public SystemicSys build() throws Exception;
+    }
+
+    private final Factory factory;
+    private final byte[] image;
+    private final double tFork;
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Message> messages = new ArrayList<Message>();
+
+    /**
+     * Save the state of the baseline at its current time.
+     *
+     * @param factory
+     * @param baseline
+     * @throws IOException
+     */
+    public ScenarioFork(Factory factory, SystemicSys baseline)
+            throws IOException
+    {
+        this.factory = factory;
+        this.tFork = baseline.GetRunningTime();
+        this.image = SimCheckpoint.toBytes(baseline);
+    }
+
+    /**
+     * Get the running time of the fork.
+     *
+     * @return
+     */
+    public double getForkTime()
+    {
+        return tFork;
+    }
+
+    /**
+     * Get the size of the saved state.
+     *
+     * @return -- bytes
+     */
+    public int getImageSize()
+    {
+        return image.length;
+    }
+
+    /**
+     * Add a variant that broadcasts a message to the houses at the time of
+     * the fork.
+     *
+     * @param name
+     * @param msg
+     * @return the index of the variant
+     */
+    public int addVariant(String name, Message msg)
+    {
+        names.add(name);
+        messages.add(msg);
+        return names.size() - 1;
+    }
+
+    /**
+     * Run the baseline and the variants from the fork to tEnd, and sample
+     * the aggregate power of each run.
+     *
+     * @param tEnd -- running time to stop at
+     * @param dt -- time step of the simulations
+     * @param dtSample -- time between samples
+     * @param nThreads -- number of runs at a time
+     * @return
+     * @throws IOException
+     */
+    public Result run(double tEnd, double dt, double dtSample, int nThreads)
+            throws IOException
+    {
+        int nSamples = (int) Math.floor((tEnd - tFork) / dtSample) + 1;
+        ArrayList<Run> runs = new ArrayList<Run>(messages.size() + 1);
+        runs.add(new Run(null, tEnd, dt, dtSample, nSamples));
+        for (Message msg : messages)
+        {
+            runs.add(new Run(msg, tEnd, dt, dtSample, nSamples));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        double[][] Pagg = new double[runs.size()][];
+        try
+        {
+            List<Future<double[]>> results = pool.invokeAll(runs);
+            for (int k = 0; k < Pagg.length; k++)
+            {
+                Pagg[k] = results.get(k).get();
+            }
+        } catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("ScenarioFork: interrupted", ex);
+        } catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException) ex.getCause();
+            }
+            throw new RuntimeException("ScenarioFork: run failed",
+                    ex.getCause());
+        } finally
+        {
+            pool.shutdown();
+        }
+        return new Result(tFork, dtSample, names, Pagg);
+    }
+
+    /**
+     * One run from the saved state.
+     */
+    private class Run implements Callable<double[]>
+    {
+
+        private final Message msg;
+        private final double tEnd;
+        private final double dt;
+        private final double dtSample;
+        private final int nSamples;
+
+        Run(Message msg, double tEnd, double dt, double dtSample,
+                int nSamples)
+        {
+            this.msg = msg;
+            this.tEnd = tEnd;
+            this.dt = dt;
+            this.dtSample = dtSample;
+            this.nSamples = nSamples;
+        }
+
+        public double[] call() throws Exception
+        {
+            SystemicSys sim = factory.build();
+            SimCheckpoint.restore(image, sim);
+            // the runs are already in parallel
+            sim.setParallelism(1);
+            if (msg != null)
+            {
+                sim.broadcast(msg);
+            }
+            double[] Pagg = new double[nSamples];
+            double tSample = tFork;
+            int k = 0;
+            try
+            {
+                while (sim.GetRunningTime() <= tEnd)
+                {
+                    if (sim.RunTasks())
+                    {
+                        break;
+                    }
+                    if (sim.GetRunningTime() >= tSample && k < nSamples)
+                    {
+                        Pagg[k++] = sim.getAggregatePower();
+                        tSample += dtSample;
+                    }
+                    sim.IncrementRunningTime(dt);
+                }
+            } finally
+            {
+                sim.shutdown();
+            }
+            return Pagg;
+        }
+    }
+
+    /**
+     * The aggregate power of the baseline, and of each variant as the
+     * difference from the baseline.
+     */
+    public static class Result
+    {
+
+        private final double tFork;
+        private final double dtSample;
+        private final ArrayList<String> names;
+        private final double[][] Pagg;
+
+        Result(double tFork, double dtSample, ArrayList<String> names,
+                double[][] Pagg)
+        {
+            this.tFork = tFork;
+            this.dtSample = dtSample;
+            this.names = new ArrayList<String>(names);
+            this.Pagg = Pagg;
+        }
+
+        /**
+         * Get the number of samples of each run.
+         *
+         * @return
+         */
+        public int getSampleCount()
+        {
+            return Pagg[0].length;
+        }
+
+        /**
+         * Get the running time of a sample.
+         *
+         * @param k
+         * @return
+         */
+        public double getTime(int k)
+        {
+            return tFork + k * dtSample;
+        }
+
+        /**
+         * Get the aggregate power of the baseline.
+         *
+         * @return
+         */
+        public double[] getBaseline()
+        {
+            return Pagg[0].clone();
+        }
+
+        /**
+         * Get the aggregate power of a variant minus that of the baseline.
+         *
+         * @param v -- index of the variant
+         * @return
+         */
+        public double[] getDelta(int v)
+        {
+            double[] delta = new double[Pagg[0].length];
+            for (int k = 0; k < delta.length; k++)
+            {
+                delta[k] = Pagg[v + 1][k] - Pagg[0][k];
+            }
+            return delta;
+        }
+
+        /**
+         * Print a table with the time, the baseline power, and the delta of
+         * each variant, with a header line of the variant names.
+         *
+         * @param out
+         */
+        public void print(PrintWriter out)
+        {
+            out.print("t\t Pbase");
+            for (String name : names)
+            {
+                out.print("\t " + name);
+            }
+            out.println();
+            for (int k = 0; k < Pagg[0].length; k++)
+            {
+                out.printf("%6.2f\t %6.2f", getTime(k), Pagg[0][k]);
+                for (int v = 1; v < Pagg.length; v++)
+                {
+                    out.printf("\t %6.2f", Pagg[v][k] - Pagg[0][k]);
+                }
+                out.println();
+            }
+        }
+    }
+}
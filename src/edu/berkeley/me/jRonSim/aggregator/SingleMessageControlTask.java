@@ -31,24 +31,112 @@
 package edu.berkeley.me.jRonSim.aggregator;
 
 import TranRunJLite.TrjSys;
+import java.net.InetAddress;
+import java.util.ArrayList;
+
+import edu.berkeley.me.jRonSim.comMessage.DrSetpointMessage;
 
 /**
+ * Sends setpoint demand response events to the houses of the neighborhood.
+ * Each event is one DrSetpointMessage, built when it is dispatched and
+ * shared by all of the houses it goes to; the neighborhood delivers it to
+ * each house after the latency of that house (see
+ * NeighborhoodTask.setDeliveryLatency).
  *
  * @author William Burke <billstron@gmail.com>
  */
 public class SingleMessageControlTask extends SystemicControlTask
 {
 
+    private final ArrayList<Setback> events = new ArrayList<Setback>();
+    private int nDispatched = 0;
+
+    /**
+     * A scheduled setpoint event.
+     */
+    private static class Setback
+    {
+
+        double tDispatch;
+        double tStart;
+        double tEnd;
+        double TmodMax;
+        double rampTime;
+        boolean[] selected;
+    }
+
     public SingleMessageControlTask(String name, TrjSys sys, double dt,
             double dtLog, NeighborhoodTask hood)
     {
         super(name, sys, dt, dtLog, hood);
     }
 
+    /**
+     * Schedule a setpoint event.  The message is dispatched at the first run
+     * of the task at or after tDispatch.
+     *
+     * @param tDispatch -- time to send the message (s)
+     * @param tStart -- start of the event (s)
+     * @param tEnd -- end of the event (s)
+     * @param TmodMax -- setpoint change (^oF)
+     * @param rampTime -- time to ramp the setpoint in and out (s); 0 steps
+     * it
+     * @param selected -- the houses to send to, by index in the house list;
+     * null for all of them
+     */
+    public void scheduleSetback(double tDispatch, double tStart, double tEnd,
+            double TmodMax, double rampTime, boolean[] selected)
+    {
+        Setback e = new Setback();
+        e.tDispatch = tDispatch;
+        e.tStart = tStart;
+        e.tEnd = tEnd;
+        e.TmodMax = TmodMax;
+        e.rampTime = rampTime;
+        e.selected = selected;
+        // keep the events in the order they are sent
+        int k = events.size();
+        while (k > 0 && events.get(k - 1).tDispatch > tDispatch)
+        {
+            k--;
+        }
+        events.add(k, e);
+    }
+
+    /**
+     * Get the number of events dispatched so far.
+     *
+     * @return
+     */
+    public int getDispatchedCount()
+    {
+        return nDispatched;
+    }
+
     @Override
     public boolean RunTask(TrjSys sys)
     {
-        // nothing to do here yet.
+        double t = sys.GetRunningTime();
+        while (!events.isEmpty() && events.get(0).tDispatch <= t)
+        {
+            Setback e = events.remove(0);
+            InetAddress from = InetAddress.getLoopbackAddress();
+            DrSetpointMessage msg;
+            if (e.rampTime > 0)
+            {
+                double rate = Math.abs(e.TmodMax) / (e.rampTime * 1000);
+                msg = new DrSetpointMessage(from, null, sys.GetCalendar(
+                        e.tStart), sys.GetCalendar(e.tEnd), e.TmodMax, rate,
+                        rate);
+            }
+            else
+            {
+                msg = new DrSetpointMessage(from, null, sys.GetCalendar(
+                        e.tStart), sys.GetCalendar(e.tEnd), e.TmodMax);
+            }
+            getNeighborhood().dispatch(msg, e.selected);
+            nDispatched++;
+        }
         return false;
     }
 }
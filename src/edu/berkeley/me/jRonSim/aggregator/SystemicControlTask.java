@@ -32,12 +32,14 @@ package edu.berkeley.me.jRonSim.aggregator;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**
  *
  * @author William Burke <billstron@gmail.com>
  */
 public abstract class SystemicControlTask extends TrjTask
+        implements ScheduledTask
 {
 
     private double dtLog;
@@ -54,9 +56,24 @@ public abstract class SystemicControlTask extends TrjTask
         this.hood = hood;
     }
 
+    /**
+     * Get the neighborhood the task controls.
+     *
+     * @return
+     */
+    protected NeighborhoodTask getNeighborhood()
+    {
+        return hood;
+    }
+
     @Override
     public boolean RunTaskNow(TrjSys sys)
     {
         return CheckTime(sys.GetRunningTime());
     }
+
+    public double getNextRunTime()
+    {
+        return tNext;
+    }
 }
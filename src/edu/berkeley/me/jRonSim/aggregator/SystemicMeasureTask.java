@@ -32,12 +32,13 @@ package edu.berkeley.me.jRonSim.aggregator;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class SystemicMeasureTask extends TrjTask
+public class SystemicMeasureTask extends TrjTask implements ScheduledTask
 {
 
     private double Tout;
@@ -69,4 +70,9 @@ public class SystemicMeasureTask extends TrjTask
     {
         return CheckTime(sys.GetRunningTime());
     }
+
+    public double getNextRunTime()
+    {
+        return tNext;
+    }
 }
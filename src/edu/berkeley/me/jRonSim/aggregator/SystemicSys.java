@@ -30,25 +30,29 @@
  */
 package edu.berkeley.me.jRonSim.aggregator;
 
-import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTime;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import edu.berkeley.me.jRonSim.aggregator.environment.Envelope;
 import edu.berkeley.me.jRonSim.aggregator.environment.EnviroConditionsTask;
+import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.gatewayComm.AmiUplink;
 import edu.berkeley.me.jRonSim.house.House;
+import edu.berkeley.me.jRonSim.house.simulation.FleetThermalSim;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
 
 /**
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class SystemicSys extends TrjSys
+public class SystemicSys extends ScheduledSys
 {
 
     private NeighborhoodTask hood;
     private MeasureTask measure;
-    private SystemicControlTask control;
+    private SingleMessageControlTask control;
     private EnviroConditionsTask enviro;
     private String name;
 
@@ -109,4 +113,159 @@ public class SystemicSys extends TrjSys
         enviro = new EnviroConditionsTask("Environment Task", this, dtEnviro,
                 face);
     }
+
+    /**
+     * Get the most recent aggregate power of the neighborhood.
+     *
+     * @return
+     */
+    public double getAggregatePower()
+    {
+        return hood.getAggregatePower();
+    }
+
+    /**
+     * Weight the power of each house in the aggregate power.
+     *
+     * @param weights -- one per house; null for all 1
+     * @see NeighborhoodTask#setHouseWeights(double[])
+     */
+    public void setHouseWeights(double[] weights)
+    {
+        hood.setHouseWeights(weights);
+    }
+
+    /**
+     * Deliver a message to every house of the neighborhood.
+     *
+     * @param msg
+     */
+    public void broadcast(Message msg)
+    {
+        hood.broadcast(msg);
+    }
+
+    /**
+     * Send a message to all or some of the houses, each after its delivery
+     * latency.
+     *
+     * @param msg -- shared by the houses
+     * @param selected -- the houses to send to; null for all of them
+     * @see NeighborhoodTask#dispatch(Message, boolean[])
+     */
+    public void dispatch(Message msg, boolean[] selected)
+    {
+        hood.dispatch(msg, selected);
+    }
+
+    /**
+     * Set the time it takes a dispatched message to reach each house.
+     *
+     * @param latency -- one per house (s); null for none
+     * @see NeighborhoodTask#setDeliveryLatency(double[])
+     */
+    public void setDeliveryLatency(double[] latency)
+    {
+        hood.setDeliveryLatency(latency);
+    }
+
+    /**
+     * Schedule a setpoint demand response event for all or some of the
+     * houses.
+     *
+     * @param tDispatch -- time to send the message (s)
+     * @param tStart -- start of the event (s)
+     * @param tEnd -- end of the event (s)
+     * @param TmodMax -- setpoint change (^oF)
+     * @param rampTime -- ramp time (s); 0 steps the setpoint
+     * @param selected -- the houses to send to; null for all of them
+     * @see SingleMessageControlTask#scheduleSetback
+     */
+    public void scheduleSetback(double tDispatch, double tStart, double tEnd,
+            double TmodMax, double rampTime, boolean[] selected)
+    {
+        control.scheduleSetback(tDispatch, tStart, tEnd, TmodMax, rampTime,
+                selected);
+    }
+
+    /**
+     * Set the number of threads used to run the houses of the neighborhood.
+     *
+     * @param nThreads
+     * @see NeighborhoodTask#setParallelism(int)
+     */
+    public void setParallelism(int nThreads)
+    {
+        hood.setParallelism(nThreads);
+    }
+
+    /**
+     * Set the fleet engine that integrates the thermal models of the houses.
+     *
+     * @param fleet
+     * @see NeighborhoodTask#setThermalFleet(FleetThermalSim)
+     */
+    public void setThermalFleet(FleetThermalSim fleet)
+    {
+        hood.setThermalFleet(fleet);
+    }
+
+    /**
+     * Give the houses their own window orientation, at the location of the
+     * environment.
+     *
+     * @param psi -- window azimuth of each house, from south, West = 90 (deg)
+     * @param resolution -- slot length of the solar tables (min)
+     * @param interpolate -- interpolate between the slots
+     * @see NeighborhoodTask#setWindowAzimuths(double[], double[], int, boolean)
+     */
+    public void setWindowAzimuths(double[] psi, int resolution,
+            boolean interpolate)
+    {
+        hood.setWindowAzimuths(enviro.getLocation(), psi, resolution,
+                interpolate);
+    }
+
+    /**
+     * Also log the neighborhood to a binary file.
+     *
+     * @param fname
+     * @param capacity -- number of rows buffered in memory
+     * @throws IOException
+     * @see NeighborhoodTask#openBinaryLog(String, int)
+     */
+    public void openBinaryLog(String fname, int capacity) throws IOException
+    {
+        hood.openBinaryLog(fname, capacity);
+    }
+
+    /**
+     * Write the rest of the binary log of the neighborhood and close it.
+     *
+     * @throws IOException
+     */
+    public void closeBinaryLog() throws IOException
+    {
+        hood.closeBinaryLog();
+    }
+
+    /**
+     * Send the meter readings of the houses to an AMI gateway, and deliver
+     * its commands to the thermostats.
+     *
+     * @param uplink -- one house id per house of the list; null for none
+     * @see NeighborhoodTask#setMeterUplink(AmiUplink)
+     */
+    public void setMeterUplink(AmiUplink uplink)
+    {
+        hood.setMeterUplink(uplink);
+    }
+
+    /**
+     * Release the worker threads of the neighborhood.
+     */
+    public void shutdown()
+    {
+        hood.shutdown();
+    }
 }
@@ -31,7 +31,11 @@
 package edu.berkeley.me.jRonSim.aggregator.environment;
 
 import TranRunJLite.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+import edu.berkeley.me.jRonSim.util.SimClock;
 
 /** This TrjTask is used for computing the environmental conditions.  It is a
  * very simple Task that just computes the conditions and sets them in the
@@ -39,7 +43,7 @@ import java.util.ArrayList;
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class EnviroConditionsTask extends TrjTask
+public class EnviroConditionsTask extends TrjTask implements ScheduledTask
 {
 
     private ArrayList<Envelope> houses = null;
@@ -52,8 +56,10 @@ public class EnviroConditionsTask extends TrjTask
     {
         121.3, 37.976
     };
-    private SolarRadiationModel solarModel = null;
+    private static final double WINDOW_AZIMUTH = 90;  // West
+    private SolarRadiationTable solarTable = null;
     private OutsideTemperatureModel ToutModel = null;
+    private SimClock clock;
 
     /** Construct the most basic EnviroConditionsTask class.
      *
@@ -69,13 +75,13 @@ public class EnviroConditionsTask extends TrjTask
         stateNames.add("Daily Weather");
         this.dtNominal = dt;
         this.houses = face;
+        this.clock = SimClock.of(sys);
 
         // Create the condition models.  
-        this.solarModel = new SolarRadiationModel(location);
         this.ToutModel = new OutsideTemperatureModel();
         try
         {
-            this.ToutModel = new OutsideTempNrelData(
+            this.ToutModel = openTemperatureData(
                     "./test/KSCK_20070228-20071015.CSV");
         }
         catch (Exception e)
@@ -89,6 +95,66 @@ public class EnviroConditionsTask extends TrjTask
         this.Rad = 0;
     }
 
+    /** Get the location the conditions are computed for, {lon, lat}.
+     *
+     * @return
+     */
+    public double[] getLocation()
+    {
+        return location.clone();
+    }
+
+    /** Open the outside temperature data of an NREL CSV file.  If there is a
+     * binary copy of it next to it (same name, .bin), that is used instead.
+     *
+     * @param csvName
+     * @return
+     * @throws IOException
+     */
+    private static OutsideTemperatureModel openTemperatureData(String csvName)
+            throws IOException
+    {
+        String binName = csvName;
+        int dot = csvName.lastIndexOf('.');
+        if (dot > csvName.lastIndexOf(File.separatorChar) &&
+                dot > csvName.lastIndexOf('/'))
+        {
+            binName = csvName.substring(0, dot);
+        }
+        binName += ".bin";
+        if (new File(binName).exists())
+        {
+            return new OutsideTempBinaryData(binName);
+        }
+        return new OutsideTempNrelData(csvName);
+    }
+
+    /** Sample the outside temperature and the solar radiation that the task
+     * sets into the houses, without changing its state.
+     *
+     * @param t0 -- running time of the first sample
+     * @param dt -- time between samples
+     * @param Tout -- filled with the outside temperatures
+     * @param rad -- filled with the radiation
+     */
+    public void getConditions(double t0, double dt, double[] Tout,
+            double[] rad)
+    {
+        SimClock at = new SimClock(sys);
+        SolarRadiationTable tab = null;
+        for (int k = 0; k < Tout.length; k++)
+        {
+            at.at(t0 + k * dt);
+            if (tab == null || tab.getYear() != at.getYear())
+            {
+                tab = SolarRadiationTable.get(location, WINDOW_AZIMUTH,
+                        at.getYear(), 60);
+            }
+            rad[k] = tab.lookup(at);
+            Tout[k] = ToutModel.getTemperature(at.getTimeInMillis());
+        }
+    }
+
     /** Runs the task.  Basically all it does is compute the current conditions
      * and set them into the houses specified in the edu.berkeley.me.jRonSim.house list.  
      *
@@ -99,8 +165,15 @@ public class EnviroConditionsTask extends TrjTask
     public boolean RunTask(TrjSys sys)
     {
         // Get the current radiation and outside temperature.  
-        Rad = solarModel.computeRadiation(sys.GetCalendar());
-        Tout = ToutModel.getTemperature(sys.GetCalendar());
+        clock.at(sys.GetRunningTime());
+        if (solarTable == null || solarTable.getYear() != clock.getYear())
+        {
+            // hourly slots give exactly the values of SolarRadiationModel
+            solarTable = SolarRadiationTable.get(location, WINDOW_AZIMUTH,
+                    clock.getYear(), 60);
+        }
+        Rad = solarTable.lookup(clock);
+        Tout = ToutModel.getTemperature(clock.getTimeInMillis());
 
         // Set the information into the houses.  
         for (Envelope env : houses)
@@ -121,4 +194,9 @@ public class EnviroConditionsTask extends TrjTask
     {
         return CheckTime(sys.GetRunningTime());
     }
+
+    public double getNextRunTime()
+    {
+        return tNext;
+    }
 }
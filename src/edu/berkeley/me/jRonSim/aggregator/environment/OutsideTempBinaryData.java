@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.aggregator.environment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Outside temperature from a binary weather file.  The file is mapped into
+ * memory read only, so opening it costs nothing however many years it holds,
+ * and the pages are shared by every simulation that uses the same file.
+ * The file is made once from an NREL CSV file with convert().  The local
+ * times of the CSV file are turned into epoch times in the default time zone
+ * of the converter, as OutsideTempNrelData does, so convert in the zone the
+ * simulation runs in.
+ *
+ * File layout (big endian):
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    number of readings, n
+ *   int    reserved
+ *   long[n] time of each reading, seconds since the epoch, non-decreasing
+ *   float[n] dry bulb temperature of each reading, 0.1 C as in the CSV file
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class OutsideTempBinaryData extends OutsideTemperatureModel
+{
+
+    static final int MAGIC = 0x4A525754;  // "JRWT"
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private final MappedByteBuffer buf;
+    private final int n;
+    private final int tempOffset;
+    private int i0 = 0;  // interval of the last lookup
+
+    /** Open a binary weather file.
+     *
+     * @param fname
+     * @throws IOException
+     */
+    public OutsideTempBinaryData(String fname) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(fname, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            file.close();  // the mapping stays valid
+        }
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+        {
+            throw new IOException(fname + " is not a binary weather file");
+        }
+        if (buf.getInt(4) != VERSION)
+        {
+            throw new IOException(fname + ": unsupported version " +
+                    buf.getInt(4));
+        }
+        n = buf.getInt(8);
+        tempOffset = HEADER_SIZE + 8 * n;
+        if (n < 2 || buf.capacity() < tempOffset + 4 * n)
+        {
+            throw new IOException(fname + " is truncated");
+        }
+    }
+
+    /** Get the number of readings.
+     *
+     * @return
+     */
+    public int size()
+    {
+        return n;
+    }
+
+    private long getTimeInMillis(int i)
+    {
+        return buf.getLong(HEADER_SIZE + 8 * i) * 1000;
+    }
+
+    private double getTemperature(int i)
+    {
+        return OutsideTempNrelData.rawToFahrenheit(buf.getFloat(tempOffset + 4 * i));
+    }
+
+    /** Get the outside temperature for the specified time, interpolated
+     * between the readings.
+     *
+     * @param time
+     * @return
+     */
+    @Override
+    double getTemperature(long time)
+    {
+        int i = i0;
+        if (getTimeInMillis(i) > time || getTimeInMillis(i + 1) <= time)
+        {
+            i = findInterval(time);
+            i0 = i;
+        }
+        long t0 = getTimeInMillis(i);
+        double dt = getTimeInMillis(i + 1) - t0;
+        double t = time - t0;
+        double T0 = getTemperature(i);
+        double dT = getTemperature(i + 1) - T0;
+        return T0 + dT * (t / dt);
+    }
+
+    /** Binary search for the last reading at or before the specified time.
+     * Times outside of the file use the first or last interval.
+     *
+     * @param time
+     * @return
+     */
+    private int findInterval(long time)
+    {
+        int lo = 0;
+        int hi = n - 2;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getTimeInMillis(mid) <= time)
+            {
+                lo = mid;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Convert an NREL CSV file to a binary weather file.
+     *
+     * @param csvName
+     * @param binName
+     * @throws IOException
+     */
+    public static void convert(String csvName, String binName) throws IOException
+    {
+        OutsideTempNrelData data = new OutsideTempNrelData(csvName);
+        int n = data.size();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(binName)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(0);
+            for (int i = 0; i < n; i++)
+            {
+                long ms = data.getTimeInMillis(i);
+                if (ms % 1000 != 0)
+                {
+                    throw new IOException("reading " + i +
+                            " is not on a whole second");
+                }
+                out.writeLong(ms / 1000);
+            }
+            for (int i = 0; i < n; i++)
+            {
+                double raw = data.getRawTemperature(i);
+                if ((float) raw != raw)
+                {
+                    throw new IOException("reading " + i + " (" + raw +
+                            ") does not fit a float");
+                }
+                out.writeFloat((float) raw);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /** Convert an NREL CSV file: OutsideTempBinaryData in.csv out.bin
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.out.println("usage: OutsideTempBinaryData in.csv out.bin");
+            System.exit(1);
+        }
+        convert(args[0], args[1]);
+        OutsideTempBinaryData data = new OutsideTempBinaryData(args[1]);
+        System.out.println("Wrote " + data.size() + " readings to " + args[1]);
+    }
+}
@@ -48,6 +48,10 @@ public class OutsideTempNrelData extends OutsideTemperatureModel
 
     ArrayList<GregorianCalendar> tTable = new ArrayList<GregorianCalendar>();
     ArrayList<Double> ToutTable = new ArrayList<Double>();
+    private ArrayList<Double> rawTable = new ArrayList<Double>();
+    private long[] tMillis;  // tTable as epoch times
+    private double[] ToutArray;
+    private double[] rawArray;  // dry bulb temperature, 0.1 C
     static final int LOCALTIME_I = 0;
     static final int TOUT_I = 2;
     private int i0;
@@ -82,16 +86,17 @@ public class OutsideTempNrelData extends OutsideTemperatureModel
                         tTable.add(stringToCalendar(temp));
                         break;
                     case (TOUT_I):
-                        double Tc = 0;
+                        double raw = 0;
                         if (temp.contains("*"))
                         {
-                            Tc = Double.valueOf(temp.substring(0, temp.indexOf("*"))) / 10;
+                            raw = Double.valueOf(temp.substring(0, temp.indexOf("*")));
                         }
                         else
                         {
-                            Tc = Double.valueOf(temp) / 10;
+                            raw = Double.valueOf(temp);
                         }
-                        ToutTable.add(Tc * (9.0 / 5.0) + 32.0);
+                        rawTable.add(raw);
+                        ToutTable.add(rawToFahrenheit(raw));
                         lineDone = true;
                         break;
                     default:
@@ -102,6 +107,59 @@ public class OutsideTempNrelData extends OutsideTemperatureModel
         }
         //close the file
         bufRdr.close();
+
+        tMillis = new long[tTable.size()];
+        ToutArray = new double[ToutTable.size()];
+        rawArray = new double[rawTable.size()];
+        for (int i = 0; i < tMillis.length; i++)
+        {
+            tMillis[i] = tTable.get(i).getTimeInMillis();
+        }
+        for (int i = 0; i < ToutArray.length; i++)
+        {
+            ToutArray[i] = ToutTable.get(i);
+            rawArray[i] = rawTable.get(i);
+        }
+    }
+
+    /** Convert a dry bulb reading of the NREL files (0.1 C) to degrees F.
+     *
+     * @param raw
+     * @return
+     */
+    static double rawToFahrenheit(double raw)
+    {
+        double Tc = raw / 10;
+        return Tc * (9.0 / 5.0) + 32.0;
+    }
+
+    /** Get the number of readings.
+     *
+     * @return
+     */
+    int size()
+    {
+        return tMillis.length;
+    }
+
+    /** Get the time of a reading in milliseconds since the epoch.
+     *
+     * @param i
+     * @return
+     */
+    long getTimeInMillis(int i)
+    {
+        return tMillis[i];
+    }
+
+    /** Get a dry bulb reading as it is in the file (0.1 C).
+     *
+     * @param i
+     * @return
+     */
+    double getRawTemperature(int i)
+    {
+        return rawArray[i];
     }
 
     private GregorianCalendar stringToCalendar(String str)
@@ -129,37 +187,56 @@ public class OutsideTempNrelData extends OutsideTemperatureModel
      * @return
      */
     @Override
-    double getTemperature(GregorianCalendar time)
+    double getTemperature(long time)
     {
         //System.out.println("here");
         double Tout = 0;
-        GregorianCalendar t0 = null;
-        GregorianCalendar t1 = null;
         // find the intex of the table time right before the specified time.
-        for (int i = i0; i < tTable.size()-1; i++)
+        // Most calls are in the same interval as the last one.
+        if (tMillis[i0] > time || tMillis[i0 + 1] <= time)
         {
-            t0 = tTable.get(i);
-            t1 = tTable.get(i + 1);
-            if (t0.compareTo(time) <= 0 && t1.compareTo(time) > 0)
-            {
-                i0 = i;
-                break;
-            }
+            i0 = findInterval(time);
         }
+        long t0 = tMillis[i0];
+        long t1 = tMillis[i0 + 1];
         // compute the temp
         // get the differences in times
-        double dt = t1.getTimeInMillis() - t0.getTimeInMillis();
-        double t = time.getTimeInMillis() - t0.getTimeInMillis();
-        //System.out.printf("%d, %d\n", time.getTimeInMillis(), t0.getTimeInMillis());
+        double dt = t1 - t0;
+        double t = time - t0;
         //System.out.println(dt + ", " + t);
         // get the differences in temps
-        double T0 = ToutTable.get(i0);
-        double dT = ToutTable.get(i0 + 1) - T0;
+        double T0 = ToutArray[i0];
+        double dT = ToutArray[i0 + 1] - T0;
         // linearly interpolate
         Tout = T0 + dT * (t / dt);
         return Tout;
     }
 
+    /** Binary search for the last table time at or before the specified time.
+     * Times outside of the table use the first or last interval.
+     *
+     * @param time
+     * @return
+     */
+    private int findInterval(long time)
+    {
+        int lo = 0;
+        int hi = tMillis.length - 2;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (tMillis[mid] <= time)
+            {
+                lo = mid;
+            }
+            else
+            {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
     public static void main(String[] args) throws FileNotFoundException, IOException
     {
         String fname = "/data/Cal/weatherData/KSCK_20071022-20080101.CSV";
@@ -47,6 +47,16 @@ public class OutsideTemperatureModel
      * @return
      */
     double getTemperature(GregorianCalendar time)
+    {
+        return getTemperature(time.getTimeInMillis());
+    }
+
+    /** Get the outside temperature for the specified time.
+     *
+     * @param millis -- milliseconds since the epoch
+     * @return
+     */
+    double getTemperature(long millis)
     {
         return Tout;
     }
@@ -32,6 +32,8 @@ package edu.berkeley.me.jRonSim.aggregator.environment;
 
 import java.util.GregorianCalendar;
 
+import edu.berkeley.me.jRonSim.util.SimClock;
+
 /** Computes the solar radiation as per the ASHRAE standard:
  * Table 7 Extraterrestrial Solar Irradiance and Related Data
  * 2001 ASHRAE Fundamentals Handbook, p30.13
@@ -80,7 +82,7 @@ public class SolarRadiationModel
         0.136, 0.122, 0.092, 0.073, 0.063, 0.057
     };
     private final double therm_LSM = 120;
-    private final double therm_psi = 90;  // All windows facing West 90 // 90
+    private final double therm_psi;  // Window azimuth from south, West 90
     private final double therm_sigma = 0;  // Flat land
     private final double therm_IAC = 0.5;  // 0.7 shading
     private final double therm_U = 2;//0.5;//10;  // ASHRAE p30.8, Table 4, (0.5)
@@ -98,18 +100,30 @@ public class SolarRadiationModel
     {
         // Initialize the variables.
         this.location = location;
+        this.therm_psi = 90;  // All windows facing West
+    }
 
+    /** Construct the solar radiation model for windows that face the
+     * specified direction.
+     *
+     * @param location
+     * @param psi -- azimuth of the windows from south, West = 90 (deg)
+     */
+    public SolarRadiationModel(double[] location, double psi)
+    {
+        this.location = location;
+        this.therm_psi = psi;
     }
 
     /** Interpret the table
      *
-     * @param t
+     * @param Month
+     * @param Day
      * @param table
      * @return
      */
-    private double interpTable7(GregorianCalendar date, double table[])
+    private double interpTable7(int Month, int Day, double table[])
     {
-        int Month = date.get(GregorianCalendar.MONTH);//date[0] - 1;
         int prevMonth = Month - 1;
         if (prevMonth < 0)
         {
@@ -120,7 +134,6 @@ public class SolarRadiationModel
         {
             nextMonth = 0;
         }
-        int Day = date.get(GregorianCalendar.DAY_OF_MONTH);
         double tableIndex = 0;
         if (Day <= 21)
         {
@@ -131,7 +144,10 @@ public class SolarRadiationModel
         {
             tableIndex = nextMonth + ((double) (Day - 21) / (double) daysInMonth[Month]);
         }
-        double interp = (table[(int) tableIndex + 1] - table[(int) tableIndex]) * (tableIndex - (int) tableIndex) + table[(int) tableIndex];
+        // wrap around the end of the year (late November and December)
+        int i0 = (int) tableIndex % 12;
+        int i1 = ((int) tableIndex + 1) % 12;
+        double interp = (table[i1] - table[i0]) * (tableIndex - (int) tableIndex) + table[i0];
         return interp;
     }
 
@@ -142,15 +158,42 @@ public class SolarRadiationModel
      */
     double computeRadiation(GregorianCalendar date)
     {
-        double LST = date.get(GregorianCalendar.HOUR_OF_DAY) -
-                date.get(GregorianCalendar.DST_OFFSET);
+        return computeRadiation(date.get(GregorianCalendar.MONTH),
+                date.get(GregorianCalendar.DAY_OF_MONTH),
+                date.get(GregorianCalendar.HOUR_OF_DAY),
+                date.get(GregorianCalendar.DST_OFFSET));
+    }
+
+    /** returns the direct irradiance constant for the time of the clock
+     *
+     * @param clock
+     * @return
+     */
+    double computeRadiation(SimClock clock)
+    {
+        return computeRadiation(clock.getMonth(), clock.getDayOfMonth(),
+                clock.getHourOfDay(), clock.getDstOffset());
+    }
+
+    /** returns the direct irradiance constant for the given local date and
+     * time of day
+     *
+     * @param month -- January = 0
+     * @param day -- day of the month
+     * @param hour -- time of day (hr)
+     * @param dst -- daylight saving offset, as the calendar gives it
+     * @return
+     */
+    double computeRadiation(int month, int day, double hour, int dst)
+    {
+        double LST = hour - dst;
         //GetTimeOfDayHours(t) - GetIsDstFlag(t);
 
-        double A = interpTable7(date, therm_A);
-        double B = interpTable7(date, therm_B);
+        double A = interpTable7(month, day, therm_A);
+        double B = interpTable7(month, day, therm_B);
         double CN = 1;
-        double del = interpTable7(date, therm_del);
-        double ET = interpTable7(date, therm_ET);
+        double del = interpTable7(month, day, therm_del);
+        double ET = interpTable7(month, day, therm_ET);
 
         double AST = LST + ET / 60 + (therm_LSM - location[LON]) / 15;
         double H = 15 * (AST - 12);
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.aggregator.environment;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+
+import edu.berkeley.me.jRonSim.util.SimClock;
+
+/** The solar radiation of SolarRadiationModel for one location, window
+ * orientation and year, computed once for every day of the year and every
+ * slot of the day.  Lookups cost an index computation instead of the table
+ * interpolation and trigonometry of the model.  The tables are shared: get()
+ * returns the same table for the same arguments.
+ *
+ * Each slot holds the model value at its start.  lookup() returns the value
+ * of the slot the time falls in; since the model itself only looks at the
+ * hour, this is exactly the model at a resolution of 60 minutes.  interpolate()
+ * interpolates linearly between the slots, which follows the sun more closely
+ * at coarse resolutions.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class SolarRadiationTable
+{
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final HashMap<String, SolarRadiationTable> tables =
+            new HashMap<String, SolarRadiationTable>();
+    private final int year;
+    private final int resolution;
+    private final int slotsPerDay;
+    private final double[] table;
+
+    /** Get the table for a location, window orientation and year.
+     *
+     * @param location -- {lon, lat} as for SolarRadiationModel
+     * @param psi -- azimuth of the windows from south, West = 90 (deg)
+     * @param year
+     * @param resolution -- slot length (min), must divide a day
+     * @return
+     */
+    public static SolarRadiationTable get(double[] location, double psi,
+            int year, int resolution)
+    {
+        String key = location[SolarRadiationModel.LON] + "," +
+                location[SolarRadiationModel.LAT] + "," + psi + "," + year +
+                "," + resolution;
+        synchronized (tables)
+        {
+            SolarRadiationTable tab = tables.get(key);
+            if (tab == null)
+            {
+                tab = new SolarRadiationTable(location, psi, year, resolution);
+                tables.put(key, tab);
+            }
+            return tab;
+        }
+    }
+
+    private SolarRadiationTable(double[] location, double psi, int year,
+            int resolution)
+    {
+        if (resolution <= 0 || MINUTES_PER_DAY % resolution != 0)
+        {
+            throw new IllegalArgumentException("resolution must divide a day: "
+                    + resolution);
+        }
+        this.year = year;
+        this.resolution = resolution;
+        this.slotsPerDay = MINUTES_PER_DAY / resolution;
+
+        SolarRadiationModel model = new SolarRadiationModel(location, psi);
+        GregorianCalendar cal = new GregorianCalendar(year, Calendar.JANUARY, 1);
+        int nDays = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
+        table = new double[nDays * slotsPerDay];
+        for (int d = 0; d < nDays; d++)
+        {
+            for (int s = 0; s < slotsPerDay; s++)
+            {
+                int minute = s * resolution;
+                cal.clear();
+                cal.set(year, Calendar.JANUARY, 1, minute / 60, minute % 60);
+                cal.set(Calendar.DAY_OF_YEAR, d + 1);
+                double hour = minute / 60 + (minute % 60) / 60.0;
+                table[d * slotsPerDay + s] = model.computeRadiation(
+                        cal.get(Calendar.MONTH),
+                        cal.get(Calendar.DAY_OF_MONTH), hour,
+                        cal.get(Calendar.DST_OFFSET));
+            }
+        }
+    }
+
+    /** Get the year the table is for.
+     *
+     * @return
+     */
+    public int getYear()
+    {
+        return year;
+    }
+
+    /** Get the slot length (min).
+     *
+     * @return
+     */
+    public int getResolution()
+    {
+        return resolution;
+    }
+
+    /** Get the radiation of the slot that contains the time of the clock.
+     *
+     * @param clock
+     * @return
+     */
+    public double lookup(SimClock clock)
+    {
+        int i = (clock.getDayOfYear() - 1) * slotsPerDay +
+                clock.getMinuteOfDay() / resolution;
+        return table[Math.min(i, table.length - 1)];
+    }
+
+    /** Get the radiation at the time of the clock, interpolated between the
+     * slots.
+     *
+     * @param clock
+     * @return
+     */
+    public double interpolate(SimClock clock)
+    {
+        double slot = (clock.getSecondOfDay() + clock.getMillisecond() / 1000.0)
+                / (60.0 * resolution);
+        int s = (int) slot;
+        int i = Math.min((clock.getDayOfYear() - 1) * slotsPerDay + s,
+                table.length - 1);
+        int next = Math.min(i + 1, table.length - 1);
+        return table[i] + (table[next] - table[i]) * (slot - s);
+    }
+}
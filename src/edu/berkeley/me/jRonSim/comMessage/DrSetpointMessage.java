@@ -35,17 +35,21 @@ import java.net.UnknownHostException;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
+import edu.berkeley.me.jRonSim.util.SimClock;
+
 /**This is the basic setpoint based DR message with ramps in and out.  
+ * The message is immutable, so one instance can be delivered to any number
+ * of houses and read from several threads.
  *
  * @author William Burke <billstron@gmail.com>
  */
 public class DrSetpointMessage extends Message {
 
-    private double TmodMax;
-    private double rampRateIn;  // T / ms
-    private double rampRateOut;
-    private GregorianCalendar start;
-    private GregorianCalendar end;
+    private final double TmodMax;
+    private final double rampRateIn;  // T / ms
+    private final double rampRateOut;
+    private final long tStart;  // ms since the epoch
+    private final long tEnd;
 
     /** Construct the basic setpoint message with no setpoint ramping.
      * 
@@ -57,11 +61,10 @@ public class DrSetpointMessage extends Message {
      */
     public DrSetpointMessage(InetAddress from, InetAddress to,
             GregorianCalendar start, GregorianCalendar end, double TmodMax) {
-        super(from, MessageType.DR_SETPOINT);
+        super(from, to, MessageType.DR_SETPOINT);
 
-        this.to = to;
-        this.start = start;
-        this.end = end;
+        this.tStart = start.getTimeInMillis();
+        this.tEnd = end.getTimeInMillis();
         this.TmodMax = TmodMax;
         this.rampRateIn = Float.POSITIVE_INFINITY;
         this.rampRateOut = Float.POSITIVE_INFINITY;
@@ -80,26 +83,117 @@ public class DrSetpointMessage extends Message {
     public DrSetpointMessage(InetAddress from, InetAddress to,
             GregorianCalendar start, GregorianCalendar end, double TmodMax,
             double rampRateIn, double rampRateOut) {
-        super(from, MessageType.DR_SETPOINT);
+        super(from, to, MessageType.DR_SETPOINT);
 
-        this.to = to;
-        this.start = start;
-        this.end = end;
+        this.tStart = start.getTimeInMillis();
+        this.tEnd = end.getTimeInMillis();
         this.TmodMax = TmodMax;
         this.rampRateIn = Math.abs(rampRateIn);
         this.rampRateOut = Math.abs(rampRateOut);
     }
 
+    /** Construct the setpoint message between node ids, with the times in
+     * ms since the epoch.  This is what MessageCodec decodes to.
+     *
+     * @param from -- From node id
+     * @param to -- To node id, Message.NO_NODE for any
+     * @param tStart -- Start Time (ms)
+     * @param tEnd -- End Time (ms)
+     * @param TmodMax -- The maximum setback.
+     * @param rampRateIn -- positive units of Tsp/ms, Step = Infinity.
+     * @param rampRateOut -- positive units of Tsp/ms, Step = Infinity.
+     */
+    public DrSetpointMessage(int from, int to, long tStart, long tEnd,
+            double TmodMax, double rampRateIn, double rampRateOut) {
+        super(from, to, MessageType.DR_SETPOINT);
+
+        this.tStart = tStart;
+        this.tEnd = tEnd;
+        this.TmodMax = TmodMax;
+        this.rampRateIn = Math.abs(rampRateIn);
+        this.rampRateOut = Math.abs(rampRateOut);
+    }
+
+    /** Get the start of the event.
+     *
+     * @return -- ms since the epoch
+     */
+    public long getStartTimeInMillis() {
+        return tStart;
+    }
+
+    /** Get the end of the event.
+     *
+     * @return -- ms since the epoch
+     */
+    public long getEndTimeInMillis() {
+        return tEnd;
+    }
+
+    /** Get the maximum setback.
+     *
+     * @return
+     */
+    public double getTmodMax() {
+        return TmodMax;
+    }
+
+    /** Get the ramp rate into the event.
+     *
+     * @return -- Tsp/ms, Infinity for a step
+     */
+    public double getRampRateIn() {
+        return rampRateIn;
+    }
+
+    /** Get the ramp rate out of the event.
+     *
+     * @return -- Tsp/ms, Infinity for a step
+     */
+    public double getRampRateOut() {
+        return rampRateOut;
+    }
+
     /** Get the DR based setback for the specified time.
      *
      * @param now -- The time of interest.
      * @return
      */
     public double getCurrentTspMod(GregorianCalendar now) {
-        long tStart = start.getTimeInMillis();
-        long tEnd = end.getTimeInMillis();
-        long tNow = now.getTimeInMillis();
+        return getCurrentTspMod(now.getTimeInMillis());
+    }
 
+    /** Get the DR based setback for the time of the clock.
+     *
+     * @param now -- The time of interest.
+     * @return
+     */
+    public double getCurrentTspMod(SimClock now) {
+        return getCurrentTspMod(now.getTimeInMillis());
+    }
+
+    /** Get the DR based setback for the specified time.
+     *
+     * @param tNow -- The time of interest, in ms since the epoch.
+     * @return
+     */
+    public double getCurrentTspMod(long tNow) {
+        return getTspMod(tNow, tStart, tEnd, TmodMax, rampRateIn, rampRateOut);
+    }
+
+    /** Get the DR based setback of an event at the specified time.  Also used
+     * by MessageCodec to read an encoded message in place.
+     *
+     * @param tNow -- The time of interest, in ms since the epoch.
+     * @param tStart -- start of the event (ms)
+     * @param tEnd -- end of the event (ms)
+     * @param TmodMax -- The maximum setback.
+     * @param rampRateIn -- Tsp/ms
+     * @param rampRateOut -- Tsp/ms
+     * @return
+     */
+    static double getTspMod(long tNow, long tStart, long tEnd, double TmodMax,
+            double rampRateIn, double rampRateOut) {
         long compStart = tNow - tStart;
         long compEnd = tNow - tEnd;
 
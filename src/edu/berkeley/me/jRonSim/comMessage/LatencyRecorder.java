@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.comMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Records how long messages took from the time they were sent to the time
+ * they took effect, in a histogram of power of two buckets of milliseconds.
+ * Any number of threads can record and read at once.
+ *
+ * The send time is the one stamped in the message by its sender, so over a
+ * network the latencies are only as good as the agreement of the clocks; a
+ * latency below zero is recorded as zero.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class LatencyRecorder {
+
+    // bucket 0 holds [0, 1) ms, bucket k holds [2^(k-1), 2^k) ms
+    private static final int N_BUCKETS = 64;
+    private final AtomicLongArray buckets = new AtomicLongArray(N_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Record the latency of a message that takes effect now.  Messages
+     * that were not sent through a link, with no send time, are ignored.
+     *
+     * @param msg
+     */
+    public void recordNow(Message msg) {
+        long tSent = msg.getTimeSent();
+        if (tSent != Message.NO_TIME) {
+            record(System.currentTimeMillis() - tSent);
+        }
+    }
+
+    /** Record a latency.
+     *
+     * @param millis
+     */
+    public void record(long millis) {
+        millis = Math.max(0, millis);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(millis));
+        sum.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+        count.incrementAndGet();
+    }
+
+    /** Get the number of latencies recorded.
+     *
+     * @return
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Get the mean latency.
+     *
+     * @return ms, 0 if none were recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Get the largest latency.
+     *
+     * @return ms
+     */
+    public long getMaxMillis() {
+        return max.get();
+    }
+
+    /** Get a bound on a percentile of the latencies: the top of the bucket
+     * it falls in, or the largest latency if that is lower.
+     *
+     * @param p -- percentile, 0 to 100
+     * @return ms, 0 if none were recorded
+     */
+    public long getPercentileMillis(double p) {
+        long n = 0;
+        long[] counts = new long[N_BUCKETS];
+        for (int k = 0; k < N_BUCKETS; k++) {
+            counts[k] = buckets.get(k);
+            n += counts[k];
+        }
+        long rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for (int k = 0; k < N_BUCKETS; k++) {
+            seen += counts[k];
+            if (seen >= rank && seen > 0) {
+                long top = k == N_BUCKETS - 1 ? Long.MAX_VALUE : 1L << k;
+                return Math.min(top, max.get());
+            }
+        }
+        return 0;
+    }
+
+    /** Get a one line summary of the latencies.
+     *
+     * @return
+     */
+    public String getReport() {
+        return String.format("%d messages, latency mean %.1f ms, 50%% <= %d"
+                + " ms, 99%% <= %d ms, max %d ms", getCount(), getMeanMillis(),
+                getPercentileMillis(50), getPercentileMillis(99),
+                getMaxMillis());
+    }
+}
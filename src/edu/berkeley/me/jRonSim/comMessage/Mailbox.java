@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.comMessage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+
+/** A bounded mailbox of messages that any number of threads can post to
+ * while one thread takes the messages out, without locks.  The messages
+ * are kept in a ring of slots, each with a sequence number that tells
+ * whether it is free for the producer of a position or full for the
+ * consumer of it; producers claim a position by compare and set on the
+ * tail, and the consumer moves the head the same way.
+ *
+ * What happens when the mailbox is full depends on the overflow policy:
+ * the oldest message is dropped to make room, the new one is dropped, or,
+ * when coalescing, the mailbox only ever keeps the latest message of each
+ * MessageType and a new message replaces the one of its type still
+ * waiting.  The counters of posted and dropped messages can be read from
+ * any thread.
+ *
+ * The state is in plain fields and arrays, accessed through VarHandles, so
+ * a mailbox can be saved by SimCheckpoint while no thread is posting.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class Mailbox {
+
+    /** What to do with a message posted to a full mailbox. */
+    public enum Overflow {
+
+        /** Drop the oldest message to make room. */
+        DROP_OLDEST,
+        /** Drop the new message. */
+        DROP_NEWEST,
+        /** Keep only the latest message of each type. */
+        COALESCE
+    }
+    private static final VarHandle SLOT =
+            MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle SEQ =
+            MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle PENDING =
+            MethodHandles.arrayElementVarHandle(Message[].class);
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+    private static final VarHandle POSTED;
+    private static final VarHandle DROPPED;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            HEAD = l.findVarHandle(Mailbox.class, "head", long.class);
+            TAIL = l.findVarHandle(Mailbox.class, "tail", long.class);
+            POSTED = l.findVarHandle(Mailbox.class, "nPosted", long.class);
+            DROPPED = l.findVarHandle(Mailbox.class, "nDropped", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private final Overflow policy;
+    private final int mask;
+    private final Object[] slots;
+    private final long[] seq;
+    // latest message of each type, when coalescing; the ring then holds
+    // the types that have a message waiting, in the order they arrived
+    private final Message[] pending;
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long nPosted = 0;
+    private volatile long nDropped = 0;
+
+    /** Construct the mailbox.
+     *
+     * @param capacity -- number of messages it holds, rounded up to a power
+     * of two; ignored when coalescing, which holds one message of each type
+     * @param policy
+     */
+    public Mailbox(int capacity, Overflow policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.policy = policy;
+        if (policy == Overflow.COALESCE) {
+            capacity = MessageType.values().length;
+            pending = new Message[capacity];
+        } else {
+            pending = null;
+        }
+        int n = Integer.highestOneBit(capacity);
+        if (n < capacity) {
+            n <<= 1;
+        }
+        mask = n - 1;
+        slots = new Object[n];
+        seq = new long[n];
+        for (int i = 0; i < n; i++) {
+            seq[i] = i;
+        }
+    }
+
+    /** Post a message.  Safe to call from any thread.
+     *
+     * @param msg
+     * @return false if the message was dropped
+     */
+    public boolean post(Message msg) {
+        if (msg == null) {
+            throw new NullPointerException("msg");
+        }
+        POSTED.getAndAdd(this, 1L);
+        switch (policy) {
+            case DROP_NEWEST:
+                if (!offer(msg)) {
+                    DROPPED.getAndAdd(this, 1L);
+                    return false;
+                }
+                return true;
+            case DROP_OLDEST:
+                while (!offer(msg)) {
+                    if (take() != null) {
+                        DROPPED.getAndAdd(this, 1L);
+                    }
+                }
+                return true;
+            default:
+                MessageType type = msg.getType();
+                Message old = (Message) PENDING.getAndSet(pending,
+                        type.ordinal(), msg);
+                if (old != null) {
+                    // replaced a message that was still waiting
+                    DROPPED.getAndAdd(this, 1L);
+                } else {
+                    // there is at most one entry of each type in the ring
+                    while (!offer(type)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return true;
+        }
+    }
+
+    /** Take the oldest message out.  Only one thread may take messages.
+     *
+     * @return null if there are none
+     */
+    public Message poll() {
+        Object e = take();
+        if (e instanceof MessageType) {
+            return (Message) PENDING.getAndSet(pending,
+                    ((MessageType) e).ordinal(), null);
+        }
+        return (Message) e;
+    }
+
+    /** Take the newest message out.  The older ones waiting are dropped,
+     * and counted as such.  Only one thread may take messages.
+     *
+     * @return null if there are none
+     */
+    public Message pollLatest() {
+        Message latest = poll();
+        if (latest == null) {
+            return null;
+        }
+        Message msg;
+        while ((msg = poll()) != null) {
+            DROPPED.getAndAdd(this, 1L);
+            latest = msg;
+        }
+        return latest;
+    }
+
+    /** Take up to max messages out, oldest first.
+     *
+     * @param out -- receives the messages
+     * @param max
+     * @return the number of messages taken
+     */
+    public int drainTo(Collection<? super Message> out, int max) {
+        int n = 0;
+        while (n < max) {
+            Message msg = poll();
+            if (msg == null) {
+                break;
+            }
+            out.add(msg);
+            n++;
+        }
+        return n;
+    }
+
+    /** Take all of the messages out, oldest first.
+     *
+     * @param out -- receives the messages
+     * @return the number of messages taken
+     */
+    public int drainTo(Collection<? super Message> out) {
+        return drainTo(out, Integer.MAX_VALUE);
+    }
+
+    /** Get the number of messages waiting.  Only a snapshot when other
+     * threads are posting.
+     *
+     * @return
+     */
+    public int size() {
+        long n = tail - head;
+        return (int) Math.max(0, Math.min(n, slots.length));
+    }
+
+    /** Get the number of messages the mailbox holds.
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public Overflow getPolicy() {
+        return policy;
+    }
+
+    /** Get the number of messages posted, dropped ones included.
+     *
+     * @return
+     */
+    public long getPostedCount() {
+        return nPosted;
+    }
+
+    /** Get the number of messages dropped, or replaced by a newer message of
+     * the same type when coalescing.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return nDropped;
+    }
+
+    /** Put an entry in the ring.
+     *
+     * @param e
+     * @return false if the ring is full
+     */
+    private boolean offer(Object e) {
+        while (true) {
+            long t = tail;
+            int i = (int) t & mask;
+            long s = (long) SEQ.getAcquire(seq, i);
+            if (s == t) {
+                if (TAIL.compareAndSet(this, t, t + 1)) {
+                    SLOT.set(slots, i, e);
+                    SEQ.setRelease(seq, i, t + 1);
+                    return true;
+                }
+            } else if (s < t) {
+                return false;
+            }
+            // another producer took the position; try the next one
+        }
+    }
+
+    /** Take the oldest entry out of the ring.  The consumer and, when the
+     * oldest message is dropped, the producers compete for it.
+     *
+     * @return null if the ring is empty
+     */
+    private Object take() {
+        while (true) {
+            long h = head;
+            int i = (int) h & mask;
+            long s = (long) SEQ.getAcquire(seq, i);
+            if (s == h + 1) {
+                if (HEAD.compareAndSet(this, h, h + 1)) {
+                    Object e = SLOT.get(slots, i);
+                    SLOT.set(slots, i, null);
+                    SEQ.setRelease(seq, i, h + slots.length);
+                    return e;
+                }
+            } else if (s < h + 1) {
+                return null;
+            }
+            // another thread took the entry; try the next one
+        }
+    }
+}
@@ -28,21 +28,42 @@
  * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
  * OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-
 package edu.berkeley.me.jRonSim.comMessage;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
-import java.util.GregorianCalendar;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** This class defines the base message that can be sent to and from houses.
+ * The end points are kept as numeric node ids, the IPv4 address of the node
+ * as a big endian int, so a message can be encoded by MessageCodec without
+ * touching the addresses.  IPv6 nodes are given ids from the reserved IPv4
+ * block 240.0.0.0/4 as they are first seen; those ids only mean something
+ * within this process.  A message does not change once it is built, so it
+ * can be shared by any number of threads and houses.
  *
  * @author William Burke <billstron@gmail.com>
  */
 public class Message {
-    protected InetAddress from;
-    protected InetAddress to;
-    private MessageType type;
-    protected GregorianCalendar tSent;
+    /** node id of a missing address (e.g. a broadcast has no to address) */
+    public static final int NO_NODE = 0;
+    /** time sent of a message that has not been sent */
+    public static final long NO_TIME = Long.MIN_VALUE;
+    protected final int from;
+    protected final int to;
+    private final MessageType type;
+    // ms since the epoch; only set by MessageCodec, on a decoded message
+    protected long tSent = NO_TIME;
+    // node ids of the IPv6 addresses, from the reserved block 240.0.0.0/4
+    private static final int IPV6_FIRST = 0xF0000000;
+    private static final int IPV6_COUNT = 1 << 28;
+    private static final AtomicInteger nIpv6 = new AtomicInteger();
+    private static final ConcurrentHashMap<InetAddress, Integer> ipv6Ids =
+            new ConcurrentHashMap<InetAddress, Integer>();
+    private static final ConcurrentHashMap<Integer, InetAddress> ipv6Nodes =
+            new ConcurrentHashMap<Integer, InetAddress>();
 
     /** constructor for the message.
      *
@@ -50,7 +71,28 @@ public class Message {
      * @param type -- the type of message
      */
     public Message(InetAddress from, MessageType type){
+        this(from, null, type);
+    }
+
+    /** constructor for a message to a single address.
+     *
+     * @param from -- address the message is from
+     * @param to -- address the message is to, null for any
+     * @param type -- the type of message
+     */
+    public Message(InetAddress from, InetAddress to, MessageType type){
+        this(nodeId(from), nodeId(to), type);
+    }
+
+    /** constructor for the message between numeric node ids.
+     *
+     * @param from -- node id the message is from
+     * @param to -- node id the message is to, NO_NODE for any
+     * @param type -- the type of message
+     */
+    public Message(int from, int to, MessageType type){
         this.from = from;
+        this.to = to;
         this.type = type;
     }
 
@@ -61,4 +103,114 @@ public class Message {
     public MessageType getType(){
         return type;
     }
+
+    /** returns the node id the message is from
+     *
+     * @return -- node id, NO_NODE if there is none
+     */
+    public int getFromId(){
+        return from;
+    }
+
+    /** returns the node id the message is to
+     *
+     * @return -- node id, NO_NODE if there is none
+     */
+    public int getToId(){
+        return to;
+    }
+
+    /** returns the address the message is from
+     *
+     * @return -- address, null if there is none
+     */
+    public InetAddress getFrom(){
+        return nodeAddress(from);
+    }
+
+    /** returns the address the message is to
+     *
+     * @return -- address, null if there is none
+     */
+    public InetAddress getTo(){
+        return nodeAddress(to);
+    }
+
+    /** returns the time the message was sent
+     *
+     * @return -- ms since the epoch, NO_TIME if it has not been sent
+     */
+    public long getTimeSent(){
+        return tSent;
+    }
+
+    /** set the time a decoded message was sent.  The time sent of a
+     * message that is sent is stamped in its record instead (see
+     * MessageCodec.setTimeSent), so the message itself is left alone.
+     *
+     * @param tSent -- ms since the epoch
+     */
+    void setTimeSent(long tSent){
+        this.tSent = tSent;
+    }
+
+    /** Convert an address to a node id.  An IPv6 loopback address is taken
+     * for the IPv4 one, and any other IPv6 address is given the next free id
+     * of the block 240.0.0.0/4 the first time it is seen.
+     *
+     * @param addr -- address, or null
+     * @return -- node id, NO_NODE for null
+     * @throws IllegalStateException if the block has run out of ids
+     */
+    public static int nodeId(InetAddress addr){
+        if (addr == null) {
+            return NO_NODE;
+        }
+        if (!(addr instanceof Inet4Address)) {
+            if (addr.isLoopbackAddress()) {
+                return 0x7F000001;  // 127.0.0.1
+            }
+            Integer id = ipv6Ids.get(addr);
+            if (id == null) {
+                id = ipv6Ids.computeIfAbsent(addr, a -> {
+                    int k = nIpv6.getAndIncrement();
+                    if (k >= IPV6_COUNT) {
+                        throw new IllegalStateException(
+                                "out of node ids for IPv6 addresses");
+                    }
+                    ipv6Nodes.put(IPV6_FIRST + k, a);
+                    return IPV6_FIRST + k;
+                });
+            }
+            return id;
+        }
+        byte[] b = addr.getAddress();
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16)
+                | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    /** Convert a node id back to its address.
+     *
+     * @param id -- node id
+     * @return -- IPv4 address, the IPv6 address the id was given to, or
+     * null for NO_NODE
+     */
+    public static InetAddress nodeAddress(int id){
+        if (id == NO_NODE) {
+            return null;
+        }
+        if ((id & IPV6_FIRST) == IPV6_FIRST) {
+            InetAddress addr = ipv6Nodes.get(id);
+            if (addr != null) {
+                return addr;
+            }
+        }
+        byte[] b = {(byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8),
+            (byte) id};
+        try {
+            return InetAddress.getByAddress(b);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);  // 4 bytes is always legal
+        }
+    }
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.comMessage;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/** Fixed layout binary encoding of the messages, so DR traffic can be logged,
+ * replayed and sent without the addresses and calendars of the message
+ * objects.  Encoding and decoding work directly against a ByteBuffer and
+ * allocate nothing but the decoded message; the get methods read a field of
+ * an encoded record in place and allocate nothing at all.
+ *
+ * Every record starts with the same header, and the size of a record only
+ * depends on its type.  The fields are in the byte order of the buffer (big
+ * endian unless the caller changes it).
+ *
+ * <pre>
+ * header, all types (HEADER_SIZE bytes)
+ *    0  byte   VERSION
+ *    1  byte   MessageType ordinal
+ *    2  short  size of the record (bytes)
+ *    4  int    from node id
+ *    8  int    to node id, Message.NO_NODE for any
+ *   12  int    reserved, 0
+ *   16  long   time sent (ms since the epoch), Message.NO_TIME if not sent
+ * DR_SETPOINT (DR_SETPOINT_SIZE bytes)
+ *   24  long   start of the event (ms since the epoch)
+ *   32  long   end of the event (ms since the epoch)
+ *   40  double maximum setback
+ *   48  double ramp rate in (Tsp/ms), Infinity for a step
+ *   56  double ramp rate out (Tsp/ms)
+ * INFO, DR_COSTRATIO, DR_RELIABILITY
+ *   the header only; these messages carry nothing else yet
+ * </pre>
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class MessageCodec {
+
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int DR_SETPOINT_SIZE = HEADER_SIZE + 40;
+    /** size of the largest record */
+    public static final int MAX_SIZE = DR_SETPOINT_SIZE;
+    private static final int TYPE = 1;
+    private static final int SIZE = 2;
+    private static final int FROM = 4;
+    private static final int TO = 8;
+    private static final int SENT = 16;
+    private static final int START = 24;
+    private static final int END = 32;
+    private static final int TMOD = 40;
+    private static final int RAMP_IN = 48;
+    private static final int RAMP_OUT = 56;
+    private static final MessageType[] types = MessageType.values();
+
+    private MessageCodec() {
+    }
+
+    /** Get the size of the record of a message type.
+     *
+     * @param type
+     * @return -- bytes
+     */
+    public static int getSize(MessageType type) {
+        switch (type) {
+            case DR_SETPOINT:
+                return DR_SETPOINT_SIZE;
+            case INFO:
+            case DR_COSTRATIO:
+            case DR_RELIABILITY:
+            default:
+                return HEADER_SIZE;
+        }
+    }
+
+    /** Encode a message at the position of the buffer, and advance the
+     * position past it.  Nothing is written if the record does not fit.
+     *
+     * @param msg
+     * @param buf
+     * @throws BufferOverflowException if the buffer has too little room
+     */
+    public static void encode(Message msg, ByteBuffer buf) {
+        int p = buf.position();
+        int size = encode(msg, buf, p);
+        buf.position(p + size);
+    }
+
+    /** Encode a message at an index of the buffer, without changing its
+     * position.
+     *
+     * @param msg
+     * @param buf
+     * @param index -- where the record starts
+     * @return -- size of the record (bytes)
+     * @throws BufferOverflowException if the buffer has too little room
+     */
+    public static int encode(Message msg, ByteBuffer buf, int index) {
+        MessageType type = msg.getType();
+        int size = getSize(type);
+        if (index < 0 || buf.limit() - index < size) {
+            throw new BufferOverflowException();
+        }
+        buf.put(index, (byte) VERSION);
+        buf.put(index + TYPE, (byte) type.ordinal());
+        buf.putShort(index + SIZE, (short) size);
+        buf.putInt(index + FROM, msg.getFromId());
+        buf.putInt(index + TO, msg.getToId());
+        buf.putInt(index + 12, 0);
+        buf.putLong(index + SENT, msg.getTimeSent());
+        if (type == MessageType.DR_SETPOINT) {
+            DrSetpointMessage dr = (DrSetpointMessage) msg;
+            buf.putLong(index + START, dr.getStartTimeInMillis());
+            buf.putLong(index + END, dr.getEndTimeInMillis());
+            buf.putDouble(index + TMOD, dr.getTmodMax());
+            buf.putDouble(index + RAMP_IN, dr.getRampRateIn());
+            buf.putDouble(index + RAMP_OUT, dr.getRampRateOut());
+        }
+        return size;
+    }
+
+    /** Decode the message at the position of the buffer, and advance the
+     * position past it.  The position is left alone if the whole record is
+     * not there yet.
+     *
+     * @param buf
+     * @return
+     * @throws BufferUnderflowException if the record is not complete
+     * @throws IllegalArgumentException if the bytes are not a record
+     */
+    public static Message decode(ByteBuffer buf) {
+        int p = buf.position();
+        Message msg = decode(buf, p);
+        buf.position(p + getSize(msg.getType()));
+        return msg;
+    }
+
+    /** Decode the message at an index of the buffer, without changing its
+     * position.
+     *
+     * @param buf
+     * @param index -- where the record starts
+     * @return
+     * @throws BufferUnderflowException if the record is not complete
+     * @throws IllegalArgumentException if the bytes are not a record
+     */
+    public static Message decode(ByteBuffer buf, int index) {
+        int size = check(buf, index);
+        MessageType type = types[buf.get(index + TYPE)];
+        if (buf.limit() - index < size) {
+            throw new BufferUnderflowException();
+        }
+        int from = buf.getInt(index + FROM);
+        int to = buf.getInt(index + TO);
+        Message msg;
+        if (type == MessageType.DR_SETPOINT) {
+            msg = new DrSetpointMessage(from, to, buf.getLong(index + START),
+                    buf.getLong(index + END), buf.getDouble(index + TMOD),
+                    buf.getDouble(index + RAMP_IN),
+                    buf.getDouble(index + RAMP_OUT));
+        } else {
+            msg = new Message(from, to, type);
+        }
+        msg.setTimeSent(buf.getLong(index + SENT));
+        return msg;
+    }
+
+    /** Check the header of a record.
+     *
+     * @param buf
+     * @param index
+     * @return -- size of the record
+     */
+    private static int check(ByteBuffer buf, int index) {
+        if (index < 0 || buf.limit() - index < HEADER_SIZE) {
+            throw new BufferUnderflowException();
+        }
+        int version = buf.get(index);
+        int type = buf.get(index + TYPE);
+        if (version != VERSION || type < 0 || type >= types.length) {
+            throw new IllegalArgumentException("not a message record at "
+                    + index + " (version " + version + ", type " + type + ")");
+        }
+        int size = buf.getShort(index + SIZE);
+        if (size != getSize(types[type])) {
+            throw new IllegalArgumentException("bad size of the "
+                    + types[type] + " record at " + index + ": " + size);
+        }
+        return size;
+    }
+
+    /** Get the type of the encoded record at an index of the buffer.
+     *
+     * @param buf
+     * @param index
+     * @return
+     */
+    public static MessageType getType(ByteBuffer buf, int index) {
+        check(buf, index);
+        return types[buf.get(index + TYPE)];
+    }
+
+    /** Get the size of the encoded record at an index of the buffer, to step
+     * to the next record.
+     *
+     * @param buf
+     * @param index
+     * @return -- bytes
+     */
+    public static int getSize(ByteBuffer buf, int index) {
+        return check(buf, index);
+    }
+
+    /** Get the from node id of the encoded record at an index of the buffer.
+     *
+     * @param buf
+     * @param index
+     * @return
+     */
+    public static int getFromId(ByteBuffer buf, int index) {
+        check(buf, index);
+        return buf.getInt(index + FROM);
+    }
+
+    /** Get the to node id of the encoded record at an index of the buffer.
+     *
+     * @param buf
+     * @param index
+     * @return
+     */
+    public static int getToId(ByteBuffer buf, int index) {
+        check(buf, index);
+        return buf.getInt(index + TO);
+    }
+
+    /** Get the time sent of the encoded record at an index of the buffer.
+     *
+     * @param buf
+     * @param index
+     * @return -- ms since the epoch, Message.NO_TIME if not sent
+     */
+    public static long getTimeSent(ByteBuffer buf, int index) {
+        check(buf, index);
+        return buf.getLong(index + SENT);
+    }
+
+    /** Stamp the time sent into the encoded record at an index of the
+     * buffer, leaving the message it was encoded from alone.
+     *
+     * @param buf
+     * @param index
+     * @param tSent -- ms since the epoch
+     */
+    public static void setTimeSent(ByteBuffer buf, int index, long tSent) {
+        check(buf, index);
+        buf.putLong(index + SENT, tSent);
+    }
+
+    /** Get the DR based setback of the encoded record at an index of the
+     * buffer, without decoding it.  Records other than DR_SETPOINT have no
+     * setback.
+     *
+     * @param buf
+     * @param index
+     * @param tNow -- The time of interest, in ms since the epoch.
+     * @return
+     */
+    public static double getCurrentTspMod(ByteBuffer buf, int index,
+            long tNow) {
+        int size = check(buf, index);
+        if (buf.get(index + TYPE) != MessageType.DR_SETPOINT.ordinal()) {
+            return 0;
+        }
+        if (buf.limit() - index < size) {
+            throw new BufferUnderflowException();
+        }
+        return DrSetpointMessage.getTspMod(tNow, buf.getLong(index + START),
+                buf.getLong(index + END), buf.getDouble(index + TMOD),
+                buf.getDouble(index + RAMP_IN),
+                buf.getDouble(index + RAMP_OUT));
+    }
+
+    /** Test program: round trip a message and time the codec.
+     *
+     * @param args
+     */
+    public static void main(String args[]) {
+        long t0 = 1277539200000L;  // 2010-06-26 08:00 UTC
+        double rampIn = 4.0 / (45 * 60 * 1000);
+        double rampOut = 4.0 / (60 * 60 * 1000);
+        DrSetpointMessage msg = new DrSetpointMessage(0x7F000001,
+                Message.NO_NODE, t0, t0 + 2 * 3600 * 1000, 4, rampIn, rampOut);
+        msg.setTimeSent(t0 - 60 * 1000);
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+        encode(msg, buf);
+        encode(new Message(0x0A000002, 0x7F000001, MessageType.INFO), buf);
+        buf.flip();
+        DrSetpointMessage dr = (DrSetpointMessage) decode(buf);
+        Message info = decode(buf);
+        System.out.println("decoded " + dr.getType() + " from "
+                + dr.getFrom() + " sent " + dr.getTimeSent() + ", then "
+                + info.getType() + " from " + info.getFrom() + " to "
+                + info.getTo());
+        for (long dm = 0; dm <= 120; dm += 15) {
+            long t = t0 + dm * 60 * 1000;
+            System.out.println("At " + dm + "min, TspMod = "
+                    + dr.getCurrentTspMod(t) + " (in place "
+                    + getCurrentTspMod(buf, 0, t) + ")");
+        }
+
+        int n = buf.capacity() / DR_SETPOINT_SIZE;
+        for (int rep = 0; rep < 10; rep++) {
+            long start = System.nanoTime();
+            buf.clear();
+            for (int i = 0; i < n; i++) {
+                encode(msg, buf);
+            }
+            long mid = System.nanoTime();
+            buf.flip();
+            double sum = 0;
+            while (buf.hasRemaining()) {
+                sum += ((DrSetpointMessage) decode(buf)).getTmodMax();
+            }
+            long end = System.nanoTime();
+            System.out.printf("%d records: encode %.1f ns, decode %.1f ns"
+                    + " (%.0f)\n", n, (mid - start) / (double) n,
+                    (end - mid) / (double) n, sum);
+        }
+    }
+}
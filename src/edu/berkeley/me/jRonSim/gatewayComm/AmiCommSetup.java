@@ -34,46 +34,85 @@ package edu.berkeley.me.jRonSim.gatewayComm;
 import java.io.*;
 import java.net.*;
 
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Message;
+
 
 /**
+ * Sets up the telemetry of a house to the AMI gateway. The samples are
+ * posted to a TelemetryChannel, which batches them and writes them on its own
+ * thread, so posting never waits on the network.  They are written as the
+ * XML lines the gateway reads, ending with a STOP line; the binary frames of
+ * TelemetryChannel are only used when asked for, with LoopbackGateway.
+ *
+ * Commands only come back in the frames format: there the commands of the
+ * gateway for the house come back on the same connection and are handed to
+ * the receiver of the house.  The XML line format has no commands; what the
+ * gateway sends back is counted and ignored (see the report of closeAll()).
  * 
  * @author
  *
  */
 public class AmiCommSetup {
 
-	static Socket mySocket = null;
-	static PrintWriter out = null;
-	static BufferedReader in = null;
+	public static final String GATEWAY_HOST = "192.168.1.2";
+	public static final int GATEWAY_PORT = 1234;
+	static final int QUEUE_CAPACITY = 1 << 14;
+	static final long FLUSH_MILLIS = 1000;
+	static final long CLOSE_MILLIS = 10000;
 
-	static String line;
+	private final TelemetryChannel channel;
+	private volatile AmiUplink.Receiver receiver = null;
+	private final LatencyRecorder latency = new LatencyRecorder();
 	
 	//setup constructor
-	public AmiCommSetup(){
-		System.out.println("AMI program running");
-		
-		GatewayConnect();
-		setupIOStreams();
+	public AmiCommSetup() throws IOException{
+		this(new InetSocketAddress(GATEWAY_HOST, GATEWAY_PORT));
 	}
-		
-	public static void GatewayConnect(){
-		try{
-			System.out.println("Attempting to connect to Gateway socket...");
-			mySocket = new Socket("192.168.1.2", 1234);
-		} catch(IOException e){
-			System.err.println("Connection to port 1234 failed");
-			System.exit(-1);
-		}
+
+	/**
+	 * Connect to the gateway at the specified address.
+	 * 
+	 * @param gateway
+	 * @throws IOException
+	 */
+	public AmiCommSetup(SocketAddress gateway) throws IOException{
+		this(gateway, null);
 	}
-	
-	public static void setupIOStreams(){
-		try{
-			System.out.println("Creating output stream");
-			out = new PrintWriter(mySocket.getOutputStream(), true);
-		} catch(IOException e){
-			System.err.println("IO error in setup");
-			System.exit(1);
+
+	/**
+	 * Connect to the gateway at the specified address, keeping the samples
+	 * in a spool on disk while the gateway is slow or down.
+	 * 
+	 * @param gateway
+	 * @param spoolDir -- directory of the spool, null for none
+	 * @throws IOException
+	 */
+	public AmiCommSetup(SocketAddress gateway, File spoolDir) throws IOException{
+		this(gateway, spoolDir, TelemetryChannel.Format.XML_LINES);
+	}
+
+	/**
+	 * Connect to the gateway at the specified address, writing in the given
+	 * format.
+	 * 
+	 * @param gateway
+	 * @param spoolDir -- directory of the spool, null for none
+	 * @param format -- FRAMES for LoopbackGateway
+	 * @throws IOException
+	 */
+	public AmiCommSetup(SocketAddress gateway, File spoolDir,
+			TelemetryChannel.Format format) throws IOException{
+		System.out.println("AMI program running");
+		System.out.println("Connecting to Gateway at " + gateway);
+		TelemetrySpool spool = null;
+		if(spoolDir != null){
+			spool = new TelemetrySpool(spoolDir,
+					TelemetrySpool.DEFAULT_SEGMENT_SIZE);
 		}
+		channel = new TelemetryChannel(gateway, QUEUE_CAPACITY, FLUSH_MILLIS,
+				spool, format);
+		channel.setCommandListener(this::command);
 	}
 	
 	public static String convertToXML(String pow, String t){
@@ -83,19 +122,64 @@ public class AmiCommSetup {
 		return temp;
 	}
 	
-	public static void postToGateway(String l){
-		out.println(l);
+	/**
+	 * Post a power sample for the gateway.
+	 * 
+	 * @param t -- running time (s)
+	 * @param pow -- power
+	 * @return false if the sample was dropped
+	 */
+	public boolean postSample(double t, double pow){
+		return channel.post(t, pow);
+	}
+
+	/**
+	 * Set who takes the commands of the gateway for the house (house id 0).
+	 * Only used in the frames format.
+	 * 
+	 * @param receiver -- null for none
+	 */
+	public void setReceiver(AmiUplink.Receiver receiver){
+		this.receiver = receiver;
+	}
+
+	/**
+	 * Get the recorder of the latencies of the DR setpoint commands, for the
+	 * house to record in.
+	 * 
+	 * @return
+	 */
+	public LatencyRecorder getDrLatencyRecorder(){
+		return latency;
+	}
+
+	private void command(int house, Message msg){
+		AmiUplink.Receiver r = receiver;
+		if(r != null && (house == 0 || house == TelemetryChannel.ALL_HOUSES)){
+			r.receiveMessage(msg);
+		}
+	}
+
+	public TelemetryChannel getChannel(){
+		return channel;
 	}
 	
-	public static void closeAll(){
-		try{
-			in.close();
-			out.close();
-			mySocket.close();
-		} catch(IOException e){
-			System.err.println("Error during cleanup");
-			System.exit(-1);
+	/**
+	 * Send what is left and the STOP, and close the connection.  With a
+	 * spool, what could not be sent stays in it for the next run.
+	 * 
+	 * @return true if everything was sent
+	 */
+	public boolean closeAll(){
+		boolean ok = channel.close(CLOSE_MILLIS);
+		if(!ok){
+			System.err.println("Telemetry was not all sent");
+		}
+		System.out.println(channel.getReport());
+		if(latency.getCount() > 0){
+			System.out.println("DR " + latency.getReport());
 		}
+		return ok;
 	}
 
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.gatewayComm;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Message;
+
+/**
+ * Carries the meter readings of a whole neighborhood to the gateway over one
+ * connection, or a small pool of them, instead of a socket per house. Each
+ * house has its own sampling interval and phase; the readings are tagged
+ * with the index of the house and interleaved on the TelemetryChannel of the
+ * house (house i uses connection i % nConnections, so the readings of a house
+ * stay in order).
+ * 
+ * The readings are taken by sample(), on the simulation thread, and only the
+ * houses that are due are read.
+ * 
+ * The commands the gateway sends back on any of the connections are handed
+ * to the Receiver of their house, on the thread of the connection; a house
+ * takes them into the mailbox of its thermostat, so the simulation thread
+ * never waits for them. A command for every house is handed whole to the
+ * broadcast Receiver, which passes it on to the simulation side to be
+ * delivered there, so the thread of the connection does not go through all
+ * of the houses while the telemetry waits.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class AmiUplink {
+
+	/**
+	 * Reads the meter of a house.
+	 */
+	public interface Meter {
+		/**
+		 * @param house
+		 *            -- index of the house
+		 * @return the reading
+		 */
+		double read(int house);
+	}
+
+	/**
+	 * Takes the commands of the gateway for a house. Called on the thread of
+	 * a connection, so it must not wait.
+	 */
+	public interface Receiver {
+		/**
+		 * @param msg
+		 */
+		void receiveMessage(Message msg);
+	}
+
+	public static final int QUEUE_CAPACITY = 1 << 16;
+	public static final long FLUSH_MILLIS = 1000;
+	private final TelemetryChannel[] channels;
+	private final double[] interval; // per house (s)
+	private final double[] tNext; // next reading of each house (s)
+	private double tNextAny = 0; // earliest of tNext
+	private final AtomicReferenceArray<Receiver> receivers;
+	private volatile Receiver broadcastReceiver = null;
+	private final AtomicLong nUnrouted = new AtomicLong();
+	private final LatencyRecorder latency = new LatencyRecorder();
+
+	/**
+	 * Connect to the gateway, with every house sampled at the same interval
+	 * and the phases of the houses spread evenly over it.
+	 * 
+	 * @param gateway
+	 * @param nHouses
+	 * @param nConnections
+	 * @param dtSample
+	 *            -- sampling interval (s)
+	 * @throws IOException
+	 */
+	public AmiUplink(SocketAddress gateway, int nHouses, int nConnections,
+			double dtSample) throws IOException {
+		this(gateway, nHouses, nConnections, dtSample, QUEUE_CAPACITY,
+				FLUSH_MILLIS);
+	}
+
+	/**
+	 * Connect to the gateway.
+	 * 
+	 * @param gateway
+	 * @param nHouses
+	 * @param nConnections
+	 * @param dtSample
+	 *            -- sampling interval (s)
+	 * @param capacity
+	 *            -- number of readings the queue of each connection holds
+	 * @param flushMillis
+	 *            -- interval between frames (ms)
+	 * @throws IOException
+	 */
+	public AmiUplink(SocketAddress gateway, int nHouses, int nConnections,
+			double dtSample, int capacity, long flushMillis)
+			throws IOException {
+		this(gateway, nHouses, nConnections, dtSample, capacity, flushMillis,
+				null);
+	}
+
+	/**
+	 * Connect to the gateway, keeping the readings in spools on disk while
+	 * the gateway is slow or down (see TelemetryChannel). Connection c has
+	 * its spool in the subdirectory c of spoolDir.
+	 * 
+	 * @param gateway
+	 * @param nHouses
+	 * @param nConnections
+	 * @param dtSample
+	 *            -- sampling interval (s)
+	 * @param capacity
+	 *            -- number of readings the queue of each connection holds
+	 * @param flushMillis
+	 *            -- interval between frames (ms)
+	 * @param spoolDir
+	 *            -- null for no spool
+	 * @throws IOException
+	 */
+	public AmiUplink(SocketAddress gateway, int nHouses, int nConnections,
+			double dtSample, int capacity, long flushMillis, File spoolDir)
+			throws IOException {
+		if (nConnections < 1) {
+			throw new IllegalArgumentException("need a connection");
+		}
+		interval = new double[nHouses];
+		tNext = new double[nHouses];
+		receivers = new AtomicReferenceArray<Receiver>(nHouses);
+		for (int i = 0; i < nHouses; i++) {
+			interval[i] = dtSample;
+			tNext[i] = dtSample * i / nHouses;
+		}
+		channels = new TelemetryChannel[nConnections];
+		try {
+			for (int c = 0; c < nConnections; c++) {
+				TelemetrySpool spool = null;
+				if (spoolDir != null) {
+					spool = new TelemetrySpool(new File(spoolDir, Integer
+							.toString(c)), TelemetrySpool.DEFAULT_SEGMENT_SIZE);
+				}
+				channels[c] = new TelemetryChannel(gateway, capacity,
+						flushMillis, spool);
+				channels[c].setCommandListener(this::route);
+			}
+		} catch (IOException e) {
+			close(0);
+			throw e;
+		}
+	}
+
+	/**
+	 * Set the sampling of a house.
+	 * 
+	 * @param house
+	 * @param dt
+	 *            -- sampling interval (s)
+	 * @param tFirst
+	 *            -- time of the first reading (s)
+	 */
+	public void setSamplingInterval(int house, double dt, double tFirst) {
+		if (!(dt > 0)) {
+			throw new IllegalArgumentException("sampling interval must be"
+					+ " positive");
+		}
+		interval[house] = dt;
+		tNext[house] = tFirst;
+		tNextAny = Math.min(tNextAny, tFirst);
+	}
+
+	/**
+	 * Set who takes the commands of the gateway for a house.
+	 * 
+	 * @param house
+	 * @param receiver
+	 *            -- null for none; the commands are then dropped
+	 */
+	public void setReceiver(int house, Receiver receiver) {
+		receivers.set(house, receiver);
+	}
+
+	/**
+	 * Set who takes the commands of the gateway for every house.
+	 * 
+	 * @param receiver
+	 *            -- null for none; the broadcasts are then dropped
+	 */
+	public void setBroadcastReceiver(Receiver receiver) {
+		broadcastReceiver = receiver;
+	}
+
+	/**
+	 * Get the recorder of the latencies of the DR setpoint commands, for the
+	 * houses to record in.
+	 * 
+	 * @return
+	 */
+	public LatencyRecorder getDrLatencyRecorder() {
+		return latency;
+	}
+
+	/**
+	 * Hand a command of the gateway to its house, or to the broadcast
+	 * receiver.
+	 * 
+	 * @param house
+	 * @param msg
+	 */
+	private void route(int house, Message msg) {
+		if (house == TelemetryChannel.ALL_HOUSES) {
+			Receiver r = broadcastReceiver;
+			if (r == null) {
+				nUnrouted.incrementAndGet();
+			} else {
+				r.receiveMessage(msg);
+			}
+		} else if (house >= 0 && house < receivers.length()) {
+			deliver(house, msg);
+		} else {
+			nUnrouted.incrementAndGet();
+		}
+	}
+
+	private void deliver(int house, Message msg) {
+		Receiver r = receivers.get(house);
+		if (r == null) {
+			nUnrouted.incrementAndGet();
+		} else {
+			r.receiveMessage(msg);
+		}
+	}
+
+	/**
+	 * Get the time of the next reading of any house.
+	 * 
+	 * @return
+	 */
+	public double getNextSampleTime() {
+		return tNextAny;
+	}
+
+	/**
+	 * Post a reading of every house that is due.
+	 * 
+	 * @param t
+	 *            -- current time (s)
+	 * @param meter
+	 * @return the number of readings posted, dropped ones included
+	 */
+	public int sample(double t, Meter meter) {
+		if (t < tNextAny) {
+			return 0;
+		}
+		int n = 0;
+		double next = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < tNext.length; i++) {
+			if (t >= tNext[i]) {
+				channels[i % channels.length].post(i, t, meter.read(i));
+				n++;
+				// skip the readings that were missed, if any
+				do {
+					tNext[i] += interval[i];
+				} while (tNext[i] <= t);
+			}
+			if (tNext[i] < next) {
+				next = tNext[i];
+			}
+		}
+		tNextAny = next;
+		return n;
+	}
+
+	/**
+	 * Send the readings still waiting and close the connections.
+	 * 
+	 * @param timeoutMillis
+	 *            -- how long to wait for each connection
+	 * @return true if everything was sent
+	 */
+	public boolean close(long timeoutMillis) {
+		boolean ok = true;
+		for (TelemetryChannel ch : channels) {
+			if (ch != null) {
+				ok &= ch.close(timeoutMillis);
+			}
+		}
+		return ok;
+	}
+
+	public int getHouseCount() {
+		return tNext.length;
+	}
+
+	public int getConnectionCount() {
+		return channels.length;
+	}
+
+	/**
+	 * Get one of the connections.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public TelemetryChannel getChannel(int c) {
+		return channels[c];
+	}
+
+	/**
+	 * Get the number of readings posted, dropped ones included.
+	 * 
+	 * @return
+	 */
+	public long getPostedCount() {
+		long n = 0;
+		for (TelemetryChannel ch : channels) {
+			n += ch.getPostedCount();
+		}
+		return n;
+	}
+
+	/**
+	 * Get the number of readings written to the sockets.
+	 * 
+	 * @return
+	 */
+	public long getSentCount() {
+		long n = 0;
+		for (TelemetryChannel ch : channels) {
+			n += ch.getSentCount();
+		}
+		return n;
+	}
+
+	/**
+	 * Get the number of readings dropped because a queue was full.
+	 * 
+	 * @return
+	 */
+	public long getDroppedCount() {
+		long n = 0;
+		for (TelemetryChannel ch : channels) {
+			n += ch.getDroppedCount();
+		}
+		return n;
+	}
+
+	/**
+	 * Get the number of readings waiting in the queues and spools.
+	 * 
+	 * @return
+	 */
+	public long getBacklog() {
+		long n = 0;
+		for (TelemetryChannel ch : channels) {
+			n += ch.getBacklog();
+		}
+		return n;
+	}
+
+	/**
+	 * Get how long the oldest reading waiting in a spool has been there.
+	 * 
+	 * @return ms, 0 if there are none
+	 */
+	public long getLagMillis() {
+		long lag = 0;
+		for (TelemetryChannel ch : channels) {
+			lag = Math.max(lag, ch.getLagMillis());
+		}
+		return lag;
+	}
+
+	/**
+	 * Get the number of commands received from the gateway,
+	 * broadcasts counted once.
+	 * 
+	 * @return
+	 */
+	public long getCommandCount() {
+		long n = 0;
+		for (TelemetryChannel ch : channels) {
+			n += ch.getCommandCount();
+		}
+		return n;
+	}
+
+	/**
+	 * Get the number of deliveries of commands dropped for want of a house
+	 * to take them.
+	 * 
+	 * @return
+	 */
+	public long getUnroutedCount() {
+		return nUnrouted.get();
+	}
+
+	/**
+	 * Get a one line summary of the traffic of each connection.
+	 * 
+	 * @return
+	 */
+	public String getReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("AMI uplink: %d houses on %d connections",
+				tNext.length, channels.length));
+		if (getCommandCount() > 0) {
+			sb.append(String.format(", %d commands (%d unrouted), DR %s",
+					getCommandCount(), nUnrouted.get(), latency.getReport()));
+		}
+		for (int c = 0; c < channels.length; c++) {
+			sb.append(String.format("%n  %d %s", c, channels[c].getReport()));
+		}
+		return sb.toString();
+	}
+}
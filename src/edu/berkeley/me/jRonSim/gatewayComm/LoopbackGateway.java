@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.gatewayComm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.comMessage.MessageCodec;
+
+/**
+ * An in-process stand-in for the gateway, listening on the loopback
+ * interface, that takes the frames of TelemetryChannel from any number of
+ * connections and counts them. It keeps the time of the last sample of each
+ * house, to check that the samples of a house arrive in order. It can be
+ * slowed down or suspended, to see what the channel does with a slow or
+ * missing gateway, and can echo the samples in the XML form the gateway used
+ * to receive. It can also send commands to the houses, as the gateway
+ * does.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class LoopbackGateway {
+
+	private ServerSocketChannel server;
+	private final SocketAddress address;
+	private final List<SocketChannel> clients = new ArrayList<SocketChannel>();
+	private volatile long readDelay = 0; // ms per frame
+	private volatile PrintStream echo = null;
+	private long nFrames = 0;
+	private long nSamples = 0;
+	private long nStops = 0;
+	private long nOutOfOrder = 0;
+	private long nCommands = 0;
+	private double lastTime = Double.NaN;
+	private double[] houseTime = new double[0]; // NaN for none yet
+	private int nHouses = 0;
+
+	/**
+	 * Start listening on a free port of the loopback interface.
+	 * 
+	 * @throws IOException
+	 */
+	public LoopbackGateway() throws IOException {
+		listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		address = server.getLocalAddress();
+	}
+
+	/**
+	 * Listen on an address and accept connections on a new thread.
+	 * 
+	 * @param addr
+	 * @throws IOException
+	 */
+	private synchronized void listen(SocketAddress addr) throws IOException {
+		final ServerSocketChannel ss = ServerSocketChannel.open();
+		ss.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		ss.bind(addr);
+		server = ss;
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept(ss);
+			}
+		}, "Loopback Gateway");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Drop the connections and refuse new ones until resume(), like a
+	 * gateway that went down.
+	 */
+	public synchronized void suspend() {
+		if (server != null) {
+			try {
+				server.close();
+				for (SocketChannel client : clients) {
+					client.close();
+				}
+			} catch (IOException e) {
+				// closing anyway
+			}
+			clients.clear();
+			server = null;
+		}
+	}
+
+	/**
+	 * Accept connections again, on the same address.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void resume() throws IOException {
+		if (server == null) {
+			listen(address);
+		}
+	}
+
+	/**
+	 * Get the address to connect to.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public SocketAddress getAddress() throws IOException {
+		return address;
+	}
+
+	/**
+	 * Make the gateway wait before reading each frame.
+	 * 
+	 * @param millis
+	 */
+	public void setReadDelay(long millis) {
+		readDelay = millis;
+	}
+
+	/**
+	 * Print every sample received.
+	 * 
+	 * @param out
+	 *            -- null for none
+	 */
+	public void setEcho(PrintStream out) {
+		echo = out;
+	}
+
+	/**
+	 * Accept connections, reading each on its own thread.
+	 */
+	private void accept(ServerSocketChannel ss) {
+		try {
+			while (true) {
+				final SocketChannel client = ss.accept();
+				synchronized (this) {
+					if (server != ss) { // suspended meanwhile
+						client.close();
+						return;
+					}
+					clients.add(client);
+				}
+				Thread reader = new Thread(new Runnable() {
+					public void run() {
+						read(client);
+					}
+				}, "Loopback Gateway Reader");
+				reader.setDaemon(true);
+				reader.start();
+			}
+		} catch (IOException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Read the frames of one connection until it ends.
+	 * 
+	 * @param client
+	 */
+	private void read(SocketChannel client) {
+		ByteBuffer buf = ByteBuffer.allocate(TelemetryChannel.FRAME_HEADER
+				+ TelemetryChannel.MAX_FRAME_SAMPLES
+				* TelemetryChannel.SAMPLE_SIZE);
+		try {
+			while (true) {
+				if (readDelay > 0) {
+					Thread.sleep(readDelay);
+				}
+				buf.clear().limit(TelemetryChannel.FRAME_HEADER);
+				readFully(client, buf);
+				int size = buf.getInt(0);
+				int kind = buf.getInt(4);
+				if (size < TelemetryChannel.FRAME_HEADER
+						|| size > buf.capacity()) {
+					throw new IOException("bad frame size " + size);
+				}
+				buf.limit(size);
+				readFully(client, buf);
+				buf.position(TelemetryChannel.FRAME_HEADER);
+				received(kind, buf);
+			}
+		} catch (EOFException e) {
+			// the channel closed the connection
+		} catch (ClosedChannelException e) {
+			// the gateway was closed
+		} catch (IOException e) {
+			System.err.println("Loopback gateway: " + e);
+		} catch (InterruptedException e) {
+			// closing
+		}
+		synchronized (this) {
+			clients.remove(client);
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Send a command on the newest connection, stamped with the time it is
+	 * sent.
+	 * 
+	 * @param house
+	 *            -- house id, or TelemetryChannel.ALL_HOUSES
+	 * @param msg
+	 * @return false if there is no connection to send it on
+	 * @throws IOException
+	 */
+	public boolean send(int house, Message msg) throws IOException {
+		SocketChannel client;
+		ByteBuffer frame = ByteBuffer.allocate(TelemetryChannel.COMMAND_HEADER
+				+ MessageCodec.MAX_SIZE);
+		synchronized (this) {
+			if (clients.isEmpty()) {
+				return false;
+			}
+			client = clients.get(clients.size() - 1);
+			frame.putInt(0);
+			frame.putInt(TelemetryChannel.COMMAND);
+			frame.putLong(nCommands++);
+		}
+		frame.putInt(house);
+		int record = frame.position();
+		MessageCodec.encode(msg, frame);
+		// the message may be shared, so the time is only stamped in the frame
+		MessageCodec.setTimeSent(frame, record, System.currentTimeMillis());
+		frame.putInt(0, frame.position());
+		frame.flip();
+		synchronized (client) {
+			while (frame.hasRemaining()) {
+				client.write(frame);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Take the samples of a frame.
+	 * 
+	 * @param kind
+	 * @param buf
+	 *            -- positioned at the first sample
+	 */
+	private synchronized void received(int kind, ByteBuffer buf)
+			throws IOException {
+		nFrames++;
+		if (kind == TelemetryChannel.STOP) {
+			nStops++;
+			if (echo != null) {
+				echo.println("STOP");
+			}
+			notifyAll();
+			return;
+		}
+		while (buf.remaining() >= TelemetryChannel.SAMPLE_SIZE) {
+			int house = buf.getInt();
+			double t = buf.getDouble();
+			double value = buf.getDouble();
+			if (house < 0) {
+				throw new IOException("bad house id " + house);
+			}
+			if (echo != null) {
+				echo.println(AmiCommSetup.convertToXML(Double.toString(value),
+						Double.toString(t)));
+			}
+			if (house >= houseTime.length) {
+				int n = houseTime.length;
+				houseTime = Arrays.copyOf(houseTime, Math.max(house + 1,
+						2 * n));
+				Arrays.fill(houseTime, n, houseTime.length, Double.NaN);
+			}
+			if (Double.isNaN(houseTime[house])) {
+				nHouses++;
+			} else if (t < houseTime[house]) {
+				nOutOfOrder++;
+			}
+			houseTime[house] = t;
+			lastTime = t;
+			nSamples++;
+		}
+	}
+
+	private static void readFully(SocketChannel client, ByteBuffer buf)
+			throws IOException {
+		while (buf.hasRemaining()) {
+			if (client.read(buf) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Wait for a number of STOP frames.
+	 * 
+	 * @param n
+	 * @param timeoutMillis
+	 * @return true if they arrived
+	 */
+	public synchronized boolean awaitStop(int n, long timeoutMillis)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while (nStops < n) {
+			long wait = end - System.currentTimeMillis();
+			if (wait <= 0) {
+				return false;
+			}
+			wait(wait);
+		}
+		return true;
+	}
+
+	public synchronized long getFrameCount() {
+		return nFrames;
+	}
+
+	/**
+	 * Get the number of commands sent.
+	 * 
+	 * @return
+	 */
+	public synchronized long getCommandCount() {
+		return nCommands;
+	}
+
+	public synchronized long getSampleCount() {
+		return nSamples;
+	}
+
+	/**
+	 * Get the number of houses samples were received from.
+	 * 
+	 * @return
+	 */
+	public synchronized int getHouseCount() {
+		return nHouses;
+	}
+
+	/**
+	 * Get the number of samples that came before the last one received of
+	 * their house.
+	 * 
+	 * @return
+	 */
+	public synchronized long getOutOfOrderCount() {
+		return nOutOfOrder;
+	}
+
+	/**
+	 * Get the time of the last sample received from a house.
+	 * 
+	 * @param house
+	 * @return NaN if there was none
+	 */
+	public synchronized double getLastTime(int house) {
+		return house < houseTime.length ? houseTime[house] : Double.NaN;
+	}
+
+	/**
+	 * Get the time of the last sample received.
+	 * 
+	 * @return
+	 */
+	public synchronized double getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Stop listening and close the connections.
+	 */
+	public void close() {
+		suspend();
+	}
+}
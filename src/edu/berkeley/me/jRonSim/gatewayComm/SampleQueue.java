@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.gatewayComm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded queue of telemetry samples (house, time, value) that any number of
+ * threads can offer to while one thread drains it, without locks or
+ * allocation. The samples are kept in primitive arrays arranged as a ring
+ * of slots with a sequence number each, the same way as the Mailbox of the
+ * messages. A sample offered to a full queue is dropped and counted, so a
+ * producer never waits on the consumer.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+final class SampleQueue {
+
+	private static final VarHandle SEQ = MethodHandles
+			.arrayElementVarHandle(long[].class);
+	private static final VarHandle HEAD;
+	private static final VarHandle TAIL;
+	private static final VarHandle POSTED;
+	private static final VarHandle DROPPED;
+
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			HEAD = l.findVarHandle(SampleQueue.class, "head", long.class);
+			TAIL = l.findVarHandle(SampleQueue.class, "tail", long.class);
+			POSTED = l.findVarHandle(SampleQueue.class, "nPosted", long.class);
+			DROPPED = l.findVarHandle(SampleQueue.class, "nDropped",
+					long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	private final int mask;
+	private final long[] seq;
+	private final int[] house;
+	private final double[] time;
+	private final double[] value;
+	private volatile long head = 0;
+	private volatile long tail = 0;
+	private volatile long nPosted = 0;
+	private volatile long nDropped = 0;
+
+	/**
+	 * Construct the queue.
+	 * 
+	 * @param capacity
+	 *            -- number of samples it holds, rounded up to a power of two
+	 */
+	SampleQueue(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		int n = Integer.highestOneBit(capacity);
+		if (n < capacity) {
+			n <<= 1;
+		}
+		mask = n - 1;
+		seq = new long[n];
+		house = new int[n];
+		time = new double[n];
+		value = new double[n];
+		for (int i = 0; i < n; i++) {
+			seq[i] = i;
+		}
+	}
+
+	/**
+	 * Offer a sample. Safe to call from any thread.
+	 * 
+	 * @param id
+	 *            -- house id
+	 * @param t
+	 * @param v
+	 * @return false if the queue was full and the sample was dropped
+	 */
+	boolean offer(int id, double t, double v) {
+		POSTED.getAndAdd(this, 1L);
+		while (true) {
+			long p = tail;
+			int i = (int) p & mask;
+			long s = (long) SEQ.getAcquire(seq, i);
+			if (s == p) {
+				if (TAIL.compareAndSet(this, p, p + 1)) {
+					house[i] = id;
+					time[i] = t;
+					value[i] = v;
+					SEQ.setRelease(seq, i, p + 1);
+					return true;
+				}
+			} else if (s < p) {
+				DROPPED.getAndAdd(this, 1L);
+				return false;
+			}
+			// another producer took the position; try the next one
+		}
+	}
+
+	/**
+	 * Move up to max samples, oldest first, into a buffer as an int house id
+	 * and two doubles each. Only one thread may drain the queue.
+	 * 
+	 * @param buf
+	 *            -- must have room for max samples
+	 * @param max
+	 * @return the number of samples moved
+	 */
+	int drainTo(ByteBuffer buf, int max) {
+		int n = 0;
+		long h = head;
+		while (n < max) {
+			int i = (int) h & mask;
+			if ((long) SEQ.getAcquire(seq, i) != h + 1) {
+				break;
+			}
+			buf.putInt(house[i]);
+			buf.putDouble(time[i]);
+			buf.putDouble(value[i]);
+			SEQ.setRelease(seq, i, h + seq.length);
+			h++;
+			n++;
+		}
+		HEAD.setRelease(this, h);
+		return n;
+	}
+
+	/**
+	 * Get the number of samples waiting. Only a snapshot when other threads
+	 * are offering.
+	 * 
+	 * @return
+	 */
+	int size() {
+		long n = tail - head;
+		return (int) Math.max(0, Math.min(n, seq.length));
+	}
+
+	int getCapacity() {
+		return seq.length;
+	}
+
+	long getPostedCount() {
+		return nPosted;
+	}
+
+	long getDroppedCount() {
+		return nDropped;
+	}
+}
@@ -0,0 +1,914 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.gatewayComm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.comMessage.MessageCodec;
+
+/**
+ * Sends telemetry samples to a gateway without making the simulation wait on
+ * the socket. Samples, tagged with the id of their house, are posted to a
+ * bounded queue; a selector thread takes them out once per flush interval, or
+ * as soon as a full frame (or half the queue) is waiting, and writes them as frames on a
+ * non-blocking socket. When more than a frame is waiting, up to
+ * FRAMES_PER_WRITE frames are filled and handed to the socket in one
+ * gathering write.
+ * 
+ * Without a spool, while frames are only partly written the thread waits for
+ * the socket instead of taking more samples, so a slow gateway fills the
+ * queue and further samples are dropped and counted rather than slowing down
+ * the simulation, and the channel stops at the first error of the
+ * connection.
+ * 
+ * With a TelemetrySpool the frames are written straight to the socket while
+ * the connection keeps up, and the spool is only used when it does not: the
+ * samples due while frames are still being written, or while the channel is
+ * disconnected, are stored in the spool, so the queue is emptied at every
+ * flush whatever the gateway does, and they are sent from it, in order, once
+ * the frames before them are written. A frame leaves the spool once it is
+ * written whole to the socket. When the connection fails the frames not
+ * written whole are sent again, in order, after the channel has connected
+ * again (it keeps trying, waiting longer each time up to
+ * MAX_RECONNECT_MILLIS). There are no acknowledgements from the gateway, so
+ * frames still in the buffers of the socket when the connection fails are
+ * lost.
+ * 
+ * The gateway sends its commands back on the same connection, as COMMAND
+ * frames. The selector thread decodes them and hands them to the
+ * CommandListener, so they reach the houses without the simulation thread
+ * reading the socket; the listener must not wait.
+ * 
+ * Frame layout (big endian):
+ * 
+ * <pre>
+ *   int    size of the frame (bytes), header included
+ *   int    kind, SAMPLES, STOP or COMMAND
+ *   long   sequence number of the frame
+ * then, for SAMPLES, (size - FRAME_HEADER) / SAMPLE_SIZE samples
+ *   int    house id
+ *   double time (s)
+ *   double value
+ * or, for COMMAND, from the gateway
+ *   int    house id, ALL_HOUSES for every house
+ *   record of the message (MessageCodec)
+ * </pre>
+ * 
+ * A STOP frame, with no samples, is sent by close() after the last samples.
+ * Frames of other kinds from the gateway are skipped.
+ * 
+ * The frames are only for a gateway that reads them, such as
+ * LoopbackGateway. In the XML_LINES format each frame is written as the text
+ * lines the AMI gateway reads instead, one
+ * {@code <time>t</time> <value>v</value>} line per sample and a STOP line for
+ * the STOP frame. The house ids are not sent, and there are no commands in
+ * that format: what the gateway sends back is counted (getIgnoredBytes()),
+ * reported, and thrown away, with a warning the first time.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class TelemetryChannel {
+
+	public static final int FRAME_HEADER = 16;
+	public static final int SAMPLE_SIZE = 20;
+	public static final int MAX_FRAME_SAMPLES = 4096;
+	public static final int FRAMES_PER_WRITE = 8;
+	public static final int SAMPLES = 1;
+	public static final int STOP = 2;
+	public static final int COMMAND = 3;
+	public static final int COMMAND_HEADER = FRAME_HEADER + 4;
+	public static final int ALL_HOUSES = -1;
+	static final int INBOUND_CAPACITY = 1 << 16;
+	public static final long RECONNECT_MILLIS = 250;
+	public static final long MAX_RECONNECT_MILLIS = 30000;
+	// longest line of a sample in the XML_LINES format (bytes)
+	static final int MAX_LINE = 80;
+	private static final byte[] STOP_LINE = "STOP\n"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * What is written on the socket.
+	 */
+	public enum Format {
+		/** Binary frames (see above), for LoopbackGateway. */
+		FRAMES,
+		/** XML text lines, for the AMI gateway. */
+		XML_LINES
+	}
+
+	/**
+	 * Takes the commands of the gateway, on the selector thread.
+	 */
+	public interface CommandListener {
+		/**
+		 * @param house
+		 *            -- house id, or ALL_HOUSES
+		 * @param msg
+		 */
+		void command(int house, Message msg);
+	}
+
+	private final SocketAddress gateway;
+	private final SampleQueue queue;
+	private final TelemetrySpool spool; // null for none
+	private final long flushInterval; // ns
+	private final int flushSize; // samples that make a frame due at once
+	private final Selector selector;
+	private SocketChannel channel = null; // null while disconnected
+	private SelectionKey key = null;
+	private final ByteBuffer[] frames = new ByteBuffer[FRAMES_PER_WRITE];
+	private final int[] frameSamples = new int[FRAMES_PER_WRITE];
+	private final boolean[] frameSpooled = new boolean[FRAMES_PER_WRITE];
+	private final ByteBuffer spoolFrame;
+	private final Format format;
+	private final ByteBuffer[] lines; // XML_LINES: the frames as text
+	private final ByteBuffer[] out; // what is written, frames or lines
+	private final ByteBuffer inbound = ByteBuffer.allocate(INBOUND_CAPACITY);
+	private volatile CommandListener listener = null;
+	private final Thread thread;
+	private volatile boolean closing = false;
+	private volatile boolean abort = false;
+	private volatile boolean failed = false;
+	// set while the selector thread waits for the flush interval
+	private final AtomicBoolean waiting = new AtomicBoolean(false);
+	private volatile IOException error = null;
+	// written by the selector thread only
+	private volatile boolean connected = false;
+	private volatile long nFrames = 0;
+	private volatile long nSent = 0;
+	private volatile long nBytes = 0;
+	private volatile long nDisconnects = 0;
+	private volatile long spoolBacklog = 0;
+	private volatile long spoolTime = -1; // oldest frame in the spool (ms)
+	private volatile long nCommands = 0;
+	private volatile long nDroppedCommands = 0;
+	private volatile long nIgnoredBytes = 0; // XML_LINES: read and not used
+	private long frameSeq = 0;
+	private int first = 0; // frames first to nFilled - 1 are to be written
+	private int nFilled = 0;
+	private boolean stopSent = false;
+	private long reconnectAt = 0; // ns
+	private long reconnectDelay = RECONNECT_MILLIS;
+
+	/**
+	 * Open the channel and start connecting to the gateway.
+	 * 
+	 * @param gateway
+	 * @param capacity
+	 *            -- number of samples the queue holds
+	 * @param flushMillis
+	 *            -- interval between frames (ms)
+	 * @throws IOException
+	 *             if the connection can not be started
+	 */
+	public TelemetryChannel(SocketAddress gateway, int capacity,
+			long flushMillis) throws IOException {
+		this(gateway, capacity, flushMillis, null);
+	}
+
+	/**
+	 * Open the channel, storing the frames in a spool, and start connecting
+	 * to the gateway. The frames left in the spool are sent first. The
+	 * channel closes the spool.
+	 * 
+	 * @param gateway
+	 * @param capacity
+	 *            -- number of samples the queue holds
+	 * @param flushMillis
+	 *            -- interval between frames (ms)
+	 * @param spool
+	 *            -- null for none
+	 * @throws IOException
+	 *             if the connection can not be started and there is no
+	 *             spool
+	 */
+	public TelemetryChannel(SocketAddress gateway, int capacity,
+			long flushMillis, TelemetrySpool spool) throws IOException {
+		this(gateway, capacity, flushMillis, spool, Format.FRAMES);
+	}
+
+	/**
+	 * Open the channel, writing in the given format. The spool, if any,
+	 * stores frames whatever the format.
+	 * 
+	 * @param gateway
+	 * @param capacity
+	 *            -- number of samples the queue holds
+	 * @param flushMillis
+	 *            -- interval between frames (ms)
+	 * @param spool
+	 *            -- null for none
+	 * @param format
+	 * @throws IOException
+	 *             if the connection can not be started and there is no
+	 *             spool
+	 */
+	public TelemetryChannel(SocketAddress gateway, int capacity,
+			long flushMillis, TelemetrySpool spool, Format format)
+			throws IOException {
+		this.gateway = gateway;
+		this.spool = spool;
+		this.format = format;
+		queue = new SampleQueue(capacity);
+		flushInterval = flushMillis * 1000000L;
+		flushSize = Math.max(1, Math.min(MAX_FRAME_SAMPLES,
+				queue.getCapacity() / 2));
+		for (int f = 0; f < FRAMES_PER_WRITE; f++) {
+			frames[f] = ByteBuffer.allocateDirect(FRAME_HEADER
+					+ MAX_FRAME_SAMPLES * SAMPLE_SIZE);
+		}
+		spoolFrame = spool == null ? null : ByteBuffer
+				.allocateDirect(FRAME_HEADER + MAX_FRAME_SAMPLES
+						* SAMPLE_SIZE);
+		if (format == Format.XML_LINES) {
+			lines = new ByteBuffer[FRAMES_PER_WRITE];
+			for (int f = 0; f < FRAMES_PER_WRITE; f++) {
+				lines[f] = ByteBuffer.allocateDirect(MAX_FRAME_SAMPLES
+						* MAX_LINE);
+			}
+			out = lines;
+		} else {
+			lines = null;
+			out = frames;
+		}
+		selector = Selector.open();
+		try {
+			connect();
+			if (spool != null) {
+				updateSpoolMetrics();
+			}
+		} catch (IOException e) {
+			selector.close();
+			throw e;
+		}
+		thread = new Thread(this::run, "AMI Telemetry");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Post a sample of house 0.
+	 * 
+	 * @param t
+	 *            -- time of the sample (s)
+	 * @param value
+	 * @return false if the sample was dropped
+	 */
+	public boolean post(double t, double value) {
+		return post(0, t, value);
+	}
+
+	/**
+	 * Post a sample. Never waits; safe to call from any thread, but not once
+	 * close() has been called.
+	 * 
+	 * @param house
+	 *            -- house id
+	 * @param t
+	 *            -- time of the sample (s)
+	 * @param value
+	 * @return false if the sample was dropped
+	 */
+	public boolean post(int house, double t, double value) {
+		if (closing || failed) {
+			return false;
+		}
+		if (!queue.offer(house, t, value)) {
+			return false;
+		}
+		// do not leave a full frame, or a half full queue, waiting for the
+		// rest of the interval
+		if (waiting.get() && queue.size() >= flushSize
+				&& waiting.compareAndSet(true, false)) {
+			selector.wakeup();
+		}
+		return true;
+	}
+
+	/**
+	 * Set who takes the commands of the gateway. Commands that come while
+	 * there is none are counted and dropped.
+	 * 
+	 * @param listener
+	 *            -- null for none
+	 */
+	public void setCommandListener(CommandListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Send the samples still waiting and a STOP frame, then close the
+	 * connection. With a spool, what could not be sent in time stays in it.
+	 * 
+	 * @param timeoutMillis
+	 *            -- how long to wait for the gateway to take them; 0 closes
+	 *            at once
+	 * @return true if everything was sent
+	 */
+	public boolean close(long timeoutMillis) {
+		closing = true;
+		selector.wakeup();
+		try {
+			if (timeoutMillis > 0) {
+				thread.join(timeoutMillis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			abort = true;
+			selector.wakeup();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+		return stopSent && !failed;
+	}
+
+	/**
+	 * The selector thread.
+	 */
+	private void run() {
+		try {
+			long nextFlush = System.nanoTime() + flushInterval;
+			while (!abort) {
+				long now = System.nanoTime();
+				if (channel == null && now - reconnectAt >= 0) {
+					connect();
+				}
+				int n = queue.size();
+				boolean due = n > 0
+						&& (closing || n >= flushSize || now
+								- nextFlush >= 0);
+				if (spool != null && due) {
+					if (connected && first == nFilled && !spool.hasUnsent()) {
+						fillFrames(); // keeping up: no need for the spool
+					} else {
+						spoolSamples();
+					}
+					nextFlush = now + flushInterval;
+				}
+				if (connected && first == nFilled) {
+					if (spool != null && spool.hasUnsent()) {
+						fillFromSpool();
+					} else if (spool == null && due) {
+						fillFrames();
+						nextFlush = now + flushInterval;
+					} else if (closing && queue.size() == 0
+							&& (spool == null || spool.isEmpty())) {
+						if (stopSent) {
+							break;
+						}
+						putFrameHeader(STOP);
+						stopSent = true;
+					}
+				}
+				if (connected && first < nFilled && write()) {
+					// keep writing, but take the commands that came meanwhile
+					if (selector.selectNow() > 0) {
+						ready();
+					}
+					continue;
+				}
+				// wait for the socket, the next flush or the next attempt to
+				// connect
+				long wait = 0;
+				if ((spool != null || first == nFilled) && !closing) {
+					wait = Math.max(1,
+							(nextFlush - System.nanoTime()) / 1000000L);
+					waiting.set(true);
+					if (queue.size() >= flushSize) {
+						wait = 1; // filled up since it was checked
+					}
+				}
+				if (channel == null) {
+					long w = Math.max(1,
+							(reconnectAt - System.nanoTime()) / 1000000L);
+					wait = wait == 0 ? w : Math.min(wait, w);
+				}
+				int nReady = selector.select(wait);
+				waiting.set(false);
+				if (nReady > 0) {
+					ready();
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+			failed = true;
+		} finally {
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+				selector.close();
+			} catch (IOException e) {
+				// already failed or done
+			}
+			if (spool != null) {
+				spool.close();
+			}
+		}
+	}
+
+	/**
+	 * Finish connecting, or read, when the socket is ready for it.
+	 * 
+	 * @throws IOException
+	 *             if the connection failed and there is no spool
+	 */
+	private void ready() throws IOException {
+		if (key != null && key.isValid()) {
+			if (key.isConnectable()) {
+				try {
+					if (channel.finishConnect()) {
+						connected();
+					}
+				} catch (IOException e) {
+					linkFailed(e);
+				}
+			} else if (key.isReadable()) {
+				read();
+			}
+		}
+		selector.selectedKeys().clear();
+	}
+
+	/**
+	 * Start connecting to the gateway.
+	 * 
+	 * @throws IOException
+	 *             if it fails and there is no spool
+	 */
+	private void connect() throws IOException {
+		SocketChannel ch = SocketChannel.open();
+		try {
+			ch.configureBlocking(false);
+			boolean done = ch.connect(gateway);
+			channel = ch;
+			key = ch.register(selector, done ? 0 : SelectionKey.OP_CONNECT);
+			if (done) {
+				connected();
+			}
+		} catch (IOException e) {
+			linkFailed(e);
+		}
+	}
+
+	/**
+	 * The connection is up.
+	 */
+	private void connected() {
+		key.interestOps(SelectionKey.OP_READ);
+		connected = true;
+		reconnectDelay = RECONNECT_MILLIS;
+	}
+
+	/**
+	 * The connection failed: close it and, with a spool, try again later.
+	 * 
+	 * @param e
+	 * @throws IOException
+	 *             -- e, without a spool
+	 */
+	private void linkFailed(IOException e) throws IOException {
+		error = e;
+		connected = false;
+		inbound.clear();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// failed anyway
+			}
+			channel = null;
+			key = null;
+		}
+		if (spool == null) {
+			throw e;
+		}
+		nDisconnects++;
+		// send again what was not written whole: frames that are not in the
+		// spool are kept, and are older than everything in it
+		if (first < nFilled && !frameSpooled[first]) {
+			for (int f = first; f < nFilled; f++) {
+				out[f].rewind();
+			}
+		} else {
+			first = 0;
+			nFilled = 0;
+			stopSent = false;
+		}
+		spool.rewind();
+		reconnectAt = System.nanoTime() + reconnectDelay * 1000000L;
+		reconnectDelay = Math.min(2 * reconnectDelay, MAX_RECONNECT_MILLIS);
+	}
+
+	/**
+	 * Write the frames waiting to the socket.
+	 * 
+	 * @return true if they were all written
+	 * @throws IOException
+	 */
+	private boolean write() throws IOException {
+		try {
+			nBytes += channel.write(out, first, nFilled - first);
+		} catch (IOException e) {
+			linkFailed(e);
+			return false;
+		}
+		while (first < nFilled && !out[first].hasRemaining()) {
+			if (frameSpooled[first]) {
+				spool.commit();
+			}
+			nFrames++;
+			nSent += frameSamples[first++];
+		}
+		if (spool != null) {
+			updateSpoolMetrics();
+		}
+		if (first == nFilled) {
+			key.interestOps(SelectionKey.OP_READ);
+			return true;
+		}
+		// the socket is full; wait for it before writing more
+		key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		return false;
+	}
+
+	/**
+	 * Read what the gateway sent, and hand the commands in it to the
+	 * listener.
+	 * 
+	 * @throws IOException
+	 *             if the connection failed and there is no spool
+	 */
+	private void read() throws IOException {
+		try {
+			int n = channel.read(inbound);
+			if (n < 0) {
+				throw new EOFException("the gateway closed the connection");
+			}
+			if (format == Format.XML_LINES) {
+				// no commands in this format
+				if (nIgnoredBytes == 0 && n > 0) {
+					System.err.println("AMI telemetry: the gateway sends data,"
+							+ " which the XML_LINES format can not take as"
+							+ " commands; it is ignored");
+				}
+				nIgnoredBytes += n;
+				inbound.clear();
+				return;
+			}
+			inbound.flip();
+			while (inbound.remaining() >= FRAME_HEADER) {
+				int p = inbound.position();
+				int size = inbound.getInt(p);
+				if (size < FRAME_HEADER || size > INBOUND_CAPACITY) {
+					throw new IOException("bad frame from the gateway, size "
+							+ size);
+				}
+				if (inbound.remaining() < size) {
+					break;
+				}
+				if (inbound.getInt(p + 4) == COMMAND) {
+					command(p, size);
+				}
+				inbound.position(p + size);
+			}
+			inbound.compact();
+		} catch (IOException e) {
+			linkFailed(e);
+		}
+	}
+
+	/**
+	 * Decode a COMMAND frame of the inbound buffer and hand it over.
+	 * 
+	 * @param p
+	 *            -- where the frame starts
+	 * @param size
+	 *            -- of the frame
+	 */
+	private void command(int p, int size) {
+		int limit = inbound.limit();
+		Message msg = null;
+		try {
+			inbound.limit(p + size);
+			msg = MessageCodec.decode(inbound, p + COMMAND_HEADER);
+		} catch (IllegalArgumentException | BufferUnderflowException e) {
+			// not a message we know
+		} finally {
+			inbound.limit(limit);
+		}
+		CommandListener l = listener;
+		if (msg == null || l == null) {
+			nDroppedCommands++;
+			return;
+		}
+		nCommands++;
+		l.command(inbound.getInt(p + FRAME_HEADER), msg);
+	}
+
+	/**
+	 * Take the next frames of samples from the queue, as many as there are
+	 * samples for, up to FRAMES_PER_WRITE.
+	 */
+	private void fillFrames() {
+		first = 0;
+		nFilled = 0;
+		while (nFilled < FRAMES_PER_WRITE && queue.size() > 0) {
+			frameSamples[nFilled] = fillFrame(frames[nFilled]);
+			frameSpooled[nFilled] = false;
+			nFilled++;
+		}
+		toLines();
+	}
+
+	/**
+	 * Take a frame of samples from the queue.
+	 * 
+	 * @param frame
+	 * @return the number of samples
+	 */
+	private int fillFrame(ByteBuffer frame) {
+		frame.clear();
+		frame.position(FRAME_HEADER);
+		int n = queue.drainTo(frame, MAX_FRAME_SAMPLES);
+		frame.flip();
+		frame.putInt(0, frame.limit());
+		frame.putInt(4, SAMPLES);
+		frame.putLong(8, frameSeq++);
+		return n;
+	}
+
+	/**
+	 * Move all of the samples of the queue to the spool.
+	 * 
+	 * @throws IOException
+	 */
+	private void spoolSamples() throws IOException {
+		long millis = System.currentTimeMillis();
+		while (queue.size() > 0) {
+			fillFrame(spoolFrame);
+			spool.append(spoolFrame, millis);
+		}
+		updateSpoolMetrics();
+	}
+
+	/**
+	 * Take the next frames to send from the spool.
+	 * 
+	 * @throws IOException
+	 */
+	private void fillFromSpool() throws IOException {
+		first = 0;
+		nFilled = 0;
+		while (nFilled < FRAMES_PER_WRITE && spool.hasUnsent()) {
+			frameSamples[nFilled] = spool.readNext(frames[nFilled]);
+			frameSpooled[nFilled] = true;
+			nFilled++;
+		}
+		toLines();
+	}
+
+	/**
+	 * Put a frame with no samples.
+	 * 
+	 * @param kind
+	 */
+	private void putFrameHeader(int kind) {
+		ByteBuffer frame = frames[0];
+		frame.clear();
+		frame.putInt(FRAME_HEADER);
+		frame.putInt(kind);
+		frame.putLong(frameSeq++);
+		frame.flip();
+		frameSamples[0] = 0;
+		frameSpooled[0] = false;
+		first = 0;
+		nFilled = 1;
+		toLines();
+	}
+
+	/**
+	 * In the XML_LINES format, write the frames to be sent as text.
+	 */
+	private void toLines() {
+		if (lines == null) {
+			return;
+		}
+		for (int f = first; f < nFilled; f++) {
+			ByteBuffer frame = frames[f];
+			ByteBuffer text = lines[f];
+			text.clear();
+			if (frame.getInt(4) == STOP) {
+				text.put(STOP_LINE);
+			}
+			for (int p = FRAME_HEADER; p < frame.limit(); p += SAMPLE_SIZE) {
+				String line = AmiCommSetup.convertToXML(Double.toString(frame
+						.getDouble(p + 12)), Double.toString(frame
+						.getDouble(p + 4)));
+				text.put((line + "\n").getBytes(StandardCharsets.US_ASCII));
+			}
+			text.flip();
+		}
+	}
+
+	private void updateSpoolMetrics() throws IOException {
+		spoolBacklog = spool.getBacklog();
+		spoolTime = spool.getOldestTime();
+	}
+
+	/**
+	 * Get the number of samples posted, dropped ones included.
+	 * 
+	 * @return
+	 */
+	public long getPostedCount() {
+		return queue.getPostedCount();
+	}
+
+	/**
+	 * Get the number of samples dropped because the queue was full.
+	 * 
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return queue.getDroppedCount();
+	}
+
+	/**
+	 * Get the number of samples written to the socket, those sent again
+	 * after a failed connection included.
+	 * 
+	 * @return
+	 */
+	public long getSentCount() {
+		return nSent;
+	}
+
+	/**
+	 * Get the number of frames written to the socket, STOP included.
+	 * 
+	 * @return
+	 */
+	public long getFrameCount() {
+		return nFrames;
+	}
+
+	public long getBytesSent() {
+		return nBytes;
+	}
+
+	/**
+	 * Get the number of samples waiting in the queue and the spool.
+	 * 
+	 * @return
+	 */
+	public long getBacklog() {
+		return queue.size() + spoolBacklog;
+	}
+
+	/**
+	 * Get the number of samples waiting in the spool.
+	 * 
+	 * @return
+	 */
+	public long getSpoolBacklog() {
+		return spoolBacklog;
+	}
+
+	/**
+	 * Get how long the oldest frame of the spool has been waiting.
+	 * 
+	 * @return ms, 0 if the spool is empty or there is none
+	 */
+	public long getLagMillis() {
+		long t = spoolTime;
+		return t < 0 ? 0 : Math.max(0, System.currentTimeMillis() - t);
+	}
+
+	/**
+	 * Tell whether the channel is connected to the gateway.
+	 * 
+	 * @return
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Get the number of times the connection failed and was tried again.
+	 * 
+	 * @return
+	 */
+	public long getDisconnectCount() {
+		return nDisconnects;
+	}
+
+	/**
+	 * Get the number of commands of the gateway handed to the listener.
+	 * 
+	 * @return
+	 */
+	public long getCommandCount() {
+		return nCommands;
+	}
+
+	/**
+	 * Get the number of commands of the gateway that could not be decoded,
+	 * or came while there was no listener.
+	 * 
+	 * @return
+	 */
+	public long getDroppedCommandCount() {
+		return nDroppedCommands;
+	}
+
+	/**
+	 * Get the number of bytes the gateway sent in the XML_LINES format, which
+	 * has no commands, so they were thrown away.
+	 * 
+	 * @return
+	 */
+	public long getIgnoredBytes() {
+		return nIgnoredBytes;
+	}
+
+	/**
+	 * Get the error that stopped the channel or, with a spool, the last
+	 * error of the connection.
+	 * 
+	 * @return null if there was none
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Get a one line summary of the traffic.
+	 * 
+	 * @return
+	 */
+	public String getReport() {
+		String s = String.format("telemetry: %d samples posted, %d sent in %d"
+				+ " frames (%d bytes), %d dropped, %d waiting", getPostedCount(),
+				nSent, nFrames, nBytes, getDroppedCount(), getBacklog());
+		if (spool != null) {
+			s += String.format(", %d spooled, lag %d ms, %d disconnects",
+					spoolBacklog, getLagMillis(), nDisconnects);
+		}
+		if (nCommands + nDroppedCommands > 0) {
+			s += String.format(", %d commands in (%d dropped)", nCommands,
+					nDroppedCommands);
+		}
+		if (nIgnoredBytes > 0) {
+			s += String.format(", %d bytes in ignored", nIgnoredBytes);
+		}
+		if (failed) {
+			s += ", failed: " + error;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.gatewayComm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A store-and-forward spool of telemetry frames on disk. Frames are appended
+ * to memory mapped segment files of a fixed size, a new segment being started
+ * when a frame does not fit in the last one, and are read back in the order
+ * they were appended. A frame that was read is only removed by commit(), once
+ * it has been written whole to the gateway; rewind() goes back to the oldest
+ * frame that was not committed, to send again what was lost with a
+ * connection. A segment is deleted once all of its frames are committed, and
+ * only the segments being written and read are mapped, so the memory used
+ * does not grow with the backlog. A mapping is dropped as soon as no position
+ * is in its segment, before the segment is deleted, so the disk space of
+ * the deleted segments is given back at once instead of when the buffers are
+ * garbage collected (this needs sun.misc.Unsafe, of the jdk.unsupported
+ * module; without it the mappings are left to the garbage collector).
+ * 
+ * The read position is kept in the segment, so a spool that was not emptied
+ * is taken up again by the next spool opened on the same directory.
+ * 
+ * Segment layout:
+ * 
+ * <pre>
+ *   long   offset of the oldest frame not committed
+ * then a record for each frame
+ *   long   time it was appended (ms since the epoch)
+ *   frame  (TelemetryChannel), starting with its size
+ * then zeros
+ * </pre>
+ * 
+ * A spool is used by one thread.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class TelemetrySpool {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+	static final int SEGMENT_HEADER = 8;
+	static final int RECORD_HEADER = 8;
+	private static final int MAX_FRAME = TelemetryChannel.FRAME_HEADER
+			+ TelemetryChannel.MAX_FRAME_SAMPLES
+			* TelemetryChannel.SAMPLE_SIZE;
+	private final File dir;
+	private final int segmentSize;
+	private final Cursor write;
+	private final Cursor sent; // next frame to read
+	private final Cursor committed; // oldest frame not committed
+	private long nSamples = 0; // not committed
+	private long nBytes = 0;
+	private long nAppended = 0;
+	// Unsafe.invokeCleaner(ByteBuffer), to drop a mapping; null if missing
+	private static final Object unsafe;
+	private static final Method invokeCleaner;
+
+	static {
+		Object u = null;
+		Method m = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+			m = c.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			u = null;
+			m = null;
+		}
+		unsafe = u;
+		invokeCleaner = m;
+	}
+
+	/**
+	 * A position in the spool.
+	 */
+	private static class Cursor {
+		long segment;
+		int offset;
+		MappedByteBuffer buf;
+	}
+
+	/**
+	 * Open the spool of a directory, taking up the frames left in it.
+	 * 
+	 * @param dir
+	 *            -- created if it does not exist
+	 * @param segmentSize
+	 *            -- size of a segment file (bytes)
+	 * @throws IOException
+	 */
+	public TelemetrySpool(File dir, int segmentSize) throws IOException {
+		if (segmentSize < SEGMENT_HEADER + RECORD_HEADER + MAX_FRAME) {
+			throw new IllegalArgumentException("segments must hold a frame");
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("can not create the spool " + dir);
+		}
+		long[] existing = listSegments();
+		write = new Cursor();
+		committed = new Cursor();
+		sent = new Cursor();
+		if (existing.length == 0) {
+			write.segment = 0;
+			write.buf = map(0, true);
+			write.offset = SEGMENT_HEADER;
+			copy(write, committed);
+		} else {
+			committed.segment = existing[0];
+			committed.buf = map(committed.segment, false);
+			committed.offset = (int) Math.max(SEGMENT_HEADER, committed.buf
+					.getLong(0));
+			// count the backlog and find the end of the last segment
+			write.segment = existing[existing.length - 1];
+			Cursor c = new Cursor();
+			copy(committed, c);
+			while (true) {
+				int size = frameSize(c);
+				if (size == 0) {
+					if (c.segment >= write.segment) {
+						break;
+					}
+					if (c.buf != committed.buf) {
+						unmap(c.buf);
+					}
+					c.segment++;
+					c.buf = map(c.segment, false);
+					c.offset = SEGMENT_HEADER;
+					continue;
+				}
+				nSamples += (size - TelemetryChannel.FRAME_HEADER)
+						/ TelemetryChannel.SAMPLE_SIZE;
+				nBytes += RECORD_HEADER + size;
+				c.offset += RECORD_HEADER + size;
+			}
+			copy(c, write);
+		}
+		copy(committed, sent);
+	}
+
+	/**
+	 * Append a frame.
+	 * 
+	 * @param frame
+	 *            -- from its position to its limit, which is left unchanged
+	 * @param millis
+	 *            -- time it was appended (ms)
+	 * @throws IOException
+	 */
+	public void append(ByteBuffer frame, long millis) throws IOException {
+		int size = frame.remaining();
+		if (size < TelemetryChannel.FRAME_HEADER || size > MAX_FRAME) {
+			throw new IllegalArgumentException("not a frame: " + size
+					+ " bytes");
+		}
+		if (write.offset + RECORD_HEADER + size > segmentSize) {
+			if (write.buf != sent.buf && write.buf != committed.buf) {
+				unmap(write.buf); // mapped again when it is read
+			}
+			write.segment++;
+			write.buf = map(write.segment, true);
+			write.offset = SEGMENT_HEADER;
+		}
+		int p = frame.position();
+		write.buf.position(write.offset + RECORD_HEADER);
+		write.buf.put(frame);
+		frame.position(p);
+		write.buf.putLong(write.offset, millis);
+		write.offset += RECORD_HEADER + size;
+		nSamples += (size - TelemetryChannel.FRAME_HEADER)
+				/ TelemetryChannel.SAMPLE_SIZE;
+		nBytes += RECORD_HEADER + size;
+		nAppended++;
+	}
+
+	/**
+	 * Tell whether there are frames that were not read yet.
+	 * 
+	 * @return
+	 */
+	public boolean hasUnsent() throws IOException {
+		return skipEnd(sent, false);
+	}
+
+	/**
+	 * Tell whether all of the frames were committed.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() throws IOException {
+		return !skipEnd(committed, true);
+	}
+
+	/**
+	 * Copy the next frame that was not read into a buffer.
+	 * 
+	 * @param dst
+	 *            -- cleared, and flipped with the frame in it
+	 * @return the number of samples in the frame
+	 * @throws IOException
+	 *             if there is no frame to read, or the spool is corrupt
+	 */
+	public int readNext(ByteBuffer dst) throws IOException {
+		if (!skipEnd(sent, false)) {
+			throw new IOException("no frame to read in the spool");
+		}
+		int size = frameSize(sent);
+		ByteBuffer src = sent.buf.duplicate();
+		src.position(sent.offset + RECORD_HEADER);
+		src.limit(sent.offset + RECORD_HEADER + size);
+		dst.clear();
+		dst.put(src);
+		dst.flip();
+		sent.offset += RECORD_HEADER + size;
+		return (size - TelemetryChannel.FRAME_HEADER)
+				/ TelemetryChannel.SAMPLE_SIZE;
+	}
+
+	/**
+	 * Remove the oldest frame that was read, once it has been sent.
+	 * 
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		if (!skipEnd(committed, true)) {
+			throw new IOException("no frame to commit in the spool");
+		}
+		int size = frameSize(committed);
+		committed.offset += RECORD_HEADER + size;
+		committed.buf.putLong(0, committed.offset);
+		nSamples -= (size - TelemetryChannel.FRAME_HEADER)
+				/ TelemetryChannel.SAMPLE_SIZE;
+		nBytes -= RECORD_HEADER + size;
+	}
+
+	/**
+	 * Go back to the oldest frame that was not committed, to read the frames
+	 * after it again.
+	 */
+	public void rewind() {
+		if (sent.buf != committed.buf && sent.buf != write.buf) {
+			unmap(sent.buf);
+		}
+		copy(committed, sent);
+	}
+
+	/**
+	 * Get the number of samples in the frames not committed.
+	 * 
+	 * @return
+	 */
+	public long getBacklog() {
+		return nSamples;
+	}
+
+	/**
+	 * Get the size of the frames not committed.
+	 * 
+	 * @return bytes
+	 */
+	public long getBacklogBytes() {
+		return nBytes;
+	}
+
+	/**
+	 * Get the number of frames appended since the spool was opened.
+	 * 
+	 * @return
+	 */
+	public long getAppendedCount() {
+		return nAppended;
+	}
+
+	/**
+	 * Get the time the oldest frame not committed was appended.
+	 * 
+	 * @return ms since the epoch, -1 if all were committed
+	 */
+	public long getOldestTime() throws IOException {
+		if (!skipEnd(committed, true)) {
+			return -1;
+		}
+		return committed.buf.getLong(committed.offset);
+	}
+
+	/**
+	 * Write the mapped segments out.
+	 */
+	public void close() {
+		write.buf.force();
+		committed.buf.force();
+	}
+
+	/**
+	 * Get the size of the frame at a position.
+	 * 
+	 * @param c
+	 * @return 0 at the end of the frames of the segment
+	 * @throws IOException
+	 *             if the size is not one of a frame
+	 */
+	private int frameSize(Cursor c) throws IOException {
+		if (c.offset + RECORD_HEADER + 4 > segmentSize) {
+			return 0;
+		}
+		int size = c.buf.getInt(c.offset + RECORD_HEADER);
+		if (size != 0
+				&& (size < TelemetryChannel.FRAME_HEADER || size > MAX_FRAME
+						|| c.offset + RECORD_HEADER + size > segmentSize)) {
+			throw new IOException("corrupt spool segment " + c.segment
+					+ " at " + c.offset);
+		}
+		return size;
+	}
+
+	/**
+	 * Move a position at the end of the frames of a segment to the start of
+	 * the next one.
+	 * 
+	 * @param c
+	 * @param delete
+	 *            -- delete the segments left behind
+	 * @return true if there is a frame at the position
+	 * @throws IOException
+	 */
+	private boolean skipEnd(Cursor c, boolean delete) throws IOException {
+		while (frameSize(c) == 0) {
+			if (c.segment >= write.segment) {
+				return false;
+			}
+			long done = c.segment;
+			MappedByteBuffer old = c.buf;
+			c.segment++;
+			if (c.segment == write.segment) {
+				c.buf = write.buf;
+			} else if (c != sent && c.segment == sent.segment) {
+				c.buf = sent.buf;
+			} else {
+				c.buf = map(c.segment, false);
+			}
+			c.offset = SEGMENT_HEADER;
+			if (delete) {
+				// the frames were all read, so sent can only be at the end
+				if (sent.buf == old) {
+					copy(c, sent);
+				}
+				unmap(old);
+				if (!segmentFile(done).delete()) {
+					throw new IOException("can not delete "
+							+ segmentFile(done));
+				}
+			} else if (old != committed.buf) {
+				unmap(old);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Drop a mapping that no position uses any more. It must not be used
+	 * after that.
+	 * 
+	 * @param buf
+	 */
+	private static void unmap(MappedByteBuffer buf) {
+		if (invokeCleaner == null) {
+			return; // left to the garbage collector
+		}
+		try {
+			invokeCleaner.invoke(unsafe, buf);
+		} catch (ReflectiveOperationException e) {
+			// left to the garbage collector
+		}
+	}
+
+	private static void copy(Cursor from, Cursor to) {
+		to.segment = from.segment;
+		to.offset = from.offset;
+		to.buf = from.buf;
+	}
+
+	private File segmentFile(long segment) {
+		return new File(dir, String.format("telemetry-%08d.spool", segment));
+	}
+
+	/**
+	 * Map a segment file.
+	 * 
+	 * @param segment
+	 * @param create
+	 *            -- create it if it does not exist
+	 * @return
+	 * @throws IOException
+	 */
+	private MappedByteBuffer map(long segment, boolean create)
+			throws IOException {
+		File f = segmentFile(segment);
+		if (!create && !f.exists()) {
+			throw new IOException("missing spool segment " + f);
+		}
+		boolean isNew = !f.exists();
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel ch = file.getChannel();
+			if (ch.size() < segmentSize) {
+				file.setLength(segmentSize);
+			}
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0,
+					segmentSize);
+			if (isNew) {
+				buf.putLong(0, SEGMENT_HEADER);
+			}
+			return buf;
+		} finally {
+			file.close(); // the mapping stays valid
+		}
+	}
+
+	/**
+	 * List the segments of the spool directory.
+	 * 
+	 * @return segment numbers, in order
+	 */
+	private long[] listSegments() {
+		String[] names = dir.list();
+		long[] segments = new long[names == null ? 0 : names.length];
+		int n = 0;
+		for (int i = 0; i < segments.length; i++) {
+			String s = names[i];
+			if (s.startsWith("telemetry-") && s.endsWith(".spool")) {
+				try {
+					segments[n] = Long.parseLong(s.substring(10,
+							s.length() - 6));
+					n++;
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		segments = Arrays.copyOf(segments, n);
+		Arrays.sort(segments);
+		return segments;
+	}
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house;
+
+import TranRunJLite.TrjTime;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import edu.berkeley.me.jRonSim.house.PopulationBuilder.HouseParams;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
+import edu.berkeley.me.jRonSim.house.thermostat.SetpointTable;
+import edu.berkeley.me.jRonSim.util.StreamRand;
+
+/**
+ * Stands in a few representative houses for a large population, for studies
+ * of the aggregate power. The houses of the population are clustered by
+ * k-means into archetypes, on their thermal parameters and the hourly
+ * profile of their setpoint schedule. Each archetype is simulated by the
+ * house closest to its center and a few replicas of it, which have the
+ * thermal and thermostat parameters of that house but the occupants and
+ * appliances of other houses of the archetype. The power of each simulated
+ * house is weighted by the number of houses it stands for (see
+ * NeighborhoodTask.setHouseWeights), so the weights add up to the
+ * population.
+ * 
+ * Each feature is scaled to unit variance, features that do not vary are
+ * dropped, and the thermal and setpoint features are each scaled by one over
+ * the square root of their number so the two groups count the same. The
+ * features are held as floats, one row per house.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ArchetypeBuilder {
+
+	// random streams of the clustering
+	private static final int SEED_STREAM = 0;
+	private static final int REPLICA_STREAM = 1;
+	private static final int N_THERMAL = ThermalParams.BYTES / 8;
+	private static final int N_SETPOINT = 24;
+	private final PopulationBuilder population;
+	private final int nHouses;
+	private final StreamRand rn;
+	private int nClusters = 10;
+	private int nReplicas = 3;
+	private int maxIterations = 50;
+	// the clustering
+	private int nFeatures;
+	private float[] features = null;
+	private double[] centers = null;
+	private int[] assign = null;
+	private double[] dist = null;
+	private int[] size = null;
+	private int iterations = 0;
+	private double inertia = 0;
+	private double[] weights = null;
+
+	/**
+	 * Construct the builder.
+	 * 
+	 * @param population
+	 *            -- draws the houses of the population
+	 * @param nHouses
+	 *            -- number of houses in the population
+	 * @param seed
+	 *            -- seed of the clustering and of the choice of replicas
+	 */
+	public ArchetypeBuilder(PopulationBuilder population, int nHouses,
+			long seed) {
+		this.population = population;
+		this.nHouses = nHouses;
+		this.rn = new StreamRand(seed);
+	}
+
+	/**
+	 * Set the number of archetypes.
+	 * 
+	 * @param k
+	 */
+	public void setClusterCount(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be positive");
+		}
+		this.nClusters = k;
+	}
+
+	/**
+	 * Set the number of houses simulated for each archetype, the
+	 * representative included.
+	 * 
+	 * @param n
+	 */
+	public void setReplicas(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("n must be positive");
+		}
+		this.nReplicas = n;
+	}
+
+	/**
+	 * Set the maximum number of k-means iterations.
+	 * 
+	 * @param n
+	 */
+	public void setMaxIterations(int n) {
+		this.maxIterations = n;
+	}
+
+	/**
+	 * Draw the population and cluster it.
+	 * 
+	 * @throws Exception
+	 */
+	public void cluster() throws Exception {
+		computeFeatures();
+		final int k = Math.min(nClusters, nHouses);
+		centers = new double[k * nFeatures];
+		assign = new int[nHouses];
+		dist = new double[nHouses];
+		size = new int[k];
+		seedCenters(k);
+		iterations = 0;
+		boolean changed = true;
+		while (changed && iterations < maxIterations) {
+			changed = assignHouses(k);
+			updateCenters(k);
+			iterations++;
+		}
+		if (changed) {
+			assignHouses(k);
+		}
+		inertia = 0;
+		Arrays.fill(size, 0);
+		for (int i = 0; i < nHouses; i++) {
+			inertia += dist[i];
+			size[assign[i]]++;
+		}
+	}
+
+	/**
+	 * Compute the features of the houses and scale them.
+	 * 
+	 * @throws Exception
+	 */
+	private void computeFeatures() throws Exception {
+		final int nRaw = N_THERMAL + N_SETPOINT;
+		final float[] raw = new float[nHouses * nRaw];
+		population.runAll(0, nHouses, new PopulationBuilder.HouseJob() {
+			public void run(int i) throws Exception {
+				HouseParams p = population.drawParams(i);
+				ByteBuffer buf = ByteBuffer.allocate(ThermalParams.BYTES);
+				p.therm.write(buf);
+				buf.flip();
+				int off = i * nRaw;
+				for (int f = 0; f < N_THERMAL; f++) {
+					raw[off + f] = (float) buf.getDouble();
+				}
+				// the setpoint through the day, averaged over the week
+				SetpointTable table = p.tstat.getSetpointTable();
+				for (int h = 0; h < N_SETPOINT; h++) {
+					double Tsp = 0;
+					for (int day = 1; day <= 7; day++) {
+						Tsp += table.getTsp(day, h, 0);
+					}
+					raw[off + N_THERMAL + h] = (float) (Tsp / 7);
+				}
+			}
+		});
+		// scale each feature and drop the constant ones
+		double[] mean = new double[nRaw];
+		double[] sd = new double[nRaw];
+		for (int i = 0; i < nHouses; i++) {
+			for (int f = 0; f < nRaw; f++) {
+				mean[f] += raw[i * nRaw + f];
+			}
+		}
+		for (int f = 0; f < nRaw; f++) {
+			mean[f] /= nHouses;
+		}
+		for (int i = 0; i < nHouses; i++) {
+			for (int f = 0; f < nRaw; f++) {
+				double d = raw[i * nRaw + f] - mean[f];
+				sd[f] += d * d;
+			}
+		}
+		int[] keep = new int[nRaw];
+		int nKeep = 0;
+		int nThermal = 0;
+		for (int f = 0; f < nRaw; f++) {
+			sd[f] = Math.sqrt(sd[f] / nHouses);
+			if (sd[f] > 1e-9 * Math.max(1, Math.abs(mean[f]))) {
+				keep[nKeep++] = f;
+				if (f < N_THERMAL) {
+					nThermal++;
+				}
+			}
+		}
+		double[] scale = new double[nKeep];
+		for (int c = 0; c < nKeep; c++) {
+			int n = (keep[c] < N_THERMAL) ? nThermal : nKeep - nThermal;
+			scale[c] = 1 / (sd[keep[c]] * Math.sqrt(n));
+		}
+		nFeatures = Math.max(nKeep, 1);
+		features = new float[nHouses * nFeatures];
+		for (int i = 0; i < nHouses; i++) {
+			for (int c = 0; c < nKeep; c++) {
+				int f = keep[c];
+				features[i * nFeatures + c] = (float) ((raw[i * nRaw + f] - mean[f]) * scale[c]);
+			}
+		}
+	}
+
+	/**
+	 * Pick the first centers by k-means++: each center is drawn with a
+	 * probability proportional to the squared distance to the nearest center
+	 * already picked.
+	 * 
+	 * @param k
+	 * @throws Exception
+	 */
+	private void seedCenters(final int k) throws Exception {
+		StreamRand rand = rn.split(SEED_STREAM);
+		setCenter(0, (int) (rand.nextDouble() * nHouses));
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		for (int c = 1; c < k; c++) {
+			final int last = c - 1;
+			population.runAll(0, nHouses, new PopulationBuilder.HouseJob() {
+				public void run(int i) {
+					dist[i] = Math.min(dist[i], distance(i, last));
+				}
+			});
+			double total = 0;
+			for (int i = 0; i < nHouses; i++) {
+				total += dist[i];
+			}
+			double r = rand.nextDouble() * total;
+			int pick = nHouses - 1;
+			for (int i = 0; i < nHouses; i++) {
+				r -= dist[i];
+				if (r < 0) {
+					pick = i;
+					break;
+				}
+			}
+			setCenter(c, pick);
+		}
+	}
+
+	private void setCenter(int c, int i) {
+		for (int f = 0; f < nFeatures; f++) {
+			centers[c * nFeatures + f] = features[i * nFeatures + f];
+		}
+	}
+
+	/**
+	 * Squared distance from a house to a center.
+	 */
+	private double distance(int i, int c) {
+		double d2 = 0;
+		int fi = i * nFeatures;
+		int fc = c * nFeatures;
+		for (int f = 0; f < nFeatures; f++) {
+			double d = features[fi + f] - centers[fc + f];
+			d2 += d * d;
+		}
+		return d2;
+	}
+
+	/**
+	 * Assign each house to its nearest center.
+	 * 
+	 * @param k
+	 * @return true if any house changed center
+	 * @throws Exception
+	 */
+	private boolean assignHouses(final int k) throws Exception {
+		final boolean[] changed = new boolean[1];
+		population.runAll(0, nHouses, new PopulationBuilder.HouseJob() {
+			public void run(int i) {
+				int best = 0;
+				double dBest = distance(i, 0);
+				for (int c = 1; c < k; c++) {
+					double d = distance(i, c);
+					if (d < dBest) {
+						dBest = d;
+						best = c;
+					}
+				}
+				if (assign[i] != best) {
+					assign[i] = best;
+					changed[0] = true;
+				}
+				dist[i] = dBest;
+			}
+		});
+		return changed[0] || iterations == 0;
+	}
+
+	/**
+	 * Move each center to the mean of its houses. A center without houses
+	 * stays where it is.
+	 * 
+	 * @param k
+	 */
+	private void updateCenters(int k) {
+		double[] sum = new double[k * nFeatures];
+		Arrays.fill(size, 0);
+		for (int i = 0; i < nHouses; i++) {
+			int c = assign[i];
+			size[c]++;
+			for (int f = 0; f < nFeatures; f++) {
+				sum[c * nFeatures + f] += features[i * nFeatures + f];
+			}
+		}
+		for (int c = 0; c < k; c++) {
+			if (size[c] > 0) {
+				for (int f = 0; f < nFeatures; f++) {
+					centers[c * nFeatures + f] = sum[c * nFeatures + f]
+							/ size[c];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the houses that stand in for the population: for each archetype,
+	 * the house closest to its center, then its replicas. The weights of the
+	 * houses are then given by getWeights().
+	 * 
+	 * @param tm
+	 * @return
+	 * @throws Exception
+	 */
+	public ArrayList<House> build(TrjTime tm) throws Exception {
+		if (assign == null) {
+			cluster();
+		}
+		int k = size.length;
+		// the houses of each archetype, in order
+		int[] start = new int[k + 1];
+		for (int c = 0; c < k; c++) {
+			start[c + 1] = start[c] + size[c];
+		}
+		int[] members = new int[nHouses];
+		int[] next = Arrays.copyOf(start, k);
+		for (int i = 0; i < nHouses; i++) {
+			members[next[assign[i]]++] = i;
+		}
+		StreamRand rand = rn.split(REPLICA_STREAM);
+		ArrayList<House> houses = new ArrayList<House>();
+		ArrayList<Double> w = new ArrayList<Double>();
+		for (int c = 0; c < k; c++) {
+			if (size[c] == 0) {
+				continue;
+			}
+			int rep = members[start[c]];
+			for (int m = start[c] + 1; m < start[c + 1]; m++) {
+				if (dist[members[m]] < dist[rep]) {
+					rep = members[m];
+				}
+			}
+			HouseParams pRep = population.buildParams(rep);
+			houses.add(population.buildHouse(tm, rep, pRep));
+			// draw the other houses of the replicas
+			int n = Math.min(nReplicas, size[c]);
+			int[] others = new int[size[c] - 1];
+			int o = 0;
+			for (int m = start[c]; m < start[c + 1]; m++) {
+				if (members[m] != rep) {
+					others[o++] = members[m];
+				}
+			}
+			for (int r = 1; r < n; r++) {
+				int pick = r - 1
+						+ (int) (rand.nextDouble() * (others.length - r + 1));
+				int j = others[pick];
+				others[pick] = others[r - 1];
+				others[r - 1] = j;
+				// the thermal model and thermostat of the representative,
+				// with the occupants and appliances of house j
+				HouseParams p = population.drawParams(rep);
+				HouseParams pj = population.drawParams(j);
+				p.rand = pj.rand;
+				p.occupants = pj.occupants;
+				p.states = (pRep.states == null) ? null : pRep.states.clone();
+				houses.add(population.buildHouse(tm, j, p));
+			}
+			for (int r = 0; r < n; r++) {
+				w.add((double) size[c] / n);
+			}
+		}
+		weights = new double[w.size()];
+		for (int h = 0; h < weights.length; h++) {
+			weights[h] = w.get(h);
+		}
+		return houses;
+	}
+
+	/**
+	 * Get the weight of each house returned by build(): the number of houses
+	 * of the population it stands for.
+	 * 
+	 * @return
+	 */
+	public double[] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * Get the archetype of each house of the population.
+	 * 
+	 * @return
+	 */
+	public int[] getAssignments() {
+		return assign;
+	}
+
+	/**
+	 * Get a one line summary of the clustering.
+	 * 
+	 * @return
+	 */
+	public String getReport() {
+		int nonEmpty = 0;
+		int largest = 0;
+		for (int c = 0; c < size.length; c++) {
+			if (size[c] > 0) {
+				nonEmpty++;
+			}
+			largest = Math.max(largest, size[c]);
+		}
+		return String.format("Archetypes: %d houses in %d clusters on %d "
+				+ "features, %d iterations, mean squared distance %.4f, "
+				+ "largest cluster %d, %d houses simulated", nHouses,
+				nonEmpty, nFeatures, iterations, inertia / nHouses, largest,
+				(weights == null) ? 0 : weights.length);
+	}
+
+	/**
+	 * Compare the aggregate power of the archetypes with that of the full
+	 * population, sampled at the same times.
+	 * 
+	 * @param Pfull
+	 * @param Parch
+	 * @return a one line summary of the errors
+	 */
+	public static String getErrorReport(double[] Pfull, double[] Parch) {
+		int n = Math.min(Pfull.length, Parch.length);
+		double sumFull = 0;
+		double sumArch = 0;
+		double sumSq = 0;
+		double maxAbs = 0;
+		double peakFull = Double.NEGATIVE_INFINITY;
+		double peakArch = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < n; s++) {
+			double e = Parch[s] - Pfull[s];
+			sumFull += Pfull[s];
+			sumArch += Parch[s];
+			sumSq += e * e;
+			maxAbs = Math.max(maxAbs, Math.abs(e));
+			peakFull = Math.max(peakFull, Pfull[s]);
+			peakArch = Math.max(peakArch, Parch[s]);
+		}
+		double meanFull = sumFull / n;
+		double rmse = Math.sqrt(sumSq / n);
+		return String.format("Archetype error over %d samples: RMSE %.3f "
+				+ "(%.2f%% of the mean %.3f), max %.3f, energy %+.2f%%, "
+				+ "peak %+.2f%%", n, rmse, 100 * rmse / meanFull, meanFull,
+				maxAbs, 100 * (sumArch - sumFull) / sumFull, 100
+						* (peakArch - peakFull) / peakFull);
+	}
+}
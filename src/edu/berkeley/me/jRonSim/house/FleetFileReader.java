@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import edu.berkeley.me.jRonSim.house.occupant.OccupantParams;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
+import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParams;
+
+/**
+ * Reads the houses of a fleet file written by FleetFileWriter. The file is
+ * memory mapped in segments, which are mapped the first time one of their
+ * houses is read, and a house is only decoded when it is asked for. A
+ * segment also maps the largest record past its end, so every record lies
+ * whole in the segment it starts in. The reads do not change any shared
+ * state, so houses can be read from several threads.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class FleetFileReader {
+
+	/** Size of a mapped segment (bytes). */
+	static final long SEGMENT_SIZE = 1L << 30;
+	private final String fname;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long seed;
+	private final int nHouses;
+	private final int maxRecordSize;
+	private final long indexOffset;
+	private final ByteBuffer index;
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * The parameters of a house in the file.
+	 */
+	public static class HouseRecord {
+
+		private final ThermalParams therm;
+		private final ThermostatParams tstat;
+		private final ArrayList<OccupantParams> occupants;
+		private final double[] states;
+
+		private HouseRecord(ByteBuffer buf) {
+			therm = ThermalParams.read(buf);
+			tstat = ThermostatParams.read(buf);
+			int nOcc = buf.getInt();
+			occupants = new ArrayList<OccupantParams>(nOcc);
+			for (int k = 0; k < nOcc; k++) {
+				occupants.add(OccupantParams.read(buf));
+			}
+			int nStates = buf.getInt();
+			if (nStates > 0) {
+				states = new double[nStates];
+				for (int k = 0; k < nStates; k++) {
+					states[k] = buf.getDouble();
+				}
+			} else {
+				states = null;
+			}
+		}
+
+		public ThermalParams getThermalParams() {
+			return therm;
+		}
+
+		public ThermostatParams getThermostatParams() {
+			return tstat;
+		}
+
+		public ArrayList<OccupantParams> getOccupantParams() {
+			return occupants;
+		}
+
+		/**
+		 * Get the initial states of the thermal model.
+		 * 
+		 * @return null if the file has none
+		 */
+		public double[] getInitialStates() {
+			return states;
+		}
+	}
+
+	/**
+	 * Open a fleet file.
+	 * 
+	 * @param fname
+	 * @throws IOException
+	 */
+	public FleetFileReader(String fname) throws IOException {
+		this.fname = fname;
+		file = new RandomAccessFile(fname, "r");
+		try {
+			channel = file.getChannel();
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer
+					.allocate(FleetFileWriter.HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					break;
+				}
+			}
+			header.flip();
+			if (header.remaining() < FleetFileWriter.HEADER_SIZE
+					|| header.getInt() != FleetFileWriter.MAGIC) {
+				throw new IOException(fname + " is not a fleet file");
+			}
+			int version = header.getInt();
+			if (version != FleetFileWriter.VERSION) {
+				throw new IOException(fname + ": unsupported version "
+						+ version);
+			}
+			seed = header.getLong();
+			nHouses = header.getInt();
+			maxRecordSize = header.getInt();
+			indexOffset = header.getLong();
+			if (nHouses < 0 || indexOffset < FleetFileWriter.HEADER_SIZE
+					|| indexOffset + 8L * nHouses != size) {
+				throw new IOException(fname + " is truncated or corrupt");
+			}
+			index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+					8L * nHouses);
+			int nSegments = (int) ((indexOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new MappedByteBuffer[nSegments];
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the number of houses in the file.
+	 * 
+	 * @return
+	 */
+	public int getHouseCount() {
+		return nHouses;
+	}
+
+	/**
+	 * Get the seed of the random streams of the houses.
+	 * 
+	 * @return
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Read a house.
+	 * 
+	 * @param i
+	 *            -- 0 to getHouseCount() - 1
+	 * @return
+	 * @throws IOException
+	 */
+	public HouseRecord read(int i) throws IOException {
+		if (i < 0 || i >= nHouses) {
+			throw new IndexOutOfBoundsException("house " + i + " of "
+					+ nHouses);
+		}
+		long offset = index.getLong(8 * i);
+		int k = (int) (offset / SEGMENT_SIZE);
+		ByteBuffer buf = getSegment(k).duplicate();
+		buf.position((int) (offset - k * SEGMENT_SIZE));
+		try {
+			return new HouseRecord(buf);
+		} catch (RuntimeException e) {
+			throw new IOException(fname + ": bad record for house " + i, e);
+		}
+	}
+
+	/**
+	 * Get a segment, mapping it the first time.
+	 * 
+	 * @param k
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized MappedByteBuffer getSegment(int k) throws IOException {
+		if (segments[k] == null) {
+			long start = k * SEGMENT_SIZE;
+			long end = Math.min(start + SEGMENT_SIZE + maxRecordSize,
+					indexOffset);
+			segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+					end - start);
+		}
+		return segments[k];
+	}
+
+	/**
+	 * Close the file. The mapped segments are released when they are
+	 * collected.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.me.jRonSim.house.occupant.OccupantParams;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
+import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParams;
+
+/**
+ * Writes the parameters of a population of houses to a binary fleet file, so
+ * a large fleet can be generated once and read back by FleetFileReader. The
+ * houses are written one at a time, in order, and only the offsets of the
+ * records are kept in memory.
+ * 
+ * File layout (big endian):
+ * 
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   long   seed of the random streams of the houses
+ *   int    number of houses, n
+ *   int    size of the largest record (bytes)
+ *   long   offset of the index
+ * then a record for each house
+ *   ThermalParams          (ThermalParams.write)
+ *   ThermostatParams       (ThermostatParams.write, with the setpoint table)
+ *   int    number of occupants
+ *   OccupantParams[]       (OccupantParams.write)
+ *   int    number of initial thermal states, 0 for none
+ *   double[] initial thermal states
+ * then the index
+ *   long[n] offset of each record
+ * </pre>
+ * 
+ * The header is written by close(), so a file that was not closed is not
+ * taken for a fleet file.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class FleetFileWriter {
+
+	static final int MAGIC = 0x4A52464C; // "JRFL"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long seed;
+	private ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+	private long[] offsets = new long[1024];
+	private int nHouses = 0;
+	private int maxRecordSize = 0;
+	private long position = HEADER_SIZE;
+	private boolean closed = false;
+
+	/**
+	 * Create a fleet file.
+	 * 
+	 * @param fname
+	 * @param seed
+	 *            -- seed of the random streams of the houses
+	 * @throws IOException
+	 */
+	public FleetFileWriter(String fname, long seed) throws IOException {
+		this.seed = seed;
+		file = new RandomAccessFile(fname, "rw");
+		try {
+			file.setLength(0);
+			channel = file.getChannel();
+			// leave room for the header
+			channel.position(HEADER_SIZE);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Add the next house.
+	 * 
+	 * @param therm
+	 * @param tstat
+	 * @param occupants
+	 * @param states
+	 *            -- initial states of the thermal model; null for none
+	 * @throws IOException
+	 */
+	public void add(ThermalParams therm, ThermostatParams tstat,
+			List<OccupantParams> occupants, double[] states)
+			throws IOException {
+		int size = ThermalParams.BYTES + tstat.getByteSize() + 4 + 4;
+		for (OccupantParams occ : occupants) {
+			size += occ.getByteSize();
+		}
+		if (states != null) {
+			size += 8 * states.length;
+		}
+		if (buf.remaining() < size) {
+			flush();
+			if (buf.capacity() < size) {
+				buf = ByteBuffer.allocate(size);
+			}
+		}
+		int start = buf.position();
+		therm.write(buf);
+		tstat.write(buf);
+		buf.putInt(occupants.size());
+		for (OccupantParams occ : occupants) {
+			occ.write(buf);
+		}
+		if (states == null) {
+			buf.putInt(0);
+		} else {
+			buf.putInt(states.length);
+			for (int k = 0; k < states.length; k++) {
+				buf.putDouble(states[k]);
+			}
+		}
+		if (nHouses == offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+		}
+		offsets[nHouses++] = position;
+		position += buf.position() - start;
+		maxRecordSize = Math.max(maxRecordSize, size);
+	}
+
+	/**
+	 * Get the number of houses written.
+	 * 
+	 * @return
+	 */
+	public int getHouseCount() {
+		return nHouses;
+	}
+
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Write the index and the header, and close the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			long indexOffset = position;
+			for (int i = 0; i < nHouses; i++) {
+				if (buf.remaining() < 8) {
+					flush();
+				}
+				buf.putLong(offsets[i]);
+			}
+			flush();
+			buf.putInt(MAGIC).putInt(VERSION).putLong(seed);
+			buf.putInt(nHouses).putInt(maxRecordSize).putLong(indexOffset);
+			buf.flip();
+			long p = 0;
+			while (buf.hasRemaining()) {
+				p += channel.write(buf, p);
+			}
+			channel.force(true);
+		} finally {
+			file.close();
+		}
+	}
+}
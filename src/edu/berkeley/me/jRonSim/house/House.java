@@ -32,6 +32,9 @@ package edu.berkeley.me.jRonSim.house;
 
 import java.io.PrintWriter;
 
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Message;
+
 /**
  * A public interface that all houses that will run under the NeighborhoodTask
  * will implement.
@@ -54,6 +57,25 @@ public interface House {
 	 */
 	public abstract void log(PrintWriter logFile);
 
+	/**
+	 * Copy the values that log(PrintWriter) prints into a row of a binary
+	 * log.
+	 * 
+	 * @param row
+	 * @param offset
+	 *            -- index of the first value in the row
+	 * @return the index after the last value
+	 */
+	public abstract int log(double[] row, int offset);
+
+	/**
+	 * Get the printf format that log(PrintWriter) prints the values with, one
+	 * conversion per value copied by log(double[], int).
+	 * 
+	 * @return
+	 */
+	public abstract String getLogFormat();
+
 	/**
 	 * Set the solar radiation experienced by the edu.berkeley.me.jRonSim.house.
 	 * 
@@ -75,4 +97,22 @@ public interface House {
 	 */
 	public abstract double getP();
 
+	/**
+	 * Deliver a message to the thermostat of the house. Safe to call from
+	 * any thread while the house runs.
+	 * 
+	 * @param msg
+	 */
+	public abstract void receiveMessage(Message msg);
+
+	/**
+	 * Record the latency of the DR setpoint messages delivered to the
+	 * thermostat, from the time they were sent to the time they change its
+	 * setpoint. Several houses can share a recorder.
+	 * 
+	 * @param recorder
+	 *            -- null for none
+	 */
+	public abstract void setDrLatencyRecorder(LatencyRecorder recorder);
+
 }
\ No newline at end of file
@@ -34,6 +34,8 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import edu.berkeley.me.jRonSim.aggregator.environment.Envelope;
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Message;
 import edu.berkeley.me.jRonSim.house.simulation.*;
 import edu.berkeley.me.jRonSim.house.thermostat.*;
 
@@ -46,6 +48,7 @@ public class PctHouse implements Envelope, House {
 
 	private String name;
 	private int idNum;
+	private static final String LOG_FORMAT = "%d\t %.2f\t %.2f\t %.2f\t";
 	private TrjTime tm;
 	private ArrayList<TrjSys> sysList = new ArrayList<TrjSys>();
 	private final int TSTAT_I = 0;
@@ -169,11 +172,37 @@ public class PctHouse implements Envelope, House {
 		ThermalSys therm = (ThermalSys) sysList.get(THERM_I);
 		ThermostatSys tStat = (ThermostatSys) sysList.get(TSTAT_I);
 		if (logFile != null) {
-			logFile.printf("%d\t %.2f\t %.2f\t %.2f\t", idNum, therm
-					.getTempInside(), tStat.getSetpointTemp(), therm.getP());
+			logFile.printf(LOG_FORMAT, idNum, therm.getTempInside(), tStat
+					.getSetpointTemp(), therm.getP());
 		}
 	}
 
+	/**
+	 * Copy the logged values of the house into a row of a binary log.
+	 * 
+	 * @param row
+	 * @param offset
+	 * @return the index after the last value
+	 */
+	public int log(double[] row, int offset) {
+		ThermalSys therm = (ThermalSys) sysList.get(THERM_I);
+		ThermostatSys tStat = (ThermostatSys) sysList.get(TSTAT_I);
+		row[offset++] = idNum;
+		row[offset++] = therm.getTempInside();
+		row[offset++] = tStat.getSetpointTemp();
+		row[offset++] = therm.getP();
+		return offset;
+	}
+
+	/**
+	 * Get the printf format of the logged values.
+	 * 
+	 * @return
+	 */
+	public String getLogFormat() {
+		return LOG_FORMAT;
+	}
+
 	/**
 	 * Get the name of the edu.berkeley.me.jRonSim.house.
 	 * 
@@ -238,4 +267,25 @@ public class PctHouse implements Envelope, House {
 		System.out.println("Simulation Stopped");
 		System.exit(0);
 	}
+
+	/**
+	 * Deliver a message to the thermostat of the house. Safe to call from
+	 * any thread.
+	 * 
+	 * @param msg
+	 */
+	public void receiveMessage(Message msg) {
+		ThermostatSys tStat = (ThermostatSys) sysList.get(TSTAT_I);
+		tStat.receiveMessage(msg);
+	}
+
+	/**
+	 * Record the latency of the DR setpoint messages of the thermostat.
+	 * 
+	 * @param recorder
+	 */
+	public void setDrLatencyRecorder(LatencyRecorder recorder) {
+		ThermostatSys tStat = (ThermostatSys) sysList.get(TSTAT_I);
+		tStat.setDrLatencyRecorder(recorder);
+	}
 }
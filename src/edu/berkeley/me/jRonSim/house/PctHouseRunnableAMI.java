@@ -30,8 +30,6 @@
  */
 package edu.berkeley.me.jRonSim.house;
 
-import java.io.*;
-
 import edu.berkeley.me.jRonSim.gatewayComm.AmiCommSetup;
 import TranRunJLite.TrjTime;
 import TranRunJLite.TrjTimeAccel;
@@ -50,9 +48,6 @@ public class PctHouseRunnableAMI implements Runnable
     
     //setup communications with Gateway
     private AmiCommSetup ami;
-    private String pow;
-    private String t;
-    private String data;
     
     
     /** Constructor for the implementable edu.berkeley.me.jRonSim.house.
@@ -69,8 +64,14 @@ public class PctHouseRunnableAMI implements Runnable
         this.tm = tm;
         this.hs = hs;
         this.ami = ami;
+        ami.setReceiver(hs::receiveMessage);
+        hs.setDrLatencyRecorder(ami.getDrLatencyRecorder());
     }
 
+    /** Run the house, posting its power to the gateway every step.  The
+     * samples are sent by the telemetry channel of the AMI setup, so the
+     * house runs at its own pace whatever the network does.
+     */
     public void run()
     {
     	
@@ -79,20 +80,13 @@ public class PctHouseRunnableAMI implements Runnable
         {
             stop = hs.run();
             
-            pow = Double.toString(hs.getP());
-            t = Double.toString(tm.getRunningTime());
-            data = ami.convertToXML(pow, t);
-            ami.postToGateway(data);
-            System.out.println(data);
+            ami.postSample(tm.getRunningTime(), hs.getP());
             
             tm.incrementRunningTime(dt);
         }
         
         System.out.println("Simulation Stopped");
-        ami.postToGateway("STOP");
         ami.closeAll();
-        
-        System.exit(0);
     }
  
 }
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house;
+
+import TranRunJLite.TrjTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.berkeley.me.jRonSim.house.occupant.OccupantParams;
+import edu.berkeley.me.jRonSim.house.occupant.OccupantParamsRand;
+import edu.berkeley.me.jRonSim.house.simulation.FleetThermalSim;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParamsRand;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParamsRange;
+import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParams;
+import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParamsRand;
+import edu.berkeley.me.jRonSim.util.BoundedRand;
+import edu.berkeley.me.jRonSim.util.StreamRand;
+
+/**
+ * Builds the random houses of a neighborhood. Each house draws its
+ * parameters from its own stream of the seed, so the houses do not depend on
+ * each other or on the order they are built in, and can be built on several
+ * threads with the same result. The range file of the thermal parameters is
+ * read once. The parameters can also be saved to a fleet file with write(),
+ * and the houses built from the file instead of being drawn again.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class PopulationBuilder {
+
+	// random stream ids within a house
+	public static final int THERMAL_STREAM = 0;
+	public static final int OCCUPANT_STREAM = 1;
+	public static final int THERMOSTAT_STREAM = 2;
+	public static final int HOUSE_STREAM = 3;
+	/** Number of chunks handed to each thread. */
+	private static final int CHUNKS_PER_THREAD = 4;
+	/** Number of houses drawn at a time by write(). */
+	private static final int WRITE_BLOCK = 1 << 14;
+
+	private final long seed;
+	private final StreamRand rn;
+	private final ThermalParamsRange range;
+	private final FleetFileReader source;
+	private FleetThermalSim fleet = null;
+	private ThermalWarmStart warm = null;
+	private int nThreads = 1;
+
+	/**
+	 * Construct the builder.
+	 * 
+	 * @param seed
+	 * @param rangeFile
+	 *            -- ranges of the thermal parameters
+	 * @throws Exception
+	 */
+	public PopulationBuilder(long seed, String rangeFile) throws Exception {
+		this.seed = seed;
+		this.rn = new StreamRand(seed);
+		this.range = ThermalParamsRange.get(rangeFile);
+		this.source = null;
+	}
+
+	/**
+	 * Construct a builder that reads the parameters of the houses from a
+	 * fleet file. The houses draw from the streams of the seed of the file,
+	 * so they are the houses the file was written from.
+	 * 
+	 * @param source
+	 */
+	public PopulationBuilder(FleetFileReader source) {
+		this.seed = source.getSeed();
+		this.rn = new StreamRand(seed);
+		this.range = null;
+		this.source = source;
+	}
+
+	/**
+	 * Integrate the thermal models of the houses in a fleet engine. The houses
+	 * are then added to the fleet in order, on the calling thread.
+	 * 
+	 * @param fleet
+	 */
+	public void setThermalFleet(FleetThermalSim fleet) {
+		this.fleet = fleet;
+	}
+
+	/**
+	 * Start the thermal models of the houses in a warmed up state.
+	 * 
+	 * @param warm
+	 */
+	public void setWarmStart(ThermalWarmStart warm) {
+		this.warm = warm;
+	}
+
+	/**
+	 * Set the number of threads to build the houses on.
+	 * 
+	 * @param nThreads
+	 */
+	public void setParallelism(int nThreads) {
+		if (nThreads < 1) {
+			throw new IllegalArgumentException("nThreads must be positive");
+		}
+		this.nThreads = nThreads;
+	}
+
+	/**
+	 * The parameters of a house.
+	 */
+	static class HouseParams {
+
+		BoundedRand rand;
+		ThermalParams therm;
+		ArrayList<OccupantParams> occupants;
+		ThermostatParams tstat;
+		double[] states;
+	}
+
+	/**
+	 * A job on one house.
+	 */
+	interface HouseJob {
+
+		void run(int i) throws Exception;
+	}
+
+	/**
+	 * Draw, or read, the parameters of a house, with its initial states if
+	 * there is a warm start.
+	 * 
+	 * @param i
+	 * @return
+	 * @throws Exception
+	 */
+	HouseParams buildParams(int i) throws Exception {
+		HouseParams p = drawParams(i);
+		if (p.states == null && warm != null) {
+			p.states = warm.getInitialStates(p.therm, p.tstat);
+		}
+		return p;
+	}
+
+	/**
+	 * Draw, or read, the parameters of a house, without computing initial
+	 * states.
+	 * 
+	 * @param i
+	 * @return
+	 * @throws Exception
+	 */
+	HouseParams drawParams(int i) throws Exception {
+		// the random stream of this house
+		BoundedRand hrn = rn.split(i);
+		HouseParams p = new HouseParams();
+		p.rand = hrn.split(HOUSE_STREAM);
+		if (source != null) {
+			FleetFileReader.HouseRecord rec = source.read(i);
+			p.therm = rec.getThermalParams();
+			p.occupants = rec.getOccupantParams();
+			p.tstat = rec.getThermostatParams();
+			p.states = rec.getInitialStates();
+			return p;
+		}
+		p.therm = new ThermalParamsRand(hrn.split(THERMAL_STREAM), range);
+		p.occupants = OccupantParamsRand.RandomList(null, hrn
+				.split(OCCUPANT_STREAM));
+		p.tstat = new ThermostatParamsRand(hrn.split(THERMOSTAT_STREAM),
+				p.occupants);
+		return p;
+	}
+
+	/**
+	 * Construct a house from its parameters.
+	 * 
+	 * @param tm
+	 * @param i
+	 * @param p
+	 * @return
+	 */
+	WholeHouse buildHouse(TrjTime tm, int i, HouseParams p) {
+		WholeHouse hs;
+		if (fleet != null) {
+			hs = new WholeHouse("House", tm, i, p.therm, p.tstat, p.occupants,
+					p.rand, fleet);
+		} else {
+			hs = new WholeHouse("House", tm, i, p.therm, p.tstat, p.occupants,
+					p.rand);
+		}
+		if (p.states != null) {
+			hs.setThermalStates(p.states);
+		}
+		return hs;
+	}
+
+	/**
+	 * Build the houses.
+	 * 
+	 * @param tm
+	 * @param nHouses
+	 * @return
+	 * @throws Exception
+	 */
+	public ArrayList<House> build(final TrjTime tm, int nHouses)
+			throws Exception {
+		if (source != null && nHouses > source.getHouseCount()) {
+			throw new IllegalArgumentException(nHouses
+					+ " houses asked for, the fleet file has "
+					+ source.getHouseCount());
+		}
+		final House[] houses = new House[nHouses];
+		if (fleet != null && source != null) {
+			// nothing to draw: read and add the houses one at a time
+			for (int i = 0; i < nHouses; i++) {
+				houses[i] = buildHouse(tm, i, buildParams(i));
+			}
+		} else if (fleet != null) {
+			// with a fleet, only the parameters are drawn in parallel
+			final HouseParams[] params = new HouseParams[nHouses];
+			runAll(0, nHouses, new HouseJob() {
+				public void run(int i) throws Exception {
+					params[i] = buildParams(i);
+				}
+			});
+			for (int i = 0; i < nHouses; i++) {
+				houses[i] = buildHouse(tm, i, params[i]);
+				params[i] = null;
+			}
+		} else {
+			runAll(0, nHouses, new HouseJob() {
+				public void run(int i) throws Exception {
+					houses[i] = buildHouse(tm, i, buildParams(i));
+				}
+			});
+		}
+		ArrayList<House> houseList = new ArrayList<House>(nHouses);
+		for (int i = 0; i < nHouses; i++) {
+			houseList.add(houses[i]);
+		}
+		return houseList;
+	}
+
+	/**
+	 * Write the parameters of the houses to a fleet file, with their initial
+	 * states if there is a warm start. The houses are drawn a block at a time,
+	 * so only one block of parameters is held in memory.
+	 * 
+	 * @param fname
+	 * @param nHouses
+	 * @throws Exception
+	 */
+	public void write(String fname, int nHouses) throws Exception {
+		FleetFileWriter out = new FleetFileWriter(fname, seed);
+		try {
+			final HouseParams[] params = new HouseParams[Math.min(nHouses,
+					WRITE_BLOCK)];
+			for (int start = 0; start < nHouses; start += params.length) {
+				final int first = start;
+				int end = Math.min(nHouses, start + params.length);
+				runAll(start, end, new HouseJob() {
+					public void run(int i) throws Exception {
+						params[i - first] = buildParams(i);
+					}
+				});
+				for (int i = start; i < end; i++) {
+					HouseParams p = params[i - first];
+					out.add(p.therm, p.tstat, p.occupants, p.states);
+					params[i - first] = null;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Run a job on houses start to end - 1, in chunks on the threads.
+	 * 
+	 * @param start
+	 * @param end
+	 * @param job
+	 * @throws Exception
+	 */
+	void runAll(int start, int end, final HouseJob job)
+			throws Exception {
+		int n = end - start;
+		if (nThreads == 1 || n < 2) {
+			for (int i = start; i < end; i++) {
+				job.run(i);
+			}
+			return;
+		}
+		int nChunks = Math.min(n, nThreads * CHUNKS_PER_THREAD);
+		ArrayList<Callable<Object>> chunks = new ArrayList<Callable<Object>>(
+				nChunks);
+		for (int k = 0; k < nChunks; k++) {
+			final int first = start + (int) ((long) n * k / nChunks);
+			final int last = start + (int) ((long) n * (k + 1) / nChunks);
+			chunks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					for (int i = first; i < last; i++) {
+						job.run(i);
+					}
+					return null;
+				}
+			});
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<Object>> results = pool.invokeAll(chunks);
+			for (Future<Object> f : results) {
+				f.get();
+			}
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof Exception) {
+				throw (Exception) ex.getCause();
+			}
+			throw ex;
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house;
+
+import TranRunJLite.TrjSys;
+import TranRunJLite.TrjTimeSim;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.GregorianCalendar;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
+import edu.berkeley.me.jRonSim.house.simulation.ThermalSys;
+import edu.berkeley.me.jRonSim.house.thermostat.HvacHystControlTask;
+import edu.berkeley.me.jRonSim.house.thermostat.SetpointTable;
+import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParams;
+import edu.berkeley.me.jRonSim.util.SimClock;
+
+/**
+ * Computes the states a thermal model settles into when the same day is
+ * repeated, so a simulation can start from them instead of from
+ * ThermalParams.initTemp and skip the hours the walls and coils take to warm
+ * up.
+ * 
+ * The day is given as samples of the outside temperature and the solar
+ * radiation. The model is run through it with a cooling hysteresis
+ * controller that follows the setpoint table of the thermostat, as the
+ * thermostat does in its cooling mode, until the states at the end of the
+ * day are within the tolerance of those at its start. Occupants and
+ * appliances are left out.
+ * 
+ * The states are cached in a directory, one file per house, named by a hash
+ * of the thermal parameters, the setpoints of the day, the day itself, and
+ * the settings of the computation.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ThermalWarmStart {
+
+	/** Version of the computation; change it when the model changes. */
+	static final int VERSION = 1;
+	private static final int MAGIC = 0x4A525753; // "JRWS"
+	private static final double DAY = 24 * 3600;
+	private static final int N_STATES = 5;
+
+	private final long msStart;
+	private final double dtProfile;
+	private final double[] ToutDay;
+	private final double[] radDay;
+	private final File cacheDir;
+	private double dt = 5.0;
+	private double tolerance = 0.01;
+	private int maxDays = 30;
+	private final AtomicInteger nComputed = new AtomicInteger();
+	private final AtomicInteger nCached = new AtomicInteger();
+	private final AtomicInteger nDays = new AtomicInteger();
+
+	/**
+	 * Construct the warm start for a day.
+	 * 
+	 * @param start
+	 *            -- start of the day, at running time 0
+	 * @param dtProfile
+	 *            -- time between the samples of the day
+	 * @param ToutDay
+	 *            -- outside temperature samples over the day
+	 * @param radDay
+	 *            -- solar radiation samples over the day
+	 * @param cacheDir
+	 *            -- directory of the cache, or null for no cache
+	 */
+	public ThermalWarmStart(GregorianCalendar start, double dtProfile,
+			double[] ToutDay, double[] radDay, String cacheDir) {
+		if (ToutDay.length != radDay.length
+				|| Math.abs(ToutDay.length * dtProfile - DAY) > 1e-6) {
+			throw new IllegalArgumentException(
+					"the samples must cover one day");
+		}
+		this.msStart = start.getTimeInMillis();
+		this.dtProfile = dtProfile;
+		this.ToutDay = ToutDay.clone();
+		this.radDay = radDay.clone();
+		this.cacheDir = (cacheDir == null) ? null : new File(cacheDir);
+	}
+
+	/**
+	 * Set how close the states at the start and the end of the day must be.
+	 * 
+	 * @param tolerance
+	 *            -- largest difference of a state (F)
+	 * @param maxDays
+	 *            -- number of days to give up after
+	 */
+	public void setTolerance(double tolerance, int maxDays) {
+		this.tolerance = tolerance;
+		this.maxDays = maxDays;
+	}
+
+	/**
+	 * Get the warmed up states of a house, from the cache when they are in
+	 * it.
+	 * 
+	 * @param thermPar
+	 * @param tstatPar
+	 * @return the states, in the order of the HouseThermalSimTask indices
+	 * @throws IOException
+	 */
+	public double[] getInitialStates(ThermalParams thermPar,
+			ThermostatParams tstatPar) throws IOException {
+		SetpointTable table = tstatPar.getSetpointTable();
+		File file = null;
+		if (cacheDir != null) {
+			file = new File(cacheDir, getKey(thermPar, table) + ".tinit");
+			double[] x = read(file);
+			if (x != null) {
+				nCached.incrementAndGet();
+				return x;
+			}
+		}
+		double[] x = compute(thermPar, table);
+		nComputed.incrementAndGet();
+		if (file != null) {
+			write(file, x);
+		}
+		return x;
+	}
+
+	/**
+	 * Run the thermal model through the day until it repeats.
+	 * 
+	 * @param params
+	 * @param table
+	 * @return the states at the start of the day
+	 */
+	public double[] compute(ThermalParams params, SetpointTable table) {
+		GregorianCalendar cal = new GregorianCalendar();
+		cal.setTimeInMillis(msStart);
+		TrjTimeSim tm = new TrjTimeSim(cal, 0.0);
+		ThermalSys therm = new ThermalSys("Warm Start", tm, params);
+		TrjSys control = new TrjSys(tm);
+		HvacHystControlTask cooler = new HvacHystControlTask(
+				"Warm Start Cooler", control, false, therm, 5.0);
+		cooler.SetCommand(cooler.SISO_START_CONTROL);
+		SimClock clock = new SimClock(msStart);
+
+		double[] x = new double[N_STATES];
+		double[] xStart = new double[N_STATES];
+		therm.getStates(xStart);
+		for (int day = 0; day < maxDays; day++) {
+			double tDayStart = day * DAY;
+			while (tm.getRunningTime() < tDayStart + DAY) {
+				// the same day, over and over
+				double t = tm.getRunningTime() - tDayStart;
+				int k = Math.min((int) (t / dtProfile), ToutDay.length - 1);
+				therm.setOutsideTemp(ToutDay[k]);
+				therm.setSolarRadiation(radDay[k]);
+				cooler.SetSetpoint(table.getTsp(clock.at(t)));
+				control.RunTasks();
+				therm.RunTasks();
+				tm.incrementRunningTime(dt);
+			}
+			nDays.incrementAndGet();
+			therm.getStates(x);
+			double diff = 0;
+			for (int i = 0; i < N_STATES; i++) {
+				diff = Math.max(diff, Math.abs(x[i] - xStart[i]));
+				xStart[i] = x[i];
+			}
+			if (diff < tolerance) {
+				break;
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Get the name of the cache file of a house.
+	 * 
+	 * @param params
+	 * @param table
+	 * @return
+	 */
+	String getKey(ThermalParams params, SetpointTable table) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new OutputStream() {
+					public void write(int b) {
+					}
+				}, md));
+		try {
+			out.writeInt(VERSION);
+			out.writeLong(msStart);
+			out.writeDouble(dt);
+			out.writeDouble(tolerance);
+			out.writeInt(maxDays);
+			out.writeDouble(dtProfile);
+			for (int k = 0; k < ToutDay.length; k++) {
+				out.writeDouble(ToutDay[k]);
+				out.writeDouble(radDay[k]);
+			}
+			// all of the parameters, as ThermalParams.write() lays them out
+			ByteBuffer buf = ByteBuffer.allocate(ThermalParams.BYTES);
+			params.write(buf);
+			out.write(buf.array());
+			// the setpoints are changed at whole minutes
+			SimClock clock = new SimClock(msStart);
+			for (int m = 0; m < DAY / 60; m++) {
+				out.writeDouble(table.getTsp(clock.at(m * 60.0)));
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e); // not from a digest
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : md.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Read cached states.
+	 * 
+	 * @param file
+	 * @return the states, or null if the file is missing or not valid
+	 * @throws IOException
+	 */
+	private static double[] read(File file) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (file.length() != 12 + 8 * N_STATES || in.readInt() != MAGIC
+					|| in.readInt() != VERSION || in.readInt() != N_STATES) {
+				return null;
+			}
+			double[] x = new double[N_STATES];
+			for (int i = 0; i < N_STATES; i++) {
+				x[i] = in.readDouble();
+			}
+			return x;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write states to the cache. They are written to a temporary file that is
+	 * then renamed, so a reader never sees a partial file.
+	 * 
+	 * @param file
+	 * @param x
+	 * @throws IOException
+	 */
+	private static void write(File file, double[] x) throws IOException {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			throw new IOException("cannot create " + dir);
+		}
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(N_STATES);
+			for (int i = 0; i < N_STATES; i++) {
+				out.writeDouble(x[i]);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("cannot rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	/**
+	 * Get a one line summary of the work done.
+	 * 
+	 * @return
+	 */
+	public String getReport() {
+		return String.format(
+				"warm start: %d houses computed (%d days), %d from the cache",
+				nComputed.get(), nDays.get(), nCached.get());
+	}
+}
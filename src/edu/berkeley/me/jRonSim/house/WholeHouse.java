@@ -34,6 +34,8 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import edu.berkeley.me.jRonSim.aggregator.environment.Envelope;
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Message;
 import edu.berkeley.me.jRonSim.house.appliances.AutoAppliancesSys;
 import edu.berkeley.me.jRonSim.house.occupant.LivingSpaceSys;
 import edu.berkeley.me.jRonSim.house.occupant.OccupantParams;
@@ -51,6 +53,7 @@ public class WholeHouse implements Envelope, House {
 
 	private String name;
 	private int idNum;
+	private static final String LOG_FORMAT = "%d\t %.6f\t %.2f\t %.2f\t";
 	private ArrayList<TrjSys> sysList = new ArrayList<TrjSys>();
 	private ArrayList<Consumer> consumList = new ArrayList<Consumer>();
 	private double Pdemand = 0; // aggregate demand
@@ -72,13 +75,50 @@ public class WholeHouse implements Envelope, House {
 	public WholeHouse(String name, TrjTime tm, int idNum,
 			ThermalParams thermPar, ThermostatParams tstatPar,
 			ArrayList<OccupantParams> occParList, BoundedRand rand) {
-
-		// create the living spaces system
-		LivingSpaceSys space = new LivingSpaceSys("Room and Space", tm, rand,
-				occParList, null, null);
-
 		// Create the thermal system with the default parameters
 		ThermalSys therm = new ThermalSys("Specific House", tm, thermPar);
+		buildWholeHouse(name, tm, idNum, therm, tstatPar, occParList, rand);
+	}
+
+	/**
+	 * Construct a house whose thermal model is integrated by a fleet engine
+	 * shared with the other houses of the neighborhood.
+	 * 
+	 * @param name
+	 * @param tm
+	 * @param idNum
+	 * @param thermPar
+	 * @param tstatPar
+	 * @param occParList
+	 * @param rand
+	 * @param fleet
+	 */
+	public WholeHouse(String name, TrjTime tm, int idNum,
+			ThermalParams thermPar, ThermostatParams tstatPar,
+			ArrayList<OccupantParams> occParList, BoundedRand rand,
+			FleetThermalSim fleet) {
+		ThermalSys therm = new ThermalSys("Specific House", tm, thermPar,
+				fleet);
+		buildWholeHouse(name, tm, idNum, therm, tstatPar, occParList, rand);
+	}
+
+	/**
+	 * Build the systems of the house around its thermal system.
+	 * 
+	 * @param name
+	 * @param tm
+	 * @param idNum
+	 * @param therm
+	 * @param tstatPar
+	 * @param occParList
+	 * @param rand
+	 */
+	private void buildWholeHouse(String name, TrjTime tm, int idNum,
+			ThermalSys therm, ThermostatParams tstatPar,
+			ArrayList<OccupantParams> occParList, BoundedRand rand) {
+		// create the living spaces system
+		LivingSpaceSys space = new LivingSpaceSys("Room and Space", tm,
+				rand.split(SPACE_I), occParList, null, null);
 
 		// Create the thermostat system
 		ThermostatSys tstat = new ThermostatSys("Basic Thermostat", tm, therm,
@@ -86,7 +126,7 @@ public class WholeHouse implements Envelope, House {
 
 		// Create the automatic appliance system
 		AutoAppliancesSys appliances = new AutoAppliancesSys(
-				"Automatic Appliances", tm, rand);
+				"Automatic Appliances", tm, rand.split(APPLI_I));
 
 		// Add the systems into the living space
 		space.setThermalSys(therm);
@@ -154,11 +194,37 @@ public class WholeHouse implements Envelope, House {
 		ThermalSys therm = (ThermalSys) sysList.get(THERM_I);
 		ThermostatSys tstat = (ThermostatSys) sysList.get(TSTAT_I);
 		if (logFile != null) {
-			logFile.printf("%d\t %.6f\t %.2f\t %.2f\t", idNum, therm
-					.getTempInside(), tstat.getSetpointTemp(), this.getP());
+			logFile.printf(LOG_FORMAT, idNum, therm.getTempInside(), tstat
+					.getSetpointTemp(), this.getP());
 		}
 	}
 
+	/**
+	 * Copy the logged values of the house into a row of a binary log.
+	 * 
+	 * @param row
+	 * @param offset
+	 * @return the index after the last value
+	 */
+	public int log(double[] row, int offset) {
+		ThermalSys therm = (ThermalSys) sysList.get(THERM_I);
+		ThermostatSys tstat = (ThermostatSys) sysList.get(TSTAT_I);
+		row[offset++] = idNum;
+		row[offset++] = therm.getTempInside();
+		row[offset++] = tstat.getSetpointTemp();
+		row[offset++] = this.getP();
+		return offset;
+	}
+
+	/**
+	 * Get the printf format of the logged values.
+	 * 
+	 * @return
+	 */
+	public String getLogFormat() {
+		return LOG_FORMAT;
+	}
+
 	/**
 	 * Get the name of the edu.berkeley.me.jRonSim.house.
 	 * 
@@ -197,6 +263,17 @@ public class WholeHouse implements Envelope, House {
 		therm.setOutsideTemp(Tout);
 	}
 
+	/**
+	 * Set all of the states of the thermal model of the house.
+	 * 
+	 * @param x
+	 * @see ThermalWarmStart
+	 */
+	public void setThermalStates(double[] x) {
+		ThermalSys therm = (ThermalSys) sysList.get(THERM_I);
+		therm.setStates(x);
+	}
+
 	/**
 	 * Return the total energy
 	 * 
@@ -207,4 +284,25 @@ public class WholeHouse implements Envelope, House {
 
 		return Pdemand;
 	}
+
+	/**
+	 * Deliver a message to the thermostat of the house. Safe to call from
+	 * any thread.
+	 * 
+	 * @param msg
+	 */
+	public void receiveMessage(Message msg) {
+		ThermostatSys tstat = (ThermostatSys) sysList.get(TSTAT_I);
+		tstat.receiveMessage(msg);
+	}
+
+	/**
+	 * Record the latency of the DR setpoint messages of the thermostat.
+	 * 
+	 * @param recorder
+	 */
+	public void setDrLatencyRecorder(LatencyRecorder recorder) {
+		ThermostatSys tstat = (ThermostatSys) sysList.get(TSTAT_I);
+		tstat.setDrLatencyRecorder(recorder);
+	}
 }
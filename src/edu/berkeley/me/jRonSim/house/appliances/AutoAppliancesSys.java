@@ -32,8 +32,8 @@ package edu.berkeley.me.jRonSim.house.appliances;
 
 import edu.berkeley.me.jRonSim.house.Consumer;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
-import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTime;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
 
 /**
  * This system runs any simple household appliances that should turn on
@@ -43,7 +43,7 @@ import TranRunJLite.TrjTime;
  * @author William Burke <billstron@gmail.com>
  * @date Mar 11, 2010
  */
-public class AutoAppliancesSys extends TrjSys implements Consumer {
+public class AutoAppliancesSys extends ScheduledSys implements Consumer {
 
 	String name;
 	private DryTask dryer;
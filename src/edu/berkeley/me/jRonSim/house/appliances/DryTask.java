@@ -33,6 +33,7 @@ package edu.berkeley.me.jRonSim.house.appliances;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**
  * This task operates a clothes dryer. Turning it on automatically based on
@@ -41,7 +42,7 @@ import TranRunJLite.TrjTask;
  * @author William Burke <billstron@gmail.com>
  * @date Mar 11, 2010
  */
-public class DryTask extends TrjTask {
+public class DryTask extends TrjTask implements ScheduledTask {
 	private double Pon;
 	private double Pcurrent;
 	private double tStart;
@@ -173,4 +174,8 @@ public class DryTask extends TrjTask {
 
 		return CheckTime(sys.GetRunningTime());
 	}
+
+	public double getNextRunTime() {
+		return super.tNext;
+	}
 }
@@ -33,12 +33,13 @@ package edu.berkeley.me.jRonSim.house.occupant;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**
  * @author William Burke <billstron@gmail.com>
  * @date Mar 11, 2010
  */
-public class ApplianceAutoTask extends TrjTask {
+public class ApplianceAutoTask extends TrjTask implements ScheduledTask {
 	private double Pon;
 	private double Poff;
 	private double Pcurrent;
@@ -148,4 +149,8 @@ public class ApplianceAutoTask extends TrjTask {
 
 		return CheckTime(sys.GetRunningTime());
 	}
+
+	public double getNextRunTime() {
+		return tNext;
+	}
 }
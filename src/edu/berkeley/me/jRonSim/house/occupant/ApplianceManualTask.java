@@ -34,13 +34,14 @@ package edu.berkeley.me.jRonSim.house.occupant;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** 
  * 
  * @author William Burke <billstron@gmail.com>
  *
  */
-public class ApplianceManualTask extends TrjTask {
+public class ApplianceManualTask extends TrjTask implements ScheduledTask {
 
 	private double Pon; // on power
 	private double Poff; // off power
@@ -165,4 +166,8 @@ public class ApplianceManualTask extends TrjTask {
 	public boolean RunTaskNow(TrjSys sys) {
 		return CheckTime(sys.GetRunningTime());
 	}
+
+	public double getNextRunTime() {
+		return tNext;
+	}
 }
@@ -34,13 +34,14 @@ package edu.berkeley.me.jRonSim.house.occupant;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**
  * 
  * @author William Burke <billstron@gmail.com>
  *
  */
-public class ApplianceTimedCycleTask extends TrjTask {
+public class ApplianceTimedCycleTask extends TrjTask implements ScheduledTask {
 
 	private double Pon; // on power
 	private double Poff; // off power
@@ -178,4 +179,8 @@ public class ApplianceTimedCycleTask extends TrjTask {
 	public boolean RunTaskNow(TrjSys sys) {
 		return CheckTime(sys.GetRunningTime());
 	}
+
+	public double getNextRunTime() {
+		return tNext;
+	}
 }
@@ -38,8 +38,8 @@ import edu.berkeley.me.jRonSim.house.simulation.ThermalSys;
 import edu.berkeley.me.jRonSim.house.thermostat.ThermostatSys;
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 
-import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTime;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
 
 /**
  * Implements all tasks that occupy the living spaces
@@ -47,7 +47,7 @@ import TranRunJLite.TrjTime;
  * @author William Burke <billstron@gmail.com>
  * 
  */
-public class LivingSpaceSys extends TrjSys implements Consumer {
+public class LivingSpaceSys extends ScheduledSys implements Consumer {
 
 	private String Name;
 	private ArrayList<OccupantTask> occupantList;
@@ -61,6 +61,10 @@ public class LivingSpaceSys extends TrjSys implements Consumer {
 	private double[] PDryerHL = { 1800., 5000.};
 	private double[] dryerCycle = { 45. * 60., 5. * 60. };
 	private double[] PCompHL = { 160., 240. };
+	// random stream ids of the appliance tasks (occupants use their index)
+	private final static int FRIDGE_STREAM = 100;
+	private final static int DRYER_STREAM = 101;
+	private final static int COMPUTER_STREAM = 102;
 
 	public LivingSpaceSys(String name, TrjTime tm, BoundedRand rand,
 			ArrayList<OccupantParams> paramList, ThermalSys therm,
@@ -73,7 +77,7 @@ public class LivingSpaceSys extends TrjSys implements Consumer {
 		for (int i = 0; i < paramList.size(); i++) {
 			String tName = "Occupant " + 0;
 			occupantList.add(new OccupantTask(tName, this, paramList.get(i), i,
-					rand));
+					rand.split(i)));
 		}
 
 		// initialize the automatic appliance list
@@ -84,7 +88,8 @@ public class LivingSpaceSys extends TrjSys implements Consumer {
 		double[] fridgeCycle = { Double.POSITIVE_INFINITY, 0 };
 		double[] fridgeOff = { 0., 0. };
 		autoList.add(new ApplianceAutoTask("Refrigerator", this, dtFridge,
-				Pfridge, 0., fridgeCycle, fridgeOff, rand));
+				Pfridge, 0., fridgeCycle, fridgeOff,
+				rand.split(FRIDGE_STREAM)));
 
 		// initialize the timed cycle list
 		timedList = new ArrayList<ApplianceTimedCycleTask>(3);
@@ -92,7 +97,7 @@ public class LivingSpaceSys extends TrjSys implements Consumer {
 		double dtDryer = 5.;
 		double Pdryer = rand.getBoundedRand(PDryerHL[0], PDryerHL[1]);
 		timedList.add(new ApplianceTimedCycleTask("Clothes Dryer", this,
-				dtDryer, Pdryer, 0., dryerCycle, rand));
+				dtDryer, Pdryer, 0., dryerCycle, rand.split(DRYER_STREAM)));
 
 		// initialize the timed cycle list
 		manualList = new ArrayList<ApplianceManualTask>(3);
@@ -100,7 +105,7 @@ public class LivingSpaceSys extends TrjSys implements Consumer {
 		double dtComputer = 5.;
 		double Pcomputer = rand.getBoundedRand(PCompHL[0], PCompHL[1]);
 		manualList.add(new ApplianceManualTask("Computer", this, dtComputer,
-				Pcomputer, 0., rand));
+				Pcomputer, 0., rand.split(COMPUTER_STREAM)));
 
 		this.therm = therm;
 		this.tStat = tStat;
@@ -30,6 +30,8 @@
  */
 package edu.berkeley.me.jRonSim.house.occupant;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author William Burke <billstron@gmail.com>
  * 
@@ -110,4 +112,92 @@ public class OccupantParams {
 	public double getAwayTemp() {
 		return comfortTemp[AWAY];
 	}
+
+	/**
+	 * Get the size of the parameters written by write().
+	 * 
+	 * @return (bytes)
+	 */
+	public int getByteSize() {
+		int n = comfortTemp.length + DRcomfortTemp.length
+				+ motivationProb.length + DRmotivationProb.length
+				+ wakeTime.length + sleepTime.length + leaveTime.length
+				+ arriveTime.length;
+		// the arrays, tPatience, the flags, the counts and the averages
+		return 4 * 8 + 8 * n + 8 + 2 + 4 * 5 + 8 * 7;
+	}
+
+	/**
+	 * Write the parameters to a buffer.
+	 * 
+	 * @param buf
+	 *            -- receives getByteSize() bytes
+	 */
+	public void write(ByteBuffer buf) {
+		putArray(buf, comfortTemp);
+		putArray(buf, DRcomfortTemp);
+		putArray(buf, motivationProb);
+		putArray(buf, DRmotivationProb);
+		putArray(buf, wakeTime);
+		putArray(buf, sleepTime);
+		putArray(buf, leaveTime);
+		putArray(buf, arriveTime);
+		buf.putDouble(tPatience);
+		buf.put((byte) (working ? 1 : 0)).put((byte) (dayShift ? 1 : 0));
+		buf.putInt(resNum).putInt(numWorking).putInt(numDayShift);
+		buf.putInt(resHomeAllDay).putInt(resWorks);
+		buf.putDouble(avgWakeTime).putDouble(avgSleepTime);
+		buf.putDouble(avgLeaveTime).putDouble(avgArriveTime);
+		buf.putDouble(avgComfortTemp).putDouble(avgSleepTemp);
+		buf.putDouble(avgAwayTemp);
+	}
+
+	/**
+	 * Read parameters written by write().
+	 * 
+	 * @param buf
+	 * @return
+	 */
+	public static OccupantParams read(ByteBuffer buf) {
+		OccupantParams p = new OccupantParams();
+		p.comfortTemp = getArray(buf);
+		p.DRcomfortTemp = getArray(buf);
+		p.motivationProb = getArray(buf);
+		p.DRmotivationProb = getArray(buf);
+		p.wakeTime = getArray(buf);
+		p.sleepTime = getArray(buf);
+		p.leaveTime = getArray(buf);
+		p.arriveTime = getArray(buf);
+		p.tPatience = buf.getDouble();
+		p.working = buf.get() != 0;
+		p.dayShift = buf.get() != 0;
+		p.resNum = buf.getInt();
+		p.numWorking = buf.getInt();
+		p.numDayShift = buf.getInt();
+		p.resHomeAllDay = buf.getInt();
+		p.resWorks = buf.getInt();
+		p.avgWakeTime = buf.getDouble();
+		p.avgSleepTime = buf.getDouble();
+		p.avgLeaveTime = buf.getDouble();
+		p.avgArriveTime = buf.getDouble();
+		p.avgComfortTemp = buf.getDouble();
+		p.avgSleepTemp = buf.getDouble();
+		p.avgAwayTemp = buf.getDouble();
+		return p;
+	}
+
+	private static void putArray(ByteBuffer buf, double[] a) {
+		buf.putInt(a.length);
+		for (int i = 0; i < a.length; i++) {
+			buf.putDouble(a[i]);
+		}
+	}
+
+	private static double[] getArray(ByteBuffer buf) {
+		double[] a = new double[buf.getInt()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = buf.getDouble();
+		}
+		return a;
+	}
 }
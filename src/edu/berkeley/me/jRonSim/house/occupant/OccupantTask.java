@@ -30,20 +30,19 @@
  */
 package edu.berkeley.me.jRonSim.house.occupant;
 
-import java.util.Calendar;
-
 import edu.berkeley.me.jRonSim.util.BoundedRand;
-import edu.berkeley.me.jRonSim.util.Conversion;
 
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+import edu.berkeley.me.jRonSim.util.SimClock;
 
 /**
  * @author William Burke <billstron@gmail.com>
  * @date Apr 16, 2010
  */
-public class OccupantTask extends TrjTask {
+public class OccupantTask extends TrjTask implements ScheduledTask {
 
 	private int resNum; // the resident identifier.
 	private double insideTemp; // inside temperature.
@@ -56,6 +55,7 @@ public class OccupantTask extends TrjTask {
 	private OccupantParams prefs;
 	private double tNext;
 	private BoundedRand rand;
+	private SimClock clock;
 	private double[] tOnTimedLast = { 0. };
 	private double[] tOnManualLast = { 0. };
 	private double[] tOffManualLast = { 0. };
@@ -89,6 +89,7 @@ public class OccupantTask extends TrjTask {
 		this.prefs = prefs;
 		this.resNum = resNum;
 		this.rand = rand;
+		this.clock = SimClock.of(sys);
 		((LivingSpaceSys) this.sys).specifyHome();
 	}
 
@@ -148,6 +149,10 @@ public class OccupantTask extends TrjTask {
 		return CheckTime(sys.GetRunningTime());
 	}
 
+	public double getNextRunTime() {
+		return super.tNext;
+	}
+
 	private void ApplianceTimedSwitchSubTask(double t) {
 		// for each appliance
 		for (int i = 0; i < tOnTimedLast.length; i++) {
@@ -215,7 +220,7 @@ public class OccupantTask extends TrjTask {
 
 	private int AwakeComfortableState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 		if (this.runEntry) {
 			System.out.println("<AwakeComfortableState> entry");
 			// prepare the time based state transition variables.
@@ -237,7 +242,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.arriveTime[0] < prefs.leaveTime[0]) {
@@ -293,10 +298,10 @@ public class OccupantTask extends TrjTask {
 
 	private int AwakeWarmState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<AwakeWarmState> entry");
 			// prepare the time based state transition variables.
 			transTime = Double.POSITIVE_INFINITY;
@@ -351,7 +356,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.arriveTime[0] < prefs.leaveTime[0]) {
@@ -388,10 +393,10 @@ public class OccupantTask extends TrjTask {
 
 	private int AwakeHotState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<AwakeHotState> entry");
 			// prepare the time based state transition variables.
 			transTime = Double.POSITIVE_INFINITY;
@@ -448,7 +453,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.arriveTime[0] < prefs.leaveTime[0]) {
@@ -483,10 +488,10 @@ public class OccupantTask extends TrjTask {
 
 	private int AwakeCoolState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<AwakeCoolState> entry");
 
 			// prepare the time based state transition variables.
@@ -544,7 +549,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.arriveTime[0] < prefs.leaveTime[0]) {
@@ -581,10 +586,10 @@ public class OccupantTask extends TrjTask {
 
 	private int AwakeColdState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<AwakeColdState> entry");
 			// prepare the time based state transition variables.
 			transTime = Double.POSITIVE_INFINITY;
@@ -641,7 +646,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.arriveTime[0] < prefs.leaveTime[0]) {
@@ -676,10 +681,10 @@ public class OccupantTask extends TrjTask {
 
 	private int SleepingState(double t) {
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<SleepingState> entry");
 			double randNum = 0;
 
@@ -721,7 +726,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double sleepMod = 0;
 		double wakeMod = 0;
 		if (prefs.sleepTime[0] < prefs.wakeTime[0]) {
@@ -751,10 +756,10 @@ public class OccupantTask extends TrjTask {
 	private int AwayState(double t) {
 
 		// Get the current calendar
-		Calendar now = sys.GetCalendar(t);
+		SimClock now = clock.at(t);
 
 		if (this.runEntry) {
-			// double tHrs = Conversion.CalendarToHourOfDay(now);
+			// double tHrs = now.getHourOfDayFraction();
 			System.out.println("<AwayState> entry");
 
 			double randNum = 0;
@@ -802,7 +807,7 @@ public class OccupantTask extends TrjTask {
 		double transHour = 0;
 
 		// for checking the transition times.
-		double tHrs = Conversion.CalendarToHourOfDay(now);
+		double tHrs = now.getHourOfDayFraction();
 		double leaveMod = 0;
 		double arriveMod = 0;
 		if (prefs.leaveTime[0] < prefs.arriveTime[0]) {
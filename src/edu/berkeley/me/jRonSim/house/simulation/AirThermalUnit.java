@@ -95,4 +95,24 @@ class AirThermalUnit extends ThermalUnit
                 extWall.getQToAir()) / (cpAir * m);
         return dx;
     }
+
+    @Override
+    public void getJacobian(double[] row)
+    {
+        for (int j = 0; j < row.length; j++)
+        {
+            row[j] = 0;
+        }
+        // Mixing with the air leaving the heater and the cooler
+        double kh = heater.getFanFlow() * heater.getOutletFraction() / m;
+        double kc = cooler.getFanFlow() * cooler.getOutletFraction() / m;
+        row[HouseThermalSimTask.HEATER_I] = kh;
+        row[HouseThermalSimTask.COOLER_I] = kc;
+        // Conduction to the walls
+        double kInt = intWall.k1 / (cpAir * m);
+        double kExt = extWall.k1 / (cpAir * m);
+        row[HouseThermalSimTask.INTWALL_I] = kInt;
+        row[HouseThermalSimTask.EXTWALL_I] = kExt;
+        row[i] = -(kh + kc + fanFlow / m + kInt + kExt);
+    }
 }
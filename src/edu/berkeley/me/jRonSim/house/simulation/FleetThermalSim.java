@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Integrates the thermal model of a whole fleet of houses at once. The states,
+ * parameters and HVAC inputs of every house are kept in one primitive array
+ * per quantity, indexed by the slot of the house, and the fleet is advanced
+ * with a fixed-step fourth order Runge-Kutta method in straight loops over
+ * the slots. The loops have no branches or calls, so the JIT compiles them
+ * to vector instructions.
+ * 
+ * The equations are the ones of HvacThermalUnit, WallThermalUnit and
+ * AirThermalUnit with the fan and compressor switches written as 0/1
+ * factors. A house is attached to the fleet through a ThermalSys built with
+ * {@link ThermalSys#ThermalSys(String, TranRunJLite.TrjTime, ThermalParams, FleetThermalSim)},
+ * and the owner of the fleet calls {@link #advanceTo(double)} once per tick
+ * before the houses are run.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class FleetThermalSim {
+
+	// constants of the HVAC models (see HvacThermalUnit)
+	private static final double MCAP = -0.0064;
+	private static final double BCAP = 1.61;
+	private static final double MCOP0 = -0.015;
+	private static final double BCOP0 = 2.43;
+	private static final double CD = 0.25;
+	private static final double HVAC_AMBIENT = 90.0;
+	private static final double HVAC_CP = 0.2;
+	private static final double COOLER_K2 = 0.01;
+	private static final double COOLER_K3 = 0.6;
+	private static final double HEATER_K2 = 0.05;
+	private static final double HEATER_K3 = 1.0;
+	private static final double WALL_CP = 0.29;
+	private static final double AIR_CP = 0.24;
+	/** Largest value of step * (fastest rate) used by the integrator. */
+	static final double STABLE_STEP_RATE = 2.0;
+
+	private int n = 0;
+	private double tLast = 0;
+	private double maxStep = 1.0;
+	private double maxRate = 0;
+	private long nSteps = 0; // integration steps of the fleet
+	// states
+	private double[] xC, xH, xE, xI, xA;
+	// integration scratch: stage states, derivatives and accumulators
+	private double[] sC, sH, sE, sI, sA;
+	private double[] dC, dH, dE, dI, dA;
+	private double[] aC, aH, aE, aI, aA;
+	// cooler parameters
+	private double[] invCapC, kAirC, effC, flowC, heatMaxC, cop95C;
+	// heater parameters
+	private double[] invCapH, kAirH, effH, flowH, heatMaxH, copH;
+	// wall parameters
+	private double[] kAirE, kAmbE, invCapE, kAirI, invCapI;
+	// air parameters
+	private double[] invMassA, invCapA, windowA, infilA, internalA;
+	// inputs: fan and compressor switches (0 or 1) and the environment
+	private double[] fanC, onC, fanH, onH, Tout, rad;
+	// outputs
+	private double[] P, ductC, ductH;
+
+	/**
+	 * Construct an empty fleet.
+	 * 
+	 * @param capacity
+	 *            -- expected number of houses
+	 */
+	public FleetThermalSim(int capacity) {
+		grow(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Set the largest integration step. The step is also limited by the
+	 * fastest time constant of the houses so that the method stays stable.
+	 * 
+	 * @param maxStep
+	 */
+	public void setMaxStep(double maxStep) {
+		this.maxStep = maxStep;
+	}
+
+	/**
+	 * Get the number of houses in the fleet.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Get the number of Runge-Kutta steps taken so far. Every house is
+	 * advanced by every step, with four derivative evaluations each.
+	 * 
+	 * @return
+	 */
+	public long getStepCount() {
+		return nSteps;
+	}
+
+	/**
+	 * Add a house to the fleet. All five states start at the initial
+	 * temperature of the parameters, as in HouseThermalSimTask.
+	 * 
+	 * @param params
+	 * @return the slot of the house
+	 */
+	public int addHouse(ThermalParams params) {
+		if (n == xA.length) {
+			grow(2 * n);
+		}
+		int i = n++;
+		xC[i] = xH[i] = xE[i] = xI[i] = xA[i] = params.initTemp;
+
+		double gC = 1.0 + COOLER_K3 * (Math.exp(-1.0 / COOLER_K3) - 1.0);
+		invCapC[i] = 1.0 / (HVAC_CP * params.coolerMass);
+		kAirC[i] = Math.abs(params.coolerHeatInputMax / 16.0) * gC;
+		effC[i] = 1.0 - Math.exp(-1.0 / COOLER_K3);
+		flowC[i] = params.coolerFanMax;
+		heatMaxC[i] = params.coolerHeatInputMax;
+		double acCop82 = params.coolerHeatEfficiency / (3.413 * (1 - 0.5 * CD));
+		cop95C[i] = acCop82 / (MCOP0 * 82 + BCOP0);
+
+		double gH = 1.0 + HEATER_K3 * (Math.exp(-1.0 / HEATER_K3) - 1.0);
+		invCapH[i] = 1.0 / (HVAC_CP * params.heaterMass);
+		kAirH[i] = params.heaterHeatInputMax / 10.0 * gH;
+		effH[i] = 1.0 - Math.exp(-1.0 / HEATER_K3);
+		flowH[i] = params.heaterfanMax;
+		heatMaxH[i] = params.heaterHeatInputMax;
+		copH[i] = params.heaterHeatEfficiency;
+
+		kAirE[i] = params.extWallKair;
+		kAmbE[i] = params.extWallKamb;
+		invCapE[i] = 1.0 / (WALL_CP * params.extWallMass);
+		kAirI[i] = params.intWallKair;
+		invCapI[i] = 1.0 / (WALL_CP * params.intWallMass);
+
+		invMassA[i] = 1.0 / params.airMass;
+		invCapA[i] = 1.0 / (AIR_CP * params.airMass);
+		windowA[i] = params.windowArea;
+		infilA[i] = params.infiltrationFlow;
+		internalA[i] = params.internalInput;
+
+		fanC[i] = onC[i] = fanH[i] = onH[i] = 0;
+		Tout[i] = 100;
+		rad[i] = 0;
+
+		// fastest rate of the house, seen by the air and the HVAC cores
+		double rateA = (kAirE[i] + kAirI[i]) * invCapA[i] + infilA[i]
+				* invMassA[i] + (flowC[i] * effC[i] + flowH[i] * effH[i])
+				* invMassA[i];
+		double rateC = (kAirC[i] + COOLER_K2) * invCapC[i];
+		double rateH = (kAirH[i] + HEATER_K2) * invCapH[i];
+		maxRate = Math.max(maxRate, Math.max(rateA, Math.max(rateC, rateH)));
+		computeOutputs(i, i + 1);
+		return i;
+	}
+
+	/**
+	 * Advance every house to time t using the inputs set since the last call.
+	 * 
+	 * @param t
+	 */
+	public void advanceTo(double t) {
+		double dt = t - tLast;
+		if (dt <= 0) {
+			tLast = t;
+			return;
+		}
+		double hMax = maxStep;
+		if (maxRate > 0) {
+			hMax = Math.min(hMax, STABLE_STEP_RATE / maxRate);
+		}
+		int nSteps = (int) Math.ceil(dt / hMax);
+		double h = dt / nSteps;
+		for (int k = 0; k < nSteps; k++) {
+			step(h);
+		}
+		this.nSteps += nSteps;
+		computeOutputs(0, n);
+		tLast = t;
+	}
+
+	/**
+	 * One Runge-Kutta step of length h for the whole fleet.
+	 * 
+	 * @param h
+	 */
+	private void step(double h) {
+		// stage 1
+		deriv(xC, xH, xE, xI, xA);
+		for (int i = 0; i < n; i++) {
+			aC[i] = dC[i];
+			aH[i] = dH[i];
+			aE[i] = dE[i];
+			aI[i] = dI[i];
+			aA[i] = dA[i];
+		}
+		stage(0.5 * h);
+		// stage 2
+		deriv(sC, sH, sE, sI, sA);
+		accumulate(2.0);
+		stage(0.5 * h);
+		// stage 3
+		deriv(sC, sH, sE, sI, sA);
+		accumulate(2.0);
+		stage(h);
+		// stage 4
+		deriv(sC, sH, sE, sI, sA);
+		accumulate(1.0);
+		double h6 = h / 6.0;
+		for (int i = 0; i < n; i++) {
+			xC[i] += h6 * aC[i];
+			xH[i] += h6 * aH[i];
+			xE[i] += h6 * aE[i];
+			xI[i] += h6 * aI[i];
+			xA[i] += h6 * aA[i];
+		}
+	}
+
+	/**
+	 * Set the stage states to x + c * (last derivatives).
+	 * 
+	 * @param c
+	 */
+	private void stage(double c) {
+		for (int i = 0; i < n; i++) {
+			sC[i] = xC[i] + c * dC[i];
+			sH[i] = xH[i] + c * dH[i];
+			sE[i] = xE[i] + c * dE[i];
+			sI[i] = xI[i] + c * dI[i];
+			sA[i] = xA[i] + c * dA[i];
+		}
+	}
+
+	private void accumulate(double w) {
+		for (int i = 0; i < n; i++) {
+			aC[i] += w * dC[i];
+			aH[i] += w * dH[i];
+			aE[i] += w * dE[i];
+			aI[i] += w * dI[i];
+			aA[i] += w * dA[i];
+		}
+	}
+
+	/**
+	 * Compute the derivatives of all houses at the given states.
+	 */
+	private void deriv(double[] c, double[] h, double[] e, double[] w,
+			double[] a) {
+		for (int i = 0; i < n; i++) {
+			double Ta = a[i];
+			double To = Tout[i];
+			// cooler
+			double qAirC = fanC[i] * kAirC[i] * (c[i] - Ta);
+			double qOutC = onC[i] * heatMaxC[i] * (MCAP * To + BCAP)
+					* (MCAP * Ta + BCAP);
+			dC[i] = (qOutC - (c[i] - HVAC_AMBIENT) * COOLER_K2 - qAirC)
+					* invCapC[i];
+			// heater
+			double qAirH = fanH[i] * kAirH[i] * (h[i] - Ta);
+			double qOutH = onH[i] * heatMaxH[i] * copH[i];
+			dH[i] = (qOutH - (h[i] - HVAC_AMBIENT) * HEATER_K2 - qAirH)
+					* invCapH[i];
+			// walls
+			double qAirE = (Ta - e[i]) * kAirE[i];
+			dE[i] = (qAirE + (To - e[i]) * kAmbE[i]) * invCapE[i];
+			double qAirI = (Ta - w[i]) * kAirI[i];
+			dI[i] = qAirI * invCapI[i];
+			// air: duct air mixing, infiltration, windows and internal gains
+			double mix = (fanH[i] * flowH[i] * effH[i] * (h[i] - Ta) + fanC[i]
+					* flowC[i] * effC[i] * (c[i] - Ta) + infilA[i] * (To - Ta))
+					* invMassA[i];
+			dA[i] = mix
+					+ (rad[i] * windowA[i] / 3600 + internalA[i] - qAirI - qAirE)
+					* invCapA[i];
+		}
+	}
+
+	/**
+	 * Compute the power and duct temperatures of the houses in [from, to).
+	 */
+	private void computeOutputs(int from, int to) {
+		for (int i = from; i < to; i++) {
+			double Ta = xA[i];
+			double cfo = MCAP * Tout[i] + BCAP;
+			double cfi = MCAP * Ta + BCAP;
+			double qOutC = onC[i] * heatMaxC[i] * cfo * cfi;
+			double acCop = cop95C[i] * cfi * cfo;
+			double Pc = (acCop != 0.0) ? (-qOutC / (acCop * 3.413)) * 3600
+					: Double.POSITIVE_INFINITY;
+			P[i] = Pc + onH[i] * heatMaxH[i];
+			ductC[i] = xC[i] + fanC[i] * (Ta - xC[i]) * (1.0 - effC[i]);
+			ductH[i] = xH[i] + fanH[i] * (Ta - xH[i]) * (1.0 - effH[i]);
+		}
+	}
+
+	/**
+	 * Set the outside temperature and solar radiation of every house.
+	 * 
+	 * @param Tout
+	 * @param rad
+	 */
+	public void setEnvironment(double Tout, double rad) {
+		Arrays.fill(this.Tout, 0, n, Tout);
+		Arrays.fill(this.rad, 0, n, rad);
+	}
+
+	public void setOutsideTemp(int i, double Tout) {
+		this.Tout[i] = Tout;
+	}
+
+	public void setSolarRadiation(int i, double rad) {
+		this.rad[i] = rad;
+	}
+
+	public void setCoolerFanState(int i, boolean on) {
+		fanC[i] = on ? 1 : 0;
+	}
+
+	public void setCoolerInputState(int i, boolean on) {
+		onC[i] = on ? 1 : 0;
+	}
+
+	public void setHeaterFanState(int i, boolean on) {
+		fanH[i] = on ? 1 : 0;
+	}
+
+	public void setHeaterInputState(int i, boolean on) {
+		onH[i] = on ? 1 : 0;
+	}
+
+	public double getTin(int i) {
+		return xA[i];
+	}
+
+	public double getOutsideTemp(int i) {
+		return Tout[i];
+	}
+
+	public double getP(int i) {
+		return P[i];
+	}
+
+	public double getCoolerDuctTemp(int i) {
+		return ductC[i];
+	}
+
+	public double getHeaterDuctTemp(int i) {
+		return ductH[i];
+	}
+
+	/**
+	 * Get the Jacobian of the thermal model of a house at its present states
+	 * and HVAC inputs, in the order of the HouseThermalSimTask state indices.
+	 * 
+	 * @param i
+	 * @param jac
+	 *            -- 5 x 5, filled in
+	 */
+	public void getJacobian(int i, double[][] jac) {
+		final int c = HouseThermalSimTask.COOLER_I;
+		final int h = HouseThermalSimTask.HEATER_I;
+		final int e = HouseThermalSimTask.EXTWALL_I;
+		final int w = HouseThermalSimTask.INTWALL_I;
+		final int a = HouseThermalSimTask.AIR_I;
+		for (double[] row : jac) {
+			Arrays.fill(row, 0.0);
+		}
+		double cfo = MCAP * Tout[i] + BCAP;
+		jac[c][c] = -(COOLER_K2 + fanC[i] * kAirC[i]) * invCapC[i];
+		jac[c][a] = (onC[i] * heatMaxC[i] * cfo * MCAP + fanC[i] * kAirC[i])
+				* invCapC[i];
+		jac[h][h] = -(HEATER_K2 + fanH[i] * kAirH[i]) * invCapH[i];
+		jac[h][a] = fanH[i] * kAirH[i] * invCapH[i];
+		jac[e][e] = -(kAirE[i] + kAmbE[i]) * invCapE[i];
+		jac[e][a] = kAirE[i] * invCapE[i];
+		jac[w][w] = -kAirI[i] * invCapI[i];
+		jac[w][a] = kAirI[i] * invCapI[i];
+		double mixC = fanC[i] * flowC[i] * effC[i] * invMassA[i];
+		double mixH = fanH[i] * flowH[i] * effH[i] * invMassA[i];
+		jac[a][c] = mixC;
+		jac[a][h] = mixH;
+		jac[a][e] = kAirE[i] * invCapA[i];
+		jac[a][w] = kAirI[i] * invCapA[i];
+		jac[a][a] = -mixC - mixH - infilA[i] * invMassA[i]
+				- (kAirE[i] + kAirI[i]) * invCapA[i];
+	}
+
+	/**
+	 * Get the five states of a house, in the order of the
+	 * HouseThermalSimTask state indices.
+	 * 
+	 * @param i
+	 * @param states
+	 */
+	public void getStates(int i, double[] states) {
+		states[HouseThermalSimTask.COOLER_I] = xC[i];
+		states[HouseThermalSimTask.HEATER_I] = xH[i];
+		states[HouseThermalSimTask.EXTWALL_I] = xE[i];
+		states[HouseThermalSimTask.INTWALL_I] = xI[i];
+		states[HouseThermalSimTask.AIR_I] = xA[i];
+	}
+
+	/**
+	 * Set the five states of a house, in the order of the HouseThermalSimTask
+	 * state indices.
+	 * 
+	 * @param i
+	 * @param states
+	 */
+	public void setStates(int i, double[] states) {
+		xC[i] = states[HouseThermalSimTask.COOLER_I];
+		xH[i] = states[HouseThermalSimTask.HEATER_I];
+		xE[i] = states[HouseThermalSimTask.EXTWALL_I];
+		xI[i] = states[HouseThermalSimTask.INTWALL_I];
+		xA[i] = states[HouseThermalSimTask.AIR_I];
+	}
+
+	private void grow(int c) {
+		xC = resize(xC, c);
+		xH = resize(xH, c);
+		xE = resize(xE, c);
+		xI = resize(xI, c);
+		xA = resize(xA, c);
+		sC = resize(sC, c);
+		sH = resize(sH, c);
+		sE = resize(sE, c);
+		sI = resize(sI, c);
+		sA = resize(sA, c);
+		dC = resize(dC, c);
+		dH = resize(dH, c);
+		dE = resize(dE, c);
+		dI = resize(dI, c);
+		dA = resize(dA, c);
+		aC = resize(aC, c);
+		aH = resize(aH, c);
+		aE = resize(aE, c);
+		aI = resize(aI, c);
+		aA = resize(aA, c);
+		invCapC = resize(invCapC, c);
+		kAirC = resize(kAirC, c);
+		effC = resize(effC, c);
+		flowC = resize(flowC, c);
+		heatMaxC = resize(heatMaxC, c);
+		cop95C = resize(cop95C, c);
+		invCapH = resize(invCapH, c);
+		kAirH = resize(kAirH, c);
+		effH = resize(effH, c);
+		flowH = resize(flowH, c);
+		heatMaxH = resize(heatMaxH, c);
+		copH = resize(copH, c);
+		kAirE = resize(kAirE, c);
+		kAmbE = resize(kAmbE, c);
+		invCapE = resize(invCapE, c);
+		kAirI = resize(kAirI, c);
+		invCapI = resize(invCapI, c);
+		invMassA = resize(invMassA, c);
+		invCapA = resize(invCapA, c);
+		windowA = resize(windowA, c);
+		infilA = resize(infilA, c);
+		internalA = resize(internalA, c);
+		fanC = resize(fanC, c);
+		onC = resize(onC, c);
+		fanH = resize(fanH, c);
+		onH = resize(onH, c);
+		Tout = resize(Tout, c);
+		rad = resize(rad, c);
+		P = resize(P, c);
+		ductC = resize(ductC, c);
+		ductH = resize(ductH, c);
+	}
+
+	private static double[] resize(double[] a, int c) {
+		double[] b = new double[c];
+		if (a != null) {
+			System.arraycopy(a, 0, b, 0, Math.min(a.length, c));
+		}
+		return b;
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house.simulation;
+
+import TranRunJLite.TrjSys;
+import edu.berkeley.me.jRonSim.util.Eigenvalues;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+
+/**
+ * A HouseThermalSimTask whose states live in a slot of a FleetThermalSim. It
+ * does no integration itself; the fleet is advanced by its owner and this task
+ * only routes the HVAC commands and the readings of the house to the slot.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+class FleetThermalSimTask extends HouseThermalSimTask implements
+		ScheduledTask {
+
+	private FleetThermalSim fleet;
+	private int slot;
+	private double[][] jac, eigWork;
+	private double[] eigRe, eigIm;
+
+	/**
+	 * Construct the task and add the house to the fleet.
+	 * 
+	 * @param name
+	 * @param sys
+	 * @param fleet
+	 * @param params
+	 */
+	FleetThermalSimTask(String name, TrjSys sys, FleetThermalSim fleet,
+			ThermalParams params) {
+		super(name, sys);
+		this.fleet = fleet;
+		this.slot = fleet.addHouse(params);
+	}
+
+	/**
+	 * The houses of a fleet are all integrated by its fixed step Runge-Kutta
+	 * method, so there is no solver to select.
+	 * 
+	 * @param type
+	 * @throws IllegalStateException
+	 *             always
+	 */
+	@Override
+	public void setSolverType(ThermalSolverType type) {
+		throw new IllegalStateException("the solver of a fleet house can not"
+				+ " be selected; the fleet integrates it");
+	}
+
+	/**
+	 * @return FLEET_RK4, the solver of the fleet
+	 */
+	@Override
+	public ThermalSolverType getSolverType() {
+		return ThermalSolverType.FLEET_RK4;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             always, the fleet has no reference solution
+	 */
+	@Override
+	public void setAccuracyCheck(boolean on) {
+		if (on) {
+			throw new IllegalStateException("there is no accuracy check for a"
+					+ " fleet house");
+		}
+	}
+
+	/**
+	 * Get the stiffness ratio of the house, from the Jacobian of its slot in
+	 * the fleet.
+	 * 
+	 * @return
+	 */
+	@Override
+	public double getStiffnessRatio() {
+		fillJacobian();
+		for (int k = 0; k < jac.length; k++) {
+			System.arraycopy(jac[k], 0, eigWork[k], 0, jac.length);
+		}
+		Eigenvalues.compute(eigWork, jac.length, eigRe, eigIm);
+		return Eigenvalues.stiffnessRatio(eigRe, jac.length);
+	}
+
+	/**
+	 * Check whether the house makes the fleet split a tick of length h into
+	 * shorter steps to stay stable, using the largest absolute row sum of its
+	 * Jacobian as a bound on the spectral radius.
+	 * 
+	 * @param h
+	 * @return
+	 */
+	@Override
+	public boolean isStepLimited(double h) {
+		fillJacobian();
+		double rho = 0;
+		for (double[] row : jac) {
+			double sum = 0;
+			for (double d : row) {
+				sum += Math.abs(d);
+			}
+			rho = Math.max(rho, sum);
+		}
+		return rho * h > FleetThermalSim.STABLE_STEP_RATE;
+	}
+
+	private void fillJacobian() {
+		if (jac == null) {
+			jac = new double[5][5];
+			eigWork = new double[5][5];
+			eigRe = new double[5];
+			eigIm = new double[5];
+		}
+		fleet.getJacobian(slot, jac);
+	}
+
+	@Override
+	public String getSolverReport() {
+		return String.format("fleet RK4: fleet steps %d, derivative "
+				+ "evaluations %d", fleet.getStepCount(), getNeval());
+	}
+
+	/**
+	 * Get the number of derivative evaluations of the house, four per step
+	 * of the fleet.
+	 * 
+	 * @return
+	 */
+	@Override
+	public int getNeval() {
+		return (int) Math.min(Integer.MAX_VALUE, 4 * fleet.getStepCount());
+	}
+
+	@Override
+	public void setHeaterFanState(boolean state) {
+		fleet.setHeaterFanState(slot, state);
+	}
+
+	@Override
+	public void setHeaterInputState(boolean state) {
+		fleet.setHeaterInputState(slot, state);
+	}
+
+	@Override
+	public void setCoolerFanState(boolean state) {
+		fleet.setCoolerFanState(slot, state);
+	}
+
+	@Override
+	public void setCoolerInputState(boolean state) {
+		fleet.setCoolerInputState(slot, state);
+	}
+
+	@Override
+	double getTin() {
+		return fleet.getTin(slot);
+	}
+
+	@Override
+	double getHeaterDuctTemp() {
+		return fleet.getHeaterDuctTemp(slot);
+	}
+
+	@Override
+	double getCoolerDuctTemp() {
+		return fleet.getCoolerDuctTemp(slot);
+	}
+
+	@Override
+	public void setOutSideTemp(double Tout) {
+		fleet.setOutsideTemp(slot, Tout);
+	}
+
+	@Override
+	public void setSolarRadiation(double sRad) {
+		fleet.setSolarRadiation(slot, sRad);
+	}
+
+	@Override
+	public double getP() {
+		return fleet.getP(slot);
+	}
+
+	@Override
+	double getTout() {
+		return fleet.getOutsideTemp(slot);
+	}
+
+	@Override
+	public void setStates(double[] x) {
+		fleet.setStates(slot, x);
+	}
+
+	@Override
+	public void getStates(double[] x) {
+		fleet.getStates(slot, x);
+	}
+
+	/**
+	 * The fleet is advanced by its owner, so there is nothing to run.
+	 * 
+	 * @param sys
+	 * @return
+	 */
+	@Override
+	public boolean RunTaskNow(TrjSys sys) {
+		return false;
+	}
+
+	public double getNextRunTime() {
+		return Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public boolean RunTask(TrjSys sys) {
+		return false;
+	}
+}
@@ -31,12 +31,14 @@
 package edu.berkeley.me.jRonSim.house.simulation;
 
 import TranRunJLite.*;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** Task that implements the most simple thermal simulation of a edu.berkeley.me.jRonSim.house.
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class HouseSimpleThermalSimTask extends TrjTask {
+public class HouseSimpleThermalSimTask extends TrjTask
+        implements ScheduledTask {
 
     double Tin;
     double Tout = 100;
@@ -69,6 +71,10 @@ public class HouseSimpleThermalSimTask extends TrjTask {
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime() {
+        return tNext;
+    }
+
     /** Runs the basic edu.berkeley.me.jRonSim.house simulation
      * 
      * @param sys
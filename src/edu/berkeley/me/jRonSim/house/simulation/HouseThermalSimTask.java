@@ -31,6 +31,9 @@ package edu.berkeley.me.jRonSim.house.simulation;
 
 import TranRunJLite.*;
 import ODEsolver.*;
+import edu.berkeley.me.jRonSim.util.Eigenvalues;
+import edu.berkeley.me.jRonSim.util.RosenbrockSolver;
+import edu.berkeley.me.jRonSim.util.SimCheckpoint;
 
 /**
  * Simulates the edu.berkeley.me.jRonSim.house thermal dynamics
@@ -56,9 +59,34 @@ public class HouseThermalSimTask extends TrjTask {
 	double stepMin;
 	boolean useAdaptiveSolver;
 	HouseODE hs = null; // Simulation object
+	HouseStiffODE stiffHs = null; // Simulation object for stiff houses
+	ODEsolve activeHs = null; // The one that currently holds the states
+	double stiffStepSize;
 	double[] x0;
 	double[] abstol; // Absolute and relative tolerances
 	double reltol;
+	// Solver selection
+	private ThermalSolverType solverType = ThermalSolverType.RKF45;
+	private PiecewiseLinearSolver exactSolver = null;
+	private int nExactSteps = 0;
+	private int nRkf45Steps = 0;
+	private int nRosenbrockSteps = 0;
+	private double[][] jac = null; // for the stiffness check
+	private double[][] jacLast = null; // Jacobian of the cached ratio
+	private double[][] eigWork = null;
+	private double[] eigRe = null;
+	private double[] eigIm = null;
+	private double stiffnessRatio = Double.NaN;
+	// Smallest eigenvalue spread that counts as stiff
+	private static final double STIFFNESS_RATIO_LIMIT = 100.0;
+	// Largest |h lambda| that RKF45 is stable for
+	private static final double RKF45_STABILITY_LIMIT = 3.0;
+	// Accuracy check against a reference RKF45 solution
+	private HouseODE refOde = null;
+	private double refStepSize;
+	private double maxError = 0;
+	private double sumSqError = 0;
+	private int nCompared = 0;
 	// State indices
 	public static final int COOLER_I = 0;
 	public static final int HEATER_I = 1;
@@ -106,10 +134,219 @@ public class HouseThermalSimTask extends TrjTask {
 				abstol, // double [] abstol,
 				reltol // double reltol
 		);
+		activeHs = hs;
 		stepMin = 1.e-6; // Smallest allowable adaptive step size
 		stepSize = 1.e-2; // Nominal step size
 	}
 
+	/**
+	 * Construct the task without thermal units or a solver. This is used by
+	 * subclasses that take the states from another engine.
+	 * 
+	 * @param name
+	 * @param sys
+	 */
+	protected HouseThermalSimTask(String name, TrjSys sys) {
+		super(name, sys, 0 /* initial state */, true /* taskActive */);
+	}
+
+	/**
+	 * Select the solver used to integrate the thermal model.
+	 * 
+	 * @param type
+	 * @throws IllegalArgumentException
+	 *             for FLEET_RK4, which only a fleet uses
+	 */
+	public void setSolverType(ThermalSolverType type) {
+		if (type == ThermalSolverType.FLEET_RK4) {
+			throw new IllegalArgumentException("FLEET_RK4 is only used by the"
+					+ " houses of a FleetThermalSim");
+		}
+		this.solverType = type;
+		if (type == ThermalSolverType.PIECEWISE_EXACT && exactSolver == null) {
+			exactSolver = new PiecewiseLinearSolver(houseList);
+		}
+		if ((type == ThermalSolverType.ROSENBROCK
+				|| type == ThermalSolverType.AUTO) && stiffHs == null) {
+			stiffHs = new HouseStiffODE(nStates, x0, 0.0, abstol, reltol);
+			stiffStepSize = stepSize;
+		}
+		if (type == ThermalSolverType.PIECEWISE_EXACT
+				|| type == ThermalSolverType.RKF45) {
+			useSolver(hs);
+		}
+	}
+
+	/**
+	 * Check whether the thermal model is stiff, that is whether the real
+	 * parts of the eigenvalues of its Jacobian spread over more than
+	 * STIFFNESS_RATIO_LIMIT. This depends only on the house, not on the tick.
+	 * 
+	 * @return
+	 */
+	public boolean isStiff() {
+		return getStiffnessRatio() > STIFFNESS_RATIO_LIMIT;
+	}
+
+	/**
+	 * Get the stiffness ratio of the thermal model, the largest over the
+	 * smallest magnitude of the real parts of the Jacobian eigenvalues. The
+	 * eigenvalues are only recomputed when the Jacobian changes.
+	 * 
+	 * @return
+	 */
+	public double getStiffnessRatio() {
+		if (jac == null) {
+			jac = new double[nStates][nStates];
+			jacLast = new double[nStates][nStates];
+			eigWork = new double[nStates][nStates];
+			eigRe = new double[nStates];
+			eigIm = new double[nStates];
+		}
+		fillJacobian();
+		boolean changed = Double.isNaN(stiffnessRatio);
+		for (int k = 0; k < nStates && !changed; k++) {
+			for (int j = 0; j < nStates; j++) {
+				if (jac[k][j] != jacLast[k][j]) {
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (changed) {
+			for (int k = 0; k < nStates; k++) {
+				System.arraycopy(jac[k], 0, jacLast[k], 0, nStates);
+				System.arraycopy(jac[k], 0, eigWork[k], 0, nStates);
+			}
+			Eigenvalues.compute(eigWork, nStates, eigRe, eigIm);
+			stiffnessRatio = Eigenvalues.stiffnessRatio(eigRe, nStates);
+		}
+		return stiffnessRatio;
+	}
+
+	/**
+	 * Check whether the stability of RKF45, rather than its accuracy, would
+	 * limit the step size over a tick of length h. The spectral radius of the
+	 * Jacobian is bounded by its largest absolute row sum. This is a guard on
+	 * top of isStiff(): there is no gain from Rosenbrock when the tick is too
+	 * short for the fastest time constant to matter.
+	 * 
+	 * @param h
+	 * @return
+	 */
+	public boolean isStepLimited(double h) {
+		if (jac == null) {
+			getStiffnessRatio();
+		} else {
+			fillJacobian();
+		}
+		double rho = 0;
+		for (int k = 0; k < nStates; k++) {
+			double sum = 0;
+			for (int j = 0; j < nStates; j++) {
+				sum += Math.abs(jac[k][j]);
+			}
+			rho = Math.max(rho, sum);
+		}
+		return rho * h > RKF45_STABILITY_LIMIT;
+	}
+
+	private void fillJacobian() {
+		for (int k = 0; k < nStates; k++) {
+			houseList[k].getJacobian(jac[k]);
+		}
+	}
+
+	/**
+	 * Hand the states over to another solver.
+	 * 
+	 * @param next
+	 */
+	private void useSolver(ODEsolve next) {
+		if (next == activeHs) {
+			return;
+		}
+		System.arraycopy(activeHs.getState(), 0, next.getState(), 0, nStates);
+		if (next == hs) {
+			hs.setTime(activeHs.getTime());
+		} else {
+			stiffHs.setTime(activeHs.getTime());
+		}
+		activeHs = next;
+		states = next.getState();
+	}
+
+	/**
+	 * Get the solver used to integrate the thermal model.
+	 * 
+	 * @return
+	 */
+	public ThermalSolverType getSolverType() {
+		return solverType;
+	}
+
+	/**
+	 * Turn on or off the accuracy check. While it is on, a reference RKF45
+	 * solution is integrated next to the selected solver, with the same
+	 * inputs, and the difference in inside temperature is recorded.
+	 * 
+	 * @param on
+	 */
+	public void setAccuracyCheck(boolean on) {
+		if (on && refOde == null) {
+			refOde = new HouseODE(nStates, hs.getState(), tLast, abstol, reltol);
+			refStepSize = stepSize;
+		} else if (!on) {
+			refOde = null;
+		}
+	}
+
+	/**
+	 * Get the largest difference in inside temperature between the selected
+	 * solver and the reference RKF45 solution.
+	 * 
+	 * @return
+	 */
+	public double getMaxAccuracyError() {
+		return maxError;
+	}
+
+	/**
+	 * Get the root mean square difference in inside temperature between the
+	 * selected solver and the reference RKF45 solution.
+	 * 
+	 * @return
+	 */
+	public double getRmsAccuracyError() {
+		return (nCompared > 0) ? Math.sqrt(sumSqError / nCompared) : 0;
+	}
+
+	/**
+	 * Get a one line summary of the solver use and accuracy.
+	 * 
+	 * @return
+	 */
+	public String getSolverReport() {
+		return String.format("%s: exact steps %d, RKF45 steps %d, "
+				+ "Rosenbrock steps %d, derivative evaluations %d, "
+				+ "max |dTin| %.3g F, rms |dTin| %.3g F", solverType,
+				nExactSteps, nRkf45Steps, nRosenbrockSteps, getNeval(),
+				maxError, getRmsAccuracyError());
+	}
+
+	/**
+	 * Get the number of derivative evaluations so far.
+	 * 
+	 * @return
+	 */
+	public int getNeval() {
+		int nEval = hs.getNeval();
+		if (stiffHs != null) {
+			nEval += stiffHs.getNeval();
+		}
+		return nEval;
+	}
+
 	/**
 	 * Set the heater fan state
 	 * 
@@ -152,6 +389,29 @@ public class HouseThermalSimTask extends TrjTask {
 		cooler.setHeaterState(state);
 	}
 
+	/**
+	 * Set all of the states of the thermal model, in the order of the unit
+	 * indices, for instance to start it in a warmed up state.
+	 * 
+	 * @param x
+	 */
+	public void setStates(double[] x) {
+		System.arraycopy(x, 0, activeHs.getState(), 0, nStates);
+		if (states != activeHs.getState()) {
+			System.arraycopy(x, 0, states, 0, nStates);
+		}
+	}
+
+	/**
+	 * Copy all of the states of the thermal model, in the order of the unit
+	 * indices.
+	 * 
+	 * @param x
+	 */
+	public void getStates(double[] x) {
+		System.arraycopy(activeHs.getState(), 0, x, 0, nStates);
+	}
+
 	/**
 	 * The the current inside temperature
 	 * 
@@ -238,11 +498,39 @@ public class HouseThermalSimTask extends TrjTask {
 		u[RAD_I] = RadSolar;
 		// Run the simulation to the current time
 		tCur = sys.GetRunningTime();
-		if (useAdaptiveSolver) {
-			lastStep = hs.multiStepAdaptive(tCur - tLast, stepSize, stepMin);
-			stepSize = lastStep; // For the next iteration
+		if (refOde != null) {
+			refStepSize = refOde.multiStepAdaptive(tCur - tLast, refStepSize,
+					stepMin);
+		}
+		if (solverType == ThermalSolverType.PIECEWISE_EXACT
+				&& hs.stepExact(tCur - tLast)) {
+			nExactSteps++;
+		} else if (solverType == ThermalSolverType.ROSENBROCK
+				|| (solverType == ThermalSolverType.AUTO
+						&& isStiff() && isStepLimited(tCur - tLast))) {
+			useSolver(stiffHs);
+			if (useAdaptiveSolver) {
+				stiffStepSize = stiffHs.multiStepAdaptive(tCur - tLast,
+						stiffStepSize, stepMin);
+			} else {
+				stiffHs.multiStepFixed(tCur - tLast, stepSize);
+			}
+			nRosenbrockSteps++;
 		} else {
-			hs.multiStepFixed(tCur - tLast, stepSize);
+			useSolver(hs);
+			if (useAdaptiveSolver) {
+				lastStep = hs.multiStepAdaptive(tCur - tLast, stepSize, stepMin);
+				stepSize = lastStep; // For the next iteration
+			} else {
+				hs.multiStepFixed(tCur - tLast, stepSize);
+			}
+			nRkf45Steps++;
+		}
+		if (refOde != null) {
+			double err = Math.abs(refOde.getState()[AIR_I] - states[AIR_I]);
+			maxError = Math.max(maxError, err);
+			sumSqError += err * err;
+			nCompared++;
 		}
 		P = 0;
 		for (ThermalUnit unit : houseList) {
@@ -265,7 +553,7 @@ public class HouseThermalSimTask extends TrjTask {
 	 * Inner class that operates the differential equation solver
 	 * 
 	 */
-	public class HouseODE extends RKF45 {
+	public class HouseODE extends RKF45 implements SimCheckpoint.State {
 
 		/**
 		 * Constructs the ODE solver class
@@ -281,23 +569,137 @@ public class HouseThermalSimTask extends TrjTask {
 			super(nn, xx0, t0, abstol, reltol);
 		}
 
+		/**
+		 * Advance the states exactly, if the HVAC configuration allows it.
+		 * 
+		 * @param h
+		 * @return false if the states could not be advanced exactly
+		 */
+		boolean stepExact(double h) {
+			if (!exactSolver.step(x, u, h)) {
+				return false;
+			}
+			t += h;
+			states = x;
+			return true;
+		}
+
+		/**
+		 * Set the time of the solver.
+		 * 
+		 * @param t
+		 */
+		void setTime(double t) {
+			this.t = t;
+		}
+
+		/**
+		 * Get the states of the solver, for a checkpoint.
+		 * 
+		 * @return
+		 */
+		public Object[] saveState() {
+			return new Object[] { x, dx, xError, t, nEval };
+		}
+
+		/**
+		 * Put back the states of the solver from a checkpoint.
+		 * 
+		 * @param state
+		 */
+		public void restoreState(Object[] state) {
+			x = (double[]) state[0];
+			dx = (double[]) state[1];
+			xError = (double[]) state[2];
+			t = (Double) state[3];
+			nEval = (Integer) state[4];
+		}
+
 		/**
 		 * Compute the derivative
 		 * 
 		 */
 		public void deriv() {
-			states = x;
-			// update the information for each state.
+			if (this == activeHs) {
+				states = x;
+			}
+			computeDeriv(x, dx);
+		}
+	}
+
+	/**
+	 * Inner class that operates the Rosenbrock solver, for stiff houses
+	 * 
+	 */
+	public class HouseStiffODE extends RosenbrockSolver {
+
+		/**
+		 * Constructs the ODE solver class
+		 * 
+		 * @param nn
+		 * @param xx0
+		 * @param t0
+		 * @param abstol
+		 * @param reltol
+		 */
+		public HouseStiffODE(int nn, double xx0[], double t0, double[] abstol,
+				double reltol) {
+			super(nn, xx0, t0, abstol, reltol);
+		}
+
+		/**
+		 * Set the time of the solver.
+		 * 
+		 * @param t
+		 */
+		void setTime(double t) {
+			this.t = t;
+		}
+
+		/**
+		 * Compute the derivative
+		 * 
+		 */
+		public void deriv() {
+			if (this == activeHs) {
+				states = x;
+			}
+			computeDeriv(x, dx);
+		}
+
+		/**
+		 * Compute the Jacobian from the thermal units
+		 * 
+		 */
+		public void jacobian(double[][] jac) {
 			for (int k = 0; k < nStates; k++) {
 				ThermalUnit unit = houseList[k];
 				unit.setInputs(u);
 				unit.setStates(x);
 			}
-			// Compute the derivatives for each state
 			for (int k = 0; k < nStates; k++) {
-				ThermalUnit unit = houseList[k];
-				dx[k] = unit.getDeriv();
+				houseList[k].getJacobian(jac[k]);
 			}
 		}
 	}
+
+	/**
+	 * Compute the derivatives of the thermal units at the states x.
+	 * 
+	 * @param x
+	 * @param dx
+	 */
+	private void computeDeriv(double[] x, double[] dx) {
+		// update the information for each state.
+		for (int k = 0; k < nStates; k++) {
+			ThermalUnit unit = houseList[k];
+			unit.setInputs(u);
+			unit.setStates(x);
+		}
+		// Compute the derivatives for each state
+		for (int k = 0; k < nStates; k++) {
+			ThermalUnit unit = houseList[k];
+			dx[k] = unit.getDeriv();
+		}
+	}
 }
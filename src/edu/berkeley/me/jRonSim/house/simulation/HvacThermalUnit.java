@@ -243,4 +243,42 @@ public class HvacThermalUnit extends ThermalUnit
         double dx = (Qout - QunitToAmb - QunitToAir) / (cp * m);
         return dx;
     }
+
+    /** Get the fraction of the core to inlet temperature difference that the
+     * air picks up while passing through the unit.
+     *
+     * @return
+     */
+    double getOutletFraction()
+    {
+        if (fanFlow > 0.0)
+        {
+            return 1.0 - Math.exp(-1.0 / k3);
+        }
+        return 0.0;
+    }
+
+    @Override
+    public void getJacobian(double[] row)
+    {
+        for (int j = 0; j < row.length; j++)
+        {
+            row[j] = 0;
+        }
+        // Heat carried away by the fan air
+        double kAir = 0;
+        if (fanFlow > 0.0)
+        {
+            kAir = k1 * (1.0 + k3 * (Math.exp(-1.0 / k3) - 1.0));
+        }
+        row[i] = -(k2 + kAir) / (cp * m);
+        row[HouseThermalSimTask.AIR_I] = kAir / (cp * m);
+        if (type == COOLER)
+        {
+            // The cooler capacity depends on the inside temperature
+            double cfo = mcap * u[HouseThermalSimTask.TOUT_I] + bcap;
+            row[HouseThermalSimTask.AIR_I] += heatInput * cfo * mcap /
+                    (cp * m);
+        }
+    }
 }
@@ -32,6 +32,7 @@ package edu.berkeley.me.jRonSim.house.simulation;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /**The HvacUnitTask implements the state transition logic for turning on and off
  * the unit input and fan.  This is an abstract class with four mandatory
@@ -43,7 +44,7 @@ import TranRunJLite.TrjTask;
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class HvacUnitTask extends TrjTask
+public class HvacUnitTask extends TrjTask implements ScheduledTask
 {
 
     private boolean heater;
@@ -172,6 +173,11 @@ public class HvacUnitTask extends TrjTask
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime()
+    {
+        return tNext;
+    }
+
     /** Implements the state transition logic.
      * 
      * @param sys
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house.simulation;
+
+/**
+ * Advances the house thermal model exactly over a tick. With the fans and
+ * the heater input held constant, the thermal units are linear in the states
+ * and in the inputs (outside temperature and solar radiation), so
+ * 
+ * dx/dt = A x + B u + c
+ * 
+ * and a tick of length h is x(h) = Phi x(0) + Gamma [u; 1], where Phi and
+ * Gamma come from the matrix exponential of the augmented system. A and B
+ * are found by evaluating the thermal units themselves, so the transition
+ * follows any change of their equations. The matrices of each (fan, input)
+ * configuration are computed on first use and kept for as long as the tick
+ * length does not change.
+ * 
+ * The cooler output depends on the product of the inside and outside
+ * temperatures through its COP, so the model is not linear while the cooler
+ * compressor runs; step() then returns false and the caller has to use a
+ * general solver.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+class PiecewiseLinearSolver {
+
+	private static final int NX = 5; // number of states
+	private static final int NU = 3; // outside temp, solar radiation, 1
+	private static final int N = NX + NU;
+	private static final int N_CONFIG = 8;
+	private static final int TAYLOR_TERMS = 14;
+
+	private ThermalUnit[] units;
+	private HvacThermalUnit cooler;
+	private HvacThermalUnit heater;
+	// transition matrices for each configuration (row major)
+	private double[][] phi = new double[N_CONFIG][];
+	private double[][] gamma = new double[N_CONFIG][];
+	private double[] hConfig = new double[N_CONFIG];
+	// scratch
+	private double[] xs = new double[NX];
+	private double[] us = new double[2];
+	private double[] f0 = new double[NX];
+	private double[] f1 = new double[NX];
+	private double[] xNew = new double[NX];
+	private double[] m = new double[N * N];
+	private double[] e = new double[N * N];
+	private double[] term = new double[N * N];
+	private double[] tmp = new double[N * N];
+
+	/**
+	 * Construct the solver for the thermal units of a house.
+	 * 
+	 * @param units
+	 */
+	PiecewiseLinearSolver(ThermalUnit[] units) {
+		this.units = units;
+		this.cooler = (HvacThermalUnit) units[HouseThermalSimTask.COOLER_I];
+		this.heater = (HvacThermalUnit) units[HouseThermalSimTask.HEATER_I];
+		for (int k = 0; k < N_CONFIG; k++) {
+			hConfig[k] = Double.NaN;
+		}
+	}
+
+	/**
+	 * Check whether the current configuration can be solved exactly.
+	 * 
+	 * @return
+	 */
+	boolean isLinear() {
+		return cooler.heatInput == 0.0;
+	}
+
+	/**
+	 * Advance the states x by h with the inputs u held constant. On return
+	 * the thermal units have been evaluated at the new states, so their power
+	 * and duct temperatures are current.
+	 * 
+	 * @param x
+	 * @param u
+	 * @param h
+	 * @return false (and x unchanged) if the configuration is not linear
+	 */
+	boolean step(double[] x, double[] u, double h) {
+		if (!isLinear()) {
+			return false;
+		}
+		int config = 0;
+		if (cooler.fanFlow > 0.0) {
+			config |= 1;
+		}
+		if (heater.fanFlow > 0.0) {
+			config |= 2;
+		}
+		if (heater.heatInput != 0.0) {
+			config |= 4;
+		}
+		if (hConfig[config] != h) {
+			build(config, u, h);
+		}
+		double[] p = phi[config];
+		double[] g = gamma[config];
+		for (int i = 0; i < NX; i++) {
+			double sum = g[i * NU] * u[HouseThermalSimTask.TOUT_I]
+					+ g[i * NU + 1] * u[HouseThermalSimTask.RAD_I]
+					+ g[i * NU + 2];
+			for (int j = 0; j < NX; j++) {
+				sum += p[i * NX + j] * x[j];
+			}
+			xNew[i] = sum;
+		}
+		System.arraycopy(xNew, 0, x, 0, NX);
+		evaluate(x, u, f0);
+		return true;
+	}
+
+	/**
+	 * Compute the transition matrices of a configuration.
+	 * 
+	 * @param config
+	 * @param u
+	 *            -- current inputs; the units are evaluated at them again
+	 *            afterwards
+	 * @param h
+	 */
+	private void build(int config, double[] u, double h) {
+		// the constant part: f(0, 0)
+		for (int j = 0; j < NX; j++) {
+			xs[j] = 0;
+		}
+		us[HouseThermalSimTask.TOUT_I] = 0;
+		us[HouseThermalSimTask.RAD_I] = 0;
+		evaluate(xs, us, f0);
+		for (int k = 0; k < N * N; k++) {
+			m[k] = 0;
+		}
+		for (int i = 0; i < NX; i++) {
+			m[i * N + N - 1] = f0[i] * h;
+		}
+		// columns of A
+		for (int j = 0; j < NX; j++) {
+			xs[j] = 1;
+			evaluate(xs, us, f1);
+			for (int i = 0; i < NX; i++) {
+				m[i * N + j] = (f1[i] - f0[i]) * h;
+			}
+			xs[j] = 0;
+		}
+		// columns of B
+		for (int k = 0; k < 2; k++) {
+			us[k] = 1;
+			evaluate(xs, us, f1);
+			for (int i = 0; i < NX; i++) {
+				m[i * N + NX + k] = (f1[i] - f0[i]) * h;
+			}
+			us[k] = 0;
+		}
+		expm(m, e);
+		double[] p = new double[NX * NX];
+		double[] g = new double[NX * NU];
+		for (int i = 0; i < NX; i++) {
+			for (int j = 0; j < NX; j++) {
+				p[i * NX + j] = e[i * N + j];
+			}
+			for (int k = 0; k < NU; k++) {
+				g[i * NU + k] = e[i * N + NX + k];
+			}
+		}
+		phi[config] = p;
+		gamma[config] = g;
+		hConfig[config] = h;
+	}
+
+	/**
+	 * Evaluate the derivatives of all units, in state order, at x and u.
+	 */
+	private void evaluate(double[] x, double[] u, double[] dx) {
+		for (int k = 0; k < NX; k++) {
+			units[k].setInputs(u);
+			units[k].setStates(x);
+		}
+		for (int k = 0; k < NX; k++) {
+			dx[k] = units[k].getDeriv();
+		}
+	}
+
+	/**
+	 * Matrix exponential of the N x N matrix a by scaling and squaring of its
+	 * Taylor series.
+	 * 
+	 * @param a
+	 * @param out
+	 */
+	private void expm(double[] a, double[] out) {
+		// scale so that the norm is below 1/4
+		double norm = 0;
+		for (int j = 0; j < N; j++) {
+			double col = 0;
+			for (int i = 0; i < N; i++) {
+				col += Math.abs(a[i * N + j]);
+			}
+			norm = Math.max(norm, col);
+		}
+		int s = 0;
+		double scale = 1;
+		while (norm * scale > 0.25) {
+			scale *= 0.5;
+			s++;
+		}
+		// Taylor series of exp(a * scale)
+		for (int k = 0; k < N * N; k++) {
+			out[k] = 0;
+			term[k] = 0;
+		}
+		for (int i = 0; i < N; i++) {
+			out[i * N + i] = 1;
+			term[i * N + i] = 1;
+		}
+		for (int n = 1; n <= TAYLOR_TERMS; n++) {
+			multiply(term, a, tmp);
+			double c = scale / n;
+			for (int k = 0; k < N * N; k++) {
+				term[k] = tmp[k] * c;
+				out[k] += term[k];
+			}
+		}
+		// square back up
+		for (int k = 0; k < s; k++) {
+			multiply(out, out, tmp);
+			System.arraycopy(tmp, 0, out, 0, N * N);
+		}
+	}
+
+	private static void multiply(double[] a, double[] b, double[] c) {
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				double sum = 0;
+				for (int k = 0; k < N; k++) {
+					sum += a[i * N + k] * b[k * N + j];
+				}
+				c[i * N + j] = sum;
+			}
+		}
+	}
+}
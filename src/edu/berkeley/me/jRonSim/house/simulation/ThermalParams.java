@@ -32,6 +32,7 @@ package edu.berkeley.me.jRonSim.house.simulation;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 
 /**
  * 
@@ -39,6 +40,9 @@ import java.io.StringWriter;
  */
 public class ThermalParams {
 
+	/** Size of the parameters written by write() (bytes). */
+	public static final int BYTES = 20 * 8;
+
 	public double initTemp; // initial temperature
 	// heater parameters
 	public double heaterMass; // mass (lb)
@@ -143,4 +147,56 @@ public class ThermalParams {
 		prt.close();
 		return strWriter.toString();
 	}
+
+	/**
+	 * Write the parameters to a buffer, in the order of the fields.
+	 * 
+	 * @param buf
+	 *            -- receives BYTES bytes
+	 */
+	public void write(ByteBuffer buf) {
+		buf.putDouble(initTemp);
+		buf.putDouble(heaterMass).putDouble(heaterfanMax);
+		buf.putDouble(heaterHeatInputMax).putDouble(heaterFanEfficiency);
+		buf.putDouble(heaterHeatEfficiency);
+		buf.putDouble(coolerMass).putDouble(coolerFanMax);
+		buf.putDouble(coolerHeatInputMax).putDouble(coolerFanEfficiency);
+		buf.putDouble(coolerHeatEfficiency);
+		buf.putDouble(airMass).putDouble(windowArea);
+		buf.putDouble(internalInput).putDouble(infiltrationFlow);
+		buf.putDouble(intWallMass).putDouble(intWallKair);
+		buf.putDouble(extWallMass).putDouble(extWallKair);
+		buf.putDouble(extWallKamb);
+	}
+
+	/**
+	 * Read parameters written by write().
+	 * 
+	 * @param buf
+	 * @return
+	 */
+	public static ThermalParams read(ByteBuffer buf) {
+		ThermalParams p = new ThermalParams();
+		p.initTemp = buf.getDouble();
+		p.heaterMass = buf.getDouble();
+		p.heaterfanMax = buf.getDouble();
+		p.heaterHeatInputMax = buf.getDouble();
+		p.heaterFanEfficiency = buf.getDouble();
+		p.heaterHeatEfficiency = buf.getDouble();
+		p.coolerMass = buf.getDouble();
+		p.coolerFanMax = buf.getDouble();
+		p.coolerHeatInputMax = buf.getDouble();
+		p.coolerFanEfficiency = buf.getDouble();
+		p.coolerHeatEfficiency = buf.getDouble();
+		p.airMass = buf.getDouble();
+		p.windowArea = buf.getDouble();
+		p.internalInput = buf.getDouble();
+		p.infiltrationFlow = buf.getDouble();
+		p.intWallMass = buf.getDouble();
+		p.intWallKair = buf.getDouble();
+		p.extWallMass = buf.getDouble();
+		p.extWallKair = buf.getDouble();
+		p.extWallKamb = buf.getDouble();
+		return p;
+	}
 }
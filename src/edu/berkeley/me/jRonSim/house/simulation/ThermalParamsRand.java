@@ -30,13 +30,8 @@
  */
 package edu.berkeley.me.jRonSim.house.simulation;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.StringTokenizer;
 
 import edu.berkeley.me.jRonSim.util.BoundedRand;
 
@@ -47,14 +42,14 @@ import edu.berkeley.me.jRonSim.util.BoundedRand;
  */
 public class ThermalParamsRand extends ThermalParams {
 
-	private double[] deltaHouseSize = { 0.0, 1.0 };
-	private double[] deltaWindowSize = { 0.0, 0.0 };
-	private double[] deltaInfiltration = { 0.0, 0.0 };
-	private double[] deltaUnitSize = { -0.5, 0.5 };
-	private double[] deltaInsulationQuality = { 0.0, 1.0 };
-	private double[] deltaSeer = { coolerHeatEfficiency, coolerHeatEfficiency };
-	private double slabSize = 1.25;
-	private double slab_prob = 0.5;
+	private double[] deltaHouseSize;
+	private double[] deltaWindowSize;
+	private double[] deltaInfiltration;
+	private double[] deltaUnitSize;
+	private double[] deltaInsulationQuality;
+	private double[] deltaSeer;
+	private double slabSize;
+	private double slab_prob;
 	private static final double UNIT_SAT_MIN = 1.5;
 	private static final double UNIT_SAT_MAX = 5.0;
 	private static final double DEL_WINDOWAREA = 91;
@@ -72,6 +67,8 @@ public class ThermalParamsRand extends ThermalParams {
 		super();
 		// construct a random number generator.
 		this.rn = new BoundedRand();
+		// use the default ranges
+		setRange(new ThermalParamsRange());
 		// set the thermal parameters
 		setThermalParams();
 	}
@@ -87,6 +84,8 @@ public class ThermalParamsRand extends ThermalParams {
 		super();
 		// set the random number generator
 		this.rn = rn;
+		// use the default ranges
+		setRange(new ThermalParamsRange());
 		// Set the thermal params
 		setThermalParams();
 	}
@@ -104,7 +103,7 @@ public class ThermalParamsRand extends ThermalParams {
 		// construct a random number generator
 		this.rn = new BoundedRand();
 		// get the parameter range from file
-		getRangeFromFile(path);
+		setRange(ThermalParamsRange.get(path));
 		// set the thermal params
 		setThermalParams();
 	}
@@ -115,11 +114,45 @@ public class ThermalParamsRand extends ThermalParams {
 		// set the random number generator
 		this.rn = rn;
 		// get the parameter range from file
-		getRangeFromFile(path);
+		setRange(ThermalParamsRange.get(path));
 		// set the thermal params
 		setThermalParams();
 	}
 
+	/**
+	 * Construct the random thermal parameters from ranges that were already
+	 * read.
+	 * 
+	 * @param rn
+	 * @param range
+	 */
+	public ThermalParamsRand(BoundedRand rn, ThermalParamsRange range) {
+		// get the default params
+		super();
+		// set the random number generator
+		this.rn = rn;
+		setRange(range);
+		// set the thermal params
+		setThermalParams();
+	}
+
+	/**
+	 * Take the ranges of the random selection. The arrays are shared, and
+	 * only read.
+	 * 
+	 * @param range
+	 */
+	private void setRange(ThermalParamsRange range) {
+		deltaHouseSize = range.deltaHouseSize;
+		deltaWindowSize = range.deltaWindowSize;
+		deltaInfiltration = range.deltaInfiltration;
+		deltaUnitSize = range.deltaUnitSize;
+		deltaInsulationQuality = range.deltaInsulationQuality;
+		deltaSeer = range.deltaSeer;
+		slabSize = range.slabSize;
+		slab_prob = range.slab_prob;
+	}
+
 	/**
 	 * Set the thermal params based on the ranges provided in the class
 	 * 
@@ -209,131 +242,6 @@ public class ThermalParamsRand extends ThermalParams {
 
 	}
 
-	/**
-	 * Get the range values from a file.
-	 * 
-	 * @param path
-	 * @throws Exception
-	 */
-	private void getRangeFromFile(String path) throws Exception {
-		try {
-			// Open the file that is the first
-			FileInputStream fstream = new FileInputStream(path);
-			// Get the object of DataInputStream
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-
-			int i; // initialize the counting number
-			// the following will be used to parse the line
-			StringTokenizer st;
-			String strLine, name, value;
-
-			// Read File Line By Line
-			while ((strLine = br.readLine()) != null) {
-				// turn the line into a token
-				st = new StringTokenizer(strLine, ", ");
-				// System.out.println("here0");
-				if (st.hasMoreTokens()) {
-					// get the name from the first position in the string
-					name = st.nextToken();
-					// process the rest of the line based on the command
-					// identifier
-					// step through the rest of the line based on the number of
-					// entries that should be on the line.
-					// If the line is underfilled, then we return an error
-					// message.
-					if (name.startsWith("#")) {
-						; // do nothing with this line
-					} else if (name.equalsIgnoreCase("house_size")) {
-						// fill the vector
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaHouseSize[i] = Double.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("unit_size")) {
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaUnitSize[i] = Double.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("insu_qual")) {
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaInsulationQuality[i] = Double
-										.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("window_size")) {
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaWindowSize[i] = Double.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("infiltration")) {
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaInfiltration[i] = Double
-										.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("seer_range")) {
-						for (i = 0; i < 2; i++) {
-							value = st.nextToken();
-							if (value == null)
-								System.err.printf(
-										"<ThermalParamRand> bad input: %s\n",
-										name);
-							else
-								deltaSeer[i] = Double.parseDouble(value);
-						}
-					} else if (name.equalsIgnoreCase("slab_size")) {
-						value = st.nextToken();
-						if (value == null)
-							System.err.printf(
-									"<ThermalParamRand> bad input: %s\n", name);
-						else
-							slabSize = Double.parseDouble(value);
-					} else if (name.equalsIgnoreCase("slab_prob")) {
-						value = st.nextToken();
-						if (value == null)
-							System.err.printf(
-									"<ThermalParamRand> bad input: %s\n", name);
-						else
-							slab_prob = Double.parseDouble(value);
-					} else
-						System.err.printf("<ThermalParamRand> UNKNOWN: '%s'\n",
-								strLine);
-				}
-			}
-			// Close the input stream
-			in.close();
-		} catch (Exception ex) {
-			throw new Exception("ThermalParamRand.getRangeFromFile Exception",
-					ex);
-		}
-	}
-
 	public String toStringOnRange() {
 		// initialize the writers
 		StringWriter strWriter = new StringWriter();
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house.simulation;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+/**
+ * The ranges that ThermalParamsRand draws the thermal parameters from. A
+ * range file is read once, and the ranges are shared by all of the houses
+ * (and threads) that use it; they must not be changed after they are read.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ThermalParamsRange {
+
+	private static final HashMap<String, ThermalParamsRange> ranges =
+			new HashMap<String, ThermalParamsRange>();
+	double[] deltaHouseSize = { 0.0, 1.0 };
+	double[] deltaWindowSize = { 0.0, 0.0 };
+	double[] deltaInfiltration = { 0.0, 0.0 };
+	double[] deltaUnitSize = { -0.5, 0.5 };
+	double[] deltaInsulationQuality = { 0.0, 1.0 };
+	double[] deltaSeer;
+	double slabSize = 1.25;
+	double slab_prob = 0.5;
+
+	/**
+	 * Construct the default ranges.
+	 */
+	public ThermalParamsRange() {
+		double seer = new ThermalParams().coolerHeatEfficiency;
+		deltaSeer = new double[] { seer, seer };
+	}
+
+	/**
+	 * Construct the ranges from a file, with the default for the ranges the
+	 * file does not give.
+	 * 
+	 * @param path
+	 * @throws Exception
+	 */
+	public ThermalParamsRange(String path) throws Exception {
+		this();
+		readFile(path);
+	}
+
+	/**
+	 * Get the ranges of a file. The file is read again only when it has been
+	 * changed.
+	 * 
+	 * @param path
+	 * @return
+	 * @throws Exception
+	 */
+	public static ThermalParamsRange get(String path) throws Exception {
+		File file = new File(path);
+		String key = file.getCanonicalPath() + "," + file.lastModified() + ","
+				+ file.length();
+		synchronized (ranges) {
+			ThermalParamsRange range = ranges.get(key);
+			if (range == null) {
+				range = new ThermalParamsRange(path);
+				ranges.put(key, range);
+			}
+			return range;
+		}
+	}
+
+	/**
+	 * Get the range values from a file.
+	 * 
+	 * @param path
+	 * @throws Exception
+	 */
+	private void readFile(String path) throws Exception {
+		try {
+			// Open the file that is the first
+			FileInputStream fstream = new FileInputStream(path);
+			// Get the object of DataInputStream
+			DataInputStream in = new DataInputStream(fstream);
+			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+
+			int i; // initialize the counting number
+			// the following will be used to parse the line
+			StringTokenizer st;
+			String strLine, name, value;
+
+			// Read File Line By Line
+			while ((strLine = br.readLine()) != null) {
+				// turn the line into a token
+				st = new StringTokenizer(strLine, ", ");
+				// System.out.println("here0");
+				if (st.hasMoreTokens()) {
+					// get the name from the first position in the string
+					name = st.nextToken();
+					// process the rest of the line based on the command
+					// identifier
+					// step through the rest of the line based on the number of
+					// entries that should be on the line.
+					// If the line is underfilled, then we return an error
+					// message.
+					if (name.startsWith("#")) {
+						; // do nothing with this line
+					} else if (name.equalsIgnoreCase("house_size")) {
+						// fill the vector
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaHouseSize[i] = Double.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("unit_size")) {
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaUnitSize[i] = Double.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("insu_qual")) {
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaInsulationQuality[i] = Double
+										.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("window_size")) {
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaWindowSize[i] = Double.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("infiltration")) {
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaInfiltration[i] = Double
+										.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("seer_range")) {
+						for (i = 0; i < 2; i++) {
+							value = st.nextToken();
+							if (value == null)
+								System.err.printf(
+										"<ThermalParamsRange> bad input: %s\n",
+										name);
+							else
+								deltaSeer[i] = Double.parseDouble(value);
+						}
+					} else if (name.equalsIgnoreCase("slab_size")) {
+						value = st.nextToken();
+						if (value == null)
+							System.err.printf(
+									"<ThermalParamsRange> bad input: %s\n", name);
+						else
+							slabSize = Double.parseDouble(value);
+					} else if (name.equalsIgnoreCase("slab_prob")) {
+						value = st.nextToken();
+						if (value == null)
+							System.err.printf(
+									"<ThermalParamsRange> bad input: %s\n", name);
+						else
+							slab_prob = Double.parseDouble(value);
+					} else
+						System.err.printf("<ThermalParamsRange> UNKNOWN: '%s'\n",
+								strLine);
+				}
+			}
+			// Close the input stream
+			in.close();
+		} catch (Exception ex) {
+			throw new Exception("ThermalParamsRange.readFile Exception",
+					ex);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.house.simulation;
+
+/** Defines the solvers that HouseThermalSimTask can use to integrate the
+ * thermal model of a house.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public enum ThermalSolverType {
+    /** Runge-Kutta-Fehlberg 4(5), the original solver. */
+    RKF45,
+    /** Exact transition matrices between HVAC switching events, with RKF45
+     * while the cooler compressor (and its nonlinear COP) is running. */
+    PIECEWISE_EXACT,
+    /** Two stage Rosenbrock with the analytic Jacobian of the thermal units,
+     * for stiff houses. */
+    ROSENBROCK,
+    /** ROSENBROCK for a house whose Jacobian eigenvalues have a large
+     * stiffness ratio, on the ticks that are long enough to make RKF45
+     * stability limited; RKF45 otherwise. */
+    AUTO,
+    /** The fixed step Runge-Kutta method of a FleetThermalSim, reported by
+     * the houses of a fleet. It can not be selected. */
+    FLEET_RK4
+}
@@ -32,13 +32,14 @@ package edu.berkeley.me.jRonSim.house.simulation;
 
 import edu.berkeley.me.jRonSim.house.Consumer;
 import TranRunJLite.*;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
 
 /**
  * The thermal simulation system.
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class ThermalSys extends TrjSys implements HouseIO, Consumer {
+public class ThermalSys extends ScheduledSys implements HouseIO, Consumer {
 
 	String name;
 	private HouseThermalSimTask thermSim;
@@ -72,6 +73,25 @@ public class ThermalSys extends TrjSys implements HouseIO, Consumer {
 		ThermalSysInit(name, params);
 	}
 
+	/**
+	 * Construct the thermal simulation of a house whose thermal model is
+	 * integrated by a fleet engine. The fleet must be advanced by its owner
+	 * (see NeighborhoodTask.setThermalFleet).
+	 * 
+	 * @param name
+	 * @param tm
+	 * @param params
+	 * @param fleet
+	 */
+	public ThermalSys(String name, TrjTime tm, ThermalParams params,
+			FleetThermalSim fleet) {
+		super(tm);
+		this.name = name;
+		thermSim = new FleetThermalSimTask("House Simulation", this, fleet,
+				params);
+		initHvacTasks();
+	}
+
 	/**
 	 * Initalize the Thermal System
 	 * 
@@ -117,7 +137,13 @@ public class ThermalSys extends TrjSys implements HouseIO, Consumer {
 				params.initTemp, true);
 		thermSim.setOutSideTemp(100);
 		thermSim.setSolarRadiation(0);
+		initHvacTasks();
+	}
 
+	/**
+	 * Create the tasks that operate the HVAC units of the thermal simulation.
+	 */
+	private void initHvacTasks() {
 		double dtUnit = 1;
 		acTask = new HvacUnitTask("AC Opperatons Task", this, dtUnit,
 				false /* not a heater */, 60, 60, thermSim);
@@ -220,4 +246,51 @@ public class ThermalSys extends TrjSys implements HouseIO, Consumer {
 		double p = thermSim.getP();
 		return p;
 	}
+
+	/**
+	 * Set all of the states of the thermal model.
+	 * 
+	 * @param x
+	 *            -- in the order of the HouseThermalSimTask unit indices
+	 */
+	public void setStates(double[] x) {
+		thermSim.setStates(x);
+	}
+
+	/**
+	 * Copy all of the states of the thermal model.
+	 * 
+	 * @param x
+	 *            -- in the order of the HouseThermalSimTask unit indices
+	 */
+	public void getStates(double[] x) {
+		thermSim.getStates(x);
+	}
+
+	/**
+	 * Select the solver used to integrate the thermal model.
+	 * 
+	 * @param type
+	 */
+	public void setSolverType(ThermalSolverType type) {
+		thermSim.setSolverType(type);
+	}
+
+	/**
+	 * Turn on or off the comparison against a reference RKF45 solution.
+	 * 
+	 * @param on
+	 */
+	public void setAccuracyCheck(boolean on) {
+		thermSim.setAccuracyCheck(on);
+	}
+
+	/**
+	 * Get a one line summary of the solver use and accuracy.
+	 * 
+	 * @return
+	 */
+	public String getSolverReport() {
+		return thermSim.getSolverReport();
+	}
 }
@@ -91,6 +91,14 @@ public abstract class ThermalUnit
      */
     public abstract double getDeriv();
 
+    /** Compute the row of the Jacobian that belongs to this unit, that is the
+     * partial derivatives of getDeriv() with respect to each state, at the
+     * current x and u.
+     *
+     * @param row
+     */
+    public abstract void getJacobian(double[] row);
+
     /** Update the current x of the system.
      *
      * @param x
@@ -109,4 +109,15 @@ class WallThermalUnit extends ThermalUnit
         double dx = (QToAir + QToAmb) / (cp * m);
         return dx;
     }
+
+    @Override
+    public void getJacobian(double[] row)
+    {
+        for (int j = 0; j < row.length; j++)
+        {
+            row[j] = 0;
+        }
+        row[i] = -(k1 + k2) / (cp * m);
+        row[HouseThermalSimTask.AIR_I] = k1 / (cp * m);
+    }
 }
@@ -32,58 +32,83 @@ package edu.berkeley.me.jRonSim.house.thermostat;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
-import java.util.ArrayList;
 
+import edu.berkeley.me.jRonSim.comMessage.Mailbox;
 import edu.berkeley.me.jRonSim.comMessage.Message;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
-/** This task manages communications for the thermostat.
+/** This task manages communications for the thermostat.  Received messages
+ * are posted to a lock-free mailbox, so they can be delivered from any
+ * thread while the thermostat runs; the thermostat takes them out in order.
+ * Messages to transmit wait in a bounded queue until the task runs and hands
+ * them to the link.
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class ComTask extends TrjTask {
+public class ComTask extends TrjTask implements ScheduledTask {
 
-    private ArrayList<Message> rxBuffer = new ArrayList<Message>();
-    private ArrayList<Message> txQueue = new ArrayList<Message>();
+    /** Default size of the receive mailbox. */
+    public static final int RX_CAPACITY = 64;
+    /** Default size of the transmit queue. */
+    public static final int TX_CAPACITY = 64;
+    private final Mailbox rxMailbox;
+    private final Mailbox txQueue;
+    private Link link = null;
+    private long nSent = 0;
+    private long nUnsent = 0; // taken out of the queue with no link
 
-    /** Construct the communications task.
+    /** Where the transmitted messages go. */
+    public interface Link {
+
+        /** Send a message.
+         *
+         * @param msg
+         */
+        public void sendMessage(Message msg);
+    }
+
+    /** Construct the communications task.  When the receive mailbox is
+     * full, the oldest message is dropped.
      * 
      * @param name
      * @param sys
      * @param dt
      */
     public ComTask(String name, TrjSys sys, double dt) {
+        this(name, sys, dt, RX_CAPACITY, Mailbox.Overflow.DROP_OLDEST);
+    }
+
+    /** Construct the communications task with the given receive mailbox.
+     *
+     * @param name
+     * @param sys
+     * @param dt
+     * @param rxCapacity -- number of messages the receive mailbox holds
+     * @param rxPolicy -- what to do when it is full
+     */
+    public ComTask(String name, TrjSys sys, double dt, int rxCapacity,
+            Mailbox.Overflow rxPolicy) {
         super(name, sys, 0, true);
         this.dtNominal = dt;
+        rxMailbox = new Mailbox(rxCapacity, rxPolicy);
+        txQueue = new Mailbox(TX_CAPACITY, Mailbox.Overflow.DROP_NEWEST);
     }
 
-    /** Get the most recent message and remove it from the buffer.
+    /** Get the most recent message and remove it from the buffer.  The
+     * older messages are dropped.
      * 
      * @return
      */
     public Message getRxMsgLatest() {
-        Message latest = null;
-        if (rxBuffer.size() > 0) {
-            int k = rxBuffer.size() - 1;
-            latest = rxBuffer.get(k);
-            rxBuffer.remove(k);
-        }
-
-        return latest;
+        return rxMailbox.pollLatest();
     }
 
-    /** Get the oldest message, remove it from the buffer, and shift the others
-     * up to fill in its place.
+    /** Get the oldest message and remove it from the buffer.
      * 
      * @return
      */
     public Message getRxMsgOldest() {
-        Message oldest = null;
-        if (rxBuffer.size() > 0) {
-            int k = 0;
-            oldest = rxBuffer.get(k);
-            rxBuffer.remove(k);
-        }
-        return oldest;
+        return rxMailbox.poll();
     }
 
     /** Get the current number of messages in the message buffer.
@@ -91,15 +116,68 @@ public class ComTask extends TrjTask {
      * @return
      */
     public int getRxMsgBufferSize() {
-        return rxBuffer.size();
+        return rxMailbox.size();
+    }
+
+    /** Put a received message at the end of the buffer.  Safe to call from
+     * any thread.
+     *
+     * @param rx
+     * @return false if the message was dropped
+     */
+    public boolean receiveMsg(Message rx) {
+        return rxMailbox.post(rx);
+    }
+
+    /** Get the receive mailbox, for its counters.
+     *
+     * @return
+     */
+    public Mailbox getRxMailbox() {
+        return rxMailbox;
     }
 
-    /** Enque new message for transmission.
+    /** Get the transmit queue, for its counters.
+     *
+     * @return
+     */
+    public Mailbox getTxQueue() {
+        return txQueue;
+    }
+
+    /** Set the link the transmitted messages are sent on.
+     *
+     * @param link -- null to discard them
+     */
+    public void setLink(Link link) {
+        this.link = link;
+    }
+
+    /** Enque new message for transmission.  When the queue is full the
+     * message is dropped, and counted in the dropped count of the queue.
      *
      * @param tx
+     * @return false if the message was dropped
      */
-    public void enqueTxMsg(Message tx) {
-        txQueue.add(tx);
+    public boolean enqueTxMsg(Message tx) {
+        return txQueue.post(tx);
+    }
+
+    /** Get the number of messages handed to the link.
+     *
+     * @return
+     */
+    public long getSentCount() {
+        return nSent;
+    }
+
+    /** Get the number of messages that were discarded because there was no
+     * link.
+     *
+     * @return
+     */
+    public long getUnsentCount() {
+        return nUnsent;
     }
 
     /** Check to see if this task is ready to run
@@ -110,6 +188,10 @@ public class ComTask extends TrjTask {
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime() {
+        return tNext;
+    }
+
     /** Run the communications task.
      * 
      * @param sys
@@ -119,9 +201,14 @@ public class ComTask extends TrjTask {
     public boolean RunTask(TrjSys sys) {
 
         // send all of the messages in the tx Queue
-        while (txQueue.size() > 0) {
-            // TODO: send the message
-            txQueue.remove(0);
+        Message tx;
+        while ((tx = txQueue.poll()) != null) {
+            if (link != null) {
+                link.sendMessage(tx);
+                nSent++;
+            } else {
+                nUnsent++;
+            }
         }
         return false;
     }
@@ -30,13 +30,14 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 package edu.berkeley.me.jRonSim.house.thermostat;
 
 import TranRunJLite.*;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** This TrjTask-like object coordinates the operation of the heater control
  * and the cooler control.
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class CoordinatorTask extends TrjTask {
+public class CoordinatorTask extends TrjTask implements ScheduledTask {
 
     private ThermostatMode mode;
     private HvacHystControlTask heaterHyst = null;
@@ -115,6 +116,10 @@ public class CoordinatorTask extends TrjTask {
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime() {
+        return tNext;
+    }
+
     /** Runs the states associated with the Coordinator Task
      *
      * @param sys -- the TrjSys that this task is associated with
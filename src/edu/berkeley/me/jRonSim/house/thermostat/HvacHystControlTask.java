@@ -36,12 +36,14 @@ import java.io.PrintWriter;
 
 import edu.berkeley.me.jRonSim.house.simulation.HouseIO;
 import edu.berkeley.me.jRonSim.house.simulation.ThermalSys;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** This computes Hysteresis Control for HVAC equipment.  
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class HvacHystControlTask extends HysteresisControl {
+public class HvacHystControlTask extends HysteresisControl
+        implements ScheduledTask {
 
     private boolean heaterControl;
     private double Tin;
@@ -188,4 +190,8 @@ public class HvacHystControlTask extends HysteresisControl {
         }
 
     }
+
+    public double getNextRunTime() {
+        return tNext;
+    }
 }
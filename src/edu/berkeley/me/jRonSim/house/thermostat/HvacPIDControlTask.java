@@ -31,12 +31,13 @@ package edu.berkeley.me.jRonSim.house.thermostat;
 
 import edu.berkeley.me.jRonSim.util.BoxcarFilter;
 import TranRunJLite.*;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** This computes PID Control for HVAC equipment.
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class HvacPIDControlTask extends PIDControl {
+public class HvacPIDControlTask extends PIDControl implements ScheduledTask {
 
     private boolean heaterControl;
     private double Tin;
@@ -137,4 +138,8 @@ public class HvacPIDControlTask extends PIDControl {
     public void PutActuationValue(double val) {
         pwm.setDutyRatio(val);
     }
+
+    public double getNextRunTime() {
+        return tNext;
+    }
 }
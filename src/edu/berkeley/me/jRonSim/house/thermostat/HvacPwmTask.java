@@ -39,12 +39,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 
 import edu.berkeley.me.jRonSim.house.simulation.HouseIO;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** This supplies a pwm signal to a single hvac unit.  
  *
  * @author William Burke <billstron@gmail.com>
  */
-public class HvacPwmTask extends PWMGenerator {
+public class HvacPwmTask extends PWMGenerator implements ScheduledTask {
 
     private HouseIO house;
     private boolean heaterMode;
@@ -139,4 +140,11 @@ public class HvacPwmTask extends PWMGenerator {
             sys.IncrementRunningTime(dt);
         }
     }
+
+    public double getNextRunTime() {
+        if (triggerMode) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return tNext;
+    }
 }
@@ -141,14 +141,27 @@ public class Setpoint {
 	 * @return
 	 */
 	boolean isBefore(Calendar cal) {
+		return isBefore(cal.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE),
+				cal.get(Calendar.SECOND));
+	}
+
+	/**
+	 * Tells wether or not the time of day is before this setpoint entry.
+	 * 
+	 * @param hour
+	 * @param minute
+	 * @param second
+	 * @return
+	 */
+	boolean isBefore(int hour, int minute, int second) {
 		boolean isBefore = false;
-		if (tm[HOUR] < cal.get(Calendar.HOUR_OF_DAY)) {
+		if (tm[HOUR] < hour) {
 			isBefore = true;
-		} else if (tm[HOUR] == cal.get(Calendar.HOUR_OF_DAY)) {
-			if (tm[MINUTE] <= cal.get(Calendar.MINUTE)) {
+		} else if (tm[HOUR] == hour) {
+			if (tm[MINUTE] <= minute) {
 				isBefore = true;
-			} else if (tm[MINUTE] == cal.get(Calendar.MINUTE)) {
-				if (tm[SECOND] <= cal.get(Calendar.SECOND)) {
+			} else if (tm[MINUTE] == minute) {
+				if (tm[SECOND] <= second) {
 					isBefore = true;
 				} else {
 					isBefore = false;
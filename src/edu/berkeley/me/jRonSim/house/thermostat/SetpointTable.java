@@ -34,12 +34,21 @@ import TranRunJLite.*;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.GregorianCalendar;
 
+import edu.berkeley.me.jRonSim.util.SimClock;
+
 /**
- * Setpoint table entity.
+ * Setpoint table entity. The days of the table are compiled, the first time
+ * the table is used after a day is replaced, into the times of the week at
+ * which the setpoint changes. A lookup is then a check that the time is still
+ * in the interval of the previous lookup, or a binary search.
  * 
  * @author William Burke <billstron@gmail.com>
  */
@@ -47,6 +56,21 @@ import java.util.GregorianCalendar;
 public class SetpointTable {
 
 	private ArrayList<Setpoint>[] table = (ArrayList<Setpoint>[]) new ArrayList[7];
+	private static final int MINUTES_PER_DAY = 24 * 60;
+	private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+	// The compiled table: the minutes of the week (from Sunday 00:00) at
+	// which the setpoint changes, and the setpoint from each change on. The
+	// week wraps around, so the setpoint before the first change is the one
+	// of the last change.
+	private int[] changeMinute = null;
+	private double[] changeTsp = null;
+	private double constTsp; // setpoint of a table without changes
+	private int k0 = 0; // change of the last lookup
+	private static final Comparator<Setpoint> BY_TIME = new Comparator<Setpoint>() {
+		public int compare(Setpoint a, Setpoint b) {
+			return minuteOfDay(a) - minuteOfDay(b);
+		}
+	};
 
 	/**
 	 * Constructs the setpoint table.
@@ -76,33 +100,17 @@ public class SetpointTable {
 		// clear the table
 		table[day].clear();
 
-		// make sure the entries in the tableDay are sorted properly.
-		boolean sorted = false;
-		while (!sorted) {
-			// assume that it's sorted
-			sorted = true;
-			// move through the entire table looking for unsorted entries
-			for (int i = 1; i < tableDay.size(); i++) {
-				// locally store the times
-				int[] time = tableDay.get(i - 1).getTime();
-				double t0 = (double) time[Setpoint.HOUR]
-						+ (double) time[Setpoint.MINUTE] / 60.0;
-				time = tableDay.get(i).getTime();
-				double t1 = (double) time[Setpoint.HOUR]
-						+ (double) time[Setpoint.MINUTE] / 60.0;
-				// if they are out of order
-				if (t0 > t1) {
-					// move them into better order
-					Setpoint tempSp = tableDay.get(i - 1);
-					tableDay.set(i - 1, tableDay.get(i));
-					tableDay.set(i, tempSp);
-					// indicate that it isn't yet sorted
-					sorted = false;
-				}
-			}
-		}
+		// make sure the entries in the tableDay are sorted properly; the sort
+		// is stable, so entries at the same time stay in order.
+		Collections.sort(tableDay, BY_TIME);
 		// replace the day
 		table[day] = tableDay;
+		changeMinute = null;
+	}
+
+	private static int minuteOfDay(Setpoint sp) {
+		int[] time = sp.getTime();
+		return time[Setpoint.HOUR] * 60 + time[Setpoint.MINUTE];
 	}
 
 	/**
@@ -112,7 +120,168 @@ public class SetpointTable {
 	 * @return
 	 */
 	public double getTsp(GregorianCalendar cal) {
-		int day = cal.get(Calendar.DAY_OF_WEEK) - 1;
+		return getTsp(minuteOfWeek(cal.get(Calendar.DAY_OF_WEEK), cal
+				.get(Calendar.HOUR_OF_DAY), cal.get(Calendar.MINUTE)));
+	}
+
+	/**
+	 * Gets the setpoint for the time of the clock.
+	 * 
+	 * @param clock
+	 * @return
+	 */
+	public double getTsp(SimClock clock) {
+		return getTsp(minuteOfWeek(clock));
+	}
+
+	/**
+	 * Gets the setpoint for the day of the week (Calendar.SUNDAY = 1) and
+	 * the time of day.
+	 * 
+	 * @param dayOfWeek
+	 * @param hour
+	 * @param minute
+	 * @return
+	 */
+	public double getTsp(int dayOfWeek, int hour, int minute) {
+		return getTsp(minuteOfWeek(dayOfWeek, hour, minute));
+	}
+
+	/**
+	 * Gets the time until the setpoint next changes, from the time of the
+	 * clock. The time is counted on the wall clock, so it is off by the shift
+	 * if a daylight saving change comes first.
+	 * 
+	 * @param clock
+	 * @return (s); infinite if the setpoint never changes
+	 */
+	public double getSecondsToNextChange(SimClock clock) {
+		int w = minuteOfWeek(clock);
+		compile();
+		if (changeMinute.length == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int k = findChange(w);
+		int start = changeMinute[k];
+		int end = (k + 1 < changeMinute.length) ? changeMinute[k + 1]
+				: changeMinute[0] + MINUTES_PER_WEEK;
+		if (w < start) {
+			w += MINUTES_PER_WEEK;
+		}
+		return (end - w) * 60.0 - clock.getSecond() - clock.getMillisecond()
+				/ 1000.0;
+	}
+
+	private static int minuteOfWeek(SimClock clock) {
+		return minuteOfWeek(clock.getDayOfWeek(), clock.getHourOfDay(), clock
+				.getMinute());
+	}
+
+	/**
+	 * Gets the minute of the week for the day of the week (Calendar.SUNDAY =
+	 * 1) and the time of day.
+	 */
+	private static int minuteOfWeek(int dayOfWeek, int hour, int minute) {
+		return (dayOfWeek - 1) * MINUTES_PER_DAY + hour * 60 + minute;
+	}
+
+	/**
+	 * Gets the setpoint for a minute of the week.
+	 */
+	private double getTsp(int w) {
+		compile();
+		if (changeMinute.length == 0) {
+			return constTsp;
+		}
+		return changeTsp[findChange(w)];
+	}
+
+	/**
+	 * Find the last change at or before a minute of the week, wrapping
+	 * around to the last change of the week.
+	 */
+	private int findChange(int w) {
+		int n = changeMinute.length;
+		// most lookups fall in the interval of the previous one
+		int start = changeMinute[k0];
+		int end = (k0 + 1 < n) ? changeMinute[k0 + 1] : changeMinute[0]
+				+ MINUTES_PER_WEEK;
+		int ww = (w < start) ? w + MINUTES_PER_WEEK : w;
+		if (ww >= end) {
+			int lo = 0;
+			int hi = n - 1;
+			if (w < changeMinute[0]) {
+				lo = n - 1;
+			}
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (changeMinute[mid] <= w) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			k0 = lo;
+		}
+		return k0;
+	}
+
+	/**
+	 * Compile the days of the table into the changes of the week. The
+	 * setpoint can only change at the start of a day or at the time of an
+	 * entry, so the table is evaluated at those minutes.
+	 */
+	private void compile() {
+		if (changeMinute != null) {
+			return;
+		}
+		ArrayList<Integer> minutes = new ArrayList<Integer>();
+		ArrayList<Double> values = new ArrayList<Double>();
+		double last = evaluate(7, 23, 59);
+		int[] candidates = new int[1];
+		for (int day = 0; day < table.length; day++) {
+			if (candidates.length < table[day].size() + 1) {
+				candidates = new int[table[day].size() + 1];
+			}
+			int nc = 0;
+			candidates[nc++] = 0;
+			for (Setpoint sp : table[day]) {
+				// the first minute of the day the entry is before
+				int[] time = sp.getTime();
+				int m = time[Setpoint.HOUR] * 60
+						+ Math.min(time[Setpoint.MINUTE], 60);
+				if (m < MINUTES_PER_DAY) {
+					candidates[nc++] = m;
+				}
+			}
+			Arrays.sort(candidates, 0, nc);
+			for (int c = 0; c < nc; c++) {
+				int m = candidates[c];
+				double Tsp = evaluate(day + 1, m / 60, m % 60);
+				if (Tsp != last) {
+					minutes.add(day * MINUTES_PER_DAY + m);
+					values.add(Tsp);
+				}
+				last = Tsp;
+			}
+		}
+		constTsp = last;
+		changeMinute = new int[minutes.size()];
+		changeTsp = new double[minutes.size()];
+		for (int k = 0; k < changeMinute.length; k++) {
+			changeMinute[k] = minutes.get(k);
+			changeTsp[k] = values.get(k);
+		}
+		k0 = 0;
+	}
+
+	/**
+	 * Evaluates the table for the day of the week (Calendar.SUNDAY = 1) and
+	 * the time of day: the last entry of the day at or before the time, or
+	 * the last entry of the day before.
+	 */
+	private double evaluate(int dayOfWeek, int hour, int minute) {
+		int day = dayOfWeek - 1;
 		int dayPrev = day - 1;
 		if (dayPrev < 0) {
 			dayPrev = 6;
@@ -121,14 +290,73 @@ public class SetpointTable {
 		double Tsp = table[dayPrev].get(table[dayPrev].size() - 1).getTsp();
 
 		for (Setpoint sp : table[day]) {
-			if (sp.isBefore(cal)) {
-				// System.out.println("time: " + cal.get(Calendar.HOUR_OF_DAY));
+			if (sp.isBefore(hour, minute, 0)) {
 				Tsp = sp.getTsp();
 			}
 		}
 		return Tsp;
 	}
 
+	/**
+	 * Get the size of the table written by write().
+	 * 
+	 * @return (bytes)
+	 */
+	public int getByteSize() {
+		int n = 0;
+		for (int day = 0; day < table.length; day++) {
+			n += 4 + 12 * table[day].size();
+		}
+		return n;
+	}
+
+	/**
+	 * Write the days of the table to a buffer: for each day the number of
+	 * entries, then the setpoint, hour, minute, second and label of each.
+	 * 
+	 * @param buf
+	 *            -- receives getByteSize() bytes
+	 */
+	public void write(ByteBuffer buf) {
+		for (int day = 0; day < table.length; day++) {
+			buf.putInt(table[day].size());
+			for (Setpoint sp : table[day]) {
+				int[] time = sp.getTime();
+				buf.putDouble(sp.getTsp());
+				buf.put((byte) time[Setpoint.HOUR]);
+				buf.put((byte) time[Setpoint.MINUTE]);
+				buf.put((byte) time[Setpoint.SECOND]);
+				buf.put((byte) sp.getLabel().ordinal());
+			}
+		}
+	}
+
+	/**
+	 * Read a table written by write().
+	 * 
+	 * @param buf
+	 * @return
+	 */
+	public static SetpointTable read(ByteBuffer buf) {
+		SetpointTable st = new SetpointTable();
+		Setpoint.Label[] labels = Setpoint.Label.values();
+		for (int day = 0; day < st.table.length; day++) {
+			int n = buf.getInt();
+			ArrayList<Setpoint> tableDay = new ArrayList<Setpoint>(n);
+			for (int k = 0; k < n; k++) {
+				double Tsp = buf.getDouble();
+				int hour = buf.get();
+				int min = buf.get();
+				int sec = buf.get();
+				Setpoint sp = new Setpoint(Tsp, hour, min, labels[buf.get()]);
+				sp.getTime()[Setpoint.SECOND] = sec;
+				tableDay.add(sp);
+			}
+			st.ReplaceSetpointDay(day, tableDay);
+		}
+		return st;
+	}
+
 	/**
 	 * Test function.
 	 * 
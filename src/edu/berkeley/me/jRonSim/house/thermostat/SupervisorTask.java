@@ -31,19 +31,29 @@
 package edu.berkeley.me.jRonSim.house.thermostat;
 
 import TranRunJLite.*;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+import edu.berkeley.me.jRonSim.util.SimClock;
 
 /**
- * The Supervisor Task stores and returns setpoint information.
+ * The Supervisor Task stores and returns setpoint information. While it
+ * follows the tables it sleeps until the next setpoint change instead of
+ * looking the setpoint up every dt; it still runs on its dt grid, so it sees
+ * a change at the same time as when it polled.
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class SupervisorTask extends TrjTask {
+public class SupervisorTask extends TrjTask implements ScheduledTask {
 
 	private int mode;
 	private SetpointTable table;
+	private SimClock clock;
 	private double Tsp;
 	private double TspTable;
 	private boolean newSp;
+	// wake a little before the change, so rounding of the clock arithmetic
+	// never makes the task miss the grid time at the change
+	private static final double WAKE_MARGIN = 1e-3;
 	/**
 	 * State identifiers
 	 */
@@ -69,7 +79,8 @@ public class SupervisorTask extends TrjTask {
 		stateNames.add("Tables State");
 		this.dtNominal = dt;
 		this.table = new SetpointTable();
-		this.TspTable = table.getTsp(sys.GetCalendar());
+		this.clock = SimClock.of(sys);
+		this.TspTable = table.getTsp(clock.at(sys.GetRunningTime()));
 		this.Tsp = this.TspTable;
 		this.newSp = true;
 		this.mode = TABLES_MODE;
@@ -82,6 +93,7 @@ public class SupervisorTask extends TrjTask {
 	 */
 	void setSetpointTable(SetpointTable table) {
 		this.table = table;
+		wake();
 	}
 
 	/**
@@ -123,10 +135,43 @@ public class SupervisorTask extends TrjTask {
 	 * @param holdOn
 	 */
 	public void setHoldOn(boolean holdOn) {
-		if (holdOn) {
-			mode = HOLD_MODE;
-		} else {
-			mode = TABLES_MODE;
+		int newMode = holdOn ? HOLD_MODE : TABLES_MODE;
+		if (newMode != mode) {
+			mode = newMode;
+			wake();
+		}
+	}
+
+	/**
+	 * Bring the next run back from a sleep to the first time on the dt grid
+	 * after now, when the polling task would have seen the change.
+	 */
+	private void wake() {
+		double t = sys.GetRunningTime();
+		if (tNext - dtNominal <= t) {
+			return;
+		}
+		while (tNext - dtNominal > t) {
+			tNext -= dtNominal;
+		}
+		if (sys instanceof ScheduledSys) {
+			((ScheduledSys) sys).reschedule(this);
+		}
+	}
+
+	/**
+	 * Skip the runs on the dt grid before the next setpoint change. The sleep
+	 * ends at the latest with the local hour, the only time at which the
+	 * offset of the time zone changes.
+	 */
+	private void sleepUntilNextChange() {
+		double t = sys.GetRunningTime();
+		double toChange = table.getSecondsToNextChange(clock);
+		double toHour = 3600 - clock.getMinute() * 60 - clock.getSecond()
+				- clock.getMillisecond() / 1000.0;
+		double tWake = t + Math.min(toChange, toHour) - WAKE_MARGIN;
+		while (tNext < tWake) {
+			tNext += dtNominal;
 		}
 	}
 
@@ -141,6 +186,10 @@ public class SupervisorTask extends TrjTask {
 		return CheckTime(sys.GetRunningTime());
 	}
 
+	public double getNextRunTime() {
+		return tNext;
+	}
+
 	/**
 	 * Runs the Supervisor task.
 	 * 
@@ -171,7 +220,7 @@ public class SupervisorTask extends TrjTask {
 			}
 			// Get the new setpoint and compare it to the old one.
 			// if the setpoint changed, indicate as such.
-			TspTable = table.getTsp(sys.GetCalendar());
+			TspTable = table.getTsp(clock.at(sys.GetRunningTime()));
 			if (Tsp != TspTable) {
 				newSp = true;
 				Tsp = TspTable;
@@ -181,6 +230,8 @@ public class SupervisorTask extends TrjTask {
 			this.nextState = -1;
 			if (mode != TABLES_MODE) {
 				this.nextState = sHold;
+			} else {
+				sleepUntilNextChange();
 			}
 			break;
 		} // case
@@ -30,6 +30,7 @@
  */
 package edu.berkeley.me.jRonSim.house.thermostat;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -62,4 +63,60 @@ public class ThermostatParams {
 			setpoints.ReplaceSetpointDay(i, day);
 		}
 	}
+
+	/**
+	 * Construct the parameters from their values.
+	 * 
+	 * @param DRuserProfile
+	 * @param costTolerance
+	 * @param setpoints
+	 */
+	ThermostatParams(double DRuserProfile, double costTolerance,
+			SetpointTable setpoints) {
+		this.DRuserProfile = DRuserProfile;
+		this.costTolerance = costTolerance;
+		this.setpoints = setpoints;
+	}
+
+	/**
+	 * Get the setpoint schedule.
+	 * 
+	 * @return
+	 */
+	public SetpointTable getSetpointTable() {
+		return setpoints;
+	}
+
+	/**
+	 * Get the size of the parameters written by write().
+	 * 
+	 * @return (bytes)
+	 */
+	public int getByteSize() {
+		return 2 * 8 + setpoints.getByteSize();
+	}
+
+	/**
+	 * Write the parameters and the setpoint table to a buffer.
+	 * 
+	 * @param buf
+	 *            -- receives getByteSize() bytes
+	 */
+	public void write(ByteBuffer buf) {
+		buf.putDouble(DRuserProfile).putDouble(costTolerance);
+		setpoints.write(buf);
+	}
+
+	/**
+	 * Read parameters written by write().
+	 * 
+	 * @param buf
+	 * @return
+	 */
+	public static ThermostatParams read(ByteBuffer buf) {
+		double DRuserProfile = buf.getDouble();
+		double costTolerance = buf.getDouble();
+		return new ThermostatParams(DRuserProfile, costTolerance,
+				SetpointTable.read(buf));
+	}
 }
@@ -33,16 +33,20 @@ package edu.berkeley.me.jRonSim.house.thermostat;
 import TranRunJLite.*;
 import javax.swing.SwingUtilities;
 
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
+import edu.berkeley.me.jRonSim.comMessage.Mailbox;
+import edu.berkeley.me.jRonSim.comMessage.Message;
 import edu.berkeley.me.jRonSim.house.simulation.HouseIO;
 import edu.berkeley.me.jRonSim.house.thermostat.goalSeeker.GoalSeekerTask;
 import edu.berkeley.me.jRonSim.house.userInterface.UserInterfaceJFrame;
+import edu.berkeley.me.jRonSim.util.ScheduledSys;
 
 /**
  * The TrjSys that implements a thermostat.
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class ThermostatSys extends TrjSys {
+public class ThermostatSys extends ScheduledSys {
 
 	String name;
 	private HvacHystControlTask heaterHystCont;
@@ -177,4 +181,35 @@ public class ThermostatSys extends TrjSys {
 	public void setSetpoint(double Tsp) {
 		userInterface.setTsp(Tsp);
 	}
+
+	/**
+	 * Deliver a message to the communications task. Safe to call from any
+	 * thread.
+	 * 
+	 * @param msg
+	 * @return false if the mailbox dropped the message
+	 */
+	public boolean receiveMessage(Message msg) {
+		return com.receiveMsg(msg);
+	}
+
+	/**
+	 * Get the mailbox of the received messages.
+	 * 
+	 * @return
+	 */
+	public Mailbox getMailbox() {
+		return com.getRxMailbox();
+	}
+
+	/**
+	 * Record the latency of the DR setpoint messages, from the time they
+	 * were sent to the time they change the setpoint.
+	 * 
+	 * @param recorder
+	 *            -- null for none
+	 */
+	public void setDrLatencyRecorder(LatencyRecorder recorder) {
+		goalSeeker.setDrLatencyRecorder(recorder);
+	}
 }
@@ -33,6 +33,7 @@ package edu.berkeley.me.jRonSim.house.thermostat;
 import edu.berkeley.me.jRonSim.house.userInterface.UserInterfaceIO;
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
 
 /** The Task that implements the User Interface.  If there is a GUI, the data
  * from this task gets displayed.  If there isn't a GUI, the data just lives
@@ -40,7 +41,8 @@ import TranRunJLite.TrjTask;
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class UserInterfaceTask extends TrjTask implements UserInterfaceIO {
+public class UserInterfaceTask extends TrjTask
+        implements UserInterfaceIO, ScheduledTask {
 
     private String auxDisplay;
     private String labelAuxMsg;
@@ -249,6 +251,10 @@ public class UserInterfaceTask extends TrjTask implements UserInterfaceIO {
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime() {
+        return tNext;
+    }
+
     /** Run the User Interface Task.
      * 
      * @param sys
@@ -48,6 +48,7 @@ class GoalSeekerStateEcoSp extends TrjState {
     private ComTask com;
     private double tDrEnd;
     private boolean drOverride;
+    private DrSetpointMessage drMsg = null;
 
     /** Constructs the Goal Seeker Normal State.
      * 
@@ -89,14 +90,17 @@ class GoalSeekerStateEcoSp extends TrjState {
     /** Get the end time from the message.
      * 
      * @param msg
-     * @return
+     * @param t -- the current running time
+     * @return the running time at which the event ends
      */
-    private double getMsgEndTime(Message msg) {
+    private double getMsgEndTime(Message msg, double t) {
         double tEnd = 0;
         if (msg != null) {
             switch (msg.getType()) {
                 case DR_SETPOINT:
-                    tEnd = 0;
+                    long msLeft = ((DrSetpointMessage) msg).getEndTimeInMillis()
+                            - task.clock.at(t).getTimeInMillis();
+                    tEnd = t + msLeft / 1000.0;
                     break;
                 case INFO:
                 case DR_COSTRATIO:
@@ -108,12 +112,19 @@ class GoalSeekerStateEcoSp extends TrjState {
         return tEnd;
     }
 
-    private double getMsgTspDrMod(Message msg) {
+    /** Get the setpoint modification of the message at the current time.
+     *
+     * @param msg
+     * @param t -- the current running time
+     * @return
+     */
+    private double getMsgTspDrMod(Message msg, double t) {
         double mod = 0;
         if (msg != null) {
             switch (msg.getType()) {
                 case DR_SETPOINT:
-                    mod = 4;
+                    mod = ((DrSetpointMessage) msg).getCurrentTspMod(
+                            task.clock.at(t));
                     break;
                 case INFO:
                 case DR_COSTRATIO:
@@ -132,8 +143,15 @@ class GoalSeekerStateEcoSp extends TrjState {
     @Override
     protected void entryFunction(double t) {
         // parse the message
-        task.TspDrMod = getMsgTspDrMod(task.nextMsg);
-        tDrEnd = getMsgEndTime(task.nextMsg);
+        drMsg = null;
+        if (task.nextMsg instanceof DrSetpointMessage) {
+            drMsg = (DrSetpointMessage) task.nextMsg;
+        }
+        task.TspDrMod = getMsgTspDrMod(drMsg, t);
+        tDrEnd = getMsgEndTime(drMsg, t);
+        if (drMsg != null && task.drLatency != null) {
+            task.drLatency.recordNow(drMsg);
+        }
 
         // signal the supervisor to move to table mode.
         sup.setHoldOn(false);
@@ -165,6 +183,9 @@ class GoalSeekerStateEcoSp extends TrjState {
             // Do not reset the setpoint modification
         }
 
+        // Follow the ramps of the event
+        task.TspDrMod = getMsgTspDrMod(drMsg, t);
+
         // Adjust the thermostat mode based on the ui
         task.tstatMode = ui.getThermostatMode();
 
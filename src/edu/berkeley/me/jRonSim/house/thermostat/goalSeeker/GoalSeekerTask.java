@@ -33,8 +33,11 @@ package edu.berkeley.me.jRonSim.house.thermostat.goalSeeker;
 import TranRunJLite.*;
 import java.util.ArrayList;
 
+import edu.berkeley.me.jRonSim.comMessage.LatencyRecorder;
 import edu.berkeley.me.jRonSim.comMessage.Message;
 import edu.berkeley.me.jRonSim.house.thermostat.*;
+import edu.berkeley.me.jRonSim.util.ScheduledTask;
+import edu.berkeley.me.jRonSim.util.SimClock;
 
 /**
  * The Goal Seeker Task coordinates and implements all of the higher functions
@@ -43,7 +46,7 @@ import edu.berkeley.me.jRonSim.house.thermostat.*;
  * 
  * @author William Burke <billstron@gmail.com>
  */
-public class GoalSeekerTask extends TrjTask {
+public class GoalSeekerTask extends TrjTask implements ScheduledTask {
 
 	private ArrayList<TrjState> states = new ArrayList<TrjState>();
 	private double dt;
@@ -60,8 +63,11 @@ public class GoalSeekerTask extends TrjTask {
 	double costTolerance;
 	int rxBufferSize = 0;
 	Message nextMsg = null;
+	SimClock clock;
 	ThermostatMode uiMode = ThermostatMode.COOLING;
 	ThermostatMode tstatMode = ThermostatMode.COOLING;
+	// where to record the latency of the DR messages; null for nowhere
+	transient LatencyRecorder drLatency = null;
 
 	/**
 	 * Construct the Goal Seeker Task.
@@ -91,9 +97,14 @@ public class GoalSeekerTask extends TrjTask {
 		GoalSeekerStateNormal normal = new GoalSeekerStateNormal(
 				"Normal State", this, supervisor, coordinator, ui, com);
 		states.add(normal);
+		GoalSeekerStateEcoSp ecoSp = new GoalSeekerStateEcoSp(
+				"Economic Setpoint State", this, supervisor, coordinator, ui,
+				com);
+		states.add(ecoSp);
 		stateNames.add("Normal State");
 		stateNames.add("Economic Setpoint State");
 		this.dtNominal = dt;
+		this.clock = SimClock.of(sys);
 
 		// initialize the variables
 		this.Tin = 75;
@@ -128,6 +139,17 @@ public class GoalSeekerTask extends TrjTask {
 		this.costTolerance = tol;
 	}
 
+	/**
+	 * Record, from now on, how long each DR setpoint message took from the
+	 * time it was sent to the time it changed the setpoint.
+	 * 
+	 * @param recorder
+	 *            -- null to stop recording
+	 */
+	public void setDrLatencyRecorder(LatencyRecorder recorder) {
+		this.drLatency = recorder;
+	}
+
 	/**
 	 * Calculates the next transition based on a message.
 	 * 
@@ -141,6 +163,7 @@ public class GoalSeekerTask extends TrjTask {
 			case INFO:
 				break;
 			case DR_SETPOINT:
+				next = ecoSpState;
 				break;
 			case DR_COSTRATIO:
 				break;
@@ -163,6 +186,10 @@ public class GoalSeekerTask extends TrjTask {
 		return CheckTime(sys.GetRunningTime());
 	}
 
+	public double getNextRunTime() {
+		return tNext;
+	}
+
 	/**
 	 * Run the Goal Seeker Task.
 	 * 
@@ -171,8 +198,9 @@ public class GoalSeekerTask extends TrjTask {
 	 */
 	public boolean RunTask(TrjSys sys) {
 		// System.out.println("here");
-		// run the state defined by the tran run system
-		states.get(this.currentState).run(sys.GetRunningTime());
+		// run the state defined by the tran run system, and go to the state
+		// it returns
+		nextState = states.get(this.currentState).run(sys.GetRunningTime());
 
 		return false;
 	}
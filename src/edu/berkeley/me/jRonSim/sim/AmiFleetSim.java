@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.sim;
+
+import TranRunJLite.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+
+import edu.berkeley.me.jRonSim.aggregator.SystemicSys;
+import edu.berkeley.me.jRonSim.comMessage.DrSetpointMessage;
+import edu.berkeley.me.jRonSim.gatewayComm.AmiUplink;
+import edu.berkeley.me.jRonSim.gatewayComm.LoopbackGateway;
+import edu.berkeley.me.jRonSim.gatewayComm.TelemetryChannel;
+import edu.berkeley.me.jRonSim.house.House;
+import edu.berkeley.me.jRonSim.house.PopulationBuilder;
+
+/**
+ * AMI load test: runs a neighborhood and sends the meter reading of every
+ * house to a gateway over a few multiplexed connections.
+ * 
+ * Arguments: [number of houses] [number of connections] [host:port of the
+ * gateway]. Without a gateway the readings go to an in-process
+ * LoopbackGateway, which also sends every house a DR setpoint event back over
+ * the same connections; the report gives how long it took from the gateway
+ * to the setpoints of the thermostats.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class AmiFleetSim {
+
+	static final int seed = 35621;
+	static final GregorianCalendar start = new GregorianCalendar(2007, 7, 3,
+			0, 0);
+
+	public static void main(String[] args) throws Exception {
+		double dt = 5.0; // Used for samples that need a time delta
+		double tFinal = 24 * 3600; // sec
+		double dtSample = 60; // meter sampling interval (s)
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int nHouses = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int nConnections = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		double tDrSend = 13 * 3600; // when the gateway sends the event (s)
+		double tDrStart = 14 * 3600; // sec
+		double tDrEnd = 18 * 3600; // sec
+		double TmodMax = 4; // setback (F)
+
+		LoopbackGateway loopback = null;
+		SocketAddress gateway;
+		if (args.length > 2) {
+			String[] hostPort = args[2].split(":");
+			gateway = new InetSocketAddress(hostPort[0], Integer
+					.parseInt(hostPort[1]));
+		} else {
+			loopback = new LoopbackGateway();
+			gateway = loopback.getAddress();
+		}
+
+		TrjTimeSim tm = new TrjTimeSim(start, 0.0);
+		PopulationBuilder builder = new PopulationBuilder(seed,
+				SystSim.inputFiles[SystSim.THERMALPARAMS]);
+		builder.setParallelism(nThreads);
+		ArrayList<House> houses = builder.build(tm, nHouses);
+		SystemicSys ssys = new SystemicSys("AMI Fleet Simulation", tm, houses);
+		ssys.setParallelism(nThreads);
+		AmiUplink uplink = new AmiUplink(gateway, nHouses, nConnections,
+				dtSample);
+		ssys.setMeterUplink(uplink);
+
+		long t0 = System.nanoTime();
+		boolean drSent = false;
+		while (ssys.GetRunningTime() <= tFinal) {
+			if (loopback != null && !drSent
+					&& ssys.GetRunningTime() >= tDrSend) {
+				InetAddress lo = InetAddress.getLoopbackAddress();
+				// tried again at the next step if not connected yet
+				drSent = loopback.send(TelemetryChannel.ALL_HOUSES,
+						new DrSetpointMessage(lo, lo, ssys.GetCalendar(tDrStart),
+								ssys.GetCalendar(tDrEnd), TmodMax));
+			}
+			if (ssys.RunTasks()) {
+				break;
+			}
+			ssys.IncrementRunningTime(dt);
+		}
+		ssys.shutdown();
+		double sec = (System.nanoTime() - t0) / 1e9;
+		boolean ok = uplink.close(10000);
+		System.out.printf("%d houses, %.0f h in %.1f s%n", nHouses,
+				tFinal / 3600, sec);
+		System.out.println(uplink.getReport());
+		if (!ok) {
+			System.err.println("Telemetry was not all sent");
+		}
+		if (loopback != null) {
+			loopback.awaitStop(nConnections, 2000);
+			System.out.printf("gateway: %d readings from %d houses, %d out of"
+					+ " order%n", loopback.getSampleCount(), loopback
+					.getHouseCount(), loopback.getOutOfOrderCount());
+			loopback.close();
+		}
+		System.out.println("Simulation Completed");
+		System.exit(0);
+	}
+}
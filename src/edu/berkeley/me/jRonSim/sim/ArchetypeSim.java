@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.sim;
+
+import TranRunJLite.*;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+
+import edu.berkeley.me.jRonSim.aggregator.SystemicSys;
+import edu.berkeley.me.jRonSim.house.ArchetypeBuilder;
+import edu.berkeley.me.jRonSim.house.House;
+import edu.berkeley.me.jRonSim.house.PopulationBuilder;
+
+/**
+ * Runs the aggregate power of a neighborhood from a few weighted archetypes
+ * of its houses, runs every house of the neighborhood for reference, and
+ * reports the error of the archetypes and the time each run took.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ArchetypeSim {
+
+	static final int seed = 35621;
+	static final GregorianCalendar start = new GregorianCalendar(2007, 7, 3,
+			0, 0);
+
+	public static void main(String[] args) throws Exception {
+		double dt = 5.0; // Used for samples that need a time delta
+		double tFinal = 48 * 3600; // sec
+		double dtSample = 60;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int nHouses = 200;
+		int nClusters = 10;
+		int nReplicas = 2;
+		// also run every house, to measure the error
+		boolean fullRun = true;
+
+		// Run the archetypes.
+		long t0 = System.nanoTime();
+		TrjTimeSim tm = new TrjTimeSim(start, 0.0);
+		PopulationBuilder builder = new PopulationBuilder(seed,
+				SystSim.inputFiles[SystSim.THERMALPARAMS]);
+		builder.setParallelism(nThreads);
+		ArchetypeBuilder archetypes = new ArchetypeBuilder(builder, nHouses,
+				seed);
+		archetypes.setClusterCount(nClusters);
+		archetypes.setReplicas(nReplicas);
+		ArrayList<House> houses = archetypes.build(tm);
+		System.out.println(archetypes.getReport());
+		SystemicSys ssys = new SystemicSys("Archetype Simulation", tm, houses);
+		ssys.setHouseWeights(archetypes.getWeights());
+		ssys.setParallelism(nThreads);
+		double[] Parch = run(ssys, tFinal, dt, dtSample);
+		double secArch = (System.nanoTime() - t0) / 1e9;
+		System.out.printf("Archetypes: %d houses in %.1f s%n", houses.size(),
+				secArch);
+
+		double[] Pfull = null;
+		if (fullRun) {
+			t0 = System.nanoTime();
+			tm = new TrjTimeSim(start, 0.0);
+			ssys = new SystemicSys("Systemic Simulation", tm, builder.build(
+					tm, nHouses));
+			ssys.setParallelism(nThreads);
+			Pfull = run(ssys, tFinal, dt, dtSample);
+			double secFull = (System.nanoTime() - t0) / 1e9;
+			System.out.printf("Full: %d houses in %.1f s, %.1f times the "
+					+ "archetypes%n", nHouses, secFull, secFull / secArch);
+			System.out.println(ArchetypeBuilder.getErrorReport(Pfull, Parch));
+		}
+
+		PrintWriter out = new PrintWriter(new FileWriter("Archetype.out"));
+		out.println("t\tParch\tPfull");
+		for (int s = 0; s < Parch.length; s++) {
+			out.printf("%.0f\t%.4f", s * dtSample, Parch[s]);
+			if (Pfull != null) {
+				out.printf("\t%.4f", Pfull[s]);
+			}
+			out.println();
+		}
+		out.close();
+		System.out.println("Simulation Completed");
+		System.exit(0);
+	}
+
+	/**
+	 * Run a simulation and sample its aggregate power.
+	 * 
+	 * @param ssys
+	 * @param tFinal
+	 * @param dt
+	 * @param dtSample
+	 * @return
+	 */
+	static double[] run(SystemicSys ssys, double tFinal, double dt,
+			double dtSample) {
+		double[] P = new double[(int) Math.floor(tFinal / dtSample) + 1];
+		int s = 0;
+		while (ssys.GetRunningTime() <= tFinal) {
+			if (ssys.RunTasks()) {
+				break;
+			}
+			if (s < P.length && ssys.GetRunningTime() >= s * dtSample) {
+				P[s++] = ssys.getAggregatePower();
+			}
+			ssys.IncrementRunningTime(dt);
+		}
+		ssys.shutdown();
+		return P;
+	}
+}
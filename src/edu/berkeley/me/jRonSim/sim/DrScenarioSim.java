@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.sim;
+
+import TranRunJLite.*;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.util.GregorianCalendar;
+
+import edu.berkeley.me.jRonSim.aggregator.ScenarioFork;
+import edu.berkeley.me.jRonSim.aggregator.SystemicSys;
+import edu.berkeley.me.jRonSim.comMessage.DrSetpointMessage;
+import edu.berkeley.me.jRonSim.house.PopulationBuilder;
+
+/**
+ * Runs the neighborhood of SystSim to the start of a demand response event,
+ * then runs the event with several setbacks and ramp rates from that state,
+ * and writes the aggregate power of each variant as a difference from the
+ * baseline.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class DrScenarioSim {
+
+	static final int nHouses = 5;
+	static final int seed = 35621;
+	static final GregorianCalendar start = new GregorianCalendar(2007, 7, 3,
+			0, 0);
+
+	public static void main(String[] args) throws Exception {
+		double dt = 5.0; // Used for samples that need a time delta
+		double tDrStart = (24 + 14) * 3600; // sec
+		double tDrEnd = (24 + 18) * 3600;
+		double tFinal = (24 + 20) * 3600;
+		double dtSample = 60;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		// setbacks and ramp rates of the variants
+		double[] TmodMax = { 2, 4, 6 };
+		double[] rampMinutes = { 0, 30 }; // 0 steps the setpoint
+
+		ScenarioFork.Factory factory = new ScenarioFork.Factory() {
+			public SystemicSys build() throws Exception {
+				TrjTimeSim tm = new TrjTimeSim(start, 0.0);
+				PopulationBuilder builder = new PopulationBuilder(seed,
+						SystSim.inputFiles[SystSim.THERMALPARAMS]);
+				return new SystemicSys("Systemic Simulation", tm, builder
+						.build(tm, nHouses));
+			}
+		};
+
+		// Run the baseline to the start of the event.
+		SystemicSys baseline = factory.build();
+		baseline.setParallelism(nThreads);
+		while (baseline.GetRunningTime() < tDrStart) {
+			if (baseline.RunTasks()) {
+				break;
+			}
+			baseline.IncrementRunningTime(dt);
+		}
+		ScenarioFork fork = new ScenarioFork(factory, baseline);
+		baseline.shutdown();
+		System.out.println("Forked at t = " + fork.getForkTime() + " s, "
+				+ fork.getImageSize() + " bytes");
+
+		// Add the variants.
+		InetAddress from = InetAddress.getLoopbackAddress();
+		InetAddress to = InetAddress.getLoopbackAddress();
+		GregorianCalendar drStart = baseline.GetCalendar(tDrStart);
+		GregorianCalendar drEnd = baseline.GetCalendar(tDrEnd);
+		for (double Tmod : TmodMax) {
+			for (double ramp : rampMinutes) {
+				DrSetpointMessage msg;
+				if (ramp > 0) {
+					double rate = Tmod / (ramp * 60 * 1000);
+					msg = new DrSetpointMessage(from, to, drStart, drEnd, Tmod,
+							rate, rate);
+				} else {
+					msg = new DrSetpointMessage(from, to, drStart, drEnd, Tmod);
+				}
+				fork.addVariant("dT" + Tmod + "r" + ramp, msg);
+			}
+		}
+
+		// Run them all.
+		ScenarioFork.Result result = fork.run(tFinal, dt, dtSample, nThreads);
+		PrintWriter out = new PrintWriter(new FileWriter("DrScenario.out"));
+		result.print(out);
+		out.close();
+		System.out.println("Simulation Completed");
+		System.exit(0);
+	}
+}
@@ -30,7 +30,11 @@
  */
 package edu.berkeley.me.jRonSim.sim;
 
+import java.io.IOException;
+
 import edu.berkeley.me.jRonSim.gatewayComm.AmiCommSetup;
+import edu.berkeley.me.jRonSim.gatewayComm.LoopbackGateway;
+import edu.berkeley.me.jRonSim.gatewayComm.TelemetryChannel;
 import edu.berkeley.me.jRonSim.house.House;
 import edu.berkeley.me.jRonSim.house.PctHouse;
 import edu.berkeley.me.jRonSim.house.PctHouseRunnableAMI;
@@ -43,14 +47,36 @@ import TranRunJLite.TrjTimeAccel;
 public class PctHouseSimAMI
 {
 
-    /** Test function
+    /** Test function.  With the argument -loopback the telemetry goes to an
+     * in-process stand-in for the gateway, which prints what it receives.
      *
      * @param args
+     * @throws InterruptedException
      */
-    public static void main(String[] args)
+    public static void main(String[] args) throws InterruptedException
     {
     	//setup network communications with the Gateway
-    	AmiCommSetup ami = new AmiCommSetup();
+        LoopbackGateway loopback = null;
+        AmiCommSetup ami;
+        try
+        {
+            if (args.length > 0 && args[0].equals("-loopback"))
+            {
+                loopback = new LoopbackGateway();
+                loopback.setEcho(System.out);
+                ami = new AmiCommSetup(loopback.getAddress(), null,
+                        TelemetryChannel.Format.FRAMES);
+            }
+            else
+            {
+                ami = new AmiCommSetup();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Connection to the Gateway failed: " + e);
+            return;
+        }
     	
         double dt = 5.0;  // Used for samples that need a time delta
         double tFinal = 24 * 60 * 60;  // sec
@@ -63,6 +89,12 @@ public class PctHouseSimAMI
         
         //get whole edu.berkeley.me.jRonSim.house energy usage, convert to XML string
         //send string to Gateway
-        
+        t.join();
+        if (loopback != null)
+        {
+            loopback.awaitStop(1, 1000);
+            loopback.close();
+        }
+        System.exit(0);  // close the user interface
     }
 }
@@ -32,6 +32,7 @@ package edu.berkeley.me.jRonSim.sim;
 
 import TranRunJLite.*;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -39,18 +40,21 @@ import java.util.ArrayList;
 import java.util.GregorianCalendar;
 
 import edu.berkeley.me.jRonSim.aggregator.SystemicSys;
+import edu.berkeley.me.jRonSim.aggregator.environment.EnviroConditionsTask;
+import edu.berkeley.me.jRonSim.aggregator.environment.Envelope;
+import edu.berkeley.me.jRonSim.house.FleetFileReader;
 import edu.berkeley.me.jRonSim.house.House;
-import edu.berkeley.me.jRonSim.house.WholeHouse;
-import edu.berkeley.me.jRonSim.house.occupant.OccupantParams;
-import edu.berkeley.me.jRonSim.house.occupant.OccupantParamsRand;
-import edu.berkeley.me.jRonSim.house.simulation.ThermalParams;
-import edu.berkeley.me.jRonSim.house.simulation.ThermalParamsRand;
-import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParams;
-import edu.berkeley.me.jRonSim.house.thermostat.ThermostatParamsRand;
-import edu.berkeley.me.jRonSim.util.BoundedRand;
+import edu.berkeley.me.jRonSim.house.PopulationBuilder;
+import edu.berkeley.me.jRonSim.house.ThermalWarmStart;
+import edu.berkeley.me.jRonSim.house.simulation.FleetThermalSim;
+import edu.berkeley.me.jRonSim.util.SimCheckpoint;
 
 
 /**
+ * Runs the systemic simulation of a small neighborhood.
+ * 
+ * Options: -fleet integrates the thermal models of all houses in one
+ * FleetThermalSim.
  * 
  * @author William Burke <billstron@gmail.com>
  */
@@ -68,12 +72,41 @@ public class SystSim {
 	public static void main(String[] args) throws Exception {
 		double dt = 5.0; // Used for samples that need a time delta
 		double tFinal = 48 * 3600; // sec
+		// Each house draws from its own random stream, so the houses can be
+		// built and run in parallel without changing the results.
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		// Integrate all thermal models in one batched engine instead of one
+		// adaptive solver per house (option -fleet).
+		boolean useThermalFleet = false;
+		for (String arg : args) {
+			if (arg.equals("-fleet")) {
+				useThermalFleet = true;
+			} else {
+				System.err.println("Unknown option " + arg);
+				System.exit(1);
+			}
+		}
+		// Also write the neighborhood log in binary from a background thread;
+		// BinaryLogReader turns it back into text.
+		String binaryLogName = null; // "Neighborhood.bin"
+		// Save the state of the simulation at tCheckpoint, or resume from a
+		// saved state instead of starting at 0.
+		String checkpointName = null; // "SystSim.ckpt"
+		double tCheckpoint = 24 * 3600;
+		boolean resume = false;
+		// Start the thermal models in the states they settle into over the
+		// first day instead of at ThermalParams.initTemp.  The states of each
+		// house are cached in warmStartCache (null for no cache).
+		boolean warmStart = false;
+		String warmStartCache = null; // "ThermalWarmStart"
+		// Read the houses from a fleet file; if it does not exist, the houses
+		// are drawn and written to it first.
+		String fleetFileName = null; // "Neighborhood.fleet"
 
 		// initialize the random number generator
 		int seed = 35621;
 		//Calendar now = Calendar.getInstance();
 		//int seed = (int) now.getTimeInMillis();
-		BoundedRand rn = new BoundedRand(seed);
 
 		// Create the calendar and timer
 		GregorianCalendar cal = new GregorianCalendar(2007, 7, 3, 0, 0);
@@ -89,39 +122,78 @@ public class SystSim {
 		}
 
 		// Create the list of houses.
-		ArrayList<House> houseList = new ArrayList<House>();
-		for (int i = 0; i < 5; i++) {
-			// generate a new set of random edu.berkeley.me.jRonSim.house parameters
-			ThermalParams thermParams = new ThermalParamsRand(rn,
-					inputFiles[THERMALPARAMS]);
-
-			// generate the occupant parameters
-			ArrayList<OccupantParams> occParList = OccupantParamsRand
-					.RandomList(null, rn);
-			// generate a set of thermostat params
-			ThermostatParams tstatParams = new ThermostatParamsRand(rn,
-					occParList);
-			// generate a new edu.berkeley.me.jRonSim.house
-			WholeHouse hs = new WholeHouse("House", tm, i, thermParams,
-					tstatParams, occParList, rn);
-			// PctHouse hs = new PctHouse("House", tm, i, thermParams,
-			// tstatParams);
-			houseList.add(hs);
+		int nHouses = 5;
+		FleetThermalSim fleet = null;
+		if (useThermalFleet) {
+			fleet = new FleetThermalSim(nHouses);
+		}
+		ThermalWarmStart warm = null;
+		if (warmStart) {
+			double dtProfile = 30;
+			double[] Tout = new double[(int) (24 * 3600 / dtProfile)];
+			double[] rad = new double[Tout.length];
+			EnviroConditionsTask enviro = new EnviroConditionsTask(
+					"Warm Start Environment", new TrjSys(tm), dtProfile,
+					new ArrayList<Envelope>());
+			enviro.getConditions(0.0, dtProfile, Tout, rad);
+			warm = new ThermalWarmStart(cal, dtProfile, Tout, rad,
+					warmStartCache);
+		}
+		PopulationBuilder builder = new PopulationBuilder(seed,
+				inputFiles[THERMALPARAMS]);
+		builder.setWarmStart(warm);
+		builder.setParallelism(nThreads);
+		FleetFileReader fleetFile = null;
+		if (fleetFileName != null) {
+			if (!new File(fleetFileName).exists()) {
+				builder.write(fleetFileName, nHouses);
+			}
+			fleetFile = new FleetFileReader(fleetFileName);
+			builder = new PopulationBuilder(fleetFile);
+			builder.setWarmStart(warm);
+			builder.setParallelism(nThreads);
+		}
+		builder.setThermalFleet(fleet);
+		ArrayList<House> houseList = builder.build(tm, nHouses);
+		if (fleetFile != null) {
+			fleetFile.close();
+		}
+		if (warm != null) {
+			System.out.println(warm.getReport());
 		}
 
 		double dtLog = 60;
 		SystemicSys ssys = new SystemicSys("Systemic Simulation", tm,
 				houseList, dtLog, logs[HOODLOG_I], logs[CONTROLLOG_I],
 				logs[MEASURELOG_I]);
+		ssys.setParallelism(nThreads);
+		if (fleet != null) {
+			ssys.setThermalFleet(fleet);
+		}
+		if (binaryLogName != null) {
+			ssys.openBinaryLog(binaryLogName, 1024);
+		}
+
+		if (resume) {
+			SimCheckpoint.restore(checkpointName, tm, ssys);
+		}
 
 		// Run the systemic system.
 		boolean stop = false;
+		boolean saved = resume;
 		while (tm.getRunningTime() <= tFinal && !stop) {
+			if (checkpointName != null && !saved
+					&& tm.getRunningTime() >= tCheckpoint) {
+				SimCheckpoint.save(checkpointName, tm, ssys);
+				saved = true;
+			}
 			if (stop = ssys.RunTasks()) {
 				break; // Run all of the tasks
 			}
 			tm.incrementRunningTime(dt);
 		}
+		ssys.shutdown();
+		ssys.closeBinaryLog();
 		// close the logfile
 		for (PrintWriter pw : logs) {
 			pw.close();
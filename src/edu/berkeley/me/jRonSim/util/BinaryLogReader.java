@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Reads the rows of a log file written by BinaryLogWriter, and converts the
+ * file to the tab separated text the simulation would have printed.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class BinaryLogReader {
+
+    private final DataInputStream in;
+    private final int nColumns;
+    private final String rowFormat;
+    private byte[] blockBytes = new byte[0];
+    private double[] blockData = new double[0];
+    private int blockRows = 0;
+    private int r = 0;  // next row of the block
+
+    /** Open a binary log file.
+     *
+     * @param fname
+     * @throws IOException
+     */
+    public BinaryLogReader(String fname) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+                fname)));
+        try {
+            if (in.readInt() != BinaryLogWriter.MAGIC) {
+                throw new IOException(fname + " is not a binary log file");
+            }
+            int version = in.readInt();
+            if (version != BinaryLogWriter.VERSION) {
+                throw new IOException(fname + ": unsupported version "
+                        + version);
+            }
+            nColumns = in.readInt();
+            byte[] fmt = new byte[in.readInt()];
+            in.readFully(fmt);
+            rowFormat = new String(fmt, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /** Get the number of columns in a row.
+     *
+     * @return
+     */
+    public int getColumnCount() {
+        return nColumns;
+    }
+
+    /** Get the printf format of a row.
+     *
+     * @return
+     */
+    public String getRowFormat() {
+        return rowFormat;
+    }
+
+    /** Read the next row.
+     *
+     * @param row -- receives getColumnCount() values
+     * @return false at the end of the file
+     * @throws IOException
+     */
+    public boolean next(double[] row) throws IOException {
+        if (r == blockRows && !readBlock()) {
+            return false;
+        }
+        for (int c = 0; c < nColumns; c++) {
+            row[c] = blockData[c * blockRows + r];
+        }
+        r++;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        int n;
+        try {
+            n = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        int size = n * nColumns;
+        if (blockData.length < size) {
+            blockData = new double[size];
+            blockBytes = new byte[8 * size];
+        }
+        in.readFully(blockBytes, 0, 8 * size);
+        ByteBuffer.wrap(blockBytes, 0, 8 * size).asDoubleBuffer().get(
+                blockData, 0, size);
+        blockRows = n;
+        r = 0;
+        return true;
+    }
+
+    /** Close the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** Convert a binary log file to text, printing each row with the format
+     * it was logged with.
+     *
+     * @param binName
+     * @param textName
+     * @return the number of rows
+     * @throws IOException
+     */
+    public static long toText(String binName, String textName)
+            throws IOException {
+        BinaryLogReader log = new BinaryLogReader(binName);
+        PrintWriter out = null;
+        long nRows = 0;
+        try {
+            String fmt = log.getRowFormat();
+            char[] conv = BinaryLogWriter.parseConversions(fmt);
+            if (conv.length != log.getColumnCount()) {
+                throw new IOException(binName + ": the row format has "
+                        + conv.length + " conversions for "
+                        + log.getColumnCount() + " columns");
+            }
+            out = new PrintWriter(new FileWriter(textName));
+            double[] row = new double[conv.length];
+            Object[] args = new Object[conv.length];
+            while (log.next(row)) {
+                for (int c = 0; c < conv.length; c++) {
+                    if (conv[c] == 'd' || conv[c] == 'x' || conv[c] == 'o') {
+                        args[c] = Long.valueOf((long) row[c]);
+                    } else {
+                        args[c] = Double.valueOf(row[c]);
+                    }
+                }
+                out.printf(fmt, args);
+                nRows++;
+            }
+            if (out.checkError()) {
+                throw new IOException("could not write " + textName);
+            }
+        } finally {
+            log.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+        return nRows;
+    }
+
+    /** Convert a binary log file: BinaryLogReader in.bin out.txt
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: BinaryLogReader in.bin out.txt");
+            System.exit(1);
+        }
+        long nRows = toText(args[0], args[1]);
+        System.out.println("Wrote " + nRows + " rows to " + args[1]);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Writes fixed width rows of doubles to a binary log file without doing any
+ * formatting or file output on the simulation thread.  A row is copied into
+ * a ring buffer that is allocated once, and a background thread drains the
+ * buffer to the file in blocks.  The ring holds a fixed number of rows, so
+ * the memory used does not grow when the disk falls behind.  When the ring
+ * is full, write() waits for the drain thread (and counts the stall), while
+ * offer() returns false and counts the row as dropped; the caller picks the
+ * policy.  There is a single writer: write() and offer() must be called from
+ * one thread.
+ *
+ * The file keeps the printf format of a row so BinaryLogReader can turn it
+ * back into the text log.
+ *
+ * File layout (big endian):
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    number of columns, m
+ *   int    length of the row format in bytes
+ *   byte[] row format, UTF-8
+ * then blocks until the end of the file, each
+ *   int    number of rows in the block, n
+ *   double[m][n] the values, column by column
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class BinaryLogWriter {
+
+    static final int MAGIC = 0x4A524C47;  // "JRLG"
+    static final int VERSION = 1;
+    private static final int MAX_BLOCK_ROWS = 256;
+    private final int nColumns;
+    private final int capacity;  // rows in the ring
+    private final double[] ring;
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer block;
+    private final Thread drainer;
+    private final Object lock = new Object();
+    // rows put in the ring by the writer, and taken out by the drain thread
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile boolean drainerWaiting = false;
+    private volatile boolean writerWaiting = false;
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+    private long nStalls = 0;
+    private long stallNanos = 0;
+    private long nDropped = 0;
+
+    /** Create a binary log file.
+     *
+     * @param fname
+     * @param rowFormat -- printf format of a row, one conversion per column
+     * @param capacity -- number of rows the ring buffer holds
+     * @throws IOException
+     */
+    public BinaryLogWriter(String fname, String rowFormat, int capacity)
+            throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.nColumns = countColumns(rowFormat);
+        if (nColumns < 1) {
+            throw new IllegalArgumentException("no columns in " + rowFormat);
+        }
+        this.capacity = capacity;
+        this.ring = new double[capacity * nColumns];
+        int blockRows = Math.min(capacity, MAX_BLOCK_ROWS);
+        this.block = ByteBuffer.allocate(4 + 8 * blockRows * nColumns);
+
+        byte[] fmt = rowFormat.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(16 + fmt.length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nColumns);
+        header.putInt(fmt.length).put(fmt);
+        header.flip();
+        out = new FileOutputStream(fname);
+        channel = out.getChannel();
+        try {
+            writeFully(header);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+
+        drainer = new Thread(new Runnable() {
+
+            public void run() {
+                drain();
+            }
+        }, "Binary log " + fname);
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /** Get the number of columns in a row.
+     *
+     * @return
+     */
+    public int getColumnCount() {
+        return nColumns;
+    }
+
+    /** Put a row in the log, waiting for room in the ring buffer if it is
+     * full.
+     *
+     * @param row -- the first getColumnCount() values are logged
+     * @throws IOException if the drain thread failed to write the file
+     */
+    public void write(double[] row) throws IOException {
+        checkOpen();
+        if (head - tail >= capacity) {
+            long start = System.nanoTime();
+            nStalls++;
+            synchronized (lock) {
+                writerWaiting = true;
+                try {
+                    while (head - tail >= capacity && error == null) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting for the log");
+                } finally {
+                    writerWaiting = false;
+                }
+            }
+            stallNanos += System.nanoTime() - start;
+            checkOpen();
+        }
+        put(row);
+    }
+
+    /** Put a row in the log if there is room in the ring buffer.
+     *
+     * @param row -- the first getColumnCount() values are logged
+     * @return false if the ring was full and the row was dropped
+     * @throws IOException if the drain thread failed to write the file
+     */
+    public boolean offer(double[] row) throws IOException {
+        checkOpen();
+        if (head - tail >= capacity) {
+            nDropped++;
+            return false;
+        }
+        put(row);
+        return true;
+    }
+
+    private void put(double[] row) {
+        long h = head;
+        System.arraycopy(row, 0, ring, (int) (h % capacity) * nColumns,
+                nColumns);
+        head = h + 1;
+        if (drainerWaiting) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (closed) {
+            throw new IOException("the log is closed");
+        }
+    }
+
+    /** Write the rows in the ring buffer to the file, until closed.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                long t = tail;
+                long h = head;
+                if (h == t) {
+                    if (closed) {
+                        break;
+                    }
+                    synchronized (lock) {
+                        drainerWaiting = true;
+                        while (head == t && !closed) {
+                            lock.wait();
+                        }
+                        drainerWaiting = false;
+                    }
+                    continue;
+                }
+                int n = (int) Math.min(h - t, MAX_BLOCK_ROWS);
+                writeBlock(t, n);
+                tail = t + n;
+                if (writerWaiting) {
+                    synchronized (lock) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            error = new IOException("log drain interrupted");
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void writeBlock(long first, int n) throws IOException {
+        block.clear();
+        block.putInt(n);
+        for (int c = 0; c < nColumns; c++) {
+            for (long r = first; r < first + n; r++) {
+                block.putDouble(ring[(int) (r % capacity) * nColumns + c]);
+            }
+        }
+        block.flip();
+        writeFully(block);
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /** Write the rows left in the ring buffer, stop the drain thread, and
+     * close the file.
+     *
+     * @throws IOException if a row could not be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /** Get the number of rows put in the log.
+     *
+     * @return
+     */
+    public long getRowCount() {
+        return head;
+    }
+
+    /** Get the number of times write() had to wait for the drain thread.
+     *
+     * @return
+     */
+    public long getStallCount() {
+        return nStalls;
+    }
+
+    /** Get the total time write() waited for the drain thread.
+     *
+     * @return (s)
+     */
+    public double getStallTime() {
+        return stallNanos * 1e-9;
+    }
+
+    /** Get the number of rows offer() dropped because the ring was full.
+     *
+     * @return
+     */
+    public long getDroppedCount() {
+        return nDropped;
+    }
+
+    /** Find the conversions of a printf format that take an argument.
+     *
+     * @param format
+     * @return the conversion character of each argument, in order
+     */
+    static char[] parseConversions(String format) {
+        StringBuilder conv = new StringBuilder();
+        int i = format.indexOf('%');
+        while (i >= 0 && i < format.length() - 1) {
+            // skip the flags, width and precision
+            int j = i + 1;
+            while (j < format.length() - 1
+                    && "-#+ 0,(.123456789".indexOf(format.charAt(j)) >= 0) {
+                j++;
+            }
+            char c = format.charAt(j);
+            if (c != '%' && c != 'n') {
+                conv.append(c);
+            }
+            i = format.indexOf('%', j + 1);
+        }
+        return conv.toString().toCharArray();
+    }
+
+    /** Count the columns of a row format.
+     *
+     * @param format
+     * @return
+     */
+    public static int countColumns(String format) {
+        return parseConversions(format).length;
+    }
+}
@@ -81,4 +81,18 @@ public class BoundedRand extends Random {
 		var = var * (bound1 - bound2) + bound2;
 		return var;
 	}
+
+	/**
+	 * Get the generator to be used by a sub-component (a house, a task, ...)
+	 * identified by streamId. A plain BoundedRand is a single stream, so it
+	 * returns itself and every component keeps drawing from the same sequence.
+	 * Splittable generators such as {@link StreamRand} return an independent
+	 * child stream.
+	 * 
+	 * @param streamId
+	 * @return
+	 */
+	public BoundedRand split(long streamId) {
+		return this;
+	}
 }
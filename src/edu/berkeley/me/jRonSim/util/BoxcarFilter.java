@@ -32,18 +32,26 @@ package edu.berkeley.me.jRonSim.util;
 
 import TranRunJLite.TrjSys;
 import TranRunJLite.TrjTask;
-import java.util.ArrayList;
 
 /**Filters the selected variable using a boxcar filter.  
+ * The box is a ring buffer of doubles, and the sum of the box is kept up to
+ * date as values enter and leave it (with Kahan compensation), so a sample
+ * costs the same however long the box is.  To stop rounding errors from
+ * building up, the sum is recomputed from the box once every box length.
  *
  * @author William Burke <billstron@gmail.com>
  */
-public abstract class BoxcarFilter extends TrjTask {
+public abstract class BoxcarFilter extends TrjTask implements ScheduledTask {
 
     private double tNextFilt = 0;
     private double dtBox;
     private int boxSize;
-    private ArrayList<Double> yList;
+    private double[] yBox;  // ring buffer of the most recent values
+    private int iNext = 0;  // where the next value goes
+    private int nBox = 0;  // number of values in the box
+    private double ySum = 0;
+    private double ySumErr = 0;  // Kahan compensation of ySum
+    private int nSinceSum = 0;  // samples since ySum was recomputed
     private double y = 0;
     private double yFilt = 0;
     private boolean runningFilt;
@@ -70,7 +78,10 @@ public abstract class BoxcarFilter extends TrjTask {
         this.dtNominal = dt;
         this.dtBox = dtBox;
         this.boxSize = (int) Math.floor(dtBox / dt);
-        this.yList = new ArrayList<Double>(this.boxSize);
+        if (boxSize < 1) {
+            throw new IllegalArgumentException("dtBox is shorter than dt");
+        }
+        this.yBox = new double[this.boxSize];
         this.runningFilt = runningFilt;
     }
     private int FILTER = 0;
@@ -91,6 +102,10 @@ public abstract class BoxcarFilter extends TrjTask {
         return CheckTime(sys.GetRunningTime());
     }
 
+    public double getNextRunTime() {
+        return tNext;
+    }
+
     /** Apply the filter.  
      * 
      * @param sys
@@ -102,18 +117,20 @@ public abstract class BoxcarFilter extends TrjTask {
         double t = sys.GetRunningTime();
         // get the most recent process value
         y = getProcessValue();
-        // check the size of the list and trim.
-        if (yList.size() == boxSize) {
-            yList.remove(yList.size() - 1);
+        // put it in the box in place of the oldest value.
+        if (nBox == boxSize) {
+            addToSum(-yBox[iNext]);
+        } else {
+            nBox++;
+        }
+        yBox[iNext] = y;
+        iNext = (iNext + 1) % boxSize;
+        addToSum(y);
+        if (++nSinceSum >= boxSize) {
+            resum();
         }
-        // add the most recent value to the list.
-        yList.add(0, y);
         // calculate the new filtered result.
         if (t >= tNextFilt) {
-            double ySum = 0;
-            for (double yK : yList) {
-                ySum += yK;
-            }
             yFilt = ySum / (double) boxSize;
         }
         // calculate the new filter time
@@ -124,4 +141,27 @@ public abstract class BoxcarFilter extends TrjTask {
         }
         return false;
     }
+
+    /** Add a value to the sum of the box, carrying the rounding error.
+     * 
+     * @param v
+     */
+    private void addToSum(double v) {
+        double vc = v - ySumErr;
+        double sum = ySum + vc;
+        ySumErr = (sum - ySum) - vc;
+        ySum = sum;
+    }
+
+    /** Recompute the sum of the box, newest value first.
+     */
+    private void resum() {
+        double sum = 0;
+        for (int k = 1; k <= nBox; k++) {
+            sum += yBox[(iNext - k + boxSize) % boxSize];
+        }
+        ySum = sum;
+        ySumErr = 0;
+        nSinceSum = 0;
+    }
 }
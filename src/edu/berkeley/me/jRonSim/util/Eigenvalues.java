@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+/** Eigenvalues of a small, real, unsymmetric matrix: the matrix is reduced
+ * to upper Hessenberg form by elimination with pivoting, and the
+ * eigenvalues are found by the shifted QR algorithm (the EISPACK
+ * elmhes/hqr pair).  Complex eigenvalues come out as conjugate pairs.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class Eigenvalues {
+
+    private static final int MAX_ITERATIONS = 30;
+
+    private Eigenvalues() {
+    }
+
+    /** Compute the eigenvalues of the n by n matrix a.  The matrix is
+     * overwritten.
+     *
+     * @param a -- the matrix; destroyed
+     * @param n -- its size
+     * @param wr -- real parts of the eigenvalues
+     * @param wi -- imaginary parts of the eigenvalues
+     * @throws ArithmeticException if the QR iteration does not converge
+     */
+    public static void compute(double[][] a, int n, double[] wr,
+            double[] wi) {
+        reduceToHessenberg(a, n);
+        hessenbergQR(a, n, wr, wi);
+    }
+
+    /** Get the stiffness ratio of the eigenvalues, the largest magnitude of
+     * their real parts over the smallest one.
+     *
+     * @param wr -- real parts of the eigenvalues
+     * @param n
+     * @return Infinity if an eigenvalue has a zero real part
+     */
+    public static double stiffnessRatio(double[] wr, int n) {
+        double max = 0;
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double r = Math.abs(wr[i]);
+            max = Math.max(max, r);
+            min = Math.min(min, r);
+        }
+        return (min > 0) ? max / min : Double.POSITIVE_INFINITY;
+    }
+
+    /** Reduce a to upper Hessenberg form by similarity transformations,
+     * Gaussian elimination with pivoting.
+     *
+     * @param a
+     * @param n
+     */
+    private static void reduceToHessenberg(double[][] a, int n) {
+        for (int m = 1; m < n - 1; m++) {
+            double x = 0;
+            int i = m;
+            for (int j = m; j < n; j++) {
+                if (Math.abs(a[j][m - 1]) > Math.abs(x)) {
+                    x = a[j][m - 1];
+                    i = j;
+                }
+            }
+            if (i != m) {
+                for (int j = m - 1; j < n; j++) {
+                    double t = a[i][j];
+                    a[i][j] = a[m][j];
+                    a[m][j] = t;
+                }
+                for (int j = 0; j < n; j++) {
+                    double t = a[j][i];
+                    a[j][i] = a[j][m];
+                    a[j][m] = t;
+                }
+            }
+            if (x != 0) {
+                for (i = m + 1; i < n; i++) {
+                    double y = a[i][m - 1];
+                    if (y != 0) {
+                        y /= x;
+                        for (int j = m; j < n; j++) {
+                            a[i][j] -= y * a[m][j];
+                        }
+                        for (int j = 0; j < n; j++) {
+                            a[j][m] += y * a[j][i];
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 2; i < n; i++) {
+            for (int j = 0; j < i - 1; j++) {
+                a[i][j] = 0;
+            }
+        }
+    }
+
+    /** Find the eigenvalues of an upper Hessenberg matrix by the QR
+     * algorithm with double shifts.
+     *
+     * @param a -- destroyed
+     * @param n
+     * @param wr
+     * @param wi
+     */
+    private static void hessenbergQR(double[][] a, int n, double[] wr,
+            double[] wi) {
+        double anorm = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = Math.max(i - 1, 0); j < n; j++) {
+                anorm += Math.abs(a[i][j]);
+            }
+        }
+        double p = 0, q = 0, r = 0, s, t = 0, u, v, w, x, y, z;
+        int nn = n - 1;
+        while (nn >= 0) {
+            int its = 0;
+            int l;
+            do {
+                // look for a small subdiagonal element to split at
+                for (l = nn; l >= 1; l--) {
+                    s = Math.abs(a[l - 1][l - 1]) + Math.abs(a[l][l]);
+                    if (s == 0) {
+                        s = anorm;
+                    }
+                    if (Math.abs(a[l][l - 1]) + s == s) {
+                        a[l][l - 1] = 0;
+                        break;
+                    }
+                }
+                x = a[nn][nn];
+                if (l == nn) {
+                    // one root found
+                    wr[nn] = x + t;
+                    wi[nn] = 0;
+                    nn--;
+                } else {
+                    y = a[nn - 1][nn - 1];
+                    w = a[nn][nn - 1] * a[nn - 1][nn];
+                    if (l == nn - 1) {
+                        // two roots found
+                        p = 0.5 * (y - x);
+                        q = p * p + w;
+                        z = Math.sqrt(Math.abs(q));
+                        x += t;
+                        if (q >= 0) {
+                            z = p + Math.copySign(z, p);
+                            wr[nn - 1] = wr[nn] = x + z;
+                            if (z != 0) {
+                                wr[nn] = x - w / z;
+                            }
+                            wi[nn - 1] = wi[nn] = 0;
+                        } else {
+                            wr[nn - 1] = wr[nn] = x + p;
+                            wi[nn - 1] = -z;
+                            wi[nn] = z;
+                        }
+                        nn -= 2;
+                    } else {
+                        if (its == MAX_ITERATIONS) {
+                            throw new ArithmeticException("the eigenvalues"
+                                    + " did not converge");
+                        }
+                        if (its == 10 || its == 20) {
+                            // exceptional shift
+                            t += x;
+                            for (int i = 0; i <= nn; i++) {
+                                a[i][i] -= x;
+                            }
+                            s = Math.abs(a[nn][nn - 1])
+                                    + Math.abs(a[nn - 1][nn - 2]);
+                            y = x = 0.75 * s;
+                            w = -0.4375 * s * s;
+                        }
+                        its++;
+                        // look for two small consecutive subdiagonal elements
+                        int m;
+                        for (m = nn - 2; m >= l; m--) {
+                            z = a[m][m];
+                            r = x - z;
+                            s = y - z;
+                            p = (r * s - w) / a[m + 1][m] + a[m][m + 1];
+                            q = a[m + 1][m + 1] - z - r - s;
+                            r = a[m + 2][m + 1];
+                            s = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                            p /= s;
+                            q /= s;
+                            r /= s;
+                            if (m == l) {
+                                break;
+                            }
+                            u = Math.abs(a[m][m - 1])
+                                    * (Math.abs(q) + Math.abs(r));
+                            v = Math.abs(p) * (Math.abs(a[m - 1][m - 1])
+                                    + Math.abs(z) + Math.abs(a[m + 1][m + 1]));
+                            if (u + v == v) {
+                                break;
+                            }
+                        }
+                        for (int i = m + 2; i <= nn; i++) {
+                            a[i][i - 2] = 0;
+                            if (i != m + 2) {
+                                a[i][i - 3] = 0;
+                            }
+                        }
+                        // double QR step on rows l to nn, columns m to nn
+                        for (int k = m; k <= nn - 1; k++) {
+                            if (k != m) {
+                                p = a[k][k - 1];
+                                q = a[k + 1][k - 1];
+                                r = 0;
+                                if (k != nn - 1) {
+                                    r = a[k + 2][k - 1];
+                                }
+                                x = Math.abs(p) + Math.abs(q) + Math.abs(r);
+                                if (x != 0) {
+                                    p /= x;
+                                    q /= x;
+                                    r /= x;
+                                }
+                            }
+                            s = Math.copySign(Math.sqrt(p * p + q * q + r * r),
+                                    p);
+                            if (s != 0) {
+                                if (k == m) {
+                                    if (l != m) {
+                                        a[k][k - 1] = -a[k][k - 1];
+                                    }
+                                } else {
+                                    a[k][k - 1] = -s * x;
+                                }
+                                p += s;
+                                x = p / s;
+                                y = q / s;
+                                z = r / s;
+                                q /= p;
+                                r /= p;
+                                for (int j = k; j <= nn; j++) {
+                                    p = a[k][j] + q * a[k + 1][j];
+                                    if (k != nn - 1) {
+                                        p += r * a[k + 2][j];
+                                        a[k + 2][j] -= p * z;
+                                    }
+                                    a[k + 1][j] -= p * y;
+                                    a[k][j] -= p * x;
+                                }
+                                int mmin = Math.min(nn, k + 3);
+                                for (int i = l; i <= mmin; i++) {
+                                    p = x * a[i][k] + y * a[i][k + 1];
+                                    if (k != nn - 1) {
+                                        p += z * a[i][k + 2];
+                                        a[i][k + 2] -= p * r;
+                                    }
+                                    a[i][k + 1] -= p * q;
+                                    a[i][k] -= p;
+                                }
+                            }
+                        }
+                    }
+                }
+            } while (nn >= 0 && l < nn - 1);
+        }
+    }
+}
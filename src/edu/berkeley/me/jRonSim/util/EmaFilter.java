@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import TranRunJLite.TrjSys;
+import TranRunJLite.TrjTask;
+
+/**Filters the selected variable using an exponential moving average, the
+ * discrete first order low pass filter.  It keeps no history, so a sample
+ * costs a multiply and an add.  The filter starts at the first sample.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public abstract class EmaFilter extends TrjTask implements ScheduledTask {
+
+    private double alpha;
+    private double yFilt = 0;
+    private boolean started = false;
+
+    /** Get the working variable.  
+     * @return
+     */
+    public abstract double getProcessValue();
+
+    /** Construct the EMA filter.
+     * 
+     * @param name
+     * @param sys
+     * @param startActive
+     * @param tau -- time constant of the filter (s)
+     * @param dt
+     */
+    public EmaFilter(String name, TrjSys sys, boolean startActive, double tau,
+            double dt) {
+        super(name, sys, 0 /*Initial State*/, startActive);
+        this.stateNames.add("Filter State (Only)");
+
+        if (tau <= 0) {
+            throw new IllegalArgumentException("tau must be positive");
+        }
+        this.dtNominal = dt;
+        // weight of a new sample for a first order filter sampled every dt
+        this.alpha = -Math.expm1(-dt / tau);
+    }
+
+    /** Get the most recent value of the filter.  
+     * 
+     * @return
+     */
+    public double getFilterResult() {
+        return yFilt;
+    }
+
+    /** Check to see if this task is ready to run
+     * @param sys The system in which this task is embedded
+     * @return "true" if this task is ready to run
+     */
+    public boolean RunTaskNow(TrjSys sys) {
+        return CheckTime(sys.GetRunningTime());
+    }
+
+    public double getNextRunTime() {
+        return tNext;
+    }
+
+    /** Apply the filter.  
+     * 
+     * @param sys
+     * @return
+     */
+    @Override
+    public boolean RunTask(TrjSys sys) {
+        double y = getProcessValue();
+        if (started) {
+            yFilt += alpha * (y - yFilt);
+        } else {
+            yFilt = y;
+            started = true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import ODEsolver.ODEsolve;
+
+/** Two stage, L-stable Rosenbrock solver (ROS2) for stiff systems.  Each
+ * step solves two linear systems with the iteration matrix
+ * W = I - gamma h J, where the Jacobian J is supplied by the subclass, so
+ * the step size is limited by accuracy rather than by the fastest time
+ * constant of the system.  The embedded first order solution is used for
+ * the error estimate, which plugs the solver into the adaptive step control
+ * of ODEsolve.multiStepAdaptive().
+ *
+ * This is written against the plain arrays of ODEsolve so that it does not
+ * need the Jama matrix library that ODEsolver.Rosenbrock depends on.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public abstract class RosenbrockSolver extends ODEsolve implements
+        SimCheckpoint.State {
+
+    private static final double GAMMA = 1.0 + 1.0 / Math.sqrt(2.0);
+    private double[][] jac;
+    private double[][] w;
+    private int[] pivot;
+    private double[] xbeg;
+    private double[] k1;
+    private double[] k2;
+
+    /** Construct the solver.
+     *
+     * @param nn -- number of states
+     * @param xx0 -- initial states
+     * @param t0 -- initial time
+     * @param abstol -- absolute tolerances
+     * @param reltol -- relative tolerance
+     */
+    public RosenbrockSolver(int nn, double[] xx0, double t0, double[] abstol,
+            double reltol) {
+        super(nn, xx0, t0, abstol, reltol);
+        jac = new double[nn][nn];
+        w = new double[nn][nn];
+        pivot = new int[nn];
+        xbeg = new double[nn];
+        k1 = new double[nn];
+        k2 = new double[nn];
+    }
+
+    /** Get the states of the solver, for a checkpoint.
+     *
+     * @return
+     */
+    public Object[] saveState() {
+        return new Object[]{x, dx, xError, t, nEval};
+    }
+
+    /** Put back the states of the solver from a checkpoint.
+     *
+     * @param state
+     */
+    public void restoreState(Object[] state) {
+        x = (double[]) state[0];
+        dx = (double[]) state[1];
+        xError = (double[]) state[2];
+        t = (Double) state[3];
+        nEval = (Integer) state[4];
+    }
+
+    /** Fill in the Jacobian of the derivatives with respect to the states,
+     * evaluated at the current states.
+     *
+     * @param jac -- jac[i][j] = d(dx[i])/d(x[j])
+     */
+    public abstract void jacobian(double[][] jac);
+
+    /** Take a step of size h.
+     *
+     * @param h
+     */
+    public void singleStepFixed(double h) {
+        double tbeg = t;
+        System.arraycopy(x, 0, xbeg, 0, n);
+        // Iteration matrix at the start of the step
+        jacobian(jac);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                w[i][j] = -GAMMA * h * jac[i][j];
+            }
+            w[i][i] += 1.0;
+        }
+        factor(w, pivot);
+        // First stage
+        deriv();
+        System.arraycopy(dx, 0, k1, 0, n);
+        solve(w, pivot, k1);
+        // Second stage
+        for (int i = 0; i < n; i++) {
+            x[i] = xbeg[i] + h * k1[i];
+        }
+        t = tbeg + h;
+        deriv();
+        for (int i = 0; i < n; i++) {
+            k2[i] = dx[i] - 2.0 * k1[i];
+        }
+        solve(w, pivot, k2);
+        // Second order solution, and the difference to the first order one
+        for (int i = 0; i < n; i++) {
+            x[i] = xbeg[i] + h * (1.5 * k1[i] + 0.5 * k2[i]);
+            xError[i] = 0.5 * h * (k1[i] + k2[i]);
+        }
+        nEval += 2;
+    }
+
+    /** Take a step of size h and estimate its error.
+     *
+     * @param h
+     * @param exponents -- step size control exponents, set by this method
+     */
+    public void singleStepAdaptive(double h, double[] exponents) {
+        // The error estimate is second order in h
+        exponents[0] = 0.5;
+        exponents[1] = 0.5;
+        singleStepFixed(h);
+    }
+
+    /** LU factorization with partial pivoting, in place.
+     *
+     * @param a
+     * @param piv
+     */
+    private void factor(double[][] a, int[] piv) {
+        for (int k = 0; k < n; k++) {
+            int p = k;
+            for (int i = k + 1; i < n; i++) {
+                if (Math.abs(a[i][k]) > Math.abs(a[p][k])) {
+                    p = i;
+                }
+            }
+            piv[k] = p;
+            if (p != k) {
+                double[] row = a[p];
+                a[p] = a[k];
+                a[k] = row;
+            }
+            double pivotValue = a[k][k];
+            for (int i = k + 1; i < n; i++) {
+                double f = a[i][k] / pivotValue;
+                a[i][k] = f;
+                for (int j = k + 1; j < n; j++) {
+                    a[i][j] -= f * a[k][j];
+                }
+            }
+        }
+    }
+
+    /** Solve a x = b in place with the factors from factor().
+     *
+     * @param a
+     * @param piv
+     * @param b
+     */
+    private void solve(double[][] a, int[] piv, double[] b) {
+        for (int k = 0; k < n; k++) {
+            int p = piv[k];
+            if (p != k) {
+                double tmp = b[p];
+                b[p] = b[k];
+                b[k] = tmp;
+            }
+            for (int i = k + 1; i < n; i++) {
+                b[i] -= a[i][k] * b[k];
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int j = i + 1; j < n; j++) {
+                sum -= a[i][j] * b[j];
+            }
+            b[i] = sum / a[i][i];
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import TranRunJLite.TrjSys;
+import TranRunJLite.TrjTask;
+import TranRunJLite.TrjTime;
+import java.util.Arrays;
+
+/** A TrjSys that keeps the due times of its tasks in a priority queue
+ * instead of polling every task on every call to RunTasks.  Tasks that
+ * implement {@link ScheduledTask} are only checked once their due time has
+ * been reached; all other tasks are checked on every pass, as in TrjSys.
+ * The tasks that are checked in a pass are run in the order in which they
+ * were added, so the result is the same as with the polling scheduler.
+ * A task that moves its due time earlier from outside of its own run must
+ * call {@link #reschedule(TrjTask)}.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class ScheduledSys extends TrjSys {
+
+    private TrjTask[] tasks = new TrjTask[8];
+    private ScheduledTask[] timed = new ScheduledTask[8];
+    private int nTasks = 0;
+    // tasks without a due time, checked on every pass
+    private int[] polled = new int[8];
+    private int nPolled = 0;
+    // binary min-heap of (due time, task index, generation); only the entry
+    // pushed last for a task is live, the others are skipped when popped
+    private double[] heapTime = new double[8];
+    private int[] heapTask = new int[8];
+    private int[] heapGen = new int[8];
+    private int[] gen = new int[8];
+    private int heapSize = 0;
+    // scratch list of the tasks that are due in the current pass
+    private int[] due = new int[8];
+    private boolean stopped = false;
+    private SimClock clock = null;
+
+    /** Construct the system.
+     *
+     * @param tm
+     */
+    public ScheduledSys(TrjTime tm) {
+        super(tm);
+    }
+
+    /** Add a task to the system.  This is called by the TrjTask constructor,
+     * before the task is fully initialized, so the task is first queued as
+     * due immediately and gets its real due time after its first check.
+     *
+     * @param task
+     */
+    @Override
+    public void AddTask(TrjTask task) {
+        super.AddTask(task);
+        if (nTasks == tasks.length) {
+            int n = 2 * nTasks;
+            tasks = Arrays.copyOf(tasks, n);
+            timed = Arrays.copyOf(timed, n);
+            polled = Arrays.copyOf(polled, n);
+            gen = Arrays.copyOf(gen, n);
+            due = Arrays.copyOf(due, n);
+        }
+        int k = nTasks++;
+        tasks[k] = task;
+        if (task instanceof ScheduledTask) {
+            timed[k] = (ScheduledTask) task;
+            push(k, Double.NEGATIVE_INFINITY);
+        } else {
+            polled[nPolled++] = k;
+        }
+    }
+
+    /** Queue a task again at its current due time.  This is needed when the
+     * due time of the task was moved earlier than the one it was queued with
+     * after its last run.
+     *
+     * @param task
+     */
+    public void reschedule(TrjTask task) {
+        for (int k = 0; k < nTasks; k++) {
+            if (tasks[k] == task) {
+                if (timed[k] != null) {
+                    push(k, timed[k].getNextRunTime());
+                }
+                return;
+            }
+        }
+    }
+
+    /** Get the clock of the system, set to the current running time.
+     *
+     * @return
+     */
+    public SimClock getClock() {
+        if (clock == null) {
+            clock = new SimClock(this);
+        }
+        return clock.at(GetRunningTime());
+    }
+
+    @Override
+    public void SetStop() {
+        stopped = true;
+        super.SetStop();
+    }
+
+    /** Get the earliest time at which one of the tasks may have to run.
+     *
+     * @return
+     */
+    public double getNextEventTime() {
+        if (nPolled > 0) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (heapSize > 0) {
+            return heapTime[0];
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /** Run the tasks that are due and the tasks without a due time.
+     *
+     * @return the stop flag
+     */
+    @Override
+    public boolean RunTasks() {
+        double t = GetRunningTime();
+        int nDue = 0;
+        while (heapSize > 0 && heapTime[0] <= t) {
+            int k = heapTask[0];
+            boolean live = heapGen[0] == gen[k];
+            pop();
+            if (live) {
+                due[nDue++] = k;
+            }
+        }
+        if (nDue > 1) {
+            Arrays.sort(due, 0, nDue);
+        }
+        // merge the due and the polled tasks in the order they were added
+        int iDue = 0;
+        int iPoll = 0;
+        while (iDue < nDue || iPoll < nPolled) {
+            int k;
+            if (iPoll == nPolled || (iDue < nDue && due[iDue] < polled[iPoll])) {
+                k = due[iDue++];
+            } else {
+                k = polled[iPoll++];
+            }
+            boolean stop = runTask(tasks[k]);
+            if (timed[k] != null) {
+                push(k, timed[k].getNextRunTime());
+            }
+            if (stop) {
+                // put back the tasks that did not get a chance to run
+                for (; iDue < nDue; iDue++) {
+                    push(due[iDue], timed[due[iDue]].getNextRunTime());
+                }
+                return true;
+            }
+        }
+        return stopped;
+    }
+
+    /** Check and run a single task the same way TrjSys does.
+     *
+     * @param task
+     * @return true if the system has been stopped
+     */
+    private boolean runTask(TrjTask task) {
+        boolean run = task.GetActiveStatus();
+        if (!task.RunTaskNow(this)) {
+            run = false;
+        }
+        while (run) {
+            task.UpdateState();
+            run = task.RunTask(this);
+            if (stopped) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void push(int k, double time) {
+        if (heapSize == heapTime.length) {
+            // stale entries of rescheduled tasks can outnumber the tasks
+            int n = 2 * heapSize;
+            heapTime = Arrays.copyOf(heapTime, n);
+            heapTask = Arrays.copyOf(heapTask, n);
+            heapGen = Arrays.copyOf(heapGen, n);
+        }
+        int g = ++gen[k];
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapTime[parent] <= time) {
+                break;
+            }
+            heapTime[i] = heapTime[parent];
+            heapTask[i] = heapTask[parent];
+            heapGen[i] = heapGen[parent];
+            i = parent;
+        }
+        heapTime[i] = time;
+        heapTask[i] = k;
+        heapGen[i] = g;
+    }
+
+    private void pop() {
+        int n = --heapSize;
+        double time = heapTime[n];
+        int k = heapTask[n];
+        int g = heapGen[n];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && heapTime[child + 1] < heapTime[child]) {
+                child++;
+            }
+            if (time <= heapTime[child]) {
+                break;
+            }
+            heapTime[i] = heapTime[child];
+            heapTask[i] = heapTask[child];
+            heapGen[i] = heapGen[child];
+            i = child;
+        }
+        heapTime[i] = time;
+        heapTask[i] = k;
+        heapGen[i] = g;
+    }
+}
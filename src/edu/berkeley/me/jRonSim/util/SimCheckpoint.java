@@ -0,0 +1,882 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+
+/** Saves the state of a running simulation to a file, and puts it back into
+ * a simulation built the same way, so a run can be resumed from a warm
+ * state.
+ *
+ * The state is found by reflection: every object reachable from the roots
+ * is written field by field (static and transient fields excepted), in a
+ * fixed order, with shared objects and cycles written once.  Restoring walks
+ * the new simulation in the same order and overwrites its fields, so tasks
+ * stay registered with their systems and objects outside of the checkpoint
+ * keep pointing at the same instances.  Objects that were created while the
+ * first simulation ran (messages, for instance) are allocated.
+ *
+ * Strings, boxed values, enums, arrays, and the common java.util lists and
+ * hash maps are written by value.  Random generators and calendars, whose
+ * state is private to the JDK, go through Java serialization.  Any other JDK
+ * object (threads, pools, files, writers, mapped buffers) is left out and
+ * keeps the value of the new simulation, so the log files of a resumed run
+ * start at the checkpoint.  Fields holding such resources in simulation
+ * classes should be transient when they must not be restored either.
+ * Classes whose fields cannot be listed (ODEsolve refers to the Jama library,
+ * which is optional) must have the subclass implement {@link State}.
+ *
+ * File layout (big endian): int MAGIC, int VERSION, int number of roots,
+ * then the roots as tagged values.  The first time a class appears its name
+ * is written with the layout of its fields (declaring class, name, and type
+ * of each), and restoring fails with a clear message when the classes of
+ * the new simulation no longer have the same layout.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class SimCheckpoint {
+
+    static final int MAGIC = 0x4A52434B;  // "JRCK"
+    static final int VERSION = 2;
+    // value tags
+    private static final byte NULL = 0;
+    private static final byte REF = 1;
+    private static final byte OBJECT = 2;
+    private static final byte ARRAY = 3;
+    private static final byte STRING = 4;
+    private static final byte BOXED = 5;
+    private static final byte ENUM = 6;
+    private static final byte LIST = 7;
+    private static final byte MAP = 8;
+    private static final byte SERIAL = 9;
+    private static final byte OPAQUE = 10;
+    /** Returned for an opaque value: keep what the new simulation has. */
+    private static final Object KEEP = new Object();
+    private static final HashMap<Class<?>, ClassInfo> classCache =
+            new HashMap<Class<?>, ClassInfo>();
+
+    /** Implemented by an object that has state in a superclass whose fields
+     * cannot be found by reflection.  The fields of its other classes are
+     * still saved by reflection.
+     */
+    public interface State {
+
+        /** Get the state that reflection cannot reach, as values that can
+         * be saved (arrays, boxed values, simulation objects).
+         *
+         * @return
+         */
+        public Object[] saveState();
+
+        /** Put back the state, as restored from the values of saveState().
+         *
+         * @param state
+         */
+        public void restoreState(Object[] state);
+    }
+
+    /** The fields of a class that hold state, and whether some of its
+     * superclasses could not be listed.
+     */
+    private static class ClassInfo {
+
+        Field[] fields;
+        boolean hidden = false;
+    }
+
+    private SimCheckpoint() {
+    }
+
+    /** Save the state reachable from the roots.
+     *
+     * @param fname
+     * @param roots
+     * @throws IOException
+     */
+    public static void save(String fname, Object... roots) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fname), 1 << 16));
+        try {
+            write(out, roots);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Save the state reachable from the roots in memory.  The image can be
+     * restored any number of times, from any thread.
+     *
+     * @param roots
+     * @return
+     * @throws IOException
+     */
+    public static byte[] toBytes(Object... roots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(out, roots);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void write(DataOutputStream out, Object[] roots)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(roots.length);
+        Writer w = new Writer(out);
+        for (Object root : roots) {
+            w.writeValue(root);
+        }
+    }
+
+    /** Put a saved state back into the objects of a simulation that was
+     * built the same way as the one that was saved.  The roots must be
+     * given in the same order as to save().
+     *
+     * @param fname
+     * @param roots
+     * @throws IOException if the file does not match the simulation
+     */
+    public static void restore(String fname, Object... roots)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fname), 1 << 16));
+        try {
+            read(in, fname, roots);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Put a state saved by toBytes() back into the objects of a simulation
+     * that was built the same way.
+     *
+     * @param image
+     * @param roots
+     * @throws IOException if the image does not match the simulation
+     */
+    public static void restore(byte[] image, Object... roots)
+            throws IOException {
+        read(new DataInputStream(new ByteArrayInputStream(image)), "image",
+                roots);
+    }
+
+    private static void read(DataInputStream in, String what, Object[] roots)
+            throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException(what + " is not a checkpoint");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(what + ": unsupported version " + version);
+        }
+        if (in.readInt() != roots.length) {
+            throw new IOException(what + ": the number of roots differs");
+        }
+        Reader r = new Reader(in);
+        try {
+            for (Object root : roots) {
+                if (r.readValue(root) != root) {
+                    throw new IOException(what + ": a root of class "
+                            + root.getClass().getName() + " was replaced");
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(what + ": " + e, e);
+        }
+    }
+
+    private static boolean isJdkClass(Class<?> cls) {
+        String name = cls.getName();
+        return name.startsWith("java.") || name.startsWith("javax.")
+                || name.startsWith("sun.") || name.startsWith("jdk.")
+                || name.startsWith("com.sun.");
+    }
+
+    private static boolean isBoxed(Object v) {
+        return v instanceof Number || v instanceof Boolean
+                || v instanceof Character;
+    }
+
+    private static boolean isList(Object v) {
+        Class<?> c = v.getClass();
+        return c == ArrayList.class || c == LinkedList.class
+                || c == ArrayDeque.class || c == Vector.class;
+    }
+
+    private static boolean isMap(Object v) {
+        Class<?> c = v.getClass();
+        return c == HashMap.class || c == LinkedHashMap.class;
+    }
+
+    /** Objects that are written field by field: not JDK classes, and not
+     * derived from one (other than Object).
+     */
+    private static boolean isReflected(Class<?> cls) {
+        if (cls.isHidden() || cls.isSynthetic()) {
+            return false;  // lambdas
+        }
+        for (Class<?> c = cls; c != Object.class; c = c.getSuperclass()) {
+            if (isJdkClass(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The fields of a class that hold state, from the top of the class
+     * hierarchy down and by name within a class.
+     */
+    private static ClassInfo getClassInfo(Class<?> cls) {
+        synchronized (classCache) {
+            ClassInfo info = classCache.get(cls);
+            if (info == null) {
+                info = new ClassInfo();
+                ArrayList<Class<?>> chain = new ArrayList<Class<?>>();
+                for (Class<?> c = cls; c != Object.class; c = c.getSuperclass()) {
+                    chain.add(0, c);
+                }
+                ArrayList<Field> list = new ArrayList<Field>();
+                for (Class<?> c : chain) {
+                    Field[] declared;
+                    try {
+                        declared = c.getDeclaredFields();
+                    } catch (LinkageError e) {
+                        // the type of a field is missing
+                        info.hidden = true;
+                        continue;
+                    }
+                    Arrays.sort(declared, new Comparator<Field>() {
+
+                        public int compare(Field a, Field b) {
+                            return a.getName().compareTo(b.getName());
+                        }
+                    });
+                    for (Field f : declared) {
+                        int mod = f.getModifiers();
+                        if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+                            continue;
+                        }
+                        f.setAccessible(true);
+                        list.add(f);
+                    }
+                }
+                info.fields = list.toArray(new Field[list.size()]);
+                classCache.put(cls, info);
+            }
+            return info;
+        }
+    }
+
+    /** Classes whose fields are written, and so have a layout to check.
+     */
+    private static boolean hasLayout(Class<?> cls) {
+        return !cls.isArray() && !cls.isEnum() && isReflected(cls);
+    }
+
+    private static String fieldName(Field f) {
+        return f.getDeclaringClass().getName() + "." + f.getName();
+    }
+
+    private static class Writer {
+
+        private final DataOutputStream out;
+        private final IdentityHashMap<Object, Integer> ids =
+                new IdentityHashMap<Object, Integer>();
+        private final HashMap<Class<?>, Integer> classIds =
+                new HashMap<Class<?>, Integer>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeClass(Class<?> cls) throws IOException {
+            Integer id = classIds.get(cls);
+            if (id != null) {
+                out.writeInt(id);
+            } else {
+                out.writeInt(-1);
+                out.writeUTF(cls.getName());
+                writeLayout(cls);
+                classIds.put(cls, classIds.size());
+            }
+        }
+
+        /** Write the fields of a class that is saved field by field, or -1
+         * for the others.
+         */
+        private void writeLayout(Class<?> cls) throws IOException {
+            if (!hasLayout(cls)) {
+                out.writeInt(-1);
+                return;
+            }
+            Field[] fields = getClassInfo(cls).fields;
+            out.writeInt(fields.length);
+            for (Field f : fields) {
+                out.writeUTF(fieldName(f));
+                out.writeUTF(f.getType().getTypeName());
+            }
+        }
+
+        private void register(Object v) {
+            ids.put(v, ids.size());
+        }
+
+        void writeValue(Object v) throws IOException {
+            if (v == null) {
+                out.writeByte(NULL);
+                return;
+            }
+            Integer id = ids.get(v);
+            if (id != null) {
+                out.writeByte(REF);
+                out.writeInt(id);
+            } else if (v instanceof String) {
+                out.writeByte(STRING);
+                byte[] b = ((String) v).getBytes("UTF-8");
+                out.writeInt(b.length);
+                out.write(b);
+            } else if (isBoxed(v)) {
+                out.writeByte(BOXED);
+                writeClass(v.getClass());
+                writeBoxed(v);
+            } else if (v instanceof Enum) {
+                out.writeByte(ENUM);
+                writeClass(((Enum<?>) v).getDeclaringClass());
+                out.writeUTF(((Enum<?>) v).name());
+            } else if (v.getClass().isArray()) {
+                out.writeByte(ARRAY);
+                register(v);
+                writeClass(v.getClass());
+                writeArray(v);
+            } else if (isList(v)) {
+                out.writeByte(LIST);
+                register(v);
+                writeClass(v.getClass());
+                Collection<?> list = (Collection<?>) v;
+                out.writeInt(list.size());
+                for (Object e : list) {
+                    writeValue(e);
+                }
+            } else if (isMap(v)) {
+                out.writeByte(MAP);
+                register(v);
+                writeClass(v.getClass());
+                Map<?, ?> map = (Map<?, ?>) v;
+                out.writeInt(map.size());
+                for (Map.Entry<?, ?> e : map.entrySet()) {
+                    writeValue(e.getKey());
+                    writeValue(e.getValue());
+                }
+            } else if (v instanceof Random || v instanceof GregorianCalendar) {
+                out.writeByte(SERIAL);
+                register(v);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(v);
+                oos.close();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            } else if (isReflected(v.getClass())) {
+                out.writeByte(OBJECT);
+                register(v);
+                writeClass(v.getClass());
+                writeFields(v);
+            } else {
+                out.writeByte(OPAQUE);
+            }
+        }
+
+        private void writeBoxed(Object v) throws IOException {
+            if (v instanceof Double) {
+                out.writeDouble((Double) v);
+            } else if (v instanceof Float) {
+                out.writeFloat((Float) v);
+            } else if (v instanceof Long) {
+                out.writeLong((Long) v);
+            } else if (v instanceof Integer) {
+                out.writeInt((Integer) v);
+            } else if (v instanceof Short) {
+                out.writeShort((Short) v);
+            } else if (v instanceof Byte) {
+                out.writeByte((Byte) v);
+            } else if (v instanceof Boolean) {
+                out.writeBoolean((Boolean) v);
+            } else if (v instanceof Character) {
+                out.writeChar((Character) v);
+            } else {
+                throw new IOException("cannot save a " + v.getClass().getName());
+            }
+        }
+
+        private void writeArray(Object a) throws IOException {
+            int n = Array.getLength(a);
+            out.writeInt(n);
+            Class<?> ct = a.getClass().getComponentType();
+            if (ct == double.class) {
+                for (double x : (double[]) a) {
+                    out.writeDouble(x);
+                }
+            } else if (ct == int.class) {
+                for (int x : (int[]) a) {
+                    out.writeInt(x);
+                }
+            } else if (ct == long.class) {
+                for (long x : (long[]) a) {
+                    out.writeLong(x);
+                }
+            } else if (ct == boolean.class) {
+                for (boolean x : (boolean[]) a) {
+                    out.writeBoolean(x);
+                }
+            } else if (ct == float.class) {
+                for (float x : (float[]) a) {
+                    out.writeFloat(x);
+                }
+            } else if (ct == byte.class) {
+                out.write((byte[]) a);
+            } else if (ct == short.class) {
+                for (short x : (short[]) a) {
+                    out.writeShort(x);
+                }
+            } else if (ct == char.class) {
+                for (char x : (char[]) a) {
+                    out.writeChar(x);
+                }
+            } else {
+                for (Object x : (Object[]) a) {
+                    writeValue(x);
+                }
+            }
+        }
+
+        private void writeFields(Object v) throws IOException {
+            ClassInfo info = getClassInfo(v.getClass());
+            if (info.hidden && !(v instanceof State)) {
+                throw new IOException("the fields of " + v.getClass().getName()
+                        + " cannot all be found; it must implement "
+                        + "SimCheckpoint.State");
+            }
+            try {
+                for (Field f : info.fields) {
+                    Class<?> t = f.getType();
+                    if (t == double.class) {
+                        out.writeDouble(f.getDouble(v));
+                    } else if (t == int.class) {
+                        out.writeInt(f.getInt(v));
+                    } else if (t == long.class) {
+                        out.writeLong(f.getLong(v));
+                    } else if (t == boolean.class) {
+                        out.writeBoolean(f.getBoolean(v));
+                    } else if (t == float.class) {
+                        out.writeFloat(f.getFloat(v));
+                    } else if (t == byte.class) {
+                        out.writeByte(f.getByte(v));
+                    } else if (t == short.class) {
+                        out.writeShort(f.getShort(v));
+                    } else if (t == char.class) {
+                        out.writeChar(f.getChar(v));
+                    } else {
+                        writeValue(f.get(v));
+                    }
+                }
+                if (info.hidden) {
+                    writeValue(((State) v).saveState());
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e.toString(), e);
+            }
+        }
+    }
+
+    private static class Reader {
+
+        private final DataInputStream in;
+        private final ArrayList<Object> objects = new ArrayList<Object>();
+        private final IdentityHashMap<Object, Boolean> used =
+                new IdentityHashMap<Object, Boolean>();
+        private final ArrayList<Class<?>> classes = new ArrayList<Class<?>>();
+        private Object reflectionFactory = null;
+        private Method newConstructor = null;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private void register(Object v) {
+            objects.add(v);
+            used.put(v, Boolean.TRUE);
+        }
+
+        /** Can an object of the new simulation take the place of a saved
+         * one: same class, and not already taken by another saved object.
+         */
+        private boolean reusable(Object fresh, Class<?> cls) {
+            return fresh != null && fresh.getClass() == cls
+                    && !used.containsKey(fresh);
+        }
+
+        private Class<?> readClass() throws IOException,
+                ClassNotFoundException {
+            int id = in.readInt();
+            if (id >= 0) {
+                return classes.get(id);
+            }
+            Class<?> cls = Class.forName(in.readUTF(), false,
+                    SimCheckpoint.class.getClassLoader());
+            checkLayout(cls);
+            classes.add(cls);
+            return cls;
+        }
+
+        /** Check that a class still has the fields it had when it was saved,
+         * in the same order and with the same types.
+         */
+        private void checkLayout(Class<?> cls) throws IOException {
+            int n = in.readInt();
+            Field[] fields = hasLayout(cls) ? getClassInfo(cls).fields : null;
+            if (n < 0 || fields == null) {
+                if (n >= 0 || fields != null) {
+                    throw new IOException(cls.getName() + " is no longer saved"
+                            + " the same way as in the checkpoint");
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                String type = in.readUTF();
+                if (i >= fields.length) {
+                    throw new IOException(cls.getName() + ": field " + name
+                            + " of the checkpoint is gone");
+                }
+                Field f = fields[i];
+                if (!name.equals(fieldName(f))
+                        || !type.equals(f.getType().getTypeName())) {
+                    throw new IOException(cls.getName() + ": field " + type
+                            + " " + name + " of the checkpoint is now "
+                            + f.getType().getTypeName() + " " + fieldName(f));
+                }
+            }
+            if (fields.length > n) {
+                throw new IOException(cls.getName() + ": field "
+                        + fieldName(fields[n]) + " is not in the checkpoint");
+            }
+        }
+
+        /** Read a value.
+         *
+         * @param fresh -- the value in the new simulation at the same place
+         * @return the restored value, fresh itself if it could be reused,
+         * or KEEP for an opaque value
+         */
+        Object readValue(Object fresh) throws IOException,
+                ReflectiveOperationException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case REF:
+                    return objects.get(in.readInt());
+                case STRING: {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    return new String(b, "UTF-8");
+                }
+                case BOXED:
+                    return readBoxed(readClass());
+                case ENUM: {
+                    Class<?> cls = readClass();
+                    String name = in.readUTF();
+                    for (Object c : cls.getEnumConstants()) {
+                        if (((Enum<?>) c).name().equals(name)) {
+                            return c;
+                        }
+                    }
+                    throw new IOException("no constant " + name + " in "
+                            + cls.getName());
+                }
+                case ARRAY:
+                    return readArray(fresh);
+                case LIST:
+                    return readList(fresh);
+                case MAP:
+                    return readMap(fresh);
+                case SERIAL: {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    ObjectInputStream ois = new ObjectInputStream(
+                            new ByteArrayInputStream(b));
+                    Object v = ois.readObject();
+                    ois.close();
+                    register(v);
+                    return v;
+                }
+                case OBJECT:
+                    return readObject(fresh);
+                case OPAQUE:
+                    return KEEP;
+                default:
+                    throw new IOException("bad tag " + tag);
+            }
+        }
+
+        private Object readBoxed(Class<?> cls) throws IOException {
+            if (cls == Double.class) {
+                return in.readDouble();
+            } else if (cls == Float.class) {
+                return in.readFloat();
+            } else if (cls == Long.class) {
+                return in.readLong();
+            } else if (cls == Integer.class) {
+                return in.readInt();
+            } else if (cls == Short.class) {
+                return in.readShort();
+            } else if (cls == Byte.class) {
+                return in.readByte();
+            } else if (cls == Boolean.class) {
+                return in.readBoolean();
+            } else if (cls == Character.class) {
+                return in.readChar();
+            }
+            throw new IOException("cannot restore a " + cls.getName());
+        }
+
+        private Object readArray(Object fresh) throws IOException,
+                ReflectiveOperationException {
+            Class<?> cls = readClass();
+            int n = in.readInt();
+            Object a = fresh;
+            if (!reusable(a, cls) || Array.getLength(a) != n) {
+                a = Array.newInstance(cls.getComponentType(), n);
+            }
+            register(a);
+            Class<?> ct = cls.getComponentType();
+            if (ct == double.class) {
+                double[] x = (double[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readDouble();
+                }
+            } else if (ct == int.class) {
+                int[] x = (int[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readInt();
+                }
+            } else if (ct == long.class) {
+                long[] x = (long[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readLong();
+                }
+            } else if (ct == boolean.class) {
+                boolean[] x = (boolean[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readBoolean();
+                }
+            } else if (ct == float.class) {
+                float[] x = (float[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readFloat();
+                }
+            } else if (ct == byte.class) {
+                in.readFully((byte[]) a);
+            } else if (ct == short.class) {
+                short[] x = (short[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readShort();
+                }
+            } else if (ct == char.class) {
+                char[] x = (char[]) a;
+                for (int i = 0; i < n; i++) {
+                    x[i] = in.readChar();
+                }
+            } else {
+                Object[] x = (Object[]) a;
+                for (int i = 0; i < n; i++) {
+                    Object v = readValue(x[i]);
+                    if (v != KEEP) {
+                        x[i] = v;
+                    }
+                }
+            }
+            return a;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object readList(Object fresh) throws IOException,
+                ReflectiveOperationException {
+            Class<?> cls = readClass();
+            Collection<Object> list;
+            Object[] old;
+            if (reusable(fresh, cls)) {
+                list = (Collection<Object>) fresh;
+                old = list.toArray();
+            } else {
+                list = (Collection<Object>) cls.getDeclaredConstructor()
+                        .newInstance();
+                old = new Object[0];
+            }
+            register(list);
+            int n = in.readInt();
+            Object[] items = new Object[n];
+            for (int i = 0; i < n; i++) {
+                Object prev = i < old.length ? old[i] : null;
+                items[i] = readValue(prev);
+                if (items[i] == KEEP) {
+                    items[i] = prev;
+                }
+            }
+            list.clear();
+            list.addAll(Arrays.asList(items));
+            return list;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object readMap(Object fresh) throws IOException,
+                ReflectiveOperationException {
+            Class<?> cls = readClass();
+            Map<Object, Object> map;
+            if (reusable(fresh, cls)) {
+                map = (Map<Object, Object>) fresh;
+            } else {
+                map = (Map<Object, Object>) cls.getDeclaredConstructor()
+                        .newInstance();
+            }
+            register(map);
+            HashMap<Object, Object> old = new HashMap<Object, Object>(map);
+            map.clear();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Object key = readValue(null);
+                Object prev = old.get(key);
+                Object value = readValue(prev);
+                map.put(key, value == KEEP ? prev : value);
+            }
+            return map;
+        }
+
+        private Object readObject(Object fresh) throws IOException,
+                ReflectiveOperationException {
+            Class<?> cls = readClass();
+            Object v = fresh;
+            if (!reusable(v, cls)) {
+                v = allocate(cls);
+            }
+            register(v);
+            ClassInfo info = getClassInfo(cls);
+            for (Field f : info.fields) {
+                Class<?> t = f.getType();
+                if (t == double.class) {
+                    f.setDouble(v, in.readDouble());
+                } else if (t == int.class) {
+                    f.setInt(v, in.readInt());
+                } else if (t == long.class) {
+                    f.setLong(v, in.readLong());
+                } else if (t == boolean.class) {
+                    f.setBoolean(v, in.readBoolean());
+                } else if (t == float.class) {
+                    f.setFloat(v, in.readFloat());
+                } else if (t == byte.class) {
+                    f.setByte(v, in.readByte());
+                } else if (t == short.class) {
+                    f.setShort(v, in.readShort());
+                } else if (t == char.class) {
+                    f.setChar(v, in.readChar());
+                } else {
+                    Object x = readValue(f.get(v));
+                    if (x != KEEP) {
+                        f.set(v, x);
+                    }
+                }
+            }
+            if (info.hidden) {
+                Object[] state = (v == fresh) ? ((State) v).saveState() : null;
+                ((State) v).restoreState((Object[]) readValue(state));
+            }
+            return v;
+        }
+
+        /** Create an object that is not in the new simulation, without
+         * running a constructor (as deserialization does); all of its state
+         * is then read.  This needs sun.reflect.ReflectionFactory, from the
+         * jdk.unsupported module.
+         */
+        private Object allocate(Class<?> cls) throws IOException,
+                ReflectiveOperationException {
+            if (reflectionFactory == null) {
+                try {
+                    Class<?> rf = Class.forName(
+                            "sun.reflect.ReflectionFactory");
+                    reflectionFactory = rf.getMethod("getReflectionFactory")
+                            .invoke(null);
+                    newConstructor = rf.getMethod(
+                            "newConstructorForSerialization", Class.class,
+                            Constructor.class);
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException("cannot create a " + cls.getName()
+                            + " that the new simulation does not have: "
+                            + "sun.reflect.ReflectionFactory (module "
+                            + "jdk.unsupported) is not available: " + e, e);
+                }
+            }
+            Constructor<?> c = (Constructor<?>) newConstructor.invoke(
+                    reflectionFactory, cls, Object.class
+                            .getDeclaredConstructor());
+            return c.newInstance();
+        }
+    }
+}
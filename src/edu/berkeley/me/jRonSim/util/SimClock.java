@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import TranRunJLite.TrjSys;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/** The calendar time of a simulation, kept as primitive fields so that the
+ * tasks that look at the time of day every few seconds do not have to build
+ * and compute a GregorianCalendar each time.  The date fields and the zone
+ * and DST offsets are computed with a calendar once per local hour; within
+ * the hour the minute, second and millisecond are found by arithmetic on the
+ * epoch time.  This assumes that the offset of the time zone only changes on
+ * the hour, which holds for the zones the simulation is used in.
+ *
+ * The fields follow the Calendar conventions (months from 0, days of the
+ * week from Calendar.SUNDAY), and the time is computed the same way as by
+ * TrjSys.GetCalendar(), so the values are the ones the calendar would give.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public class SimClock {
+
+    private static final long MS_PER_HOUR = 3600000;
+    private final long msStart;  // epoch time at running time 0
+    private final GregorianCalendar cal = new GregorianCalendar();
+    private double t = Double.NaN;
+    private long millis;
+    // The local hour the fields below are valid for
+    private long hourStart = Long.MAX_VALUE;
+    private long hourEnd = Long.MIN_VALUE;
+    private int year;
+    private int month;
+    private int dayOfMonth;
+    private int dayOfWeek;
+    private int dayOfYear;
+    private int hourOfDay;
+    private int zoneOffset;
+    private int dstOffset;
+    // Within the hour
+    private int minute;
+    private int second;
+    private int millisecond;
+
+    /** Construct the clock of a system.
+     *
+     * @param sys
+     */
+    public SimClock(TrjSys sys) {
+        this(sys.GetCalendar(0.0).getTimeInMillis());
+    }
+
+    /** Construct a clock that starts at the specified epoch time.
+     *
+     * @param msStart -- milliseconds since the epoch at running time 0
+     */
+    public SimClock(long msStart) {
+        this.msStart = msStart;
+        at(0.0);
+    }
+
+    /** Get the clock of a system.  Systems derived from ScheduledSys share one
+     * clock between their tasks; other systems get a clock of their own.
+     *
+     * @param sys
+     * @return
+     */
+    public static SimClock of(TrjSys sys) {
+        if (sys instanceof ScheduledSys) {
+            return ((ScheduledSys) sys).getClock();
+        }
+        return new SimClock(sys);
+    }
+
+    /** Move the clock to the specified running time.  This does nothing if
+     * the clock is already there.
+     *
+     * @param t -- running time (sec)
+     * @return this clock
+     */
+    public SimClock at(double t) {
+        if (t == this.t) {
+            return this;
+        }
+        this.t = t;
+        millis = msStart + (long) (t * 1000.0);
+        if (millis < hourStart || millis >= hourEnd) {
+            startHour();
+        }
+        int ms = (int) (millis - hourStart);
+        minute = ms / 60000;
+        ms -= minute * 60000;
+        second = ms / 1000;
+        millisecond = ms - second * 1000;
+        return this;
+    }
+
+    /** Compute the fields that are constant for the local hour that contains
+     * the current time.
+     */
+    private void startHour() {
+        cal.setTimeInMillis(millis);
+        year = cal.get(Calendar.YEAR);
+        month = cal.get(Calendar.MONTH);
+        dayOfMonth = cal.get(Calendar.DAY_OF_MONTH);
+        dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
+        dayOfYear = cal.get(Calendar.DAY_OF_YEAR);
+        hourOfDay = cal.get(Calendar.HOUR_OF_DAY);
+        zoneOffset = cal.get(Calendar.ZONE_OFFSET);
+        dstOffset = cal.get(Calendar.DST_OFFSET);
+        hourStart = millis - ((cal.get(Calendar.MINUTE) * 60
+                + cal.get(Calendar.SECOND)) * 1000
+                + cal.get(Calendar.MILLISECOND));
+        hourEnd = hourStart + MS_PER_HOUR;
+    }
+
+    /** Get the running time the clock is at.
+     *
+     * @return
+     */
+    public double getRunningTime() {
+        return t;
+    }
+
+    /** Get the time in milliseconds since the epoch.
+     *
+     * @return
+     */
+    public long getTimeInMillis() {
+        return millis;
+    }
+
+    /** Get the time in seconds since the epoch.
+     *
+     * @return
+     */
+    public double getEpochSeconds() {
+        return millis / 1000.0;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    /** Get the month, January = 0.
+     *
+     * @return
+     */
+    public int getMonth() {
+        return month;
+    }
+
+    public int getDayOfMonth() {
+        return dayOfMonth;
+    }
+
+    /** Get the day of the week, Calendar.SUNDAY = 1.
+     *
+     * @return
+     */
+    public int getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    public int getDayOfYear() {
+        return dayOfYear;
+    }
+
+    public int getHourOfDay() {
+        return hourOfDay;
+    }
+
+    public int getMinute() {
+        return minute;
+    }
+
+    public int getSecond() {
+        return second;
+    }
+
+    public int getMillisecond() {
+        return millisecond;
+    }
+
+    public int getMinuteOfDay() {
+        return hourOfDay * 60 + minute;
+    }
+
+    public int getSecondOfDay() {
+        return (hourOfDay * 60 + minute) * 60 + second;
+    }
+
+    /** Get the time of day in hours, as Conversion.CalendarToHourOfDay().
+     *
+     * @return
+     */
+    public double getHourOfDayFraction() {
+        double hour = (double) hourOfDay;
+        double min = (double) minute;
+        double sec = (double) second;
+        double ms = (double) millisecond;
+        return hour + min / 60 + (sec + ms / 1000) / 3600;
+    }
+
+    /** Get the offset of the time zone from UTC in milliseconds.
+     *
+     * @return
+     */
+    public int getZoneOffset() {
+        return zoneOffset;
+    }
+
+    /** Get the daylight saving offset in milliseconds.
+     *
+     * @return
+     */
+    public int getDstOffset() {
+        return dstOffset;
+    }
+
+    /** Get a calendar set to the current time, for code that still works on
+     * calendars.  A new calendar is made on each call.
+     *
+     * @return
+     */
+    public GregorianCalendar getCalendar() {
+        GregorianCalendar now = new GregorianCalendar();
+        now.setTimeInMillis(millis);
+        return now;
+    }
+}
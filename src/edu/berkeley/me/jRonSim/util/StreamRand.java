@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+/**
+ * A splittable random number generator. Each instance is one stream of the
+ * SplitMix64 sequence, and split() derives a child stream from the key of its
+ * parent and a stream id. A house generator is therefore split(houseId) of the
+ * master seed and a task generator is split(taskId) of its house, so the draws
+ * of a component only depend on the master seed and its path in the hierarchy,
+ * not on the order in which the components are constructed or run.
+ * 
+ * The state is a plain long, so a stream must only be used by one thread at a
+ * time. Give each thread (or each house) its own stream instead of sharing one.
+ * 
+ * @author William Burke <billstron@gmail.com>
+ */
+public class StreamRand extends BoundedRand {
+
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	private long key;
+	private long state;
+
+	/**
+	 * Construct the master stream from a seed.
+	 * 
+	 * @param seed
+	 */
+	public StreamRand(long seed) {
+		super(0);
+		setSeed(seed);
+	}
+
+	/**
+	 * Construct a child stream with an already mixed key.
+	 * 
+	 * @param key
+	 * @param child
+	 */
+	private StreamRand(long key, boolean child) {
+		super(0);
+		this.key = key;
+		this.state = key;
+	}
+
+	/**
+	 * Get the child stream identified by streamId. Splitting the same stream
+	 * with the same id always gives the same sequence, and does not consume
+	 * any draws of the parent.
+	 * 
+	 * @param streamId
+	 * @return
+	 */
+	@Override
+	public StreamRand split(long streamId) {
+		return new StreamRand(mix64(key ^ mix64(streamId * GOLDEN_GAMMA
+				+ GOLDEN_GAMMA)), true);
+	}
+
+	/**
+	 * Restart the stream from a new seed. This is also called by the
+	 * java.util.Random constructor.
+	 * 
+	 * @param seed
+	 */
+	@Override
+	public void setSeed(long seed) {
+		key = mix64(seed);
+		state = key;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix64(state);
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * The SplitMix64 finalizer.
+	 * 
+	 * @param z
+	 * @return
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
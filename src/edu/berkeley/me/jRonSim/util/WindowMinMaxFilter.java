@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010, Regents of the University of California
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  * Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *  * Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *  * Neither the name of the University of California, Berkeley
+ * nor the names of its contributors may be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ * FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.me.jRonSim.util;
+
+import TranRunJLite.TrjSys;
+import TranRunJLite.TrjTask;
+
+/**Tracks the minimum and maximum of the selected variable over a sliding
+ * window.  Each extreme is kept with a monotone queue of the samples that
+ * can still become the extreme, held in preallocated arrays, so a sample
+ * costs O(1) on average and no allocation.
+ *
+ * @author William Burke <billstron@gmail.com>
+ */
+public abstract class WindowMinMaxFilter extends TrjTask implements
+        ScheduledTask {
+
+    private int windowSize;
+    private long n = 0;  // number of samples so far
+    private MonotoneQueue maxQueue;
+    private MonotoneQueue minQueue;
+
+    /** Get the working variable.  
+     * @return
+     */
+    public abstract double getProcessValue();
+
+    /** Construct the min/max filter.
+     * 
+     * @param name
+     * @param sys
+     * @param startActive
+     * @param dtWindow -- length of the window (s)
+     * @param dt
+     */
+    public WindowMinMaxFilter(String name, TrjSys sys, boolean startActive,
+            double dtWindow, double dt) {
+        super(name, sys, 0 /*Initial State*/, startActive);
+        this.stateNames.add("Filter State (Only)");
+
+        this.dtNominal = dt;
+        this.windowSize = (int) Math.floor(dtWindow / dt);
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("dtWindow is shorter than dt");
+        }
+        maxQueue = new MonotoneQueue(windowSize, 1);
+        minQueue = new MonotoneQueue(windowSize, -1);
+    }
+
+    /** Get the largest value in the window, or NaN before the first sample.
+     * 
+     * @return
+     */
+    public double getMax() {
+        return maxQueue.getFirst();
+    }
+
+    /** Get the smallest value in the window, or NaN before the first sample.
+     * 
+     * @return
+     */
+    public double getMin() {
+        return minQueue.getFirst();
+    }
+
+    /** Check to see if this task is ready to run
+     * @param sys The system in which this task is embedded
+     * @return "true" if this task is ready to run
+     */
+    public boolean RunTaskNow(TrjSys sys) {
+        return CheckTime(sys.GetRunningTime());
+    }
+
+    public double getNextRunTime() {
+        return tNext;
+    }
+
+    /** Apply the filter.  
+     * 
+     * @param sys
+     * @return
+     */
+    @Override
+    public boolean RunTask(TrjSys sys) {
+        double y = getProcessValue();
+        maxQueue.add(n, y, n - windowSize);
+        minQueue.add(n, y, n - windowSize);
+        n++;
+        return false;
+    }
+
+    /** The samples of the window that are larger (sign 1) or smaller (sign
+     * -1) than every later sample, oldest first, in a ring buffer.
+     */
+    private static class MonotoneQueue {
+
+        private final long[] index;
+        private final double[] value;
+        private final double sign;
+        private int first = 0;
+        private int size = 0;
+
+        MonotoneQueue(int capacity, double sign) {
+            index = new long[capacity];
+            value = new double[capacity];
+            this.sign = sign;
+        }
+
+        /** Add a sample, and drop the samples at or before expired.
+         */
+        void add(long i, double y, long expired) {
+            // samples beaten by the new one can never be the extreme again
+            while (size > 0
+                    && sign * value[slot(size - 1)] <= sign * y) {
+                size--;
+            }
+            while (size > 0 && index[first] <= expired) {
+                first = (first + 1) % index.length;
+                size--;
+            }
+            int k = slot(size);
+            index[k] = i;
+            value[k] = y;
+            size++;
+        }
+
+        double getFirst() {
+            return size > 0 ? value[first] : Double.NaN;
+        }
+
+        private int slot(int k) {
+            return (first + k) % index.length;
+        }
+    }
+}